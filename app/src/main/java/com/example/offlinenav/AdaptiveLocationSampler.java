@@ -0,0 +1,362 @@
+/**
+ * AdaptiveLocationSampler - Speed and route aware location update controller
+ *
+ * Owns the GPS and NETWORK provider registrations for the navigation screen and
+ * re-registers them with a sampling tier picked from the current situation:
+ * - Stationary device without a route: long interval, NETWORK provider only
+ * - No active route: relaxed interval and distance filter
+ * - Active route: interval shrinks with speed and as the next maneuver approaches;
+ *   standing still on a route keeps GPS at the slow route tier
+ *
+ * The NETWORK provider is dropped while GPS delivers accurate fixes and
+ * re-added when GPS goes quiet. Wakeups (listener callbacks) and fixes
+ * (callbacks forwarded to the app) are counted so the savings can be measured.
+ */
+package com.example.offlinenav;
+
+import android.annotation.SuppressLint;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+public class AdaptiveLocationSampler implements LocationListener {
+
+    /**
+     * Sampling tiers, from most to least aggressive
+     *
+     * Each tier is a (min time, min distance) pair passed to
+     * LocationManager.requestLocationUpdates.
+     */
+    public enum Tier {
+        MANEUVER(1000, 0),      // Approaching a turn: every second
+        ROUTE_FAST(2000, 10),   // Following a route at speed
+        ROUTE_SLOW(4000, 10),   // Following a route in traffic or on foot
+        FREE(10000, 25),        // Moving without a route
+        STATIONARY(60000, 50);  // Parked or standing still
+
+        final long minTimeMs;
+        final float minDistanceM;
+
+        Tier(long minTimeMs, float minDistanceM) {
+            this.minTimeMs = minTimeMs;
+            this.minDistanceM = minDistanceM;
+        }
+    }
+
+    // Tier selection thresholds
+    private static final float STATIONARY_SPEED_MPS = 0.5f;        // Below this the device counts as still
+    private static final long STATIONARY_AFTER_MS = 90_000;        // Still for this long => STATIONARY (no route)
+    private static final float FAST_SPEED_MPS = 8.0f;              // ~30 km/h
+    private static final double MANEUVER_DISTANCE_M = 300;         // Sample every second inside this radius
+    private static final double MANEUVER_LOOKAHEAD_S = 20;         // ... or when the turn is this close in time
+
+    // NETWORK provider management
+    private static final float GOOD_GPS_ACCURACY_M = 25f;          // GPS this accurate makes NETWORK redundant
+    private static final long GPS_SILENCE_FLOOR_MS = 20_000;       // Minimum wait before GPS counts as lost
+
+    private final LocationManager locationManager;
+    private final LocationListener downstream;                     // Receives the fixes we keep
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Inputs from the navigation screen
+    private boolean routeActive = false;
+    private double distanceToManeuverM = Double.NaN;
+
+    // Current registration state
+    private boolean running = false;
+    private Tier tier = null;
+    private boolean networkRegistered = false;
+
+    // Motion tracking
+    private long lastMovingAtMs;
+    private float lastSpeedMps = 0f;
+    private long lastGpsFixAtMs = 0;
+    private Location lastGpsFix = null;
+    private Location lastFix = null;      // Last fix from any provider, for speed estimates
+
+    // Statistics
+    private long startedAtMs;
+    private long wakeups = 0;             // Every provider callback
+    private long fixes = 0;               // Callbacks forwarded downstream
+    private long reRegistrations = 0;     // Tier or provider changes
+    private final long[] tierTimeMs = new long[Tier.values().length];
+    private long tierSinceMs;
+
+    public AdaptiveLocationSampler(LocationManager locationManager, LocationListener downstream) {
+        this.locationManager = locationManager;
+        this.downstream = downstream;
+    }
+
+    /**
+     * Start sampling with the free-movement tier
+     *
+     * Caller must hold ACCESS_FINE_LOCATION.
+     */
+    public void start() {
+        if (running) return;
+        running = true;
+        long now = SystemClock.elapsedRealtime();
+        startedAtMs = now;
+        tierSinceMs = now;
+        lastMovingAtMs = now;
+        applyTier(Tier.FREE, true);
+        handler.postDelayed(gpsWatchdog, GPS_SILENCE_FLOOR_MS);
+    }
+
+    /**
+     * Remove all provider registrations
+     */
+    public void stop() {
+        if (!running) return;
+        running = false;
+        handler.removeCallbacks(gpsWatchdog);
+        accountTierTime(SystemClock.elapsedRealtime());
+        locationManager.removeUpdates(this);
+        networkRegistered = false;
+        tier = null;
+    }
+
+    /**
+     * Tell the sampler whether a route is currently being followed
+     */
+    public void setRouteActive(boolean active) {
+        if (routeActive == active) return;
+        routeActive = active;
+        if (!active) distanceToManeuverM = Double.NaN;
+        reevaluate();
+    }
+
+    /**
+     * Update the distance to the next maneuver, or NaN when unknown
+     */
+    public void setDistanceToNextManeuver(double meters) {
+        distanceToManeuverM = meters;
+        reevaluate();
+    }
+
+    public Tier getTier() {
+        return tier;
+    }
+
+    @Override
+    public void onLocationChanged(@NonNull Location location) {
+        wakeups++;
+        long now = SystemClock.elapsedRealtime();
+        boolean fromGps = LocationManager.GPS_PROVIDER.equals(location.getProvider());
+
+        if (fromGps) {
+            lastGpsFixAtMs = now;
+            lastGpsFix = location;
+        } else if (lastGpsFix != null && now - lastGpsFixAtMs < gpsSilenceMs()) {
+            // A fresh GPS fix is better than any network fix; swallow this one
+            updateNetworkRegistration();
+            return;
+        }
+
+        float speed = location.hasSpeed() ? location.getSpeed() : estimateSpeed(location);
+        lastSpeedMps = speed;
+        lastFix = location;
+        if (speed >= STATIONARY_SPEED_MPS) {
+            lastMovingAtMs = now;
+        }
+
+        fixes++;
+        downstream.onLocationChanged(location);
+        reevaluate();
+    }
+
+    @Override
+    public void onStatusChanged(String provider, int status, Bundle extras) {
+        downstream.onStatusChanged(provider, status, extras);
+    }
+
+    @Override
+    public void onProviderEnabled(@NonNull String provider) {
+        // Provider availability changes which registrations the tier needs
+        if (running && tier != null) applyTier(tier, false);
+        downstream.onProviderEnabled(provider);
+    }
+
+    @Override
+    public void onProviderDisabled(@NonNull String provider) {
+        if (running && tier != null) applyTier(tier, false);
+        downstream.onProviderDisabled(provider);
+    }
+
+    /**
+     * Summary of wakeups and fixes per hour since start()
+     *
+     * @return Human-readable one-paragraph report
+     */
+    public String getStatsSummary() {
+        long now = SystemClock.elapsedRealtime();
+        double hours = Math.max(1, now - startedAtMs) / 3_600_000.0;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "Location: %.0f wakeups/h, %.0f fixes/h, %d re-registrations",
+                wakeups / hours, fixes / hours, reRegistrations));
+        long[] times = tierTimeMs.clone();
+        if (running && tier != null) {
+            times[tier.ordinal()] += now - tierSinceMs;
+        }
+        for (Tier t : Tier.values()) {
+            if (times[t.ordinal()] > 0) {
+                sb.append(String.format(Locale.US, "\n  %s: %ds", t.name(), times[t.ordinal()] / 1000));
+            }
+        }
+        return sb.toString();
+    }
+
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    public long getFixes() {
+        return fixes;
+    }
+
+    /**
+     * Pick a tier for the current inputs and re-register if it changed
+     */
+    private void reevaluate() {
+        if (!running) return;
+        long now = SystemClock.elapsedRealtime();
+        Tier next = selectTier(routeActive, lastSpeedMps, now - lastMovingAtMs, distanceToManeuverM);
+        if (next != tier) {
+            applyTier(next, false);
+        } else {
+            updateNetworkRegistration();
+        }
+    }
+
+    /**
+     * Pure tier selection policy
+     *
+     * @param routeActive Whether a route is being followed
+     * @param speedMps Latest speed in meters per second
+     * @param stillForMs How long the device has been below the stationary speed
+     * @param distanceToManeuverM Distance to the next maneuver, NaN if unknown
+     * @return Sampling tier to use
+     */
+    static Tier selectTier(boolean routeActive, float speedMps, long stillForMs, double distanceToManeuverM) {
+        if (!routeActive) {
+            return stillForMs >= STATIONARY_AFTER_MS ? Tier.STATIONARY : Tier.FREE;
+        }
+        if (stillForMs >= STATIONARY_AFTER_MS) {
+            // Waiting at a light or in a jam: stay on GPS so guidance sees the car pull away
+            return Tier.ROUTE_SLOW;
+        }
+        if (!Double.isNaN(distanceToManeuverM)) {
+            double secondsToManeuver = speedMps > 0.1f ? distanceToManeuverM / speedMps : Double.POSITIVE_INFINITY;
+            if (distanceToManeuverM <= MANEUVER_DISTANCE_M || secondsToManeuver <= MANEUVER_LOOKAHEAD_S) {
+                return Tier.MANEUVER;
+            }
+        }
+        return speedMps >= FAST_SPEED_MPS ? Tier.ROUTE_FAST : Tier.ROUTE_SLOW;
+    }
+
+    @SuppressLint("MissingPermission")
+    private void applyTier(Tier next, boolean initial) {
+        long now = SystemClock.elapsedRealtime();
+        if (!initial) {
+            accountTierTime(now);
+            reRegistrations++;
+        }
+        tier = next;
+        tierSinceMs = now;
+
+        // Re-registering the same listener replaces the previous request
+        locationManager.removeUpdates(this);
+        networkRegistered = false;
+        if (usesGps(next)) {
+            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, next.minTimeMs, next.minDistanceM, this);
+        } else {
+            // Stationary: coarse network position is enough to notice movement
+            lastGpsFix = null;
+        }
+        updateNetworkRegistration();
+    }
+
+    /**
+     * Add or remove the NETWORK provider depending on GPS quality
+     */
+    @SuppressLint("MissingPermission")
+    private void updateNetworkRegistration() {
+        if (!running || tier == null) return;
+        long now = SystemClock.elapsedRealtime();
+        boolean gpsGood = lastGpsFix != null
+                && now - lastGpsFixAtMs < gpsSilenceMs()
+                && lastGpsFix.hasAccuracy()
+                && lastGpsFix.getAccuracy() <= GOOD_GPS_ACCURACY_M;
+        boolean wantNetwork = (!gpsGood || !usesGps(tier))
+                && locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+
+        if (wantNetwork && !networkRegistered) {
+            locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER,
+                    tier.minTimeMs, tier.minDistanceM, this);
+            networkRegistered = true;
+            reRegistrations++;
+        } else if (!wantNetwork && networkRegistered) {
+            // removeUpdates drops every provider for this listener; put GPS back
+            locationManager.removeUpdates(this);
+            networkRegistered = false;
+            reRegistrations++;
+            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER,
+                    tier.minTimeMs, tier.minDistanceM, this);
+        }
+    }
+
+    /**
+     * Periodically re-enable NETWORK if GPS has stopped delivering
+     */
+    private final Runnable gpsWatchdog = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) return;
+            long now = SystemClock.elapsedRealtime();
+            if (lastGpsFix != null && now - lastGpsFixAtMs >= gpsSilenceMs()) {
+                lastGpsFix = null;
+            }
+            // Time alone can move a still device into STATIONARY
+            reevaluate();
+            handler.postDelayed(this, gpsSilenceMs());
+        }
+    };
+
+    /**
+     * Whether GPS should be registered for a tier
+     *
+     * STATIONARY relies on NETWORK alone, unless NETWORK is unavailable and
+     * GPS is the only way to notice the device moving again.
+     */
+    private boolean usesGps(Tier t) {
+        if (!locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) return false;
+        return t != Tier.STATIONARY || !locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+    }
+
+    private long gpsSilenceMs() {
+        long interval = tier != null ? tier.minTimeMs : Tier.FREE.minTimeMs;
+        return Math.max(GPS_SILENCE_FLOOR_MS, interval * 3);
+    }
+
+    private float estimateSpeed(Location location) {
+        if (lastFix == null || lastFix == location) return lastSpeedMps;
+        long dtMs = (location.getElapsedRealtimeNanos() - lastFix.getElapsedRealtimeNanos()) / 1_000_000;
+        if (dtMs <= 0) return lastSpeedMps;
+        return location.distanceTo(lastFix) / (dtMs / 1000f);
+    }
+
+    private void accountTierTime(long now) {
+        if (tier != null) {
+            tierTimeMs[tier.ordinal()] += now - tierSinceMs;
+        }
+        tierSinceMs = now;
+    }
+}
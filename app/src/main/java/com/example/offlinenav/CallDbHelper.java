@@ -4,18 +4,26 @@
  * Manages the local database that stores call history for the support call feature.
  * Each call record includes contact name, phone number, and timestamp.
  * Used by SupportCallActivity to maintain a log of emergency/support calls.
+ *
+ * Writes go through CallLogRepository. A per-number summary table is kept
+ * in step with the calls table by triggers, so "most called" reads a few
+ * rows instead of grouping the whole history.
  */
 package com.example.offlinenav;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class CallDbHelper extends SQLiteOpenHelper {
 
     // Database configuration constants
     public static final String DB_NAME = "calls.db";           // Database filename
-    public static final int DB_VERSION = 1;                    // Database version
+    public static final int DB_VERSION = 3;                    // Database version (2: index + summary, 3: NULL-safe summary)
     public static final String TABLE_NAME = "calls";           // Table name
 
     // Column names for the calls table
@@ -24,32 +32,144 @@ public class CallDbHelper extends SQLiteOpenHelper {
     public static final String COL_NUMBER = "number";          // Phone number
     public static final String COL_TIMESTAMP = "timestamp";    // Call timestamp (milliseconds)
 
+    // Per-number summary table, maintained by triggers on the calls table
+    public static final String STATS_TABLE = "call_stats";
+    public static final String COL_CALL_COUNT = "call_count";  // Calls to this number still in the log
+    public static final String COL_LAST_CALLED = "last_called"; // Latest call timestamp (milliseconds)
+
+    private static final String INDEX_TIMESTAMP = "idx_calls_timestamp";
+    private static final String INDEX_CALL_COUNT = "idx_call_stats_count";
+    private static final String STATS_KEY = "COALESCE(" + COL_NUMBER + ", '')";   // Summary key, NULL never compares equal
+
+    private static final String[] RECORD_COLUMNS = {COL_ID, COL_NAME, COL_NUMBER, COL_TIMESTAMP};
+
     public CallDbHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
     }
 
+    /**
+     * Per-connection tuning (page cache, statement cache), see DataLayer
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        DataLayer.configure(db);
+    }
+
     /**
      * Create the calls table when database is first created
      *
      * Defines the schema for storing call history with auto-incrementing ID,
-     * contact name, phone number, and timestamp fields.
+     * contact name, phone number, and timestamp fields, plus the timestamp
+     * index and the per-number summary.
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
         String sql = "CREATE TABLE " + TABLE_NAME + " (" + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + COL_NAME + " TEXT, " + COL_NUMBER + " TEXT, " + COL_TIMESTAMP + " INTEGER" + ")";
         db.execSQL(sql);
+        createIndexAndSummary(db);
     }
 
     /**
      * Handle database schema upgrades
      *
-     * For version upgrades, drops the existing table and recreates it.
-     * In a production app, this would handle migrations more gracefully.
+     * Migrates step by step from the installed version, keeping the
+     * existing call history. Runs inside the upgrade transaction.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
-        onCreate(db);
+        if (oldVersion < 2) {
+            // v2: timestamp index and summary table, backfilled from the history
+            createIndexAndSummary(db);
+            backfillSummary(db);
+        } else if (oldVersion < 3) {
+            // v3: calls without a number are summarized under '' (NULL never matched the triggers)
+            db.execSQL("DROP TRIGGER IF EXISTS calls_stats_ai");
+            db.execSQL("DROP TRIGGER IF EXISTS calls_stats_ad");
+            createSummaryTriggers(db);
+            db.execSQL("DELETE FROM " + STATS_TABLE);
+            backfillSummary(db);
+        }
+    }
+
+    /**
+     * Rebuild call_stats from the calls table
+     */
+    private static void backfillSummary(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + STATS_TABLE + " (" + COL_NUMBER + ", " + COL_NAME + ", "
+                + COL_CALL_COUNT + ", " + COL_LAST_CALLED + ") SELECT " + STATS_KEY + ", MAX("
+                + COL_NAME + "), COUNT(*), MAX(" + COL_TIMESTAMP + ") FROM " + TABLE_NAME
+                + " GROUP BY " + STATS_KEY);
+    }
+
+    /**
+     * Timestamp index (paging and retention) and the per-number summary table
+     *
+     * The triggers keep call_stats exact for every insert and delete,
+     * including retention deletes, without UPSERT (not available in the
+     * SQLite of older Android versions): insert a zero row if the number is
+     * new, then update it.
+     */
+    private static void createIndexAndSummary(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_TIMESTAMP + " ON " + TABLE_NAME
+                + "(" + COL_TIMESTAMP + ", " + COL_ID + ")");
+        db.execSQL("CREATE TABLE " + STATS_TABLE + " (" + COL_NUMBER + " TEXT PRIMARY KEY, "
+                + COL_NAME + " TEXT, " + COL_CALL_COUNT + " INTEGER NOT NULL, "
+                + COL_LAST_CALLED + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX " + INDEX_CALL_COUNT + " ON " + STATS_TABLE + "(" + COL_CALL_COUNT + ")");
+        createSummaryTriggers(db);
+    }
+
+    /**
+     * Triggers keeping call_stats in step with inserts and deletes on calls
+     *
+     * Calls without a number are counted under '' so they still match.
+     */
+    private static void createSummaryTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER calls_stats_ai AFTER INSERT ON " + TABLE_NAME + " BEGIN "
+                + "INSERT OR IGNORE INTO " + STATS_TABLE + " VALUES(COALESCE(new." + COL_NUMBER
+                + ", ''), new." + COL_NAME + ", 0, 0); "
+                + "UPDATE " + STATS_TABLE + " SET " + COL_CALL_COUNT + " = " + COL_CALL_COUNT + " + 1, "
+                + COL_LAST_CALLED + " = MAX(" + COL_LAST_CALLED + ", new." + COL_TIMESTAMP + "), "
+                + COL_NAME + " = COALESCE(NULLIF(new." + COL_NAME + ", ''), " + COL_NAME + ") "
+                + "WHERE " + COL_NUMBER + " = COALESCE(new." + COL_NUMBER + ", ''); END");
+        db.execSQL("CREATE TRIGGER calls_stats_ad AFTER DELETE ON " + TABLE_NAME + " BEGIN "
+                + "UPDATE " + STATS_TABLE + " SET " + COL_CALL_COUNT + " = " + COL_CALL_COUNT + " - 1 "
+                + "WHERE " + COL_NUMBER + " = COALESCE(old." + COL_NUMBER + ", ''); "
+                + "DELETE FROM " + STATS_TABLE + " WHERE " + COL_NUMBER + " = COALESCE(old." + COL_NUMBER + ", '')"
+                + " AND " + COL_CALL_COUNT + " <= 0; END");
+    }
+
+    /**
+     * One page of the call history, newest first
+     *
+     * Keyset pagination: continues strictly after the given call in
+     * (timestamp DESC, _id DESC) order instead of using OFFSET, so deep
+     * pages don't re-read the rows before them.
+     *
+     * @param after Last call of the previous page, or null for the first page
+     * @param limit Page size
+     */
+    public static List<CallRecord> queryPage(SQLiteDatabase db, CallRecord after, int limit) {
+        String where = null;
+        String[] args = null;
+        if (after != null) {
+            where = COL_TIMESTAMP + " < ? OR (" + COL_TIMESTAMP + " = ? AND " + COL_ID + " < ?)";
+            String ts = String.valueOf(after.timestamp);
+            args = new String[]{ts, ts, String.valueOf(after.id)};
+        }
+        List<CallRecord> result = new ArrayList<>(limit);
+        try (Cursor c = db.query(TABLE_NAME, RECORD_COLUMNS, where, args, null, null,
+                COL_TIMESTAMP + " DESC, " + COL_ID + " DESC", String.valueOf(limit))) {
+            while (c.moveToNext()) {
+                CallRecord r = new CallRecord();
+                r.id = c.getLong(0);
+                r.name = c.getString(1);
+                r.number = c.getString(2);
+                r.timestamp = c.getLong(3);
+                result.add(r);
+            }
+        }
+        return result;
     }
 }
@@ -0,0 +1,293 @@
+/**
+ * CallLogRepository - Asynchronous, batched access to the call history
+ *
+ * All writes go through the DataLayer writer thread. logCall() only queues
+ * the call and returns, so the caller can launch the dialer immediately.
+ * The writer drains everything queued so far into a single transaction with
+ * a precompiled insert, then enforces the retention policy a bounded chunk
+ * at a time, so trimming a long history never stalls one write.
+ *
+ * Aggregates such as the most called numbers come from the call_stats
+ * summary table that CallDbHelper's triggers keep in step with the log.
+ */
+package com.example.offlinenav;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CallLogRepository {
+
+    private static final String TAG = "CallLogRepository";
+
+    // Default retention policy
+    public static final int DEFAULT_MAX_ROWS = 5000;                             // Calls kept
+    public static final long DEFAULT_MAX_AGE_MS = 365L * 24 * 60 * 60 * 1000;    // One year
+    private static final int RETENTION_CHUNK = 200;                              // Rows deleted per pass
+
+    /**
+     * Calls to one number, from the summary table
+     */
+    public static class NumberStats {
+        public String number;          // Phone number
+        public String name;            // Latest non-empty contact name, may be null
+        public int callCount;          // Calls still in the log
+        public long lastCalled;        // Latest call time in milliseconds since epoch
+    }
+
+    /**
+     * Notified on the main thread after queued calls have been committed
+     */
+    public interface ChangeListener {
+        void onCallsChanged();
+    }
+
+    private static CallLogRepository instance;
+
+    private final DataLayer data;
+    private final CallDbHelper dbHelper;
+    private final Executor writer;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ConcurrentLinkedQueue<CallRecord> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile int maxRows = DEFAULT_MAX_ROWS;
+    private volatile long maxAgeMs = DEFAULT_MAX_AGE_MS;
+
+    private SQLiteStatement insertStatement;      // Writer thread only
+
+    private CallLogRepository(Context context) {
+        data = DataLayer.get(context);
+        dbHelper = data.calls();
+        writer = data.writeExecutor();
+    }
+
+    public static synchronized CallLogRepository get(Context context) {
+        if (instance == null) {
+            instance = new CallLogRepository(context);
+        }
+        return instance;
+    }
+
+    public CallDbHelper getDbHelper() {
+        return dbHelper;
+    }
+
+    /**
+     * Change the retention policy; it is enforced on the next write
+     *
+     * @param maxRows Calls to keep, 0 for no limit
+     * @param maxAgeMs Maximum call age, 0 for no limit
+     */
+    public void setRetention(int maxRows, long maxAgeMs) {
+        this.maxRows = maxRows;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    public void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queue a call for the background writer and return immediately
+     *
+     * @param name Contact name (may be empty)
+     * @param number Phone number
+     * @param timestamp Call time in milliseconds since epoch
+     */
+    public void logCall(String name, String number, long timestamp) {
+        CallRecord call = new CallRecord();
+        call.name = name;
+        call.number = number;
+        call.timestamp = timestamp;
+        pending.add(call);
+        if (drainScheduled.compareAndSet(false, true)) {
+            writer.execute(drainTask);
+        }
+    }
+
+    /**
+     * Writer task: commit every queued call in one transaction, then trim
+     *
+     * Runs on the writer executor directly, outside DataLayer's guard, so
+     * every database error is caught here. If opening the database or the
+     * transaction fails the batch is put back in the queue, so the next
+     * logged call retries it.
+     */
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainScheduled.set(false);  // Calls queued from now on schedule another drain
+            if (pending.isEmpty()) return;
+            List<CallRecord> batch = new ArrayList<>();
+            boolean trimmedAll = true;
+            try {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                if (insertStatement == null) {
+                    insertStatement = db.compileStatement("INSERT INTO " + CallDbHelper.TABLE_NAME + " ("
+                            + CallDbHelper.COL_NAME + ", " + CallDbHelper.COL_NUMBER + ", "
+                            + CallDbHelper.COL_TIMESTAMP + ") VALUES (?, ?, ?)");
+                }
+                db.beginTransaction();
+                try {
+                    CallRecord call;
+                    while ((call = pending.poll()) != null) {
+                        batch.add(call);
+                        bindNullable(insertStatement, 1, call.name);
+                        bindNullable(insertStatement, 2, call.number);
+                        insertStatement.bindLong(3, call.timestamp);
+                        insertStatement.executeInsert();
+                    }
+                    trimmedAll = enforceRetention(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                Log.d(TAG, "Committed " + batch.size() + " calls");
+            } catch (RuntimeException e) {  // SQLiteException, or a database closed under us
+                Log.w(TAG, "Could not commit " + batch.size() + " calls, keeping them queued", e);
+                pending.addAll(batch);
+                trimmedAll = true;
+            }
+            if (!trimmedAll) writer.execute(trimTask);
+            notifyChanged();
+        }
+    };
+
+    /**
+     * Writer task: continue trimming a history that exceeded the policy by
+     * more than one chunk, one short transaction per chunk
+     *
+     * A failed chunk is logged and trimming stops; the next drain resumes it.
+     */
+    private final Runnable trimTask = new Runnable() {
+        @Override
+        public void run() {
+            boolean trimmedAll = true;
+            try {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    trimmedAll = enforceRetention(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Could not trim the call history", e);
+                trimmedAll = true;
+            }
+            if (!trimmedAll) writer.execute(trimTask);
+            notifyChanged();
+        }
+    };
+
+    /**
+     * Delete at most RETENTION_CHUNK of the oldest calls that violate the policy
+     *
+     * Both checks walk the timestamp index from the oldest end, so a pass
+     * costs the rows it deletes rather than the size of the log.
+     *
+     * @return True if the log now satisfies the policy
+     */
+    private boolean enforceRetention(SQLiteDatabase db) {
+        int budget = RETENTION_CHUNK;
+        long ageLimit = maxAgeMs;
+        if (ageLimit > 0) {
+            long cutoff = System.currentTimeMillis() - ageLimit;
+            budget -= deleteOldest(db, CallDbHelper.COL_TIMESTAMP + " < " + cutoff, budget);
+        }
+        int rowLimit = maxRows;
+        if (rowLimit > 0 && budget > 0) {
+            long excess = countCalls(db) - rowLimit;
+            if (excess > 0) budget -= deleteOldest(db, null, (int) Math.min(excess, budget));
+        }
+        return budget > 0;
+    }
+
+    private static int deleteOldest(SQLiteDatabase db, String where, int limit) {
+        String oldest = "SELECT " + CallDbHelper.COL_ID + " FROM " + CallDbHelper.TABLE_NAME
+                + (where != null ? " WHERE " + where : "")
+                + " ORDER BY " + CallDbHelper.COL_TIMESTAMP + ", " + CallDbHelper.COL_ID + " LIMIT " + limit;
+        return db.delete(CallDbHelper.TABLE_NAME, CallDbHelper.COL_ID + " IN (" + oldest + ")", null);
+    }
+
+    /**
+     * Row count from the summary table (one row per number, not per call)
+     */
+    private static long countCalls(SQLiteDatabase db) {
+        try (Cursor c = db.rawQuery("SELECT TOTAL(" + CallDbHelper.COL_CALL_COUNT + ") FROM "
+                + CallDbHelper.STATS_TABLE, null)) {
+            return c.moveToFirst() ? (long) c.getDouble(0) : 0;
+        }
+    }
+
+    /**
+     * The numbers called most often, from the summary table
+     *
+     * @param limit Maximum numbers to return
+     * @param callback Receives the numbers, most called first, on the main thread
+     */
+    public void mostCalled(final int limit, DataLayer.Callback<List<NumberStats>> callback) {
+        data.read(new DataLayer.Task<List<NumberStats>>() {
+            @Override
+            public List<NumberStats> run() {
+                return queryMostCalled(dbHelper.getReadableDatabase(), limit);
+            }
+        }, callback);
+    }
+
+    static List<NumberStats> queryMostCalled(SQLiteDatabase db, int limit) {
+        List<NumberStats> result = new ArrayList<>(limit);
+        try (Cursor c = db.query(CallDbHelper.STATS_TABLE,
+                new String[]{CallDbHelper.COL_NUMBER, CallDbHelper.COL_NAME,
+                        CallDbHelper.COL_CALL_COUNT, CallDbHelper.COL_LAST_CALLED},
+                null, null, null, null,
+                CallDbHelper.COL_CALL_COUNT + " DESC, " + CallDbHelper.COL_LAST_CALLED + " DESC",
+                String.valueOf(limit))) {
+            while (c.moveToNext()) {
+                NumberStats s = new NumberStats();
+                s.number = c.getString(0);
+                s.name = c.getString(1);
+                s.callCount = c.getInt(2);
+                s.lastCalled = c.getLong(3);
+                result.add(s);
+            }
+        }
+        return result;
+    }
+
+    private void notifyChanged() {
+        if (listeners.isEmpty()) return;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (ChangeListener l : listeners) l.onCallsChanged();
+            }
+        });
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
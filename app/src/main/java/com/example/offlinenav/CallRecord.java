@@ -14,4 +14,13 @@ public class CallRecord {
     public String name;       // Contact name (can be null for anonymous calls)
     public String number;     // Phone number called
     public long timestamp;    // Call time in milliseconds since epoch
+
+    /**
+     * Same stored row with the same displayed content (for list diffing)
+     */
+    public boolean sameContent(CallRecord other) {
+        return id == other.id && timestamp == other.timestamp
+                && (name == null ? other.name == null : name.equals(other.name))
+                && (number == null ? other.number == null : number.equals(other.number));
+    }
 }
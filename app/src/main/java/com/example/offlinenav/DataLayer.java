@@ -0,0 +1,165 @@
+/**
+ * DataLayer - Process-wide access to the app's SQLite databases
+ *
+ * Opens favorites.db and calls.db once per process in write-ahead-log mode
+ * (readers never wait for the writer) and hands out:
+ * - a small pool of reader threads for queries
+ * - one writer thread, so every write is serialized and never contends
+ *   with another write for the database lock
+ * Results are delivered to a Callback on the main thread, so activities
+ * never touch the disk themselves.
+ */
+package com.example.offlinenav;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DataLayer {
+
+    private static final String TAG = "DataLayer";
+    private static final int READER_THREADS = 3;                 // Concurrent readers (WAL allows them)
+    static final int CACHE_SIZE_KIB = 2048;                      // Page cache per connection
+    static final int STATEMENT_CACHE_SIZE = 50;                  // Compiled statements kept per connection
+
+    private static final Metrics.Histogram READ_TIME = Metrics.histogram("db.read");
+    private static final Metrics.Histogram WRITE_TIME = Metrics.histogram("db.write");
+    private static final Metrics.Counter FAILED = Metrics.counter("db.failed");
+
+    /**
+     * Work run on a reader or the writer thread
+     */
+    public interface Task<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Receives a result on the main thread
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private static DataLayer instance;
+
+    private final FavoritesDbHelper favorites;
+    private final CallDbHelper calls;
+    private final ExecutorService readers = Executors.newFixedThreadPool(READER_THREADS, namedThreads("db-read"));
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(namedThreads("db-write"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private DataLayer(Context context) {
+        Context app = context.getApplicationContext();
+        favorites = new FavoritesDbHelper(app);
+        calls = new CallDbHelper(app);
+        // Must be set before the first connection is opened
+        favorites.setWriteAheadLoggingEnabled(true);
+        calls.setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * The shared instance. Creating it does no disk I/O; the databases open
+     * lazily on the first reader or writer task.
+     */
+    public static synchronized DataLayer get(Context context) {
+        if (instance == null) {
+            instance = new DataLayer(context);
+        }
+        return instance;
+    }
+
+    public FavoritesDbHelper favorites() {
+        return favorites;
+    }
+
+    public CallDbHelper calls() {
+        return calls;
+    }
+
+    /**
+     * Executor for queries (several run in parallel)
+     */
+    public Executor readExecutor() {
+        return readers;
+    }
+
+    /**
+     * Executor for writes (one at a time, in submission order)
+     */
+    public Executor writeExecutor() {
+        return writer;
+    }
+
+    /**
+     * Run a query on a reader thread and deliver its result on the main thread
+     *
+     * @param callback May be null; not called if the task throws
+     */
+    public <T> void read(Task<T> task, Callback<T> callback) {
+        submit(readers, READ_TIME, task, callback);
+    }
+
+    /**
+     * Run a write on the writer thread and deliver its result on the main thread
+     *
+     * @param callback May be null; not called if the task throws
+     */
+    public <T> void write(Task<T> task, Callback<T> callback) {
+        submit(writer, WRITE_TIME, task, callback);
+    }
+
+    private <T> void submit(Executor executor, final Metrics.Histogram time, final Task<T> task,
+                            final Callback<T> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final T result;
+                long t0 = Metrics.start();
+                try {
+                    result = task.run();
+                } catch (Exception e) {
+                    FAILED.inc();
+                    Log.e(TAG, "Database task failed", e);
+                    return;
+                }
+                time.stop(t0);
+                if (callback == null) return;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Connection tuning shared by both helpers, called from onConfigure()
+     */
+    static void configure(SQLiteDatabase db) {
+        db.execSQL("PRAGMA cache_size = -" + CACHE_SIZE_KIB);
+        db.setMaxSqlCacheSize(STATEMENT_CACHE_SIZE);
+    }
+
+    private static ThreadFactory namedThreads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            }
+        };
+    }
+}
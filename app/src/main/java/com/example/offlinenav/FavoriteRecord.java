@@ -0,0 +1,37 @@
+/**
+ * FavoriteRecord - Data model for a saved favorite location
+ *
+ * Simple POJO mirroring a row of the favorites table, used where results
+ * are produced in Java rather than straight from a Cursor (e.g. spatial
+ * queries sorted by distance, paged lists).
+ */
+package com.example.offlinenav;
+
+public class FavoriteRecord {
+
+    // Database fields matching FavoritesDbHelper table schema
+    public long id;              // Unique identifier (primary key)
+    public String name;          // Location name
+    public String address;       // Human-readable address
+    public double latitude;      // Latitude coordinate
+    public double longitude;     // Longitude coordinate
+    public long timestamp;       // Save time in milliseconds since epoch
+
+    // Query-dependent
+    public double distanceM;     // Distance from the query point, NaN if not a distance query
+    public double rank;          // Full-text relevance, higher is better (search results only)
+
+    /**
+     * Same stored row with the same displayed content (for list diffing)
+     */
+    public boolean sameContent(FavoriteRecord other) {
+        return id == other.id && timestamp == other.timestamp
+                && latitude == other.latitude && longitude == other.longitude
+                && equalStrings(name, other.name) && equalStrings(address, other.address)
+                && Double.compare(distanceM, other.distanceM) == 0;
+    }
+
+    private static boolean equalStrings(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
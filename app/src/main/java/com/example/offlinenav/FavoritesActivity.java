@@ -5,39 +5,100 @@
  * - View all favorite locations with names, addresses, and coordinates
  * - Navigate to any favorite location (opens MainActivity with destination set)
  * - Delete favorite locations with confirmation dialog
+ * - "Near Me" mode listing the closest favorites first (geohash index)
+ * - Search box with ranked prefix matching on names and addresses (FTS index),
+ *   queried on a background thread as the user types
+ * - Bulk import and export of favorites as GPX, GeoJSON or CSV through the
+ *   system file picker (see FavoritesTransfer)
  * - Empty state when no favorites exist
  * - Integration with main navigation menu
  *
  * Uses SQLite database through FavoritesDbHelper for data persistence.
+ * All queries and deletes run on the shared DataLayer threads. The newest-first list is loaded
+ * in keyset pages as the user scrolls (PagedLoader) and shown in a
+ * RecyclerView whose ListAdapter diffs each new list against the old one,
+ * so a delete or a new page only rebinds the rows that changed.
  */
 package com.example.offlinenav;
 
+import android.Manifest;
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
+import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.database.sqlite.SQLiteDatabase;
+import android.location.Location;
+import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
 import android.widget.Button;
-import android.widget.CursorAdapter;
-import android.widget.ListView;
+import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 public class FavoritesActivity extends AppCompatActivity {
 
     // Database and UI components
+    private DataLayer data;                       // Shared database threads
     private FavoritesDbHelper dbHelper;           // Database helper for favorites
-    private ListView listView;                    // List view for displaying favorites
+    private RecyclerView recyclerView;            // List of favorites
+    private LinearLayoutManager layoutManager;
     private TextView emptyView;                   // Empty state message
-    private FavoritesCursorAdapter adapter;       // Custom cursor adapter
+    private FavoritesAdapter adapter;             // Diffing list adapter
+    private Button nearMeButton;                  // Toggles nearest-first ordering
+    private boolean nearMeMode = false;           // Whether the list is sorted by distance
+    private EditText searchInput;                 // Full-text search box
+    private String searchQuery = "";              // Current search text, empty = no filter
+    private int queryGeneration = 0;              // Bumped per near-me/search query; stale results are dropped
+    private PagedLoader<FavoriteRecord> pager;    // Newest-first list, loaded page by page
+    private boolean pagedMode = true;             // Showing the pager's list (not near-me or search)
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Near-me configuration
+    private static final int NEAR_ME_LIMIT = 50;                  // Favorites shown in near-me mode
+
+    // Search configuration
+    private static final long SEARCH_DEBOUNCE_MS = 150;           // Wait for typing to pause
+    private static final int SEARCH_LIMIT = 100;                  // Results shown per search
+
+    // Import / export (option menu ids local to this screen, file picker requests)
+    private static final int MENU_IMPORT = Menu.FIRST + 100;
+    private static final int MENU_EXPORT_GPX = Menu.FIRST + 101;
+    private static final int MENU_EXPORT_GEOJSON = Menu.FIRST + 102;
+    private static final int MENU_EXPORT_CSV = Menu.FIRST + 103;
+    private static final int REQUEST_IMPORT = 2001;
+    private static final int REQUEST_EXPORT = 2002;
+    private FavoritesTransfer.Format pendingExportFormat;   // Format chosen before the save dialog
+
+    // Paging configuration
+    private static final int PAGE_SIZE = 50;                      // Favorites per page
+    private static final int PREFETCH_DISTANCE = 15;              // Rows from the end that trigger the next page
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -50,16 +111,106 @@ public class FavoritesActivity extends AppCompatActivity {
             getSupportActionBar().setDisplayHomeAsUpEnabled(true);
         }
 
-        dbHelper = new FavoritesDbHelper(this);
-        listView = findViewById(R.id.lv_favorites);
+        data = DataLayer.get(this);
+        dbHelper = data.favorites();
+        recyclerView = findViewById(R.id.rv_favorites);
         emptyView = findViewById(R.id.tv_empty_favorites);
+        nearMeButton = findViewById(R.id.btn_near_me);
+        searchInput = findViewById(R.id.et_search_favorites);
+
+        layoutManager = new LinearLayoutManager(this);
+        adapter = new FavoritesAdapter();
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                if (pagedMode && dy > 0) {
+                    pager.onScrolledTo(layoutManager.findLastVisibleItemPosition(), PREFETCH_DISTANCE);
+                }
+            }
+        });
+
+        pager = new PagedLoader<>(new PagedLoader.PageSource<FavoriteRecord>() {
+            @Override
+            public List<FavoriteRecord> loadPage(FavoriteRecord after, int limit) {
+                return FavoritesDbHelper.queryPage(dbHelper.getReadableDatabase(), after, limit);
+            }
+        }, data.readExecutor(), PAGE_SIZE, new PagedLoader.Listener<FavoriteRecord>() {
+            @Override
+            public void onItems(List<FavoriteRecord> items, boolean complete) {
+                if (pagedMode) showFavorites(items);
+            }
+
+            @Override
+            public void onError(RuntimeException error) {
+                Toast.makeText(FavoritesActivity.this, "Could not load favorites", Toast.LENGTH_SHORT).show();
+            }
+        });
+
+        nearMeButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                nearMeMode = !nearMeMode;
+                nearMeButton.setText(nearMeMode ? "🕒 Newest" : "📍 Near Me");
+                loadFavorites();
+            }
+        });
+
+        searchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchQuery = s.toString().trim();
+                mainHandler.removeCallbacks(runSearch);
+                if (searchQuery.isEmpty()) {
+                    loadFavorites();
+                } else {
+                    mainHandler.postDelayed(runSearch, SEARCH_DEBOUNCE_MS);
+                }
+            }
+        });
 
         loadFavorites();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mainHandler.removeCallbacks(runSearch);
+        pager.cancel();
+        queryGeneration++;
+    }
+
+    /**
+     * Debounced search: queries the FTS index in the background and shows
+     * the results only if no newer query has started meanwhile
+     */
+    private final Runnable runSearch = new Runnable() {
+        @Override
+        public void run() {
+            final String query = searchQuery;
+            runOneShotQuery(new Query() {
+                @Override
+                public List<FavoriteRecord> run(SQLiteDatabase db) {
+                    return FavoritesDbHelper.search(db, query, SEARCH_LIMIT);
+                }
+            });
+        }
+    };
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main_menu, menu);
+        menu.add(Menu.NONE, MENU_IMPORT, Menu.NONE, "Import Favorites…");
+        menu.add(Menu.NONE, MENU_EXPORT_GPX, Menu.NONE, "Export Favorites (GPX)");
+        menu.add(Menu.NONE, MENU_EXPORT_GEOJSON, Menu.NONE, "Export Favorites (GeoJSON)");
+        menu.add(Menu.NONE, MENU_EXPORT_CSV, Menu.NONE, "Export Favorites (CSV)");
         return true;
     }
 
@@ -82,11 +233,94 @@ public class FavoritesActivity extends AppCompatActivity {
         } else if (id == R.id.menu_about) {
             showAboutDialog();
             return true;
+        } else if (id == MENU_IMPORT) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            startActivityForResult(intent, REQUEST_IMPORT);
+            return true;
+        } else if (id == MENU_EXPORT_GPX || id == MENU_EXPORT_GEOJSON || id == MENU_EXPORT_CSV) {
+            pendingExportFormat = id == MENU_EXPORT_GPX ? FavoritesTransfer.Format.GPX
+                    : id == MENU_EXPORT_GEOJSON ? FavoritesTransfer.Format.GEOJSON
+                    : FavoritesTransfer.Format.CSV;
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType(pendingExportFormat.mimeType);
+            intent.putExtra(Intent.EXTRA_TITLE, "favorites." + pendingExportFormat.extension);
+            startActivityForResult(intent, REQUEST_EXPORT);
+            return true;
         }
         
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent result) {
+        super.onActivityResult(requestCode, resultCode, result);
+        if (resultCode != RESULT_OK || result == null || result.getData() == null) return;
+        if (requestCode == REQUEST_IMPORT) {
+            importFavorites(result.getData());
+        } else if (requestCode == REQUEST_EXPORT && pendingExportFormat != null) {
+            exportFavorites(result.getData(), pendingExportFormat);
+        }
+    }
+
+    /**
+     * Stream a picked file into the database on the writer thread, then reload the list
+     */
+    private void importFavorites(final Uri uri) {
+        Toast.makeText(this, "Importing favorites…", Toast.LENGTH_SHORT).show();
+        data.write(new DataLayer.Task<String>() {
+            @Override
+            public String run() {
+                try (InputStream in = getContentResolver().openInputStream(uri)) {
+                    if (in == null) return "Cannot open file";
+                    long t0 = System.currentTimeMillis();
+                    FavoritesTransfer.ImportResult r = new FavoritesTransfer(dbHelper).importFavorites(in);
+                    return "Imported " + r.imported + " favorites"
+                            + (r.duplicates > 0 ? ", " + r.duplicates + " duplicates skipped" : "")
+                            + (r.invalid > 0 ? ", " + r.invalid + " invalid" : "")
+                            + " (" + (System.currentTimeMillis() - t0) + " ms)";
+                } catch (IOException | RuntimeException e) {
+                    return "Import failed: " + e.getMessage();
+                }
+            }
+        }, new DataLayer.Callback<String>() {
+            @Override
+            public void onResult(String message) {
+                if (isFinishing()) return;
+                Toast.makeText(FavoritesActivity.this, message, Toast.LENGTH_LONG).show();
+                loadFavorites();
+            }
+        });
+    }
+
+    /**
+     * Stream every favorite to a picked file on a reader thread
+     *
+     * Export only reads the database, so it must not hold up queued writes.
+     */
+    private void exportFavorites(final Uri uri, final FavoritesTransfer.Format format) {
+        data.read(new DataLayer.Task<String>() {
+            @Override
+            public String run() {
+                try (OutputStream out = getContentResolver().openOutputStream(uri)) {
+                    if (out == null) return "Cannot create file";
+                    Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                    int count = new FavoritesTransfer(dbHelper).exportFavorites(w, format);
+                    return "Exported " + count + " favorites";
+                } catch (IOException e) {
+                    return "Export failed: " + e.getMessage();
+                }
+            }
+        }, new DataLayer.Callback<String>() {
+            @Override
+            public void onResult(String message) {
+                Toast.makeText(FavoritesActivity.this, message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
     private void showAboutDialog() {
         new android.app.AlertDialog.Builder(this)
             .setTitle("About")
@@ -96,87 +330,217 @@ public class FavoritesActivity extends AppCompatActivity {
     }
 
     /**
-     * Load and display all favorite locations from database
+     * Load and display favorite locations
      *
-     * Queries the favorites database and populates the list view.
-     * Shows empty state message if no favorites exist.
-     * Orders results by timestamp (newest first).
+     * Shows search results while the search box has text, the nearest
+     * favorites in near-me mode, and otherwise all favorites newest first,
+     * loaded page by page as the user scrolls.
      */
     private void loadFavorites() {
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        if (!searchQuery.isEmpty()) {
+            mainHandler.removeCallbacks(runSearch);
+            runSearch.run();
+            return;
+        }
+
+        final Location here = nearMeMode ? getLastKnownLocation() : null;
+        if (nearMeMode && here == null) {
+            Toast.makeText(this, "Location not available, showing newest first", Toast.LENGTH_SHORT).show();
+        }
+        if (here != null) {
+            // Nearest first, through the geohash index
+            runOneShotQuery(new Query() {
+                @Override
+                public List<FavoriteRecord> run(SQLiteDatabase db) {
+                    return FavoritesDbHelper.queryNearest(db, here.getLatitude(), here.getLongitude(),
+                            NEAR_ME_LIMIT);
+                }
+            });
+        } else {
+            // Newest first, in keyset pages
+            queryGeneration++;
+            pagedMode = true;
+            pager.reset();
+        }
+    }
+
+    /**
+     * A bounded query whose whole result is shown at once (near-me, search)
+     */
+    private interface Query {
+        List<FavoriteRecord> run(SQLiteDatabase db);
+    }
 
-        // Query favorites ordered by timestamp (newest first)
-        Cursor c = db.query(FavoritesDbHelper.TABLE_NAME, null, null, null, null, null,
-                           FavoritesDbHelper.COL_TIMESTAMP + " DESC");
+    /**
+     * Run a bounded query in the background and show its result unless a
+     * newer query or the pager has taken over the list meanwhile
+     */
+    private void runOneShotQuery(final Query query) {
+        pagedMode = false;
+        pager.cancel();
+        final int generation = ++queryGeneration;
+        data.read(new DataLayer.Task<List<FavoriteRecord>>() {
+            @Override
+            public List<FavoriteRecord> run() {
+                return query.run(dbHelper.getReadableDatabase());
+            }
+        }, new DataLayer.Callback<List<FavoriteRecord>>() {
+            @Override
+            public void onResult(List<FavoriteRecord> results) {
+                if (generation != queryGeneration || isFinishing()) return;
+                showFavorites(results);
+            }
+        });
+    }
 
-        if (c.getCount() == 0) {
+    /**
+     * Show a list of favorites, or the empty state if there are none
+     */
+    private void showFavorites(List<FavoriteRecord> favorites) {
+        if (favorites.isEmpty()) {
             // Show empty state
             emptyView.setVisibility(View.VISIBLE);
-            listView.setVisibility(View.GONE);
+            recyclerView.setVisibility(View.GONE);
         } else {
             // Show list with favorites
             emptyView.setVisibility(View.GONE);
-            listView.setVisibility(View.VISIBLE);
+            recyclerView.setVisibility(View.VISIBLE);
+        }
+        adapter.submitList(favorites);
+    }
+
+    /**
+     * Delete a favorite in the background, then drop its row from the list
+     * (no requery: the adapter animates just that row away)
+     */
+    private void deleteFavorite(final FavoriteRecord favorite) {
+        data.write(new DataLayer.Task<Integer>() {
+            @Override
+            public Integer run() {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                return db.delete(FavoritesDbHelper.TABLE_NAME,
+                                 FavoritesDbHelper.COL_ID + "=?",
+                                 new String[]{String.valueOf(favorite.id)});
+            }
+        }, new DataLayer.Callback<Integer>() {
+            @Override
+            public void onResult(Integer deleted) {
+                if (isFinishing()) return;
+                if (pagedMode) {
+                    pager.remove(favorite);
+                } else {
+                    List<FavoriteRecord> remaining = new ArrayList<>(adapter.getCurrentList());
+                    remaining.remove(favorite);
+                    showFavorites(remaining);
+                }
+                Toast.makeText(FavoritesActivity.this, "Favorite removed", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Count a navigation to a favorite (ranks it for route precomputation)
+     */
+    private void markUsed(final long id) {
+        data.write(new DataLayer.Task<Void>() {
+            @Override
+            public Void run() {
+                FavoritesDbHelper.markUsed(dbHelper.getWritableDatabase(), id);
+                return null;
+            }
+        }, null);
+    }
 
-            adapter = new FavoritesCursorAdapter(this, c);
-            listView.setAdapter(adapter);
+    /**
+     * Best last known position from GPS or network, without waiting for a fix
+     *
+     * @return Location, or null if permission is missing or none is cached
+     */
+    private Location getLastKnownLocation() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return null;
+        }
+        LocationManager lm = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        Location best = null;
+        for (String provider : new String[]{LocationManager.GPS_PROVIDER, LocationManager.NETWORK_PROVIDER}) {
+            Location l = lm.getLastKnownLocation(provider);
+            if (l != null && (best == null || l.getTime() > best.getTime())) {
+                best = l;
+            }
         }
+        return best;
     }
 
+    private static final DiffUtil.ItemCallback<FavoriteRecord> DIFF = new DiffUtil.ItemCallback<FavoriteRecord>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull FavoriteRecord a, @NonNull FavoriteRecord b) {
+            return a.id == b.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull FavoriteRecord a, @NonNull FavoriteRecord b) {
+            return a.sameContent(b);
+        }
+    };
+
     /**
-     * Custom CursorAdapter for displaying favorite locations
+     * RecyclerView adapter for displaying favorite locations
      *
-     * Handles the display of each favorite item in the list view,
+     * Handles the display of each favorite item in the list,
      * including name, address, coordinates, and action buttons
-     * for navigation and deletion.
+     * for navigation and deletion. Lists are diffed on a background
+     * thread by ListAdapter.
      */
-    private class FavoritesCursorAdapter extends CursorAdapter {
+    private class FavoritesAdapter extends ListAdapter<FavoriteRecord, FavoriteViewHolder> {
 
-        public FavoritesCursorAdapter(android.content.Context context, Cursor cursor) {
-            super(context, cursor, 0);
+        FavoritesAdapter() {
+            super(DIFF);
         }
 
+        @NonNull
         @Override
-        public View newView(android.content.Context context, Cursor cursor, ViewGroup parent) {
-            return LayoutInflater.from(context).inflate(R.layout.item_favorite, parent, false);
+        public FavoriteViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_favorite, parent, false);
+            return new FavoriteViewHolder(view);
         }
 
-        /**
-         * Bind cursor data to list item view
-         *
-         * Populates each list item with favorite location data and sets up
-         * click listeners for navigation and deletion actions.
-         */
         @Override
-        public void bindView(View view, android.content.Context context, Cursor cursor) {
-            // Get UI elements from the item layout
-            TextView nameView = view.findViewById(R.id.item_fav_name);
-            TextView addressView = view.findViewById(R.id.item_fav_address);
-            TextView coordsView = view.findViewById(R.id.item_fav_coords);
-            Button navigateButton = view.findViewById(R.id.btn_navigate_to);
-            Button deleteButton = view.findViewById(R.id.btn_delete_favorite);
+        public void onBindViewHolder(@NonNull FavoriteViewHolder holder, int position) {
+            holder.bind(getItem(position));
+        }
+    }
 
-            // Extract data from cursor
-            final long id = cursor.getLong(cursor.getColumnIndexOrThrow(FavoritesDbHelper.COL_ID));
-            String name = cursor.getString(cursor.getColumnIndexOrThrow(FavoritesDbHelper.COL_NAME));
-            String address = cursor.getString(cursor.getColumnIndexOrThrow(FavoritesDbHelper.COL_ADDRESS));
-            final double lat = cursor.getDouble(cursor.getColumnIndexOrThrow(FavoritesDbHelper.COL_LATITUDE));
-            final double lon = cursor.getDouble(cursor.getColumnIndexOrThrow(FavoritesDbHelper.COL_LONGITUDE));
+    /**
+     * Views of one favorite row, looked up once when the row is created
+     */
+    private class FavoriteViewHolder extends RecyclerView.ViewHolder {
 
-            // Populate UI elements
-            nameView.setText(name);
-            addressView.setText(address);
-            coordsView.setText(String.format("%.4f, %.4f", lat, lon));
+        private final TextView nameView;
+        private final TextView addressView;
+        private final TextView coordsView;
+        private FavoriteRecord favorite;              // Row currently bound
+
+        FavoriteViewHolder(View view) {
+            super(view);
+            nameView = view.findViewById(R.id.item_fav_name);
+            addressView = view.findViewById(R.id.item_fav_address);
+            coordsView = view.findViewById(R.id.item_fav_coords);
+            Button navigateButton = view.findViewById(R.id.btn_navigate_to);
+            Button deleteButton = view.findViewById(R.id.btn_delete_favorite);
 
             // Navigate button - opens MainActivity with this location as destination
             navigateButton.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
+                    markUsed(favorite.id);
                     Intent intent = new Intent(FavoritesActivity.this, MainActivity.class);
-                    intent.putExtra("latitude", lat);
-                    intent.putExtra("longitude", lon);
-                    intent.putExtra("name", name);
+                    intent.putExtra("latitude", favorite.latitude);
+                    intent.putExtra("longitude", favorite.longitude);
+                    intent.putExtra("name", favorite.name);
                     intent.putExtra("navigate", true);  // Flag to trigger navigation
+                    // Reuse the map screen below us instead of stacking a second one
+                    intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
                     startActivity(intent);
                 }
             });
@@ -185,23 +549,27 @@ public class FavoritesActivity extends AppCompatActivity {
             deleteButton.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
+                    final FavoriteRecord target = favorite;
                     new android.app.AlertDialog.Builder(FavoritesActivity.this)
                         .setTitle("Delete Favorite")
-                        .setMessage("Remove '" + name + "' from favorites?")
-                        .setPositiveButton("Delete", (dialog, which) -> {
-                            // Delete from database
-                            SQLiteDatabase db = dbHelper.getWritableDatabase();
-                            db.delete(FavoritesDbHelper.TABLE_NAME,
-                                     FavoritesDbHelper.COL_ID + "=?",
-                                     new String[]{String.valueOf(id)});
-                            // Refresh the list
-                            loadFavorites();
-                            Toast.makeText(FavoritesActivity.this, "Favorite removed", Toast.LENGTH_SHORT).show();
-                        })
+                        .setMessage("Remove '" + target.name + "' from favorites?")
+                        .setPositiveButton("Delete", (dialog, which) -> deleteFavorite(target))
                         .setNegativeButton("Cancel", null)
                         .show();
                 }
             });
         }
+
+        void bind(FavoriteRecord f) {
+            favorite = f;
+            nameView.setText(f.name);
+            addressView.setText(f.address);
+            if (!Double.isNaN(f.distanceM)) {
+                coordsView.setText(String.format("%.4f, %.4f · %s away", f.latitude, f.longitude,
+                        GuidanceEngine.formatDistance(f.distanceM)));
+            } else {
+                coordsView.setText(String.format("%.4f, %.4f", f.latitude, f.longitude));
+            }
+        }
     }
 }
@@ -4,18 +4,36 @@
  * Manages the local database that stores user's saved favorite locations.
  * Each favorite includes name, coordinates, address, and timestamp.
  * Used by FavoritesActivity and MainActivity for location persistence.
+ *
+ * Favorites carry an indexed geohash so "near me" (k-nearest) and viewport
+ * (bounding box) queries are index range scans instead of full table scans.
+ * Names and addresses are mirrored into an FTS4 index kept in sync by
+ * triggers, for ranked prefix search. The newest-first list is read in
+ * keyset pages over an index on (timestamp, _id). A use count per favorite
+ * ranks the destinations worth precomputing routes to.
  */
 package com.example.offlinenav;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 public class FavoritesDbHelper extends SQLiteOpenHelper {
 
     // Database configuration
     private static final String DATABASE_NAME = "favorites.db";    // Database filename
-    private static final int DATABASE_VERSION = 1;                // Schema version
+    private static final int DATABASE_VERSION = 5;                // Schema version (2: geohash, 3: FTS, 4: timestamp index, 5: use count)
 
     // Table and column constants
     public static final String TABLE_NAME = "favorites";           // Table name
@@ -25,16 +43,48 @@ public class FavoritesDbHelper extends SQLiteOpenHelper {
     public static final String COL_LONGITUDE = "longitude";        // Longitude coordinate
     public static final String COL_ADDRESS = "address";            // Human-readable address
     public static final String COL_TIMESTAMP = "timestamp";        // Save timestamp (milliseconds)
+    public static final String COL_GEOHASH = "geohash";            // Spatial key (GEOHASH_PRECISION chars)
+    public static final String COL_USE_COUNT = "use_count";        // Times navigated to
+    public static final String COL_LAST_USED = "last_used";        // Last navigation (milliseconds), 0 = never
+
+    // Spatial index configuration
+    static final int GEOHASH_PRECISION = 9;                        // ~5 m cells
+    private static final String INDEX_GEOHASH = "idx_favorites_geohash";
+    private static final String INDEX_TIMESTAMP = "idx_favorites_timestamp";
+    private static final String INDEX_USAGE = "idx_favorites_usage";
+    private static final int MAX_COVER_CELLS = 16;                 // Index ranges per query
+    private static final double START_RADIUS_M = 500;              // First k-nearest search radius
+    private static final double MAX_RADIUS_M = 20_000_000;         // Beyond this, scan everything
+
+    // Full-text search configuration
+    public static final String FTS_TABLE = "favorites_fts";        // FTS4 external-content index
+    private static final double NAME_WEIGHT = 2.0;                 // Name hits rank above address hits
+    private static final double ADDRESS_WEIGHT = 1.0;
+    private static final int SEARCH_CANDIDATES = 1000;             // Matches ranked per query
+
+    private static final String[] RECORD_COLUMNS = {
+            COL_ID, COL_NAME, COL_ADDRESS, COL_LATITUDE, COL_LONGITUDE, COL_TIMESTAMP
+    };
+
+    private SQLiteStatement insertStatement;      // Compiled on first insert (writer thread)
 
     public FavoritesDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * Per-connection tuning (page cache, statement cache), see DataLayer
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        DataLayer.configure(db);
+    }
+
     /**
      * Create the favorites table when database is first created
      *
      * Defines the schema for storing favorite locations with all necessary
-     * fields: ID, name, coordinates, address, and timestamp.
+     * fields: ID, name, coordinates, address, timestamp and geohash.
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
@@ -44,20 +94,381 @@ public class FavoritesDbHelper extends SQLiteOpenHelper {
                 COL_LATITUDE + " REAL, " +
                 COL_LONGITUDE + " REAL, " +
                 COL_ADDRESS + " TEXT, " +
-                COL_TIMESTAMP + " INTEGER)";
+                COL_TIMESTAMP + " INTEGER, " +
+                COL_GEOHASH + " TEXT, " +
+                COL_USE_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                COL_LAST_USED + " INTEGER NOT NULL DEFAULT 0)";
         db.execSQL(createTable);
+        db.execSQL("CREATE INDEX " + INDEX_GEOHASH + " ON " + TABLE_NAME + "(" + COL_GEOHASH + ")");
+        createTimestampIndex(db);
+        createUsageIndex(db);
+        createFullTextIndex(db);
     }
 
     /**
      * Handle database schema upgrades
      *
-     * For version upgrades, drops the existing table and recreates it.
-     * In a production app, this would handle migrations more gracefully
-     * to preserve user data.
+     * Migrates step by step from the installed version, keeping every
+     * saved favorite. Runs inside the upgrade transaction.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
-        onCreate(db);
+        if (oldVersion < 2) {
+            // v2: add and backfill the geohash column, then index it
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COL_GEOHASH + " TEXT");
+            SQLiteStatement update = db.compileStatement(
+                    "UPDATE " + TABLE_NAME + " SET " + COL_GEOHASH + "=? WHERE " + COL_ID + "=?");
+            try (Cursor c = db.query(TABLE_NAME, new String[]{COL_ID, COL_LATITUDE, COL_LONGITUDE},
+                    null, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    update.bindString(1, geohashFor(c.getDouble(1), c.getDouble(2)));
+                    update.bindLong(2, c.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            }
+            db.execSQL("CREATE INDEX " + INDEX_GEOHASH + " ON " + TABLE_NAME + "(" + COL_GEOHASH + ")");
+        }
+        if (oldVersion < 3) {
+            // v3: full-text index over existing names and addresses
+            createFullTextIndex(db);
+            db.execSQL("INSERT INTO " + FTS_TABLE + "(" + FTS_TABLE + ") VALUES('rebuild')");
+        }
+        if (oldVersion < 4) {
+            // v4: index for keyset paging of the newest-first list
+            createTimestampIndex(db);
+        }
+        if (oldVersion < 5) {
+            // v5: navigation counts for route precomputation
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COL_USE_COUNT + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COL_LAST_USED + " INTEGER NOT NULL DEFAULT 0");
+            createUsageIndex(db);
+        }
+    }
+
+    private static void createUsageIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_USAGE + " ON " + TABLE_NAME
+                + "(" + COL_USE_COUNT + ", " + COL_LAST_USED + ")");
+    }
+
+    private static void createTimestampIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_TIMESTAMP + " ON " + TABLE_NAME
+                + "(" + COL_TIMESTAMP + ", " + COL_ID + ")");
+    }
+
+    /**
+     * Create the FTS4 index over name and address plus the triggers that maintain it
+     *
+     * The index is external-content (it stores only tokens, the text stays in
+     * the favorites table). FTS4 needs the old text to remove a row's tokens,
+     * so deletes and updates unindex in BEFORE triggers. FTS4 is used rather
+     * than FTS5 because it ships with the SQLite of every supported Android
+     * version.
+     */
+    private static void createFullTextIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE + " USING fts4(content=\"" + TABLE_NAME + "\", "
+                + COL_NAME + ", " + COL_ADDRESS + ")");
+        db.execSQL("CREATE TRIGGER favorites_fts_ai AFTER INSERT ON " + TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + FTS_TABLE + "(docid, " + COL_NAME + ", " + COL_ADDRESS + ") "
+                + "VALUES(new." + COL_ID + ", new." + COL_NAME + ", new." + COL_ADDRESS + "); END");
+        db.execSQL("CREATE TRIGGER favorites_fts_bd BEFORE DELETE ON " + TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + FTS_TABLE + " WHERE docid=old." + COL_ID + "; END");
+        db.execSQL("CREATE TRIGGER favorites_fts_bu BEFORE UPDATE OF " + COL_NAME + ", " + COL_ADDRESS
+                + " ON " + TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + FTS_TABLE + " WHERE docid=old." + COL_ID + "; END");
+        db.execSQL("CREATE TRIGGER favorites_fts_au AFTER UPDATE OF " + COL_NAME + ", " + COL_ADDRESS
+                + " ON " + TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + FTS_TABLE + "(docid, " + COL_NAME + ", " + COL_ADDRESS + ") "
+                + "VALUES(new." + COL_ID + ", new." + COL_NAME + ", new." + COL_ADDRESS + "); END");
+    }
+
+    /**
+     * Geohash stored for a coordinate
+     */
+    public static String geohashFor(double lat, double lon) {
+        return GeoHash.encode(lat, lon, GEOHASH_PRECISION);
+    }
+
+    /**
+     * Insert a favorite, keeping the spatial index column in sync
+     *
+     * Uses one precompiled statement for the life of the helper. Call from
+     * the DataLayer writer thread only.
+     *
+     * @return Row id, or -1 on failure
+     */
+    public long insertFavorite(String name, String address, double lat, double lon) {
+        if (insertStatement == null) {
+            insertStatement = getWritableDatabase().compileStatement("INSERT INTO " + TABLE_NAME + " ("
+                    + COL_NAME + ", " + COL_ADDRESS + ", " + COL_LATITUDE + ", " + COL_LONGITUDE + ", "
+                    + COL_TIMESTAMP + ", " + COL_GEOHASH + ") VALUES (?, ?, ?, ?, ?, ?)");
+        }
+        SQLiteStatement st = insertStatement;
+        st.bindString(1, name);
+        st.bindString(2, address);
+        st.bindDouble(3, lat);
+        st.bindDouble(4, lon);
+        st.bindLong(5, System.currentTimeMillis());
+        st.bindString(6, geohashFor(lat, lon));
+        try {
+            return st.executeInsert();
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * One page of the newest-first list
+     *
+     * Keyset pagination: continues strictly after the given row in
+     * (timestamp DESC, _id DESC) order, which the timestamp index serves
+     * without sorting or skipping rows.
+     *
+     * @param after Last favorite of the previous page, or null for the first page
+     * @param limit Page size
+     */
+    public static List<FavoriteRecord> queryPage(SQLiteDatabase db, FavoriteRecord after, int limit) {
+        String where = null;
+        String[] args = null;
+        if (after != null) {
+            where = COL_TIMESTAMP + " < ? OR (" + COL_TIMESTAMP + " = ? AND " + COL_ID + " < ?)";
+            String ts = String.valueOf(after.timestamp);
+            args = new String[]{ts, ts, String.valueOf(after.id)};
+        }
+        List<FavoriteRecord> result = new ArrayList<>(limit);
+        try (Cursor c = db.query(TABLE_NAME, RECORD_COLUMNS, where, args, null, null,
+                COL_TIMESTAMP + " DESC, " + COL_ID + " DESC", String.valueOf(limit))) {
+            while (c.moveToNext()) {
+                FavoriteRecord f = readRecord(c);
+                f.distanceM = Double.NaN;
+                result.add(f);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Record that the user navigated to a favorite
+     */
+    public static void markUsed(SQLiteDatabase db, long id) {
+        db.execSQL("UPDATE " + TABLE_NAME + " SET " + COL_USE_COUNT + " = " + COL_USE_COUNT + " + 1, "
+                + COL_LAST_USED + " = ? WHERE " + COL_ID + " = ?",
+                new Object[]{System.currentTimeMillis(), id});
+    }
+
+    /**
+     * The favorites navigated to most often (most recent first among ties)
+     *
+     * Served from the usage index without sorting the table.
+     *
+     * @param limit Maximum number of favorites
+     */
+    public static List<FavoriteRecord> queryMostUsed(SQLiteDatabase db, int limit) {
+        List<FavoriteRecord> result = new ArrayList<>(limit);
+        try (Cursor c = db.query(TABLE_NAME, RECORD_COLUMNS, COL_USE_COUNT + " > 0", null, null, null,
+                COL_USE_COUNT + " DESC, " + COL_LAST_USED + " DESC", String.valueOf(limit))) {
+            while (c.moveToNext()) {
+                FavoriteRecord f = readRecord(c);
+                f.distanceM = Double.NaN;
+                result.add(f);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Favorites inside a bounding box (e.g. the visible map viewport)
+     *
+     * @return Matching favorites, unordered, distanceM = NaN
+     */
+    public static List<FavoriteRecord> queryBoundingBox(SQLiteDatabase db, double minLat, double minLon,
+                                                        double maxLat, double maxLon) {
+        List<FavoriteRecord> result = new ArrayList<>();
+        try (Cursor c = queryBox(db, minLat, minLon, maxLat, maxLon)) {
+            while (c.moveToNext()) {
+                FavoriteRecord f = readRecord(c);
+                f.distanceM = Double.NaN;
+                result.add(f);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The k favorites closest to a point, nearest first
+     *
+     * Searches a box around the point through the geohash index and grows
+     * the radius 4x until k favorites lie inside the search circle, so only
+     * the neighbourhood of the point is read. With k or fewer favorites in
+     * total, or once a box holds every favorite, all of them are sorted
+     * without growing the box further.
+     *
+     * @param k Maximum number of results
+     * @return Up to k favorites sorted by straight-line distance
+     */
+    public static List<FavoriteRecord> queryNearest(SQLiteDatabase db, double lat, double lon, int k) {
+        long total = DatabaseUtils.queryNumEntries(db, TABLE_NAME);
+        for (double radius = START_RADIUS_M; ; radius *= 4) {
+            boolean lastRound = radius >= MAX_RADIUS_M || total <= k;
+            double dLat = radius / 111_320.0;
+            double dLon = dLat / Math.max(0.01, Math.cos(Math.toRadians(lat)));
+            List<FavoriteRecord> box = new ArrayList<>();
+            try (Cursor c = lastRound
+                    ? db.query(TABLE_NAME, RECORD_COLUMNS, null, null, null, null, null)
+                    : queryBox(db, lat - dLat, lon - dLon, lat + dLat, lon + dLon)) {
+                while (c.moveToNext()) {
+                    FavoriteRecord f = readRecord(c);
+                    f.distanceM = RoadGraph.distanceM(lat, lon, f.latitude, f.longitude);
+                    box.add(f);
+                }
+            }
+            // A box holding every favorite already contains the k nearest
+            boolean everyRow = lastRound || box.size() >= total;
+            List<FavoriteRecord> inside = box;
+            if (!everyRow) {
+                inside = new ArrayList<>();
+                for (FavoriteRecord f : box) {
+                    if (f.distanceM <= radius) inside.add(f);
+                }
+            }
+            if (inside.size() >= k || everyRow) {
+                Collections.sort(inside, new Comparator<FavoriteRecord>() {
+                    @Override
+                    public int compare(FavoriteRecord a, FavoriteRecord b) {
+                        return Double.compare(a.distanceM, b.distanceM);
+                    }
+                });
+                return inside.size() > k ? new ArrayList<>(inside.subList(0, k)) : inside;
+            }
+        }
+    }
+
+    /**
+     * Ranked prefix search over names and addresses
+     *
+     * Every word of the query must match the start of a word in the name or
+     * address ("ham st" finds "Hamra Street"). Matches are ranked in Java from
+     * FTS4 matchinfo: per word, hits weighted by column and by how rare the
+     * word is across all favorites.
+     *
+     * @param query Free text typed by the user
+     * @param limit Maximum number of results
+     * @return Best matches first, empty if the query has no searchable words
+     */
+    public static List<FavoriteRecord> search(SQLiteDatabase db, String query, int limit) {
+        String match = toPrefixMatch(query);
+        List<FavoriteRecord> result = new ArrayList<>();
+        if (match.isEmpty()) return result;
+
+        String sql = "SELECT f." + COL_ID + ", f." + COL_NAME + ", f." + COL_ADDRESS + ", f." + COL_LATITUDE
+                + ", f." + COL_LONGITUDE + ", f." + COL_TIMESTAMP + ", matchinfo(" + FTS_TABLE + ", 'pcnx')"
+                + " FROM " + FTS_TABLE + " JOIN " + TABLE_NAME + " f ON f." + COL_ID + " = " + FTS_TABLE + ".docid"
+                + " WHERE " + FTS_TABLE + " MATCH ? LIMIT " + SEARCH_CANDIDATES;
+        try (Cursor c = db.rawQuery(sql, new String[]{match})) {
+            while (c.moveToNext()) {
+                FavoriteRecord f = readRecord(c);
+                f.distanceM = Double.NaN;
+                f.rank = rank(c.getBlob(6));
+                result.add(f);
+            }
+        }
+        Collections.sort(result, new Comparator<FavoriteRecord>() {
+            @Override
+            public int compare(FavoriteRecord a, FavoriteRecord b) {
+                int byRank = Double.compare(b.rank, a.rank);
+                return byRank != 0 ? byRank : Long.compare(b.timestamp, a.timestamp);
+            }
+        });
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * Turn user input into an FTS prefix query: each word becomes word*
+     *
+     * Anything that isn't a letter or digit is dropped so user input can't
+     * inject FTS operators or unbalanced quotes.
+     */
+    static String toPrefixMatch(String query) {
+        StringBuilder sb = new StringBuilder();
+        for (String word : query.trim().split("\\s+")) {
+            StringBuilder clean = new StringBuilder();
+            for (int i = 0; i < word.length(); i++) {
+                char ch = word.charAt(i);
+                if (Character.isLetterOrDigit(ch)) clean.append(ch);
+            }
+            if (clean.length() == 0) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(clean).append('*');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Score a row from its matchinfo('pcnx') blob
+     *
+     * Layout (native-endian 32-bit ints): phrase count p, column count c,
+     * row count n, then for each phrase and column: hits in this row, hits
+     * in all rows, rows with at least one hit.
+     */
+    private static double rank(byte[] info) {
+        ByteBuffer buf = ByteBuffer.wrap(info).order(ByteOrder.nativeOrder());
+        int phrases = buf.getInt(0);
+        int columns = buf.getInt(4);
+        int rows = buf.getInt(8);
+        double score = 0;
+        for (int p = 0; p < phrases; p++) {
+            for (int col = 0; col < columns; col++) {
+                int base = 12 + 12 * (p * columns + col);
+                int hitsHere = buf.getInt(base);
+                int rowsWithHit = buf.getInt(base + 8);
+                if (hitsHere == 0) continue;
+                double idf = Math.log(1.0 + (double) rows / Math.max(1, rowsWithHit));
+                double weight = col == 0 ? NAME_WEIGHT : ADDRESS_WEIGHT;
+                score += weight * idf * hitsHere / (hitsHere + 1.0);
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Index-backed box query: one geohash range per covering cell, then an exact coordinate filter
+     */
+    private static Cursor queryBox(SQLiteDatabase db, double minLat, double minLon, double maxLat, double maxLon) {
+        minLat = Math.max(-90, minLat);
+        maxLat = Math.min(90, maxLat);
+        minLon = Math.max(-180, minLon);
+        maxLon = Math.min(180, maxLon);
+        List<String> cells = GeoHash.cover(minLat, minLon, maxLat, maxLon, GEOHASH_PRECISION, MAX_COVER_CELLS);
+
+        StringBuilder where = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        if (!cells.isEmpty()) {
+            where.append('(');
+            for (int i = 0; i < cells.size(); i++) {
+                if (i > 0) where.append(" OR ");
+                where.append(COL_GEOHASH).append(" BETWEEN ? AND ?");
+                args.add(cells.get(i));
+                args.add(cells.get(i) + "~");   // '~' sorts after every base-32 character
+            }
+            where.append(") AND ");
+        }
+        where.append(COL_LATITUDE).append(" BETWEEN ? AND ? AND ")
+             .append(COL_LONGITUDE).append(" BETWEEN ? AND ?");
+        args.add(String.valueOf(minLat));
+        args.add(String.valueOf(maxLat));
+        args.add(String.valueOf(minLon));
+        args.add(String.valueOf(maxLon));
+        return db.query(TABLE_NAME, RECORD_COLUMNS, where.toString(), args.toArray(new String[0]),
+                null, null, null);
+    }
+
+    private static FavoriteRecord readRecord(Cursor c) {
+        FavoriteRecord f = new FavoriteRecord();
+        f.id = c.getLong(0);
+        f.name = c.getString(1);
+        f.address = c.getString(2);
+        f.latitude = c.getDouble(3);
+        f.longitude = c.getDouble(4);
+        f.timestamp = c.getLong(5);
+        return f;
     }
 }
@@ -0,0 +1,549 @@
+/**
+ * FavoritesTransfer - Streaming bulk import and export of favorites
+ *
+ * Supports GPX (waypoints), GeoJSON (Point features) and CSV (header row with
+ * name, address, latitude, longitude columns in any order). Both directions
+ * stream: import reads one record at a time from a pull parser and export
+ * writes rows straight from a cursor, so memory stays flat however large the
+ * file is.
+ *
+ * Import inserts through the helper's precompiled statement in transactions
+ * of BATCH_SIZE rows and skips any record whose coordinates, rounded to
+ * about a metre, match an existing favorite or an earlier record.
+ *
+ * Both directions do disk I/O: run them on the DataLayer writer thread.
+ */
+package com.example.offlinenav;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+public class FavoritesTransfer {
+
+    public enum Format {
+        GPX("application/gpx+xml", "gpx"),
+        GEOJSON("application/geo+json", "geojson"),
+        CSV("text/csv", "csv");
+
+        public final String mimeType;
+        public final String extension;
+
+        Format(String mimeType, String extension) {
+            this.mimeType = mimeType;
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Outcome of an import
+     */
+    public static class ImportResult {
+        public int imported;         // New favorites inserted
+        public int duplicates;       // Records matching an existing favorite or an earlier record
+        public int invalid;          // Records without usable coordinates
+    }
+
+    static final int BATCH_SIZE = 1000;                 // Rows per transaction
+    private static final double KEY_SCALE = 1e5;        // Duplicate key resolution (~1 m)
+
+    private final FavoritesDbHelper dbHelper;
+    private final LongSet seen = new LongSet();
+    private ImportResult result;
+    private int inBatch;
+
+    public FavoritesTransfer(FavoritesDbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    // ---------------------------------------------------------------- import
+
+    /**
+     * Import favorites, detecting the format from the first character
+     * ('<' GPX, '{' GeoJSON, anything else CSV)
+     *
+     * @param in Stream to read; not closed
+     */
+    public ImportResult importFavorites(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 64 * 1024);
+        return importFavorites(buffered, sniff(buffered));
+    }
+
+    /**
+     * Import favorites in a known format
+     *
+     * Rows committed before a parse error stay imported; the error is rethrown.
+     *
+     * @param in Stream to read; not closed
+     */
+    public ImportResult importFavorites(InputStream in, Format format) throws IOException {
+        result = new ImportResult();
+        loadExistingKeys();
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        inBatch = 0;
+        db.beginTransaction();
+        try {
+            switch (format) {
+                case GPX:
+                    importGpx(in);
+                    break;
+                case GEOJSON:
+                    importGeoJson(new InputStreamReader(in, StandardCharsets.UTF_8));
+                    break;
+                default:
+                    importCsv(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+                    break;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        seen.clear();
+        return result;
+    }
+
+    private static Format sniff(BufferedInputStream in) throws IOException {
+        in.mark(1024);
+        try {
+            for (int i = 0; i < 1024; i++) {
+                int b = in.read();
+                if (b < 0) break;
+                if (b == 0xEF || b == 0xBB || b == 0xBF || Character.isWhitespace(b)) continue;  // BOM, blanks
+                if (b == '<') return Format.GPX;
+                if (b == '{') return Format.GEOJSON;
+                break;
+            }
+            return Format.CSV;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Duplicate keys of every stored favorite (two doubles read per row)
+     */
+    private void loadExistingKeys() {
+        seen.clear();
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        try (Cursor c = db.query(FavoritesDbHelper.TABLE_NAME,
+                new String[]{FavoritesDbHelper.COL_LATITUDE, FavoritesDbHelper.COL_LONGITUDE},
+                null, null, null, null, null)) {
+            while (c.moveToNext()) {
+                seen.add(key(c.getDouble(0), c.getDouble(1)));
+            }
+        }
+    }
+
+    /**
+     * Insert one parsed record, committing the transaction every BATCH_SIZE rows
+     */
+    private void accept(String name, String address, double lat, double lon) {
+        if (Double.isNaN(lat) || Double.isNaN(lon) || lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+            result.invalid++;
+            return;
+        }
+        if (!seen.add(key(lat, lon))) {
+            result.duplicates++;
+            return;
+        }
+        if (name == null || name.trim().isEmpty()) name = "Unnamed Location";
+        long id = dbHelper.insertFavorite(name.trim(), address != null ? address.trim() : "", lat, lon);
+        if (id < 0) {
+            result.invalid++;
+            return;
+        }
+        result.imported++;
+        if (++inBatch >= BATCH_SIZE) {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.setTransactionSuccessful();
+            db.endTransaction();
+            db.beginTransaction();
+            inBatch = 0;
+        }
+    }
+
+    private static long key(double lat, double lon) {
+        long latKey = Math.round((lat + 90) * KEY_SCALE);     // 0 .. 18,000,000
+        long lonKey = Math.round((lon + 180) * KEY_SCALE);    // 0 .. 36,000,000
+        return latKey * 36_000_001L + lonKey;
+    }
+
+    private void importGpx(InputStream in) throws IOException {
+        try {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+            parser.setInput(in, null);
+            double lat = Double.NaN, lon = Double.NaN;
+            String name = null, desc = null;
+            boolean inWaypoint = false;
+            int event;
+            while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (event == XmlPullParser.START_TAG) {
+                    String tag = localName(parser.getName());
+                    if (tag.equals("wpt")) {
+                        inWaypoint = true;
+                        lat = parseDouble(parser.getAttributeValue(null, "lat"));
+                        lon = parseDouble(parser.getAttributeValue(null, "lon"));
+                        name = null;
+                        desc = null;
+                    } else if (inWaypoint && parser.getDepth() == 3) {
+                        // Direct children of <wpt> only (skip <link><text> etc.)
+                        if (tag.equals("name")) {
+                            name = parser.nextText();
+                        } else if (tag.equals("desc") || (tag.equals("cmt") && desc == null)) {
+                            desc = parser.nextText();
+                        }
+                    }
+                } else if (event == XmlPullParser.END_TAG && localName(parser.getName()).equals("wpt")) {
+                    inWaypoint = false;
+                    accept(name, desc, lat, lon);
+                }
+            }
+        } catch (XmlPullParserException e) {
+            throw new IOException("Invalid GPX: " + e.getMessage(), e);
+        }
+    }
+
+    private static String localName(String tag) {
+        int colon = tag.indexOf(':');
+        return colon >= 0 ? tag.substring(colon + 1) : tag;
+    }
+
+    private void importGeoJson(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("features") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) readFeature(reader);
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * One Feature; geometry and properties may come in either order
+     */
+    private void readFeature(JsonReader reader) throws IOException {
+        double lat = Double.NaN, lon = Double.NaN;
+        String name = null, address = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (field.equals("geometry") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                boolean point = false;
+                double gLat = Double.NaN, gLon = Double.NaN;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String g = reader.nextName();
+                    if (g.equals("type")) {
+                        point = "Point".equals(reader.nextString());
+                    } else if (g.equals("coordinates") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        if (reader.hasNext() && reader.peek() == JsonToken.NUMBER) gLon = reader.nextDouble();
+                        if (reader.hasNext() && reader.peek() == JsonToken.NUMBER) gLat = reader.nextDouble();
+                        while (reader.hasNext()) reader.skipValue();  // Altitude etc.
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (point) {
+                    lat = gLat;
+                    lon = gLon;
+                }
+            } else if (field.equals("properties") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String p = reader.nextName();
+                    if (reader.peek() != JsonToken.STRING) {
+                        reader.skipValue();
+                    } else if (p.equals("name")) {
+                        name = reader.nextString();
+                    } else if (p.equals("address") || (p.equals("description") && address == null)) {
+                        address = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        accept(name, address, lat, lon);
+    }
+
+    private void importCsv(BufferedReader in) throws IOException {
+        List<String> fields = new ArrayList<>();
+        if (!readCsvRecord(in, fields)) return;
+        int nameCol = -1, addressCol = -1, latCol = -1, lonCol = -1;
+        for (int i = 0; i < fields.size(); i++) {
+            String h = fields.get(i).trim().toLowerCase(Locale.US).replace("\uFEFF", "");
+            if (h.equals("name")) nameCol = i;
+            else if (h.equals("address") || (h.equals("description") && addressCol < 0)) addressCol = i;
+            else if (h.equals("latitude") || h.equals("lat")) latCol = i;
+            else if (h.equals("longitude") || h.equals("lon") || h.equals("lng")) lonCol = i;
+        }
+        if (latCol < 0 || lonCol < 0) {
+            throw new IOException("CSV header needs latitude and longitude columns");
+        }
+        while (readCsvRecord(in, fields)) {
+            if (fields.size() == 1 && fields.get(0).isEmpty()) continue;  // Blank line
+            accept(field(fields, nameCol), field(fields, addressCol),
+                    parseDouble(field(fields, latCol)), parseDouble(field(fields, lonCol)));
+        }
+    }
+
+    private static String field(List<String> fields, int index) {
+        return index >= 0 && index < fields.size() ? fields.get(index) : null;
+    }
+
+    /**
+     * Read one RFC 4180 record (quoted fields may contain commas, quotes and newlines)
+     *
+     * @return False at end of input
+     */
+    static boolean readCsvRecord(BufferedReader in, List<String> out) throws IOException {
+        out.clear();
+        int ch = in.read();
+        if (ch < 0) return false;
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (ch < 0) break;  // Unterminated quote: take what we have
+                if (ch == '"') {
+                    in.mark(1);
+                    int next = in.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        if (next >= 0) in.reset();
+                    }
+                } else {
+                    field.append((char) ch);
+                }
+            } else if (ch < 0 || ch == '\n') {
+                break;
+            } else if (ch == '\r') {
+                in.mark(1);
+                if (in.read() != '\n') in.reset();
+                break;
+            } else if (ch == ',') {
+                out.add(field.toString());
+                field.setLength(0);
+            } else if (ch == '"' && field.length() == 0) {
+                quoted = true;
+            } else {
+                field.append((char) ch);
+            }
+            ch = in.read();
+        }
+        out.add(field.toString());
+        return true;
+    }
+
+    private static double parseDouble(String s) {
+        if (s == null) return Double.NaN;
+        try {
+            return Double.parseDouble(s.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    // ---------------------------------------------------------------- export
+
+    /**
+     * Write every favorite, oldest first
+     *
+     * @param out Destination; flushed but not closed
+     * @return Number of favorites written
+     */
+    public int exportFavorites(Writer out, Format format) throws IOException {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        int count = 0;
+        try (Cursor c = db.query(FavoritesDbHelper.TABLE_NAME,
+                new String[]{FavoritesDbHelper.COL_NAME, FavoritesDbHelper.COL_ADDRESS,
+                        FavoritesDbHelper.COL_LATITUDE, FavoritesDbHelper.COL_LONGITUDE},
+                null, null, null, null, FavoritesDbHelper.COL_ID)) {
+            switch (format) {
+                case GPX:
+                    out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                            + "<gpx version=\"1.1\" creator=\"OfflineNavApp\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+                    break;
+                case GEOJSON:
+                    out.write("{\"type\":\"FeatureCollection\",\"features\":[\n");
+                    break;
+                default:
+                    out.write("name,address,latitude,longitude\r\n");
+                    break;
+            }
+            while (c.moveToNext()) {
+                String name = c.getString(0);
+                String address = c.getString(1);
+                String lat = String.valueOf(c.getDouble(2));
+                String lon = String.valueOf(c.getDouble(3));
+                switch (format) {
+                    case GPX:
+                        out.write("  <wpt lat=\"" + lat + "\" lon=\"" + lon + "\"><name>");
+                        writeXml(out, name);
+                        out.write("</name>");
+                        if (address != null && !address.isEmpty()) {
+                            out.write("<desc>");
+                            writeXml(out, address);
+                            out.write("</desc>");
+                        }
+                        out.write("</wpt>\n");
+                        break;
+                    case GEOJSON:
+                        if (count > 0) out.write(",\n");
+                        out.write("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":["
+                                + lon + "," + lat + "]},\"properties\":{\"name\":");
+                        writeJson(out, name);
+                        out.write(",\"address\":");
+                        writeJson(out, address);
+                        out.write("}}");
+                        break;
+                    default:
+                        writeCsv(out, name);
+                        out.write(',');
+                        writeCsv(out, address);
+                        out.write("," + lat + "," + lon + "\r\n");
+                        break;
+                }
+                count++;
+            }
+            if (format == Format.GPX) out.write("</gpx>\n");
+            else if (format == Format.GEOJSON) out.write("\n]}\n");
+        }
+        out.flush();
+        return count;
+    }
+
+    private static void writeXml(Writer out, String s) throws IOException {
+        if (s == null) return;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+                case '<': out.write("&lt;"); break;
+                case '>': out.write("&gt;"); break;
+                case '&': out.write("&amp;"); break;
+                case '"': out.write("&quot;"); break;
+                default: out.write(ch);
+            }
+        }
+    }
+
+    private static void writeJson(Writer out, String s) throws IOException {
+        if (s == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                out.write('\\');
+                out.write(ch);
+            } else if (ch < 0x20) {
+                out.write(String.format(Locale.US, "\\u%04x", (int) ch));
+            } else {
+                out.write(ch);
+            }
+        }
+        out.write('"');
+    }
+
+    private static void writeCsv(Writer out, String s) throws IOException {
+        if (s == null) return;
+        boolean quote = false;
+        for (int i = 0; i < s.length() && !quote; i++) {
+            char ch = s.charAt(i);
+            quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+        }
+        if (!quote) {
+            out.write(s);
+            return;
+        }
+        out.write('"');
+        out.write(s.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    /**
+     * Open-addressing hash set of longs (duplicate keys without boxing)
+     */
+    private static final class LongSet {
+        private static final long EMPTY = Long.MIN_VALUE;
+        private long[] slots = newTable(1024);
+        private int size;
+
+        private static long[] newTable(int capacity) {
+            long[] t = new long[capacity];
+            Arrays.fill(t, EMPTY);
+            return t;
+        }
+
+        /**
+         * @return True if the key was not present
+         */
+        boolean add(long key) {
+            if (size * 2 >= slots.length) grow();
+            int mask = slots.length - 1;
+            int i = mix(key) & mask;
+            while (slots[i] != EMPTY) {
+                if (slots[i] == key) return false;
+                i = (i + 1) & mask;
+            }
+            slots[i] = key;
+            size++;
+            return true;
+        }
+
+        void clear() {
+            slots = newTable(1024);
+            size = 0;
+        }
+
+        private void grow() {
+            long[] old = slots;
+            slots = newTable(old.length * 2);
+            size = 0;
+            for (long k : old) {
+                if (k != EMPTY) add(k);
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * HedgedRouter - Races offline and online routing for one screen
+ *
+ * Instead of choosing online or offline routing up front, every request
+ * starts the offline road graph search right away and, if the network is
+ * up and the online circuit breaker allows it, an OSRM request with a
+ * short deadline in parallel. The first usable route is shown at once. A
+ * better one (online beats the offline graph, which beats a straight line)
+ * that arrives within the upgrade window replaces it; anything later is
+ * ignored so the route doesn't change under a driver who has set off.
+ * A straight line is drawn only when neither router can produce a route.
+ *
+ * Main thread only. A new request or cancel() makes every result of the
+ * previous request stale.
+ */
+package com.example.offlinenav;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+
+import org.osmdroid.bonuspack.routing.Road;
+import org.osmdroid.util.GeoPoint;
+
+public class HedgedRouter {
+
+    private static final String TAG = "HedgedRouter";
+    static final long ONLINE_DEADLINE_MS = 8_000;         // Online answer wanted within this
+    static final long UPGRADE_WINDOW_MS = 10_000;         // After the first route, better ones may replace it
+
+    // Route quality, higher is better
+    private static final int RANK_NONE = -1;
+    private static final int RANK_STRAIGHT = 0;
+    private static final int RANK_OFFLINE = 1;
+    private static final int RANK_ONLINE = 2;
+
+    /**
+     * Receives the routes this router made active in the navigation service
+     */
+    public interface Listener {
+        /**
+         * @param route The route now being followed
+         * @param upgrade True if it replaced a worse route shown for this request
+         */
+        void onRouteShown(NavigationService.ActiveRoute route, boolean upgrade);
+    }
+
+    private final LifecycleOwner owner;
+    private final RoutingService online;
+    private int generation;
+
+    public HedgedRouter(LifecycleOwner owner, RoutingService online) {
+        this.owner = owner;
+        this.online = online;
+    }
+
+    /**
+     * Start racing the routers for a new request, superseding the previous one
+     *
+     * @param navigation Service that follows the chosen route and runs the offline search
+     * @param connected Whether a network is available for the online request
+     */
+    public void route(NavigationService navigation, GeoPoint start, GeoPoint end, boolean connected,
+                      Listener listener) {
+        cancel();
+        Attempt attempt = new Attempt(generation, navigation, start, end, listener);
+        attempt.start(connected);
+    }
+
+    /**
+     * Drop the current request; its late results are ignored
+     */
+    public void cancel() {
+        generation++;
+        online.cancel(owner);
+    }
+
+    /**
+     * One request and the routes that arrived for it
+     */
+    private final class Attempt {
+        final int id;
+        final NavigationService navigation;
+        final GeoPoint start, end;
+        final Listener listener;
+        final long startedMs = SystemClock.elapsedRealtime();
+        boolean onlinePending, offlinePending;
+        int shownRank = RANK_NONE;
+        long shownAtMs;
+        NavigationService.ActiveRoute shown;
+
+        Attempt(int id, NavigationService navigation, GeoPoint start, GeoPoint end, Listener listener) {
+            this.id = id;
+            this.navigation = navigation;
+            this.start = start;
+            this.end = end;
+            this.listener = listener;
+        }
+
+        void start(boolean connected) {
+            // Checked last: when half-open it hands out the breaker's single trial call,
+            // so only ask once request() cannot refuse a destroyed owner
+            if (connected && owner.getLifecycle().getCurrentState() != Lifecycle.State.DESTROYED
+                    && online.isOnlineAllowed()) {
+                onlinePending = online.request(owner, start, end, navigation.getRoutingProfile(), ONLINE_DEADLINE_MS,
+                        new RoutingService.Callback() {
+                            @Override
+                            public void onRoute(Road road) {
+                                onOnline(road);
+                            }
+                        }) != null;
+            }
+            if (navigation.isOfflineRoutingReady()) {
+                offlinePending = true;
+                navigation.routeOffline(start, end, new DataLayer.Callback<OfflineRouter.Route>() {
+                    @Override
+                    public void onResult(OfflineRouter.Route route) {
+                        onOffline(route);
+                    }
+                });
+            }
+            fallBackIfExhausted();
+        }
+
+        void onOnline(Road road) {
+            if (isStale()) return;
+            onlinePending = false;
+            if (road != null && road.mStatus == Road.STATUS_OK) {
+                if (accepts(RANK_ONLINE)) show(navigation.followOnlineRoute(start, end, road), RANK_ONLINE);
+            } else {
+                fallBackIfExhausted();
+            }
+        }
+
+        void onOffline(OfflineRouter.Route route) {
+            if (isStale()) return;
+            offlinePending = false;
+            if (route != null) {
+                if (accepts(RANK_OFFLINE)) show(navigation.followGraphRoute(start, end, route), RANK_OFFLINE);
+            } else {
+                fallBackIfExhausted();
+            }
+        }
+
+        /**
+         * Both routers are done (or were never started) without a route
+         */
+        void fallBackIfExhausted() {
+            if (shownRank == RANK_NONE && !onlinePending && !offlinePending) {
+                show(navigation.followStraightLine(start, end), RANK_STRAIGHT);
+            }
+        }
+
+        /**
+         * Whether a route of this quality should be shown now
+         */
+        boolean accepts(int rank) {
+            if (shownRank == RANK_NONE) return true;
+            if (rank <= shownRank) return false;
+            // Still the route the service follows, and the driver has hardly started on it
+            return navigation.getActiveRoute() == shown
+                    && SystemClock.elapsedRealtime() - shownAtMs <= UPGRADE_WINDOW_MS;
+        }
+
+        void show(NavigationService.ActiveRoute route, int rank) {
+            boolean upgrade = shownRank != RANK_NONE;
+            shown = route;
+            shownRank = rank;
+            shownAtMs = SystemClock.elapsedRealtime();
+            Log.i(TAG, (upgrade ? "Upgraded to " : "Showing ") + route.source + " route after "
+                    + (shownAtMs - startedMs) + " ms");
+            listener.onRouteShown(route, upgrade);
+        }
+
+        boolean isStale() {
+            return id != generation || owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED;
+        }
+    }
+}
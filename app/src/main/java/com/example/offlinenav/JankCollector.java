@@ -0,0 +1,193 @@
+/**
+ * JankCollector - Frame times of the map screen, attributed to what the map was doing
+ *
+ * Listens to the window's FrameMetrics (API 24+) on a background thread
+ * and records each frame's total duration into a "frame.<interaction>"
+ * histogram. A frame over the display's frame budget also counts as
+ * "jank.<interaction>"; one over 700 ms counts as "jank.frozen". A frame is
+ * attributed to the most specific interaction active at its vsync:
+ *
+ *   ROUTE_REDRAW  the route overlay was rebuilt
+ *   ZOOM          the zoom level changed
+ *   FLING         the map scrolled with no finger down (fling or animation)
+ *   PAN           the map scrolled under a finger
+ *   IDLE          none of the above
+ *
+ * Interactions are picked up from the map's scroll/zoom events and touch
+ * stream; route rebuilds are marked by the screen. Recording only happens
+ * while metrics are on; start() and stop() attach and detach the listener.
+ */
+package com.example.offlinenav;
+
+import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.FrameMetrics;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.Window;
+
+import org.osmdroid.events.MapListener;
+import org.osmdroid.events.ScrollEvent;
+import org.osmdroid.events.ZoomEvent;
+import org.osmdroid.views.MapView;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class JankCollector {
+
+    private static final long HOLD_NS = 150_000_000L;           // An interaction covers frames this long after its last event
+    private static final long FROZEN_NS = 700_000_000L;         // Android vitals' frozen frame threshold
+
+    /**
+     * What the map was doing during a frame, most specific first
+     */
+    public enum Interaction {
+        ROUTE_REDRAW, ZOOM, FLING, PAN, IDLE;
+
+        final String key = name().toLowerCase(Locale.US);
+        final Metrics.Histogram frames = Metrics.histogram("frame." + key);
+        final Metrics.Counter janky = Metrics.counter("jank." + key);
+    }
+
+    private static final Metrics.Counter FROZEN = Metrics.counter("jank.frozen");
+
+    private final Activity activity;
+    private final AtomicLongArray lastActiveNs = new AtomicLongArray(Interaction.values().length);
+    private volatile boolean dragging;
+    private final long budgetNs;
+    private HandlerThread thread;
+    private Object listener;                                     // Window.OnFrameMetricsAvailableListener on API 24+
+
+    public JankCollector(Activity activity) {
+        this.activity = activity;
+        float refreshHz = activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+        budgetNs = (long) (1e9 / (refreshHz >= 30 ? refreshHz : 60));
+        for (int i = 0; i < lastActiveNs.length(); i++) lastActiveNs.set(i, Long.MIN_VALUE / 2);
+    }
+
+    /**
+     * Follow the map's scroll, zoom and touch events to tell pans, flings and zooms apart
+     */
+    @SuppressLint("ClickableViewAccessibility")
+    public void attach(MapView map) {
+        map.addMapListener(new MapListener() {
+            @Override
+            public boolean onScroll(ScrollEvent event) {
+                mark(dragging ? Interaction.PAN : Interaction.FLING);
+                return false;
+            }
+
+            @Override
+            public boolean onZoom(ZoomEvent event) {
+                mark(Interaction.ZOOM);
+                return false;
+            }
+        });
+        map.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View v, MotionEvent event) {
+                int action = event.getActionMasked();
+                if (action == MotionEvent.ACTION_DOWN) {
+                    dragging = true;
+                } else if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+                    dragging = false;
+                }
+                return false;  // The map still handles the gesture
+            }
+        });
+    }
+
+    /**
+     * Treat map scrolls as finger drags, e.g. for a scripted pan
+     */
+    public void setDragging(boolean dragging) {
+        this.dragging = dragging;
+    }
+
+    /**
+     * Note that an interaction is happening now (any thread)
+     */
+    public void mark(Interaction interaction) {
+        lastActiveNs.set(interaction.ordinal(), System.nanoTime());
+    }
+
+    public long getFrameBudgetNs() {
+        return budgetNs;
+    }
+
+    /**
+     * Start receiving frame metrics; does nothing below API 24
+     */
+    public void start() {
+        if (thread != null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return;
+        thread = new HandlerThread("frame-metrics");
+        thread.start();
+        Window.OnFrameMetricsAvailableListener l = new Window.OnFrameMetricsAvailableListener() {
+            @Override
+            public void onFrameMetricsAvailable(Window window, FrameMetrics metrics, int dropCount) {
+                onFrame(metrics);
+            }
+        };
+        activity.getWindow().addOnFrameMetricsAvailableListener(l, new Handler(thread.getLooper()));
+        listener = l;
+    }
+
+    public void stop() {
+        if (thread == null) return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            try {
+                activity.getWindow().removeOnFrameMetricsAvailableListener(
+                        (Window.OnFrameMetricsAvailableListener) listener);
+            } catch (IllegalArgumentException e) {
+                // Already detached with the window
+            }
+        }
+        thread.quitSafely();
+        thread = null;
+        listener = null;
+    }
+
+    /**
+     * Frame metrics thread
+     */
+    private void onFrame(FrameMetrics metrics) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return;
+        if (metrics.getMetric(FrameMetrics.FIRST_DRAW_FRAME) == 1) return;  // Layout of a new window, not a map frame
+        long totalNs = metrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        long vsyncNs = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? metrics.getMetric(FrameMetrics.INTENDED_VSYNC_TIMESTAMP)
+                : System.nanoTime() - totalNs;
+        Interaction interaction = Interaction.IDLE;
+        for (Interaction candidate : Interaction.values()) {
+            long since = vsyncNs - lastActiveNs.get(candidate.ordinal());
+            if (since >= -budgetNs && since <= HOLD_NS) {
+                interaction = candidate;
+                break;
+            }
+        }
+        interaction.frames.recordUs(totalNs / 1000);
+        if (totalNs > budgetNs) interaction.janky.inc();
+        if (totalNs > FROZEN_NS) FROZEN.inc();
+    }
+
+    /**
+     * One line per interaction that had frames, e.g. "pan: 240 frames, 12 janky (5.0%), p50 9.8 ms ..."
+     */
+    public static String getReport() {
+        StringBuilder sb = new StringBuilder();
+        for (Interaction i : Interaction.values()) {
+            long frames = i.frames.getCount();
+            if (frames == 0) continue;
+            long janky = i.janky.get();
+            sb.append(String.format(Locale.US, "%s: %d frames, %d janky (%.1f%%), p50 %.1f ms, p90 %.1f ms, p99 %.1f ms%n",
+                    i.key, frames, janky, 100.0 * janky / frames, i.frames.percentileUs(50) / 1000.0,
+                    i.frames.percentileUs(90) / 1000.0, i.frames.percentileUs(99) / 1000.0));
+        }
+        if (FROZEN.get() > 0) sb.append(FROZEN.get()).append(" frozen frames\n");
+        return sb.length() == 0 ? "No frames recorded" : sb.toString().trim();
+    }
+}
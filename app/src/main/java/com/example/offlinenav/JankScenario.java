@@ -0,0 +1,191 @@
+/**
+ * JankScenario - Scripted pan/zoom/route-redraw run for comparable jank reports
+ *
+ * Drives the map through the same fixed sequence every time: from a fixed
+ * Beirut viewport it drags the map in a square, animates to four nearby
+ * points, zooms in and out twice and redraws the current route five
+ * times. Metrics are reset at the start and recorded for the whole run, so
+ * the resulting report depends only on the build and the device; export
+ * it from two builds on the same device and compare the frame.* and
+ * jank.* entries.
+ *
+ * Main thread only.
+ */
+package com.example.offlinenav;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class JankScenario {
+
+    public static final String NAME = "pan-zoom-route-v1";     // Bump when the script changes
+    private static final double START_LAT = 33.8938, START_LON = 35.5018;
+    private static final double START_ZOOM = 14;
+    private static final long SETTLE_MS = 1500;                 // Tiles of the start viewport load
+    private static final long DRAG_FRAME_MS = 16;
+    private static final int DRAG_FRAMES = 45;                  // Per side of the square
+    private static final int DRAG_STEP_PX = 12;
+    private static final long ANIMATION_MS = 1200;              // Room for one animateTo/zoom animation
+    private static final long REDRAW_MS = 400;
+
+    /**
+     * Receives the finished run
+     */
+    public interface Listener {
+        /**
+         * @param json Metrics snapshot with the run's settings, for export
+         * @param summary Readable per-interaction frame summary
+         */
+        void onScenarioFinished(String json, String summary);
+    }
+
+    private final MapView map;
+    private final JankCollector collector;
+    private final Runnable redrawRoute;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Runnable> steps = new ArrayList<>();
+    private final List<Long> delaysMs = new ArrayList<>();
+    private boolean running;
+    private boolean wasEnabled;                                 // Metrics recording before the run
+
+    /**
+     * @param redrawRoute Rebuilds the route overlay (and marks ROUTE_REDRAW)
+     */
+    public JankScenario(MapView map, JankCollector collector, Runnable redrawRoute) {
+        this.map = map;
+        this.collector = collector;
+        this.redrawRoute = redrawRoute;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Run the script; metrics recording is restored to its previous state afterwards
+     */
+    public void start(final Listener listener) {
+        if (running) return;
+        running = true;
+        wasEnabled = Metrics.isEnabled();
+        steps.clear();
+        delaysMs.clear();
+
+        step(0, new Runnable() {
+            @Override
+            public void run() {
+                map.getController().setZoom(START_ZOOM);
+                map.getController().setCenter(new GeoPoint(START_LAT, START_LON));
+            }
+        });
+        step(SETTLE_MS, new Runnable() {
+            @Override
+            public void run() {
+                Metrics.reset();
+                Metrics.setEnabled(true);
+                collector.start();
+                collector.setDragging(true);
+            }
+        });
+        // Drag a square, one small scroll per frame
+        int[][] directions = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+        for (final int[] d : directions) {
+            for (int f = 0; f < DRAG_FRAMES; f++) {
+                step(DRAG_FRAME_MS, new Runnable() {
+                    @Override
+                    public void run() {
+                        map.scrollBy(d[0] * DRAG_STEP_PX, d[1] * DRAG_STEP_PX);
+                    }
+                });
+            }
+        }
+        step(DRAG_FRAME_MS, new Runnable() {
+            @Override
+            public void run() {
+                collector.setDragging(false);
+            }
+        });
+        // Animated moves, like flings
+        double[][] targets = {{0.02, 0.02}, {-0.02, 0.02}, {-0.02, -0.02}, {0, 0}};
+        for (final double[] t : targets) {
+            step(ANIMATION_MS, new Runnable() {
+                @Override
+                public void run() {
+                    map.getController().animateTo(new GeoPoint(START_LAT + t[0], START_LON + t[1]));
+                }
+            });
+        }
+        for (int i = 0; i < 2; i++) {
+            step(ANIMATION_MS, new Runnable() {
+                @Override
+                public void run() {
+                    map.getController().zoomIn();
+                }
+            });
+            step(ANIMATION_MS, new Runnable() {
+                @Override
+                public void run() {
+                    map.getController().zoomOut();
+                }
+            });
+        }
+        for (int i = 0; i < 5; i++) {
+            step(i == 0 ? ANIMATION_MS : REDRAW_MS, redrawRoute);
+        }
+        step(ANIMATION_MS, new Runnable() {
+            @Override
+            public void run() {
+                String json = String.format(Locale.US,
+                        "{\"scenario\":\"%s\",\"build\":\"%s (%d)\",\"device\":\"%s %s\",\"sdk\":%d,"
+                                + "\"frameBudgetUs\":%d,\"metrics\":%s}",
+                        NAME, BuildConfig.VERSION_NAME, BuildConfig.VERSION_CODE,
+                        Build.MANUFACTURER.replace("\"", ""), Build.MODEL.replace("\"", ""), Build.VERSION.SDK_INT,
+                        collector.getFrameBudgetNs() / 1000, Metrics.toJson(System.currentTimeMillis()));
+                String summary = JankCollector.getReport();
+                finish();
+                listener.onScenarioFinished(json, summary);
+            }
+        });
+        runStep(0);
+    }
+
+    /**
+     * Stop a running script (e.g. the screen is going away)
+     */
+    public void cancel() {
+        if (!running) return;
+        handler.removeCallbacksAndMessages(null);
+        collector.setDragging(false);
+        finish();
+    }
+
+    private void finish() {
+        Metrics.setEnabled(wasEnabled);
+        if (!wasEnabled) collector.stop();
+        running = false;
+    }
+
+    private void step(long delayMs, Runnable action) {
+        delaysMs.add(delayMs);
+        steps.add(action);
+    }
+
+    private void runStep(final int index) {
+        if (index >= steps.size()) return;
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                steps.get(index).run();
+                runStep(index + 1);
+            }
+        }, delaysMs.get(index));
+    }
+}
@@ -1,28 +1,33 @@
 package com.example.offlinenav;
 
 import android.Manifest;
-import android.content.ContentValues;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Color;
+import android.graphics.drawable.Drawable;
 import android.location.Address;
 import android.location.Geocoder;
 import android.location.Location;
-import android.location.LocationListener;
 import android.location.LocationManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.RadioGroup;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -30,16 +35,16 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import org.osmdroid.bonuspack.routing.OSRMRoadManager;
-import org.osmdroid.bonuspack.routing.Road;
-import org.osmdroid.bonuspack.routing.RoadManager;
-import org.osmdroid.config.Configuration;
+import org.osmdroid.api.IGeoPoint;
 import org.osmdroid.tileprovider.IRegisterReceiver;
 import org.osmdroid.tileprovider.MapTileProviderArray;
+import org.osmdroid.tileprovider.MapTileRequestState;
+import org.osmdroid.tileprovider.modules.IArchiveFile;
 import org.osmdroid.tileprovider.modules.MBTilesFileArchive;
 import org.osmdroid.tileprovider.modules.MapTileFileArchiveProvider;
 import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.Marker;
@@ -48,8 +53,14 @@ import org.osmdroid.views.overlay.mylocation.GpsMyLocationProvider;
 import org.osmdroid.views.overlay.mylocation.MyLocationNewOverlay;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
@@ -59,54 +70,93 @@ import java.util.Locale;
  * Handles all map interactions, location services, routing, and user interface
  * for the offline navigation application.
  */
-public class MainActivity extends AppCompatActivity implements LocationListener {
+public class MainActivity extends AppCompatActivity {
 
     // Map and location components
     private MapView map = null;                           // Main map view component
     private MyLocationNewOverlay myLocationOverlay;       // GPS location overlay
-    private LocationManager locationManager;              // Android location manager
+
+    // Navigation session (route, guidance, location stream, road graph) lives in the service
+    private NavigationService navigation;                 // Null until bound
+    private boolean navigationIntentPending;              // Favorites navigation waiting for the service
+    private boolean notificationPermissionAsked;          // Asked once per screen, not on every route
+    private RoutingService routingService;                // Shared, cancellable OSRM requests
+    private HedgedRouter hedgedRouter;                    // Races offline and online routing
 
     // UI components
     private EditText sourceEditText, destinationEditText; // Text inputs for locations
+    private TextView guidanceView;                        // Turn-by-turn banner
+    private RadioGroup profileGroup;                      // Car / scooter / walk selector
 
     // Location services
-    private Geocoder geocoder;                            // Converts addresses to coordinates
+    private Geocoder geocoder;                            // Converts addresses to coordinates (lazy)
 
     // Map overlays
     private Marker sourceMarker, destinationMarker;       // Start and end point markers
+    private final List<Marker> placeMarkers = new ArrayList<>(); // Nearest services from the support screen
     private Polyline routeLine;                           // Route visualization line
+    private MetricsOverlay metricsOverlay;                // Debug metrics panel, null when hidden
+    private JankCollector jankCollector;                  // Frame times per map interaction
+    private JankScenario jankScenario;                    // Scripted pan/zoom run for jank reports
 
     // State variables
     private boolean isOfflineMode = false;               // Whether using offline maps
-    private FavoritesDbHelper favoritesDbHelper;          // Database helper for favorites
+    private StartupTracer startupTracer;                  // Staged cold start timeline
+    private int pendingStartupStages = 2;                 // Tiles and location, then fully drawn
+    private DataLayer data;                               // Shared database threads (favorites)
     private GeoPoint sourcePoint = null;                  // Current source location
     private GeoPoint destinationPoint = null;             // Current destination location
 
     // Constants
+    private static final String TAG = "MainActivity";
     private static final int LOCATION_PERMISSION_REQUEST = 1; // Permission request code
+    private static final int NOTIFICATION_PERMISSION_REQUEST = 2;
+    static final String VIEWPORT_PREFS = "map_viewport";  // Last map position, restored at start
+    private static final String PREF_VIEW_LAT = "lat";
+    private static final String PREF_VIEW_LON = "lon";
+    private static final String PREF_VIEW_ZOOM = "zoom";
+    private static final long MAX_LAST_FIX_AGE_MS = 2 * 60_000;  // Older last known fixes can't pick a cached route
+    private static final int MENU_EXPORT_TRIP_GPX = Menu.FIRST + 100;     // Option menu ids local to this screen
+    private static final int MENU_EXPORT_TRIP_GEOJSON = Menu.FIRST + 101;
+    private static final int MENU_METRICS_OVERLAY = Menu.FIRST + 102;
+    private static final int MENU_EXPORT_METRICS = Menu.FIRST + 103;
+    private static final int MENU_JANK_SCENARIO = Menu.FIRST + 104;
+    private static final int MENU_REPLAY_TRACE = Menu.FIRST + 105;
+
+    private static final Metrics.Histogram GEOCODE_TIME = Metrics.histogram("geocode");
+    private static final Metrics.Counter GEOCODE_NOT_FOUND = Metrics.counter("geocode.not_found");
+    private static final Metrics.Counter GEOCODE_FAILED = Metrics.counter("geocode.failed");
+    private static final Metrics.Counter TILE_CACHE_HITS = Metrics.counter("tile.memory.hit");
+    private static final Metrics.Counter TILE_CACHE_MISSES = Metrics.counter("tile.memory.miss");
+    private static final Metrics.Histogram ROUTE_REBUILD_TIME = Metrics.histogram("route.rebuild");
 
     /**
      * Initialize the main activity and set up all UI components and services
      *
-     * This method:
-     * - Configures OSMDroid map settings
+     * Startup is staged so the map is drawn before anything slow runs:
+     * - Waits for the OSMDroid configuration (normally already loaded)
      * - Sets up the action bar
-     * - Initializes database helper
+     * - Connects to the shared data layer and binds to the navigation service
      * - Finds and configures UI elements
-     * - Sets up map with offline support
-     * - Configures location tracking
-     * - Handles navigation intents from favorites
+     * - Restores the last viewport and opens the offline tile archive in the background
      * - Sets up all button click listeners
+     * - Once bound: restores the active route and handles navigation intents from favorites
+     * - After the first frame: location tracking
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        startupTracer = new StartupTracer(TAG);
         super.onCreate(savedInstanceState);
 
-        // Load OSMDroid configuration from shared preferences
-        Configuration.getInstance().load(this, PreferenceManager.getDefaultSharedPreferences(this));
+        // OSMDroid configuration is loaded off the main thread at process start
+        startupTracer.begin("map-config");
+        OfflineNavApp.awaitMapConfiguration();
+        startupTracer.end("map-config");
 
         // Set the main layout
+        startupTracer.begin("inflate");
         setContentView(R.layout.activity_main);
+        startupTracer.end("inflate");
 
         // Enable action bar without back button (this is main screen)
         if (getSupportActionBar() != null) {
@@ -114,11 +164,13 @@ public class MainActivity extends AppCompatActivity implements LocationListener
             getSupportActionBar().setDisplayHomeAsUpEnabled(false);
         }
 
-        favoritesDbHelper = new FavoritesDbHelper(this);
+        data = DataLayer.get(this);
 
         map = findViewById(R.id.mapview);
         sourceEditText = findViewById(R.id.et_source);
         destinationEditText = findViewById(R.id.et_destination);
+        guidanceView = findViewById(R.id.tv_guidance);
+        profileGroup = findViewById(R.id.rg_routing_profile);
         Button useMyLocationButton = findViewById(R.id.btn_use_my_location);
         Button searchDestinationButton = findViewById(R.id.btn_search_destination);
         Button calculateRouteButton = findViewById(R.id.btn_calculate_route);
@@ -126,22 +178,26 @@ public class MainActivity extends AppCompatActivity implements LocationListener
         Button myLocationButton = findViewById(R.id.btn_my_location);
         Button supportCallButton = findViewById(R.id.btn_support_call);
 
-        // Initialize geocoder for search
-        geocoder = new Geocoder(this, Locale.getDefault());
-
-        // Setup map with offline support
-        setupMapWithOfflineSupport();
-
+        // Show the last viewport right away; the tile archive opens in the background
         map.setMultiTouchControls(true);
-        map.getController().setZoom(12.0);
-        // Default center: Beirut, Lebanon
-        map.getController().setCenter(new GeoPoint(33.8886, 35.4955));
+        restoreViewport();
+        setupMapWithOfflineSupport();
+        jankCollector = new JankCollector(this);
+        jankCollector.attach(map);
+        jankScenario = new JankScenario(map, jankCollector, new Runnable() {
+            @Override
+            public void run() {
+                if (navigation != null) renderRoute(navigation.getActiveRoute());
+            }
+        });
+        if (Metrics.isEnabled()) showMetricsOverlay(true);  // Still on from before a recreate
 
-        // Setup location tracking
-        setupLocationTracking();
+        routingService = RoutingService.get(this);
+        hedgedRouter = new HedgedRouter(this, routingService);
 
-        // Check if launched from favorites with navigation intent
-        handleNavigationIntent();
+        // A recreated screen finds its route in the service; only a fresh launch navigates
+        navigationIntentPending = savedInstanceState == null;
+        bindService(new Intent(this, NavigationService.class), navigationConnection, Context.BIND_AUTO_CREATE);
 
         // Use My Location as source
         useMyLocationButton.setOnClickListener(new View.OnClickListener() {
@@ -173,6 +229,15 @@ public class MainActivity extends AppCompatActivity implements LocationListener
             }
         });
 
+        // Travel mode selector
+        profileGroup.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(RadioGroup group, int checkedId) {
+                selectRoutingProfile(checkedId == R.id.rb_profile_foot ? RoutingProfile.FOOT
+                        : checkedId == R.id.rb_profile_motorcycle ? RoutingProfile.MOTORCYCLE : RoutingProfile.CAR);
+            }
+        });
+
         // Save Favorite button
         saveFavoriteButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -197,6 +262,153 @@ public class MainActivity extends AppCompatActivity implements LocationListener
                 startActivity(i);
             }
         });
+
+        // Everything else waits until the map has been drawn once
+        startupTracer.onFirstFrame(map, new Runnable() {
+            @Override
+            public void run() {
+                if (!isDestroyed()) startDeferredStages();
+            }
+        });
+    }
+
+    /**
+     * Startup work that can wait for the first frame, most important first
+     *
+     * Location comes first (it drives the map and guidance), then scheduling
+     * of background jobs. The road graph loads in the navigation service.
+     * The screen counts as fully drawn once tiles and location are set up.
+     */
+    private void startDeferredStages() {
+        startupTracer.begin("location");
+        setupLocationTracking();
+        startupTracer.end("location");
+        onStartupStageDone();
+
+        // Keep learning speeds from trips
+        SpeedProfileJobService.schedule(this);
+    }
+
+    /**
+     * Attaches this screen to the navigation session and restores its state
+     */
+    private final ServiceConnection navigationConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            navigation = ((NavigationService.LocalBinder) service).getService();
+            navigation.addListener(navigationListener);
+            startupTracer.mark("navigation-bound");
+            if (myLocationOverlay != null) navigation.startLocationUpdates();
+
+            // The session's travel mode wins over this screen's default
+            RoutingProfile profile = navigation.getRoutingProfile();
+            profileGroup.check(profile == RoutingProfile.FOOT ? R.id.rb_profile_foot
+                    : profile == RoutingProfile.MOTORCYCLE ? R.id.rb_profile_motorcycle : R.id.rb_profile_car);
+
+            NavigationService.ActiveRoute route = navigation.getActiveRoute();
+            if (route != null) {
+                if (sourcePoint == null) sourcePoint = route.start;
+                if (destinationPoint == null) destinationPoint = route.end;
+                renderRoute(route);
+            }
+            renderBanner(navigation.getBanner());
+
+            if (navigationIntentPending) {
+                navigationIntentPending = false;
+                handleNavigationIntent();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            navigation = null;
+        }
+    };
+
+    /**
+     * Renders navigation state pushed by the service
+     */
+    private final NavigationService.Listener navigationListener = new NavigationService.Listener() {
+        @Override
+        public void onRouteChanged(NavigationService.ActiveRoute route) {
+            renderRoute(route);
+        }
+
+        @Override
+        public void onGuidance(String banner) {
+            renderBanner(banner);
+        }
+
+        @Override
+        public void onArrived() {
+            Toast.makeText(MainActivity.this, "You have arrived", Toast.LENGTH_LONG).show();
+        }
+    };
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        // Navigate from favorites reuses this screen (and its bound session)
+        setIntent(intent);
+        if (navigation != null) {
+            handleNavigationIntent();
+        } else {
+            navigationIntentPending = true;
+        }
+    }
+
+    /**
+     * One of the stages the screen needs to be fully usable has finished
+     */
+    private void onStartupStageDone() {
+        if (--pendingStartupStages == 0) {
+            startupTracer.reportFullyDrawn(this);
+        }
+    }
+
+    /**
+     * Center the map where it was last left, or on Beirut on first use
+     */
+    private void restoreViewport() {
+        SharedPreferences prefs = getSharedPreferences(VIEWPORT_PREFS, MODE_PRIVATE);
+        if (prefs.contains(PREF_VIEW_LAT)) {
+            map.getController().setZoom((double) prefs.getFloat(PREF_VIEW_ZOOM, 12f));
+            map.getController().setCenter(new GeoPoint(prefs.getFloat(PREF_VIEW_LAT, 0f),
+                    prefs.getFloat(PREF_VIEW_LON, 0f)));
+        } else {
+            map.getController().setZoom(12.0);
+            // Default center: Beirut, Lebanon
+            map.getController().setCenter(new GeoPoint(33.8886, 35.4955));
+        }
+    }
+
+    private void saveViewport() {
+        IGeoPoint center = map.getMapCenter();
+        getSharedPreferences(VIEWPORT_PREFS, MODE_PRIVATE).edit()
+                .putFloat(PREF_VIEW_LAT, (float) center.getLatitude())
+                .putFloat(PREF_VIEW_LON, (float) center.getLongitude())
+                .putFloat(PREF_VIEW_ZOOM, (float) map.getZoomLevelDouble())
+                .apply();
+    }
+
+    /**
+     * Geocoder for address search, created on first use
+     */
+    private Geocoder getGeocoder() {
+        if (geocoder == null) {
+            geocoder = new Geocoder(this, Locale.getDefault());
+        }
+        return geocoder;
+    }
+
+    /**
+     * Switch the travel mode; the route on screen is recomputed for it right away
+     */
+    private void selectRoutingProfile(RoutingProfile profile) {
+        if (navigation == null || navigation.getRoutingProfile() == profile) return;
+        navigation.setRoutingProfile(profile);
+        NavigationService.ActiveRoute route = navigation.getActiveRoute();
+        if (route != null) calculateRoute(route.start, route.end);
     }
 
     private void calculateRouteFromInputs() {
@@ -256,7 +468,9 @@ public class MainActivity extends AppCompatActivity implements LocationListener
         imm.hideSoftInputFromWindow(isDestination ? destinationEditText.getWindowToken() : sourceEditText.getWindowToken(), 0);
 
         try {
-            List<Address> addresses = geocoder.getFromLocationName(query, 1);
+            long t0 = Metrics.start();
+            List<Address> addresses = getGeocoder().getFromLocationName(query, 1);
+            GEOCODE_TIME.stop(t0);
             if (addresses != null && !addresses.isEmpty()) {
                 Address address = addresses.get(0);
                 GeoPoint point = new GeoPoint(address.getLatitude(), address.getLongitude());
@@ -269,7 +483,7 @@ public class MainActivity extends AppCompatActivity implements LocationListener
                     
                     // Add destination marker
                     if (destinationMarker == null) {
-                        destinationMarker = new Marker(map);
+                        destinationMarker = new TracedOverlays.Pin(map);
                         map.getOverlays().add(destinationMarker);
                         destinationMarker.setOnMarkerClickListener(new Marker.OnMarkerClickListener() {
                             @Override
@@ -288,7 +502,7 @@ public class MainActivity extends AppCompatActivity implements LocationListener
                     sourcePoint = point;
                     // Add source marker
                     if (sourceMarker == null) {
-                        sourceMarker = new Marker(map);
+                        sourceMarker = new TracedOverlays.Pin(map);
                         map.getOverlays().add(sourceMarker);
                         sourceMarker.setOnMarkerClickListener(new Marker.OnMarkerClickListener() {
                             @Override
@@ -307,15 +521,40 @@ public class MainActivity extends AppCompatActivity implements LocationListener
                 map.invalidate();
                 Toast.makeText(this, "Found: " + address.getAddressLine(0), Toast.LENGTH_SHORT).show();
             } else {
+                GEOCODE_NOT_FOUND.inc();
                 Toast.makeText(this, "Location not found. Try a different search.", Toast.LENGTH_LONG).show();
             }
         } catch (IOException e) {
+            GEOCODE_FAILED.inc();
             Toast.makeText(this, "Search error: " + e.getMessage(), Toast.LENGTH_LONG).show();
         }
     }
 
+    /**
+     * Newest last known fix of any enabled provider, or null if none is recent
+     */
+    private Location recentLastKnownLocation() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return null;
+        }
+        LocationManager locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        Location best = null;
+        for (String provider : locationManager.getProviders(true)) {
+            Location location = locationManager.getLastKnownLocation(provider);
+            if (location != null && (best == null || location.getTime() > best.getTime())) best = location;
+        }
+        if (best == null) return null;
+        long ageMs = (SystemClock.elapsedRealtimeNanos() - best.getElapsedRealtimeNanos()) / 1_000_000;
+        return ageMs <= MAX_LAST_FIX_AGE_MS ? best : null;
+    }
+
     private void handleNavigationIntent() {
         Intent intent = getIntent();
+        double[] placeLats = intent.getDoubleArrayExtra("places_lat");
+        if (placeLats != null) {
+            showPlaces(placeLats, intent.getDoubleArrayExtra("places_lon"), intent.getStringArrayExtra("places_name"));
+        }
         if (intent.getBooleanExtra("navigate", false)) {
             double lat = intent.getDoubleExtra("latitude", 0);
             double lon = intent.getDoubleExtra("longitude", 0);
@@ -330,11 +569,82 @@ public class MainActivity extends AppCompatActivity implements LocationListener
                     sourcePoint = myLocationOverlay.getMyLocation();
                     sourceEditText.setText("My Location");
                     calculateRoute(sourcePoint, destinationPoint);
+                } else {
+                    // No fix yet: use a route precomputed from near a recent last known position, if any
+                    OfflineRouting routing = OfflineRouting.getIfLoaded();
+                    Location last = recentLastKnownLocation();
+                    RouteCache.Entry cached = routing == null || last == null ? null : routing.getRouteCache()
+                            .get(lat, lon, last.getLatitude(), last.getLongitude(), System.currentTimeMillis());
+                    if (cached != null && cached.route.profile == navigation.getRoutingProfile()) {
+                        sourcePoint = new GeoPoint(cached.originLat, cached.originLon);
+                        sourceEditText.setText("My Location");
+                        drawGraphRoute(sourcePoint, destinationPoint, cached.route);
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Mark places found on the support screen, replacing earlier ones, and fit them on the map
+     */
+    private void showPlaces(double[] lats, double[] lons, String[] names) {
+        for (Marker marker : placeMarkers) map.getOverlays().remove(marker);
+        placeMarkers.clear();
+        final List<GeoPoint> points = new ArrayList<>();
+        for (int i = 0; i < lats.length; i++) {
+            GeoPoint point = new GeoPoint(lats[i], lons[i]);
+            Marker marker = new TracedOverlays.Pin(map);
+            marker.setPosition(point);
+            marker.setAnchor(Marker.ANCHOR_CENTER, Marker.ANCHOR_BOTTOM);
+            marker.setTitle(names[i]);
+            marker.setOnMarkerClickListener(new Marker.OnMarkerClickListener() {
+                @Override
+                public boolean onMarkerClick(Marker marker, MapView mapView) {
+                    showPlaceOptions(marker);
+                    return true;
+                }
+            });
+            map.getOverlays().add(marker);
+            placeMarkers.add(marker);
+            points.add(point);
+        }
+        GeoPoint here = myLocationOverlay != null ? myLocationOverlay.getMyLocation() : null;
+        if (here != null) points.add(here);
+        if (points.isEmpty()) return;
+        // Fitting needs the map's size, so wait for layout
+        map.post(new Runnable() {
+            @Override
+            public void run() {
+                if (points.size() == 1) {
+                    map.getController().animateTo(points.get(0));
+                } else {
+                    map.zoomToBoundingBox(BoundingBox.fromGeoPoints(points).increaseByScale(1.3f), true);
+                }
+            }
+        });
+        map.invalidate();
+    }
+
+    private void showPlaceOptions(final Marker marker) {
+        new android.app.AlertDialog.Builder(this)
+            .setTitle(marker.getTitle())
+            .setPositiveButton("Navigate here", (dialog, which) -> {
+                destinationPoint = marker.getPosition();
+                destinationEditText.setText(marker.getTitle());
+                GeoPoint here = myLocationOverlay != null ? myLocationOverlay.getMyLocation() : null;
+                if (here == null) {
+                    Toast.makeText(this, "Waiting for a location fix", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                sourcePoint = here;
+                sourceEditText.setText("My Location");
+                calculateRoute(sourcePoint, destinationPoint);
+            })
+            .setNeutralButton("Close", null)
+            .show();
+    }
+
     /**
      * Configure the map to use offline MBTiles if available, otherwise online tiles
      *
@@ -345,19 +655,53 @@ public class MainActivity extends AppCompatActivity implements LocationListener
      * MBTiles is a SQLite-based format for storing map tiles offline.
      */
     private void setupMapWithOfflineSupport() {
-        // Check for offline map file in app's private storage
-        File mbtiles = new File(getFilesDir(), "map.mbtiles");
+        // Until the source is decided only tiles already in osmdroid's cache are drawn
+        map.setUseDataConnection(false);
+        // Opening the archive is SQLite I/O, so it runs on a database reader thread
+        data.readExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final File mbtiles = new File(getFilesDir(), "map.mbtiles");
+                MBTilesFileArchive archive = null;
+                Exception error = null;
+                if (mbtiles.exists()) {
+                    try {
+                        archive = MBTilesFileArchive.getDatabaseFileArchive(mbtiles);
+                    } catch (Exception e) {
+                        error = e;
+                    }
+                }
+                final MBTilesFileArchive opened = archive;
+                final Exception failure = error;
+                final long sizeMb = mbtiles.length() / 1024 / 1024;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isDestroyed()) {
+                            if (opened != null) opened.close();
+                            return;
+                        }
+                        applyTileSource(opened, failure, sizeMb);
+                    }
+                });
+            }
+        });
+    }
 
-        if (mbtiles.exists()) {
+    /**
+     * Install the opened offline archive, or fall back to online tiles (main thread)
+     *
+     * @param archive The opened map.mbtiles, or null if it is missing or failed to open
+     * @param error Why opening failed, or null
+     * @param sizeMb Archive size for the status message
+     */
+    private void applyTileSource(MBTilesFileArchive archive, Exception error, long sizeMb) {
+        if (archive != null) {
             try {
-                MBTilesFileArchive[] archives = new MBTilesFileArchive[]{
-                    MBTilesFileArchive.getDatabaseFileArchive(mbtiles)
-                };
-                
                 MapTileFileArchiveProvider archiveProvider = new MapTileFileArchiveProvider(
                     new SimpleRegisterReceiver(this),
                     TileSourceFactory.MAPNIK,
-                    archives
+                    new IArchiveFile[]{new MeteredArchiveFile(archive)}
                 );
                 
                 MapTileModuleProviderBase[] providers = new MapTileModuleProviderBase[]{archiveProvider};
@@ -365,32 +709,71 @@ public class MainActivity extends AppCompatActivity implements LocationListener
                     TileSourceFactory.MAPNIK,
                     null,
                     providers
-                );
+                ) {
+                    @Override
+                    public Drawable getMapTile(long mapTileIndex) {
+                        // Per drawn tile: decoded tile already in osmdroid's memory cache or not
+                        if (Metrics.isEnabled()) {
+                            (getTileCache().getMapTile(mapTileIndex) != null ? TILE_CACHE_HITS : TILE_CACHE_MISSES).inc();
+                        }
+                        return super.getMapTile(mapTileIndex);
+                    }
+
+                    @Override
+                    public void mapTileRequestCompleted(MapTileRequestState state, Drawable drawable) {
+                        Trace.beginSection("tiles:completed");
+                        try {
+                            super.mapTileRequestCompleted(state, drawable);
+                        } finally {
+                            Trace.endSection();
+                        }
+                    }
+                };
                 
                 map.setTileProvider(tileProvider);
                 isOfflineMode = true;
-                Toast.makeText(this, "✓ Using offline map (" + (mbtiles.length() / 1024 / 1024) + " MB)", 
+                Toast.makeText(this, "✓ Using offline map (" + sizeMb + " MB)", 
                               Toast.LENGTH_LONG).show();
             } catch (Exception e) {
-                map.setTileSource(TileSourceFactory.MAPNIK);
-                isOfflineMode = false;
-                Toast.makeText(this, "Offline map error, using online: " + e.getMessage(), 
-                              Toast.LENGTH_LONG).show();
+                archive.close();
+                error = e;
             }
-        } else {
+        }
+        if (!isOfflineMode) {
             map.setTileSource(TileSourceFactory.MAPNIK);
-            isOfflineMode = false;
-            Toast.makeText(this, "Using online map. Place map.mbtiles in app files/ for offline mode.", 
-                          Toast.LENGTH_LONG).show();
+            map.setUseDataConnection(true);
+            if (error != null) {
+                Toast.makeText(this, "Offline map error, using online: " + error.getMessage(), 
+                              Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(this, "Using online map. Place map.mbtiles in app files/ for offline mode.", 
+                              Toast.LENGTH_LONG).show();
+            }
         }
+        startupTracer.mark("tiles");
+        onStartupStageDone();
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main_menu, menu);
+        menu.add(Menu.NONE, MENU_EXPORT_TRIP_GPX, Menu.NONE, "Export Trip (GPX)");
+        menu.add(Menu.NONE, MENU_EXPORT_TRIP_GEOJSON, Menu.NONE, "Export Trip (GeoJSON)");
+        menu.add(Menu.NONE, MENU_METRICS_OVERLAY, Menu.NONE, "Performance Overlay").setCheckable(true);
+        menu.add(Menu.NONE, MENU_EXPORT_METRICS, Menu.NONE, "Export Performance Metrics");
+        menu.add(Menu.NONE, MENU_JANK_SCENARIO, Menu.NONE, "Run Jank Scenario");
+        menu.add(Menu.NONE, MENU_REPLAY_TRACE, Menu.NONE, "Replay GPS Trace");
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(MENU_METRICS_OVERLAY).setChecked(metricsOverlay != null);
+        menu.findItem(MENU_REPLAY_TRACE).setTitle(navigation != null && navigation.isReplaying()
+                ? "Stop GPS Replay" : "Replay GPS Trace");
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         int id = item.getItemId();
@@ -409,11 +792,157 @@ public class MainActivity extends AppCompatActivity implements LocationListener
         } else if (id == R.id.menu_about) {
             showAboutDialog();
             return true;
+        } else if (id == MENU_EXPORT_TRIP_GPX || id == MENU_EXPORT_TRIP_GEOJSON) {
+            exportLatestTrip(id == MENU_EXPORT_TRIP_GPX);
+            return true;
+        } else if (id == MENU_METRICS_OVERLAY) {
+            showMetricsOverlay(metricsOverlay == null);
+            return true;
+        } else if (id == MENU_EXPORT_METRICS) {
+            exportMetrics();
+            return true;
+        } else if (id == MENU_JANK_SCENARIO) {
+            runJankScenario();
+            return true;
+        } else if (id == MENU_REPLAY_TRACE) {
+            replayTrace();
+            return true;
         }
         
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Export the most recent recorded trip to the app's external files directory
+     *
+     * The navigation service owns the trip recorder, so it does the export
+     * after any pending writes; recording continues in a new trip file.
+     *
+     * @param gpx true for GPX, false for GeoJSON
+     */
+    private void exportLatestTrip(boolean gpx) {
+        if (navigation == null) {
+            Toast.makeText(this, "Navigation is still starting, try again", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        navigation.exportLatestTrip(gpx, new DataLayer.Callback<String>() {
+            @Override
+            public void onResult(String message) {
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * Show or hide the on-map metrics panel; recording runs only while it is shown
+     */
+    private void showMetricsOverlay(boolean show) {
+        if (show && metricsOverlay == null) {
+            Metrics.setEnabled(true);
+            jankCollector.start();
+            metricsOverlay = new MetricsOverlay(map, getResources().getDisplayMetrics().density);
+            map.getOverlays().add(metricsOverlay);
+            metricsOverlay.start();
+        } else if (!show && metricsOverlay != null) {
+            Metrics.setEnabled(false);
+            if (!jankScenario.isRunning()) jankCollector.stop();
+            metricsOverlay.stop();
+            map.getOverlays().remove(metricsOverlay);
+            metricsOverlay = null;
+        }
+        map.invalidate();
+    }
+
+    /**
+     * Write a snapshot of all metrics as JSON to the app's external exports directory
+     */
+    private void exportMetrics() {
+        long now = System.currentTimeMillis();
+        writeExport("metrics", now, Metrics.toJson(now));
+    }
+
+    /**
+     * Drive the map through the scripted pan/zoom/route run and export its jank report
+     */
+    private void runJankScenario() {
+        if (jankScenario.isRunning()) {
+            Toast.makeText(this, "Jank scenario already running", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Toast.makeText(this, "Running jank scenario, don't touch the map", Toast.LENGTH_SHORT).show();
+        jankScenario.start(new JankScenario.Listener() {
+            @Override
+            public void onScenarioFinished(String json, String summary) {
+                writeExport("jank-" + JankScenario.NAME, System.currentTimeMillis(), json);
+                new android.app.AlertDialog.Builder(MainActivity.this)
+                    .setTitle("Jank Report")
+                    .setMessage(summary)
+                    .setPositiveButton("OK", null)
+                    .show();
+            }
+        });
+    }
+
+    /**
+     * Replay a recorded trace through the navigation service at a chosen speed, or stop the running replay
+     */
+    private void replayTrace() {
+        if (navigation == null) {
+            Toast.makeText(this, "Navigation is still starting, try again", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (navigation.isReplaying()) {
+            navigation.stopReplay();
+            Toast.makeText(this, "GPS replay stopped", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final double[] speeds = {1, 10, 100};
+        new android.app.AlertDialog.Builder(this)
+            .setTitle("Replay Speed")
+            .setItems(new String[]{"1x", "10x", "100x"}, (dialog, which) -> {
+                if (navigation == null) return;
+                navigation.startReplay(speeds[which], new DataLayer.Callback<String>() {
+                    @Override
+                    public void onResult(String summary) {
+                        if (isFinishing() || isDestroyed()) return;  // The replay outlived this screen
+                        new android.app.AlertDialog.Builder(MainActivity.this)
+                            .setTitle("Replay Report")
+                            .setMessage(summary)
+                            .setPositiveButton("OK", null)
+                            .show();
+                    }
+                });
+            })
+            .show();
+    }
+
+    /**
+     * Write a JSON report to the app's external exports directory and toast where it went
+     *
+     * Runs on a reader thread: the file write must not delay queued database writes.
+     */
+    private void writeExport(String prefix, long timeMs, final String json) {
+        final File outDir = getExternalFilesDir("exports");
+        final File outFile = new File(outDir != null ? outDir : getFilesDir(),
+                prefix + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date(timeMs)) + ".json");
+        data.read(new DataLayer.Task<String>() {
+            @Override
+            public String run() {
+                try (Writer w = new OutputStreamWriter(new FileOutputStream(outFile), StandardCharsets.UTF_8)) {
+                    w.write(json);
+                    return "Exported to " + outFile.getAbsolutePath();
+                } catch (IOException e) {
+                    return "Export failed: " + e.getMessage();
+                }
+            }
+        }, new DataLayer.Callback<String>() {
+            @Override
+            public void onResult(String message) {
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
     private void showAboutDialog() {
         String mode = isOfflineMode ? "Offline" : "Online";
         String message = "OfflineNavApp v1.2\n\n" +
@@ -426,6 +955,14 @@ public class MainActivity extends AppCompatActivity implements LocationListener
                         "• Emergency Support Calls\n\n" +
                         "Optimized for Lebanon\n\n" +
                         "© 2025 OfflineNav";
+        if (navigation != null) {
+            message += "\n\n" + navigation.getStatsSummary();
+        }
+        if (OfflineRouting.getIfLoaded() != null) {
+            message += "\n" + OfflineRouting.getIfLoaded().getRouteCache().getStatsSummary();
+        }
+        message += "\n" + routingService.getStatsSummary();
+        message += "\n" + startupTracer.getSummary();
         
         new android.app.AlertDialog.Builder(this)
             .setTitle("About")
@@ -465,20 +1002,25 @@ public class MainActivity extends AppCompatActivity implements LocationListener
     }
 
     private void saveFavorite(String name, String address, GeoPoint position) {
-        SQLiteDatabase db = favoritesDbHelper.getWritableDatabase();
-        ContentValues cv = new ContentValues();
-        cv.put(FavoritesDbHelper.COL_NAME, name != null ? name : "Unnamed Location");
-        cv.put(FavoritesDbHelper.COL_ADDRESS, address != null ? address : "");
-        cv.put(FavoritesDbHelper.COL_LATITUDE, position.getLatitude());
-        cv.put(FavoritesDbHelper.COL_LONGITUDE, position.getLongitude());
-        cv.put(FavoritesDbHelper.COL_TIMESTAMP, System.currentTimeMillis());
-        
-        long id = db.insert(FavoritesDbHelper.TABLE_NAME, null, cv);
-        if (id > 0) {
-            Toast.makeText(this, "★ Added to favorites", Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, "Failed to add favorite", Toast.LENGTH_SHORT).show();
-        }
+        final String favName = name != null ? name : "Unnamed Location";
+        final String favAddress = address != null ? address : "";
+        final double lat = position.getLatitude();
+        final double lon = position.getLongitude();
+        data.write(new DataLayer.Task<Long>() {
+            @Override
+            public Long run() {
+                return data.favorites().insertFavorite(favName, favAddress, lat, lon);
+            }
+        }, new DataLayer.Callback<Long>() {
+            @Override
+            public void onResult(Long id) {
+                if (id > 0) {
+                    Toast.makeText(MainActivity.this, "★ Added to favorites", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(MainActivity.this, "Failed to add favorite", Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
     }
 
     private void setupLocationTracking() {
@@ -493,20 +1035,13 @@ public class MainActivity extends AppCompatActivity implements LocationListener
     }
 
     private void enableLocationTracking() {
-        myLocationOverlay = new MyLocationNewOverlay(new GpsMyLocationProvider(this), map);
+        myLocationOverlay = new TracedOverlays.MyLocation(new GpsMyLocationProvider(this), map);
         myLocationOverlay.enableMyLocation();
         myLocationOverlay.enableFollowLocation();
-        map.getOverlays().add(myLocationOverlay);
+        map.getOverlays().add(0, myLocationOverlay);  // Below markers and routes
 
-        locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-        try {
-            if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
-                locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 5000, 10, this);
-                locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 5000, 10, this);
-            }
-        } catch (Exception e) {
-            Toast.makeText(this, "Location error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-        }
+        // The guidance and trip recording stream belongs to the session, not this screen
+        if (navigation != null) navigation.startLocationUpdates();
     }
 
     private void centerOnMyLocation() {
@@ -521,103 +1056,128 @@ public class MainActivity extends AppCompatActivity implements LocationListener
     }
 
     /**
-     * Calculate route between two points, choosing online or offline method based on connectivity
+     * Calculate route between two points, racing offline and online routing
      *
-     * Online routing uses OSRM (Open Source Routing Machine) to calculate routes that follow
-     * actual roads, similar to Google Maps. Offline routing draws a straight line between
-     * points with distance estimation.
+     * A route precomputed from near the start is drawn immediately. Otherwise
+     * the offline road graph and, when connected, OSRM (Open Source Routing
+     * Machine) run in parallel: the first usable route is drawn at once and
+     * replaced if a better online route arrives shortly after (see
+     * HedgedRouter). A straight line with an estimated time is the last resort.
      *
      * @param start Starting GeoPoint
      * @param end Ending GeoPoint
      */
     private void calculateRoute(final GeoPoint start, final GeoPoint end) {
-        // Check internet connectivity to determine routing method
+        if (navigation == null) {
+            Toast.makeText(this, "Navigation is still starting, try again", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        requestNotificationPermission();
+
+        // A route precomputed from (near) here for this travel mode is drawn immediately
+        OfflineRouting routing = OfflineRouting.getIfLoaded();
+        if (routing != null) {
+            RouteCache.Entry cached = routing.getRouteCache().get(end.getLatitude(), end.getLongitude(),
+                    start.getLatitude(), start.getLongitude(), System.currentTimeMillis());
+            if (cached != null && cached.route.profile == navigation.getRoutingProfile()) {
+                // A pending result must not replace it
+                hedgedRouter.cancel();
+                drawGraphRoute(start, end, cached.route);
+                return;
+            }
+        }
+
+        // Connectivity only decides whether the online router joins the race
         ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
         boolean isConnected = activeNetwork != null && activeNetwork.isConnectedOrConnecting();
 
-        if (isConnected) {
-            // Online: Use OSRM for road-following routes
-            Toast.makeText(this, "Calculating online route (following roads)...", Toast.LENGTH_SHORT).show();
-            calculateOnlineRoute(start, end);
-        } else {
-            // Offline: Use straight-line routing
-            Toast.makeText(this, "No internet - using offline routing", Toast.LENGTH_SHORT).show();
-            drawOfflineRoute(start, end);
-        }
-    }
-
-    /**
-     * Calculate route using online OSRM service in background thread
-     *
-     * Uses Open Source Routing Machine (OSRM) to get road-following routes.
-     * This provides accurate driving directions that follow actual roads,
-     * similar to Google Maps or other navigation services.
-     *
-     * @param start Starting point
-     * @param end Ending point
-     */
-    private void calculateOnlineRoute(final GeoPoint start, final GeoPoint end) {
-        new AsyncTask<Void, Void, Road>() {
+        hedgedRouter.route(navigation, start, end, isConnected, new HedgedRouter.Listener() {
             @Override
-            protected Road doInBackground(Void... params) {
-                try {
-                    // Create OSRM road manager with app identifier
-                    RoadManager roadManager = new OSRMRoadManager(MainActivity.this, "OfflineNavApp");
-
-                    // Set up waypoints for routing
-                    ArrayList<GeoPoint> waypoints = new ArrayList<>();
-                    waypoints.add(start);
-                    waypoints.add(end);
-
-                    // Get road data from OSRM server
-                    return roadManager.getRoad(waypoints);
-                } catch (Exception e) {
-                    return null; // Return null on any error
+            public void onRouteShown(NavigationService.ActiveRoute route, boolean upgrade) {
+                if (upgrade) {
+                    // Same endpoints, so the map stays where the driver left it
+                    Toast.makeText(MainActivity.this, "Better route found\n" + route.summary,
+                                  Toast.LENGTH_LONG).show();
+                } else {
+                    showRoute(route);
                 }
             }
+        });
+    }
 
-            @Override
-            protected void onPostExecute(Road road) {
-                if (road == null || road.mStatus != Road.STATUS_OK) {
-                    Toast.makeText(MainActivity.this, "Online routing failed, using offline mode",
-                                  Toast.LENGTH_LONG).show();
-                    drawOfflineRoute(start, end);
-                    return;
-                }
+    /**
+     * Announce a route the service has just started following and frame it
+     */
+    private void showRoute(NavigationService.ActiveRoute route) {
+        Toast.makeText(this, route.summary, Toast.LENGTH_LONG).show();
+        zoomToShowRoute(route.start, route.end);
+    }
 
-                // Remove old route if exists
-                if (routeLine != null) {
-                    map.getOverlays().remove(routeLine);
-                }
+    /**
+     * Draw the session's route, or remove it when the route was cleared
+     */
+    private void renderRoute(NavigationService.ActiveRoute route) {
+        Trace.beginSection("route:rebuild");
+        long t0 = Metrics.start();
+        try {
+            rebuildRouteOverlay(route);
+        } finally {
+            ROUTE_REBUILD_TIME.stop(t0);
+            Trace.endSection();
+        }
+        jankCollector.mark(JankCollector.Interaction.ROUTE_REDRAW);
+    }
 
-                // Draw online route (follows actual roads like Google Maps)
-                routeLine = RoadManager.buildRoadOverlay(road);
+    private void rebuildRouteOverlay(NavigationService.ActiveRoute route) {
+        // Remove old route if exists
+        if (routeLine != null) {
+            map.getOverlays().remove(routeLine);
+            routeLine = null;
+        }
+        if (route == null) {
+            map.invalidate();
+            return;
+        }
+        List<GeoPoint> points = new ArrayList<>(route.lats.length);
+        for (int i = 0; i < route.lats.length; i++) {
+            points.add(new GeoPoint(route.lats[i], route.lons[i]));
+        }
+        routeLine = new TracedOverlays.RouteLine();
+        switch (route.source) {
+            case ONLINE:
                 routeLine.setColor(Color.rgb(66, 133, 244)); // Google Maps blue
                 routeLine.setWidth(12f);
-                map.getOverlays().add(routeLine);
+                break;
+            case OFFLINE_GRAPH:
+                routeLine.setColor(Color.rgb(66, 133, 244));
+                routeLine.setWidth(10f);
+                break;
+            default:
+                routeLine.setColor(Color.BLUE);  // Blue color for straight-line routes
+                routeLine.setWidth(8f);
+                break;
+        }
+        routeLine.setPoints(points);
+        map.getOverlays().add(routeLine);
 
-                // Update markers
-                updateRouteMarkers(start, end);
-                map.invalidate();
+        updateRouteMarkers(route.start, route.end);
+        map.invalidate();
+    }
 
-                // Show route info
-                double distance = road.mLength; // in km
-                int duration = (int) (road.mDuration / 60); // in minutes
-                Toast.makeText(MainActivity.this,
-                              String.format("✓ Online Route: %.1f km, ~%d min (following roads)", distance, duration),
-                              Toast.LENGTH_LONG).show();
-                
-                // Zoom to show route
-                zoomToShowRoute(start, end);
-            }
-        }.execute();
+    private void renderBanner(String banner) {
+        if (banner == null) {
+            guidanceView.setVisibility(View.GONE);
+        } else {
+            guidanceView.setText(banner);
+            guidanceView.setVisibility(View.VISIBLE);
+        }
     }
 
     private void updateRouteMarkers(GeoPoint start, GeoPoint end) {
         // Add source marker
         if (sourceMarker == null) {
-            sourceMarker = new Marker(map);
+            sourceMarker = new TracedOverlays.Pin(map);
             map.getOverlays().add(sourceMarker);
         }
         sourceMarker.setPosition(start);
@@ -627,7 +1187,7 @@ public class MainActivity extends AppCompatActivity implements LocationListener
         
         // Add destination marker
         if (destinationMarker == null) {
-            destinationMarker = new Marker(map);
+            destinationMarker = new TracedOverlays.Pin(map);
             map.getOverlays().add(destinationMarker);
         }
         destinationMarker.setPosition(end);
@@ -658,81 +1218,26 @@ public class MainActivity extends AppCompatActivity implements LocationListener
     }
 
     /**
-     * Draw a straight-line route between two points for offline navigation
-     *
-     * This method creates a simple straight-line route visualization when
-     * internet is not available. It includes distance calculation and
-     * time estimation based on average road speeds in Lebanon.
-     *
-     * @param start Starting GeoPoint
-     * @param end Ending GeoPoint
+     * Follow and draw a route computed on the offline road graph
      */
-    private void drawOfflineRoute(GeoPoint start, GeoPoint end) {
-        // Remove any existing route overlay
-        if (routeLine != null) {
-            map.getOverlays().remove(routeLine);
-        }
+    private void drawGraphRoute(GeoPoint start, GeoPoint end, OfflineRouter.Route route) {
+        requestNotificationPermission();
+        showRoute(navigation.followGraphRoute(start, end, route));
+    }
 
-        // Create new route line overlay
-        routeLine = new Polyline();
-        routeLine.setColor(Color.BLUE);  // Blue color for offline routes
-        routeLine.setWidth(8f);          // Line thickness
-        List<GeoPoint> points = new ArrayList<>();
-        points.add(start);
-        points.add(end);
-        routeLine.setPoints(points);
-        map.getOverlays().add(routeLine);
-        
-        // Add source marker
-        if (sourceMarker == null) {
-            sourceMarker = new Marker(map);
-            map.getOverlays().add(sourceMarker);
-        }
-        sourceMarker.setPosition(start);
-        sourceMarker.setAnchor(Marker.ANCHOR_CENTER, Marker.ANCHOR_BOTTOM);
-        sourceMarker.setTitle("Start");
-        sourceMarker.setIcon(getResources().getDrawable(android.R.drawable.ic_menu_compass));
-        
-        // Add destination marker
-        if (destinationMarker == null) {
-            destinationMarker = new Marker(map);
-            map.getOverlays().add(destinationMarker);
+    /**
+     * Android 13+: following a route puts the navigation service in the
+     * foreground, and its guidance notification is hidden without this permission
+     */
+    private void requestNotificationPermission() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU || notificationPermissionAsked) return;
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            notificationPermissionAsked = true;
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.POST_NOTIFICATIONS},
+                    NOTIFICATION_PERMISSION_REQUEST);
         }
-        destinationMarker.setPosition(end);
-        destinationMarker.setAnchor(Marker.ANCHOR_CENTER, Marker.ANCHOR_BOTTOM);
-        destinationMarker.setTitle("Destination");
-        destinationMarker.setIcon(getResources().getDrawable(android.R.drawable.ic_menu_mylocation));
-        
-        map.invalidate();
-        
-        // Calculate distance
-        double distance = start.distanceToAsDouble(end) / 1000; // Convert to km
-        // Estimate time (assuming average speed of 40 km/h for Lebanon roads)
-        int estimatedMinutes = (int) ((distance / 40.0) * 60);
-        
-        Toast.makeText(this, 
-                      String.format("Route: %.1f km, ~%d min (estimated)", distance, estimatedMinutes), 
-                      Toast.LENGTH_LONG).show();
-        
-        // Zoom to show both points
-        double minLat = Math.min(start.getLatitude(), end.getLatitude());
-        double maxLat = Math.max(start.getLatitude(), end.getLatitude());
-        double minLon = Math.min(start.getLongitude(), end.getLongitude());
-        double maxLon = Math.max(start.getLongitude(), end.getLongitude());
-        
-        GeoPoint center = new GeoPoint((minLat + maxLat) / 2, (minLon + maxLon) / 2);
-        map.getController().setCenter(center);
-        
-        // Adjust zoom to show both points
-        double latDiff = maxLat - minLat;
-        double lonDiff = maxLon - minLon;
-        double maxDiff = Math.max(latDiff, lonDiff);
-        
-        if (maxDiff < 0.01) map.getController().setZoom(15.0);
-        else if (maxDiff < 0.05) map.getController().setZoom(13.0);
-        else if (maxDiff < 0.1) map.getController().setZoom(11.0);
-        else if (maxDiff < 0.5) map.getController().setZoom(9.0);
-        else map.getController().setZoom(7.0);
     }
 
     @Override
@@ -745,27 +1250,14 @@ public class MainActivity extends AppCompatActivity implements LocationListener
             } else {
                 Toast.makeText(this, "Location permission denied. Location features disabled.", Toast.LENGTH_LONG).show();
             }
+        } else if (requestCode == NOTIFICATION_PERMISSION_REQUEST) {
+            if (grantResults.length == 0 || grantResults[0] != PackageManager.PERMISSION_GRANTED) {
+                Toast.makeText(this, "Notifications denied. Guidance shows only while the app is open.",
+                        Toast.LENGTH_LONG).show();
+            }
         }
     }
 
-    @Override
-    public void onLocationChanged(@NonNull Location location) {
-        // Location updates handled by MyLocationOverlay
-    }
-
-    @Override
-    public void onStatusChanged(String provider, int status, Bundle extras) {}
-
-    @Override
-    public void onProviderEnabled(@NonNull String provider) {
-        Toast.makeText(this, provider + " enabled", Toast.LENGTH_SHORT).show();
-    }
-
-    @Override
-    public void onProviderDisabled(@NonNull String provider) {
-        Toast.makeText(this, provider + " disabled", Toast.LENGTH_SHORT).show();
-    }
-
     @Override
     protected void onResume() {
         super.onResume();
@@ -781,6 +1273,7 @@ public class MainActivity extends AppCompatActivity implements LocationListener
     protected void onPause() {
         super.onPause();
         if (map != null) {
+            saveViewport();
             map.onPause();
         }
         if (myLocationOverlay != null) {
@@ -791,12 +1284,20 @@ public class MainActivity extends AppCompatActivity implements LocationListener
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        jankScenario.cancel();
+        jankCollector.stop();
         if (map != null) {
             map.onDetach();
         }
-        if (locationManager != null) {
-            locationManager.removeUpdates(this);
+        if (navigation != null) {
+            navigation.removeListener(navigationListener);
+            // Leaving the app for good ends the session unless a route is being followed
+            if (isFinishing() && !navigation.isNavigating()) {
+                stopService(new Intent(this, NavigationService.class));
+            }
+            navigation = null;
         }
+        unbindService(navigationConnection);
     }
 
     /**
@@ -0,0 +1,67 @@
+/**
+ * MeteredArchiveFile - Tile archive wrapper that records read metrics
+ *
+ * Sits between osmdroid's archive provider and the opened map.mbtiles and
+ * times every tile read (one SQLite query on osmdroid's tile loader
+ * threads), counting tiles the archive doesn't have and bytes returned.
+ * Adds nothing but a volatile read per tile while metrics are off.
+ */
+package com.example.offlinenav;
+
+import org.osmdroid.tileprovider.modules.IArchiveFile;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+public class MeteredArchiveFile implements IArchiveFile {
+
+    private static final Metrics.Histogram READ_TIME = Metrics.histogram("tile.read");
+    private static final Metrics.Counter MISSING = Metrics.counter("tile.read.missing");
+    private static final Metrics.Counter BYTES = Metrics.counter("tile.read.bytes");
+
+    private final IArchiveFile archive;
+
+    public MeteredArchiveFile(IArchiveFile archive) {
+        this.archive = archive;
+    }
+
+    @Override
+    public void init(File file) throws Exception {
+        archive.init(file);
+    }
+
+    @Override
+    public InputStream getInputStream(ITileSource tileSource, long mapTileIndex) {
+        long t0 = Metrics.start();
+        InputStream in = archive.getInputStream(tileSource, mapTileIndex);
+        READ_TIME.stop(t0);
+        if (in == null) {
+            MISSING.inc();
+        } else if (Metrics.isEnabled()) {
+            try {
+                BYTES.add(in.available());  // MBTiles reads return the whole blob in memory
+            } catch (IOException e) {
+                // Size unknown; the tile is still delivered
+            }
+        }
+        return in;
+    }
+
+    @Override
+    public void close() {
+        archive.close();
+    }
+
+    @Override
+    public Set<String> getTileSources() {
+        return archive.getTileSources();
+    }
+
+    @Override
+    public void setIgnoreTileSource(boolean ignoreTileSource) {
+        archive.setIgnoreTileSource(ignoreTileSource);
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * MetricsOverlay - Live debug panel of the performance metrics on the map
+ *
+ * Draws one line per histogram that has samples (count, p50/p90/p99 and
+ * max in milliseconds) and one per non-zero counter in the top-left
+ * corner, and redraws itself once a second while it is on the map. The
+ * refresh is one self-rescheduling Runnable posted to the map view, started
+ * by start() and stopped by stop() or when the map pauses, so pans and other
+ * redraws don't queue extra refreshes.
+ * Adding the overlay does not turn recording on; the screen toggles both
+ * together.
+ */
+package com.example.offlinenav;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.Overlay;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class MetricsOverlay extends Overlay {
+
+    private static final long REFRESH_MS = 1000;
+
+    private final Paint text = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint background = new Paint();
+    private final float padding;
+    private final MapView mapView;
+    private boolean refreshing = false;           // Between start() and stop()
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            mapView.invalidate();
+            mapView.postDelayed(this, REFRESH_MS);
+        }
+    };
+
+    /**
+     * @param mapView Map the overlay is added to, redrawn while refreshing
+     * @param density Display density, for text size and padding
+     */
+    public MetricsOverlay(MapView mapView, float density) {
+        this.mapView = mapView;
+        text.setColor(Color.WHITE);
+        text.setTypeface(Typeface.MONOSPACE);
+        text.setTextSize(11 * density);
+        background.setColor(Color.argb(170, 0, 0, 0));
+        padding = 6 * density;
+    }
+
+    @Override
+    public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+        if (shadow) return;
+        List<String> lines = new ArrayList<>();
+        for (Metrics.Histogram h : Metrics.getHistograms()) {
+            if (h.getCount() == 0) continue;
+            lines.add(String.format(Locale.US, "%-16s %5d  p50 %s  p90 %s  p99 %s  max %s",
+                    h.name, h.getCount(), ms(h.percentileUs(50)), ms(h.percentileUs(90)),
+                    ms(h.percentileUs(99)), ms(h.getMaxUs())));
+        }
+        for (Metrics.Counter c : Metrics.getCounters()) {
+            if (c.get() != 0) lines.add(String.format(Locale.US, "%-16s %d", c.name, c.get()));
+        }
+        if (lines.isEmpty()) lines.add(Metrics.isEnabled() ? "Metrics: no samples yet" : "Metrics: recording off");
+
+        float lineHeight = text.getFontSpacing();
+        float width = 0;
+        for (String line : lines) width = Math.max(width, text.measureText(line));
+        canvas.drawRect(0, 0, width + 2 * padding, lines.size() * lineHeight + 2 * padding, background);
+        float y = padding - text.ascent();
+        for (String line : lines) {
+            canvas.drawText(line, padding, y, text);
+            y += lineHeight;
+        }
+    }
+
+    /**
+     * Redraw the map once a second until stop()
+     */
+    public void start() {
+        refreshing = true;
+        mapView.removeCallbacks(refresh);
+        mapView.postDelayed(refresh, REFRESH_MS);
+    }
+
+    public void stop() {
+        refreshing = false;
+        mapView.removeCallbacks(refresh);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (refreshing) {
+            mapView.removeCallbacks(refresh);
+            mapView.postDelayed(refresh, REFRESH_MS);
+        }
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        mapView.removeCallbacks(refresh);
+    }
+
+    @Override
+    public void onDetach(MapView mapView) {
+        stop();
+        super.onDetach(mapView);
+    }
+
+    private static String ms(long us) {
+        return us < 10_000 ? String.format(Locale.US, "%.1f", us / 1000.0) : String.valueOf(us / 1000);
+    }
+}
@@ -0,0 +1,767 @@
+/**
+ * NavigationService - Owns the navigation session independently of any screen
+ *
+ * The map screen binds to this service and only renders its state. The
+ * service holds everything that is expensive to rebuild or must not stop
+ * when the screen goes away:
+ * - the location stream (AdaptiveLocationSampler) and trip recording
+ * - the offline road graph, its router and route precomputation, and the
+ *   travel mode (RoutingProfile) routes and re-routes are computed for
+ * - the active route and its turn-by-turn guidance, re-routed on the
+ *   offline graph when the driver leaves it
+ *
+ * Rotating the screen, opening another screen or leaving the app therefore
+ * keeps the route, the guidance position and the loaded graph. While a
+ * route is being followed the service runs in the foreground with an
+ * ongoing notification showing the next maneuver, so the system does not
+ * reclaim it mid-trip.
+ *
+ * A recorded trace can be replayed in place of the GPS (startReplay());
+ * its fixes take the same path as real ones but are not recorded as a
+ * trip, so they never feed the learned speeds.
+ *
+ * All state is confined to the main thread; listeners are called there.
+ */
+package com.example.offlinenav;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import org.osmdroid.bonuspack.routing.Road;
+import org.osmdroid.bonuspack.routing.RoadNode;
+import org.osmdroid.util.GeoPoint;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class NavigationService extends Service implements LocationListener {
+
+    private static final String TAG = "NavigationService";
+    private static final String CHANNEL_ID = "navigation";
+    private static final int NOTIFICATION_ID = 3901;
+    static final String ACTION_STOP = "com.example.offlinenav.action.STOP_NAVIGATION";
+    private static final Pattern ONTO_STREET = Pattern.compile("onto (.+?)$");        // OSRM instruction parts
+    private static final Pattern EXIT_NUMBER = Pattern.compile("(\\d+)(?:st|nd|rd|th) exit|[Ee]xit (\\d+\\w?)");
+
+    private static final Metrics.Histogram OFFLINE_TIME = Metrics.histogram("route.offline");
+    private static final Metrics.Counter OFFLINE_NO_ROUTE = Metrics.counter("route.offline.none");
+    private static final Metrics.Histogram FIX_TIME = Metrics.histogram("location.fix");
+
+    /**
+     * How the active route was computed; decides how it is drawn
+     */
+    public enum RouteSource {
+        ONLINE,         // OSRM, follows roads
+        OFFLINE_GRAPH,  // Offline road graph (learned speeds unless partitioned)
+        STRAIGHT_LINE   // No router available
+    }
+
+    /**
+     * The route being followed
+     */
+    public static class ActiveRoute {
+        public final GeoPoint start, end;
+        public final double[] lats, lons;    // Polyline
+        public final RouteSource source;
+        public final String summary;         // Distance and ETA, for the user
+
+        ActiveRoute(GeoPoint start, GeoPoint end, double[] lats, double[] lons, RouteSource source, String summary) {
+            this.start = start;
+            this.end = end;
+            this.lats = lats;
+            this.lons = lons;
+            this.source = source;
+            this.summary = summary;
+        }
+    }
+
+    /**
+     * Receives navigation state changes on the main thread
+     */
+    public interface Listener {
+        /**
+         * @param route The new route, or null when it was cleared
+         */
+        void onRouteChanged(ActiveRoute route);
+
+        /**
+         * @param banner Guidance text to show, or null to hide the banner
+         */
+        void onGuidance(String banner);
+
+        void onArrived();
+    }
+
+    /**
+     * Binder for screens in this process
+     */
+    public class LocalBinder extends Binder {
+        public NavigationService getService() {
+            return NavigationService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Location stream and trip recording
+    private AdaptiveLocationSampler locationSampler;      // Null until location permission is granted
+    private TripRecorder tripRecorder;                    // Binary log of the fixes of this trip
+    private final ExecutorService tripExecutor = Executors.newSingleThreadExecutor(); // Trip file I/O
+    private RoutePrecomputer routePrecomputer;            // Routes to top favorites, ahead of time
+
+    // Offline road-graph routing (null until loaded, or if no graph is installed)
+    private final ExecutorService routingExecutor = Executors.newSingleThreadExecutor(); // Owns offlineRouter
+    private volatile OfflineRouting offlineRouting;
+    private OfflineRouter offlineRouter;
+    private volatile PartitionedRouter partitionedRouter; // Only without roads.graph; owned by routingExecutor
+    private RoutingProfile routingProfile = RoutingProfile.CAR;
+
+    // Active route and guidance
+    private ActiveRoute activeRoute;
+    private final NavigationPipeline pipeline = new NavigationPipeline(new PipelineListener());
+    private String guidanceManeuverText = "";             // Latest maneuver line of the banner
+    private String banner;                                // Null while no guidance is shown
+    private boolean foreground;
+    private TraceReplayer replayer;                       // Non-null while a trace replaces the GPS
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        tripRecorder = new TripRecorder(new File(getFilesDir(), "trips"));
+        routePrecomputer = new RoutePrecomputer(this);
+        loadOfflineRouting();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            clearRoute();
+        }
+        // Without a screen to restore it there is nothing useful to restart
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        stopReplay();
+        if (locationSampler != null) {
+            Log.i(TAG, locationSampler.getStatsSummary());
+            locationSampler.stop();
+        }
+        // Close the trip file after any queued fixes are written
+        tripExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tripRecorder.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Closing trip failed", e);
+                }
+            }
+        });
+        tripExecutor.shutdown();
+        routingExecutor.shutdown();
+        routePrecomputer.shutdown();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Start the location stream once location permission has been granted
+     *
+     * Safe to call repeatedly; only the first call with permission registers.
+     */
+    public void startLocationUpdates() {
+        if (locationSampler != null) return;
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        LocationManager locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        try {
+            // Sampler picks intervals from speed and route state instead of a fixed 5 s / 10 m
+            locationSampler = new AdaptiveLocationSampler(locationManager, this);
+            locationSampler.start();
+            locationSampler.setRouteActive(pipeline.isActive());
+        } catch (Exception e) {
+            locationSampler = null;
+            Toast.makeText(this, "Location error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * True if a route is being followed
+     */
+    public boolean isNavigating() {
+        return pipeline.isActive();
+    }
+
+    /**
+     * @return The route being shown, or null
+     */
+    public ActiveRoute getActiveRoute() {
+        return activeRoute;
+    }
+
+    /**
+     * @return Current guidance banner text, or null if none is shown
+     */
+    public String getBanner() {
+        return banner;
+    }
+
+    public String getStatsSummary() {
+        return locationSampler != null ? locationSampler.getStatsSummary() : "Location updates off";
+    }
+
+    /**
+     * True once the offline road graph (or the partitioned one) is loaded
+     */
+    public boolean isOfflineRoutingReady() {
+        return offlineRouting != null || partitionedRouter != null;
+    }
+
+    /**
+     * Load roads.graph and its learned speed profiles on the routing thread
+     *
+     * Without roads.graph, roads.parts is opened instead and routes use
+     * free-flow speeds. Until this finishes (or if no graph is installed)
+     * offline routing falls back to a straight line.
+     */
+    private void loadOfflineRouting() {
+        routingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                OfflineRouting routing = OfflineRouting.get(NavigationService.this);
+                if (routing != null) {
+                    offlineRouter = routing.newRouter();
+                    offlineRouting = routing;
+                    return;
+                }
+                PartitionedGraph parts = OfflineRouting.getPartitioned(NavigationService.this);
+                if (parts != null) partitionedRouter = new PartitionedRouter(parts);
+            }
+        });
+    }
+
+    /**
+     * Travel mode for the next routes and re-routes, offline and online
+     *
+     * Takes effect with the next request; the shared graph is not reloaded.
+     */
+    public void setRoutingProfile(RoutingProfile profile) {
+        routingProfile = profile;
+    }
+
+    public RoutingProfile getRoutingProfile() {
+        return routingProfile;
+    }
+
+    /**
+     * Route on the offline road graph for the current routing profile
+     *
+     * @param callback Receives the route, or null if no graph is loaded or no route exists
+     */
+    public void routeOffline(final GeoPoint start, final GeoPoint end,
+                             final DataLayer.Callback<OfflineRouter.Route> callback) {
+        if (!isOfflineRoutingReady()) {
+            callback.onResult(null);
+            return;
+        }
+        final RoutingProfile profile = routingProfile;
+        routingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long t0 = Metrics.start();
+                OfflineRouter.Route result = null;
+                if (offlineRouting != null) {
+                    offlineRouter.setProfiles(offlineRouting.getProfiles());
+                    offlineRouter.setProfile(profile);
+                    result = offlineRouter.route(start.getLatitude(), start.getLongitude(),
+                            end.getLatitude(), end.getLongitude(), System.currentTimeMillis());
+                } else {
+                    partitionedRouter.setProfile(profile);
+                    try {
+                        result = partitionedRouter.route(start.getLatitude(), start.getLongitude(),
+                                end.getLatitude(), end.getLongitude());
+                    } catch (IOException e) {
+                        Log.w(TAG, "Cannot read road graph partition", e);
+                    }
+                }
+                final OfflineRouter.Route route = result;
+                OFFLINE_TIME.stop(t0);
+                if (route == null) OFFLINE_NO_ROUTE.inc();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(route);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Follow a route returned by OSRM
+     *
+     * Street names and exit numbers are taken from the router's instructions;
+     * each node is matched to the nearest polyline point by a forward-only
+     * search since nodes come in route order.
+     */
+    public ActiveRoute followOnlineRoute(GeoPoint start, GeoPoint end, Road road) {
+        List<GeoPoint> points = road.mRouteHigh;
+        int n = points.size();
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = points.get(i).getLatitude();
+            lons[i] = points.get(i).getLongitude();
+        }
+
+        String[] names = null;
+        String[] exits = null;
+        List<RoadNode> nodes = road.mNodes;
+        if (nodes != null && !nodes.isEmpty()) {
+            names = new String[n];
+            exits = new String[n];
+            int cursor = 0;
+            for (RoadNode node : nodes) {
+                if (node.mLocation == null || node.mInstructions == null) continue;
+                int best = cursor;
+                double bestDist = Double.MAX_VALUE;
+                for (int i = cursor; i < n; i++) {
+                    double d = points.get(i).distanceToAsDouble(node.mLocation);
+                    if (d < bestDist) {
+                        bestDist = d;
+                        best = i;
+                    } else if (d > bestDist + 200) {
+                        break;  // Moving away from the node again
+                    }
+                }
+                cursor = best;
+                Matcher onto = ONTO_STREET.matcher(node.mInstructions);
+                if (onto.find()) names[best] = onto.group(1);
+                Matcher exit = EXIT_NUMBER.matcher(node.mInstructions);
+                if (exit.find()) exits[best] = exit.group(1) != null ? exit.group(1) : exit.group(2);
+            }
+        }
+
+        String summary = String.format(Locale.US, "✓ Online Route%s: %.1f km, ~%d min (following roads)",
+                modeLabel(routingProfile), road.mLength, (int) (road.mDuration / 60));
+        return follow(new ActiveRoute(start, end, lats, lons, RouteSource.ONLINE, summary),
+                names, exits, road.mDuration);
+    }
+
+    /**
+     * Follow a route computed on the offline road graph
+     */
+    public ActiveRoute followGraphRoute(GeoPoint start, GeoPoint end, OfflineRouter.Route route) {
+        String summary = String.format(Locale.US, "✓ Offline Route%s: %.1f km, ~%d min (%s)",
+                modeLabel(route.profile), route.distanceM / 1000, Math.round(route.durationS / 60),
+                route.learnedSpeeds ? "learned speeds" : "free-flow speeds");
+        return follow(new ActiveRoute(start, end, route.lats, route.lons, RouteSource.OFFLINE_GRAPH, summary),
+                route.names, null, route.durationS);
+    }
+
+    /**
+     * Follow a straight line when no router is available
+     *
+     * The ETA assumes the routing profile's typical speed (40 km/h by vehicle on Lebanon roads).
+     */
+    public ActiveRoute followStraightLine(GeoPoint start, GeoPoint end) {
+        double distance = start.distanceToAsDouble(end) / 1000; // Convert to km
+        int estimatedMinutes = (int) ((distance / routingProfile.typicalSpeedKmh) * 60);
+        String summary = String.format(Locale.US, "Route: %.1f km, ~%d min (estimated)", distance, estimatedMinutes);
+        return follow(new ActiveRoute(start, end,
+                        new double[]{start.getLatitude(), end.getLatitude()},
+                        new double[]{start.getLongitude(), end.getLongitude()},
+                        RouteSource.STRAIGHT_LINE, summary),
+                null, null, estimatedMinutes * 60.0);
+    }
+
+    /**
+     * Summary suffix naming a non-car profile, e.g. " (Foot)"
+     */
+    private static String modeLabel(RoutingProfile profile) {
+        return profile == null || profile == RoutingProfile.CAR ? "" : " (" + profile.label + ")";
+    }
+
+    /**
+     * Drop the active route and its guidance
+     */
+    public void clearRoute() {
+        activeRoute = null;
+        stopGuidance();
+        for (Listener l : listeners) l.onRouteChanged(null);
+    }
+
+    /**
+     * Make a route active, precompute its maneuvers and go to the foreground
+     */
+    private ActiveRoute follow(ActiveRoute route, String[] names, String[] exits, double durationS) {
+        activeRoute = route;
+        if (route.lats.length < 2) {
+            stopGuidance();
+        } else {
+            pipeline.setRoute(route.lats, route.lons, names, exits, durationS);
+            GuidanceEngine guidance = pipeline.getGuidance();
+            List<GuidanceEngine.Maneuver> maneuvers = guidance.getManeuvers();
+            guidanceManeuverText = maneuvers.size() > 1 ? maneuvers.get(1).instruction() : "";
+            if (locationSampler != null) locationSampler.setRouteActive(true);
+            enterForeground();
+            setBanner(guidanceManeuverText + "\n" + GuidanceEngine.formatDistance(guidance.getTotalDistance()));
+        }
+        for (Listener l : listeners) l.onRouteChanged(route);
+        return route;
+    }
+
+    private void stopGuidance() {
+        pipeline.clearRoute();
+        if (locationSampler != null) locationSampler.setRouteActive(false);
+        setBanner(null);
+        leaveForeground();
+    }
+
+    private void setBanner(String text) {
+        if (text == null ? banner == null : text.equals(banner)) return;
+        banner = text;
+        for (Listener l : listeners) l.onGuidance(text);
+        if (foreground && text != null) {
+            NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            if (nm != null) nm.notify(NOTIFICATION_ID, buildNotification(text));
+        }
+    }
+
+    /**
+     * Feeds guidance events into the banner and the location sampler, and re-routes
+     */
+    private class PipelineListener implements NavigationPipeline.Listener {
+        @Override
+        public void onManeuverUpdate(GuidanceEngine.Maneuver next, double distanceToManeuverM) {
+            guidanceManeuverText = next.instruction() + " in " + GuidanceEngine.formatDistance(distanceToManeuverM);
+            if (locationSampler != null) locationSampler.setDistanceToNextManeuver(distanceToManeuverM);
+        }
+
+        @Override
+        public void onProgress(double remainingM, double remainingS) {
+            setBanner(String.format(Locale.US, "%s\n%s left · ~%d min",
+                    guidanceManeuverText, GuidanceEngine.formatDistance(remainingM), Math.round(remainingS / 60)));
+        }
+
+        @Override
+        public void onOffRoute(double deviationM) {
+            setBanner(String.format(Locale.US, "Off route (%s away)", GuidanceEngine.formatDistance(deviationM)));
+        }
+
+        @Override
+        public void onArrived() {
+            stopGuidance();
+            for (Listener l : listeners) l.onArrived();
+        }
+
+        @Override
+        public void onRerouteNeeded(double lat, double lon, long timeMs) {
+            final ActiveRoute current = activeRoute;
+            if (current == null || !isOfflineRoutingReady()) return;  // Keep the "Off route" banner
+            final GeoPoint from = new GeoPoint(lat, lon);
+            routeOffline(from, current.end, new DataLayer.Callback<OfflineRouter.Route>() {
+                @Override
+                public void onResult(OfflineRouter.Route route) {
+                    // Dropped if the route was cleared or replaced meanwhile
+                    if (route != null && activeRoute == current) followGraphRoute(from, current.end, route);
+                }
+            });
+        }
+    }
+
+    private void enterForeground() {
+        if (foreground) return;
+        // Started as well as bound, so the session outlives the screen while in the foreground
+        startService(new Intent(this, NavigationService.class));
+        createNotificationChannel();
+        startForeground(NOTIFICATION_ID, buildNotification(guidanceManeuverText));
+        foreground = true;
+    }
+
+    private void leaveForeground() {
+        if (!foreground) return;
+        stopForeground(true);
+        foreground = false;
+        // No screen is showing the session any more, so there is nothing left to keep alive
+        if (listeners.isEmpty()) stopSelf();
+    }
+
+    private Notification buildNotification(String text) {
+        int immutable = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0;
+        Intent open = new Intent(this, MainActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent content = PendingIntent.getActivity(this, 0, open,
+                PendingIntent.FLAG_UPDATE_CURRENT | immutable);
+        PendingIntent stop = PendingIntent.getService(this, 1,
+                new Intent(this, NavigationService.class).setAction(ACTION_STOP),
+                PendingIntent.FLAG_UPDATE_CURRENT | immutable);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_menu_directions)
+                .setContentTitle("Navigating")
+                .setContentText(text)
+                .setStyle(new NotificationCompat.BigTextStyle().bigText(text))
+                .setContentIntent(content)
+                .addAction(0, "Stop", stop)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setCategory(NotificationCompat.CATEGORY_NAVIGATION)
+                .build();
+    }
+
+    private void createNotificationChannel() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
+        NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (nm == null || nm.getNotificationChannel(CHANNEL_ID) != null) return;
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Navigation",
+                NotificationManager.IMPORTANCE_LOW);  // Silent: the text updates with every fix
+        nm.createNotificationChannel(channel);
+    }
+
+    /**
+     * Export the most recent recorded trip to the app's external files directory
+     *
+     * Runs on the trip executor so the export is ordered after any pending
+     * writes. The current trip is closed first so the export contains every
+     * fix; recording continues in a new trip file.
+     *
+     * @param gpx true for GPX, false for GeoJSON
+     * @param callback Receives a message for the user on the main thread
+     */
+    public void exportLatestTrip(final boolean gpx, final DataLayer.Callback<String> callback) {
+        tripExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    tripRecorder.close();
+                    File trip = TripRecorder.latestTrip(new File(getFilesDir(), "trips"));
+                    if (trip == null) {
+                        message = "No trip recorded yet";
+                    } else {
+                        File outDir = getExternalFilesDir("exports");
+                        String base = trip.getName().replace(".bin", gpx ? ".gpx" : ".geojson");
+                        File outFile = new File(outDir != null ? outDir : getFilesDir(), base);
+                        long points;
+                        try (Writer w = new BufferedWriter(new OutputStreamWriter(
+                                new FileOutputStream(outFile), StandardCharsets.UTF_8))) {
+                            points = gpx ? TripExporter.writeGpx(trip, w) : TripExporter.writeGeoJson(trip, w);
+                        }
+                        message = "Exported " + points + " points to " + outFile.getAbsolutePath();
+                    }
+                } catch (IOException e) {
+                    message = "Trip export failed: " + e.getMessage();
+                }
+                final String result = message;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replay a recorded trace in place of the GPS
+     *
+     * Plays the newest .gpx or .bin file in the app's external "replay"
+     * directory, or the most recent recorded trip if there is none. Real
+     * fixes are ignored until the replay ends. Metrics are recorded for the
+     * replay and the callback receives a summary of per-fix time, off-route
+     * fixes, re-routes and allocations, or an error message.
+     *
+     * @param speed Replay speed relative to real time, 1..100
+     */
+    public void startReplay(final double speed, final DataLayer.Callback<String> callback) {
+        stopReplay();
+        tripExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                GpsTrace loaded = null;
+                String error = null;
+                File trace = findReplayTrace();
+                if (trace == null) {
+                    error = "No trace to replay: put a .gpx or .bin file into " + getExternalFilesDir("replay");
+                } else {
+                    try {
+                        loaded = GpsTrace.load(trace);
+                        if (loaded.size() == 0) error = trace.getName() + " has no fixes";
+                    } catch (IOException e) {
+                        error = "Cannot read " + trace.getName() + ": " + e.getMessage();
+                    }
+                }
+                final GpsTrace result = error == null ? loaded : null;
+                final String message = error;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result == null) {
+                            callback.onResult(message);
+                            return;
+                        }
+                        stopReplay();
+                        replayer = new TraceReplayer(result, speed, pipeline, new TraceReplayer.Sink() {
+                            @Override
+                            public void onFix(Location location) {
+                                processFix(location, false);
+                            }
+
+                            @Override
+                            public void onFinished(String summary) {
+                                replayer = null;
+                                callback.onResult(summary);
+                            }
+                        });
+                        replayer.start();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stop a running replay; the GPS takes over again
+     */
+    public void stopReplay() {
+        if (replayer != null) {
+            replayer.cancel();
+            replayer = null;
+        }
+    }
+
+    public boolean isReplaying() {
+        return replayer != null;
+    }
+
+    /**
+     * Trip executor only
+     *
+     * @return Newest trace in the replay directory, else the latest trip, else null
+     */
+    private File findReplayTrace() {
+        File newest = null;
+        File dir = getExternalFilesDir("replay");
+        File[] files = dir != null ? dir.listFiles() : null;
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName().toLowerCase(Locale.US);
+                if ((name.endsWith(".gpx") || name.endsWith(".bin"))
+                        && (newest == null || f.lastModified() > newest.lastModified())) {
+                    newest = f;
+                }
+            }
+        }
+        return newest != null ? newest : TripRecorder.latestTrip(new File(getFilesDir(), "trips"));
+    }
+
+    @Override
+    public void onLocationChanged(@NonNull Location location) {
+        if (replayer != null) return;  // A trace is standing in for the GPS
+        processFix(location, true);
+    }
+
+    /**
+     * Drive guidance with a fix; real fixes also drive route precomputation
+     * and are recorded
+     *
+     * Replayed fixes (record == false) are not where the user is, so they
+     * must not fill the precomputed route cache. Map display is handled by
+     * the screen's own overlay.
+     */
+    private void processFix(Location location, boolean record) {
+        long t0 = Metrics.start();
+        pipeline.onFix(location.getLatitude(), location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+                location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                location.getTime());
+
+        if (record) {
+            routePrecomputer.onLocation(location);
+
+            final long time = location.getTime();
+            final double lat = location.getLatitude();
+            final double lon = location.getLongitude();
+            final float speed = location.hasSpeed() ? location.getSpeed() : Float.NaN;
+            final float accuracy = location.hasAccuracy() ? location.getAccuracy() : Float.NaN;
+            final RoutingProfile mode = routingProfile;
+            tripExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        tripRecorder.append(time, lat, lon, speed, accuracy, mode);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Trip recording failed", e);
+                    }
+                }
+            });
+        }
+        FIX_TIME.stop(t0);
+    }
+
+    @Override
+    public void onStatusChanged(String provider, int status, Bundle extras) {}
+
+    @Override
+    public void onProviderEnabled(@NonNull String provider) {
+        Toast.makeText(this, provider + " enabled", Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    public void onProviderDisabled(@NonNull String provider) {
+        Toast.makeText(this, provider + " disabled", Toast.LENGTH_SHORT).show();
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * OfflineNavApp - Application class for OfflineNavApp
+ *
+ * Creates the process-wide DataLayer before any screen starts. In debuggable
+ * builds it also enables StrictMode, so any disk or network access that
+ * slips back onto the main thread, or a leaked cursor, shows up in logcat
+ * (tag StrictMode).
+ *
+ * The osmdroid configuration (backed by shared preferences and storage
+ * paths) is loaded on a background thread as soon as the process starts,
+ * so the map screen normally finds it ready instead of reading it before
+ * its first frame.
+ */
+package com.example.offlinenav;
+
+import android.app.Application;
+import android.content.pm.ApplicationInfo;
+import android.os.StrictMode;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import org.osmdroid.config.Configuration;
+
+import java.util.concurrent.CountDownLatch;
+
+public class OfflineNavApp extends Application {
+
+    private static final String TAG = "OfflineNavApp";
+    private static final CountDownLatch mapConfigLoaded = new CountDownLatch(1);
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            enableStrictMode();
+        }
+        DataLayer.get(this);
+        loadMapConfiguration();
+    }
+
+    /**
+     * Block until the osmdroid configuration is loaded; call before inflating a MapView
+     */
+    public static void awaitMapConfiguration() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mapConfigLoaded.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void loadMapConfiguration() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Configuration.getInstance().load(OfflineNavApp.this,
+                            PreferenceManager.getDefaultSharedPreferences(OfflineNavApp.this));
+                    // Start reading the saved viewport too, so the map screen doesn't wait for it
+                    getSharedPreferences(MainActivity.VIEWPORT_PREFS, MODE_PRIVATE);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Loading map configuration failed", e);
+                } finally {
+                    mapConfigLoaded.countDown();
+                }
+            }
+        }, "map-config").start();
+    }
+
+    private static void enableStrictMode() {
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .penaltyLog()
+                .build());
+        StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                .detectLeakedSqlLiteObjects()
+                .detectLeakedClosableObjects()
+                .penaltyLog()
+                .build());
+    }
+}
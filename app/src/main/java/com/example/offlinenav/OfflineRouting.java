@@ -0,0 +1,180 @@
+/**
+ * OfflineRouting - Process-wide holder for the offline road graph and speed profiles
+ *
+ * Loads roads.graph and roads.speeds from the app's files directory once per
+ * process so the navigation screen and the learning job share one copy of
+ * the graph. Profiles are immutable once published: learning folds new trips
+ * into a copy, saves it and then swaps it in. Precomputed routes are shared
+ * through one RouteCache. The POI index (roads.pois), if installed, is
+ * memory-mapped alongside the graph.
+ *
+ * Coverage too large to load whole ships as roads.parts instead, a
+ * PartitionedGraph whose cells load as routes need them; getPartitioned()
+ * opens it when roads.graph is not installed. Learned speeds, precomputed
+ * routes and POI queries need the single-file graph.
+ *
+ * get() reads large files and must not be called on the main thread.
+ */
+package com.example.offlinenav;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.TimeZone;
+
+public class OfflineRouting {
+
+    private static final String TAG = "OfflineRouting";
+    public static final String GRAPH_FILE = "roads.graph";      // Place next to map.mbtiles
+    public static final String SPEEDS_FILE = "roads.speeds";    // Written by the learning job
+    public static final String POIS_FILE = "roads.pois";        // Optional, from import-osm --pois
+    public static final String PARTS_FILE = "roads.parts";      // From import-osm --parts, used without GRAPH_FILE
+    private static final int RESIDENT_PARTITIONS = 16;          // ~10 km cells kept loaded
+
+    private static volatile OfflineRouting instance;
+    private static boolean loadAttempted = false;
+    private static PartitionedGraph partitioned;
+    private static boolean partitionedAttempted = false;
+
+    private final RoadGraph graph;
+    private final File speedsFile;
+    private volatile SpeedProfiles profiles;
+    private final RouteCache routeCache = new RouteCache();
+    private final PoiIndex pois;                                // Null if not installed
+
+    private OfflineRouting(RoadGraph graph, SpeedProfiles profiles, File speedsFile, PoiIndex pois) {
+        this.graph = graph;
+        this.profiles = profiles;
+        this.speedsFile = speedsFile;
+        this.pois = pois;
+    }
+
+    /**
+     * Load the graph on first use
+     *
+     * @return The shared instance, or null if no graph is installed or it failed to load
+     */
+    public static synchronized OfflineRouting get(Context context) {
+        if (loadAttempted) return instance;
+        loadAttempted = true;
+        File dir = context.getApplicationContext().getFilesDir();
+        File graphFile = new File(dir, GRAPH_FILE);
+        if (!graphFile.exists()) return null;
+        try {
+            long t0 = System.currentTimeMillis();
+            RoadGraph graph = RoadGraph.load(graphFile);
+            File speedsFile = new File(dir, SPEEDS_FILE);
+            SpeedProfiles profiles;
+            try {
+                profiles = SpeedProfiles.load(graph, speedsFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Ignoring unreadable speed profiles", e);
+                profiles = new SpeedProfiles(graph);
+            }
+            File poisFile = new File(dir, POIS_FILE);
+            PoiIndex pois = null;
+            if (poisFile.exists()) {
+                try {
+                    pois = PoiIndex.load(poisFile);
+                } catch (IOException e) {
+                    Log.w(TAG, "Ignoring unreadable POI index", e);
+                }
+            }
+            instance = new OfflineRouting(graph, profiles, speedsFile, pois);
+            Log.i(TAG, "Loaded " + graph.getNodeCount() + " nodes, " + graph.getEdgeCount() + " edges, "
+                    + profiles.getProfiledEdgeCount() + " profiled edges in "
+                    + (System.currentTimeMillis() - t0) + " ms");
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot load road graph", e);
+        }
+        return instance;
+    }
+
+    /**
+     * Open the partitioned graph on first use, if roads.graph is not installed
+     *
+     * Reads only the cell grid and the overlay; partitions load per query.
+     *
+     * @return The shared graph, or null if roads.graph is installed, roads.parts is not, or it failed to open
+     */
+    public static synchronized PartitionedGraph getPartitioned(Context context) {
+        if (partitionedAttempted) return partitioned;
+        partitionedAttempted = true;
+        File dir = context.getApplicationContext().getFilesDir();
+        File partsFile = new File(dir, PARTS_FILE);
+        if (new File(dir, GRAPH_FILE).exists() || !partsFile.exists()) return null;
+        try {
+            long t0 = System.currentTimeMillis();
+            partitioned = PartitionedGraph.open(partsFile, RESIDENT_PARTITIONS);
+            Log.i(TAG, "Opened " + partitioned.getPartitionCount() + " partitions, overlay of "
+                    + partitioned.getVertexCount() + " nodes and " + partitioned.getArcCount() + " arcs in "
+                    + (System.currentTimeMillis() - t0) + " ms");
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open partitioned road graph", e);
+        }
+        return partitioned;
+    }
+
+    /**
+     * The shared instance if it has already been loaded, without blocking or I/O
+     */
+    public static OfflineRouting getIfLoaded() {
+        return instance;
+    }
+
+    public RoadGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return Latest published speed profiles
+     */
+    public SpeedProfiles getProfiles() {
+        return profiles;
+    }
+
+    /**
+     * @return Routes precomputed from recent positions
+     */
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    /**
+     * @return Hospitals, pharmacies, fuel and civil defense posts, or null if no index is installed
+     */
+    public PoiIndex getPois() {
+        return pois;
+    }
+
+    /**
+     * @return A new router for the calling thread, in the device time zone
+     */
+    public OfflineRouter newRouter() {
+        return new OfflineRouter(profiles, TimeZone.getDefault());
+    }
+
+    /**
+     * Fold trips recorded since the last run into the profiles and publish them
+     *
+     * The newest trip file is skipped because it may still be recording;
+     * it is folded on the next run after a newer trip has started.
+     *
+     * @param tripsDir Directory of TripRecorder files
+     * @return Number of fixes matched to edges
+     */
+    public synchronized long learnFromTrips(File tripsDir) throws IOException {
+        File newest = TripRecorder.latestTrip(tripsDir);
+        SpeedProfiles updated = profiles.copy();
+        SpeedProfileLearner learner = new SpeedProfileLearner(updated, TimeZone.getDefault());
+        long matched = learner.foldNewTrips(tripsDir, newest != null ? newest.getName() : null);
+        if (!updated.getLastFoldedTrip().equals(profiles.getLastFoldedTrip())) {
+            updated.save(speedsFile);
+            profiles = updated;
+            routeCache.clear();  // ETAs were computed with the old speeds
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * PagedLoader - Loads a newest-first list one page at a time off the main thread
+ *
+ * Pages are fetched with keyset pagination: each page starts after the last
+ * row already loaded (by timestamp, then id), so loading page 50 costs the
+ * same index seek as page 1 and rows inserted meanwhile can't shift the
+ * window. The accumulated list is handed to the listener on the main thread
+ * as a new List, ready for ListAdapter.submitList().
+ *
+ * Not thread-safe: call everything from the main thread.
+ */
+package com.example.offlinenav;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class PagedLoader<T> {
+
+    private static final String TAG = "PagedLoader";
+    private static final Metrics.Histogram PAGE_TIME = Metrics.histogram("db.page");
+
+    /**
+     * Reads one page from the database (called on the background executor)
+     */
+    public interface PageSource<T> {
+        /**
+         * @param after Last row of the previous page, or null for the first page
+         * @param limit Maximum rows to return
+         * @return Rows following after, newest first
+         */
+        List<T> loadPage(T after, int limit);
+    }
+
+    /**
+     * Receives the full list loaded so far (called on the main thread)
+     */
+    public interface Listener<T> {
+        void onItems(List<T> items, boolean complete);
+
+        /**
+         * A page failed to load; loadMore() or reset() may try again
+         */
+        void onError(RuntimeException error);
+    }
+
+    private final PageSource<T> source;
+    private final Executor executor;
+    private final Listener<T> listener;
+    private final int pageSize;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private List<T> items = Collections.emptyList();
+    private boolean loading = false;              // A page is being fetched
+    private boolean complete = false;             // The last page was shorter than pageSize
+    private int generation = 0;                   // Bumped by reset(); stale pages are dropped
+
+    public PagedLoader(PageSource<T> source, Executor executor, int pageSize, Listener<T> listener) {
+        this.source = source;
+        this.executor = executor;
+        this.pageSize = pageSize;
+        this.listener = listener;
+    }
+
+    /**
+     * Drop everything loaded and fetch the first page again
+     */
+    public void reset() {
+        generation++;
+        items = Collections.emptyList();
+        loading = false;
+        complete = false;
+        loadMore();
+    }
+
+    /**
+     * Fetch the next page unless one is already in flight or the end was reached
+     */
+    public void loadMore() {
+        if (loading || complete) return;
+        loading = true;
+        final int requestGeneration = generation;
+        final T after = items.isEmpty() ? null : items.get(items.size() - 1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long t0 = Metrics.start();
+                final List<T> page;
+                try {
+                    page = source.loadPage(after, pageSize);
+                } catch (final RuntimeException e) {
+                    Log.w(TAG, "Page load failed", e);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (requestGeneration != generation) return;
+                            loading = false;
+                            listener.onError(e);
+                        }
+                    });
+                    return;
+                }
+                PAGE_TIME.stop(t0);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (requestGeneration != generation) return;
+                        loading = false;
+                        complete = page.size() < pageSize;
+                        List<T> next = new ArrayList<>(items.size() + page.size());
+                        next.addAll(items);
+                        next.addAll(page);
+                        items = next;
+                        listener.onItems(items, complete);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Remove a row locally (after it was deleted) without reloading any page
+     */
+    public void remove(T item) {
+        List<T> next = new ArrayList<>(items);
+        if (!next.remove(item)) return;
+        items = next;
+        listener.onItems(items, complete);
+    }
+
+    /**
+     * Stop delivering results, e.g. when the owning activity is destroyed
+     */
+    public void cancel() {
+        generation++;
+        loading = false;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Scroll hook: load the next page once the last visible row is within
+     * prefetchDistance of the end of the loaded list
+     */
+    public void onScrolledTo(int lastVisiblePosition, int prefetchDistance) {
+        if (lastVisiblePosition >= items.size() - prefetchDistance) {
+            loadMore();
+        }
+    }
+}
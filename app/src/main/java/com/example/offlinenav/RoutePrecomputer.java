@@ -0,0 +1,182 @@
+/**
+ * RoutePrecomputer - Computes routes to the most-used favorites ahead of time
+ *
+ * Fed with position updates from the navigation screen. Whenever the device
+ * has moved far enough from where routes were last computed (or those have
+ * gone stale), it reads the top favorites through the DataLayer read
+ * executor, runs one one-to-many search from the current position to them
+ * on a background-priority thread and stores the results in the shared
+ * RouteCache. Tapping Navigate on a favorite then finds its
+ * route ready instead of waiting for a search.
+ *
+ * Work is bounded by a settled-node budget per run and a minimum interval
+ * between runs, and skipped entirely while the device is thermally
+ * throttled, in battery saver, or low on battery and not charging.
+ */
+package com.example.offlinenav;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Location;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RoutePrecomputer {
+
+    private static final String TAG = "RoutePrecomputer";
+    private static final int MAX_DESTINATIONS = 20;                  // Most-used favorites routed to
+    private static final int MAX_SETTLED_NODES = 400_000;            // CPU budget per run
+    private static final double RECOMPUTE_DISTANCE_M = 120;          // Below RouteCache.MAX_ORIGIN_OFFSET_M
+    private static final long MIN_INTERVAL_MS = 60_000;              // Between runs
+    private static final long REFRESH_MS = RouteCache.MAX_AGE_MS / 2; // Recompute before entries expire
+    private static final float MAX_ACCURACY_M = 50;                  // Don't route from a vague fix
+    private static final int LOW_BATTERY_PERCENT = 20;
+
+    private final Context context;
+    private final DataLayer data;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "route-precompute");
+        }
+    });
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // Main thread only
+    private double lastLat = Double.NaN, lastLon = Double.NaN;
+    private long lastRunMs = 0;
+
+    // Worker thread only
+    private OfflineRouter router;
+    private int runs, skippedForPower;
+
+    public RoutePrecomputer(Context context) {
+        this.context = context.getApplicationContext();
+        data = DataLayer.get(this.context);
+    }
+
+    /**
+     * Position update from the location listener (main thread)
+     */
+    public void onLocation(Location location) {
+        if (location.hasAccuracy() && location.getAccuracy() > MAX_ACCURACY_M) return;
+        long now = System.currentTimeMillis();
+        if (now - lastRunMs < MIN_INTERVAL_MS || running.get()) return;
+        boolean moved = Double.isNaN(lastLat) || RoadGraph.distanceM(lastLat, lastLon,
+                location.getLatitude(), location.getLongitude()) >= RECOMPUTE_DISTANCE_M;
+        if (!moved && now - lastRunMs < REFRESH_MS) return;
+
+        lastLat = location.getLatitude();
+        lastLon = location.getLongitude();
+        lastRunMs = now;
+        final double lat = lastLat, lon = lastLon;
+        running.set(true);
+        data.read(new DataLayer.Task<List<FavoriteRecord>>() {
+            @Override
+            public List<FavoriteRecord> run() {
+                try {
+                    return FavoritesDbHelper.queryMostUsed(data.favorites().getReadableDatabase(), MAX_DESTINATIONS);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Cannot read favorites", e);
+                    return Collections.emptyList();  // Still delivered, so running is reset
+                }
+            }
+        }, new DataLayer.Callback<List<FavoriteRecord>>() {
+            @Override
+            public void onResult(final List<FavoriteRecord> top) {
+                if (top.isEmpty()) {
+                    running.set(false);
+                    return;
+                }
+                worker.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            precompute(lat, lon, top);
+                        } catch (RuntimeException e) {
+                            Log.w(TAG, "Precomputation failed", e);
+                        } finally {
+                            running.set(false);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    private void precompute(double lat, double lon, List<FavoriteRecord> top) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        if (shouldPause()) {
+            skippedForPower++;
+            return;
+        }
+        OfflineRouting routing = OfflineRouting.get(context);
+        if (routing == null) return;
+
+        double[] lats = new double[top.size()];
+        double[] lons = new double[top.size()];
+        for (int i = 0; i < top.size(); i++) {
+            lats[i] = top.get(i).latitude;
+            lons[i] = top.get(i).longitude;
+        }
+
+        if (router == null) router = routing.newRouter();
+        router.setProfiles(routing.getProfiles());
+        long t0 = System.currentTimeMillis();
+        OfflineRouter.Route[] routes = router.routeToMany(lat, lon, lats, lons, t0, MAX_SETTLED_NODES);
+        long computed = System.currentTimeMillis();
+
+        RouteCache cache = routing.getRouteCache();
+        int stored = 0, settled = 0;
+        for (int i = 0; i < routes.length; i++) {
+            if (routes[i] == null) continue;
+            cache.put(lats[i], lons[i], routes[i], lat, lon, computed);
+            settled = Math.max(settled, routes[i].settledNodes);
+            stored++;
+        }
+        runs++;
+        Log.i(TAG, "Precomputed " + stored + "/" + routes.length + " routes in " + (computed - t0)
+                + " ms (" + settled + " nodes settled, run " + runs + ", " + skippedForPower
+                + " skipped for power/thermal)");
+    }
+
+    /**
+     * True while background CPU work should be avoided
+     */
+    private boolean shouldPause() {
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (pm != null) {
+            if (pm.isPowerSaveMode()) return true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                    && pm.getCurrentThermalStatus() >= PowerManager.THERMAL_STATUS_MODERATE) {
+                return true;
+            }
+        }
+        // Sticky broadcast: returns the last battery state without registering a receiver
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            int plugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+            if (level >= 0 && scale > 0 && plugged == 0 && level * 100 / scale < LOW_BATTERY_PERCENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,389 @@
+/**
+ * RoutingService - Process-wide, cancellable online (OSRM) routing
+ *
+ * Replaces the one-off AsyncTask per route request. One OSRMRoadManager per
+ * travel mode (OSRM has car and foot profiles; motorcycles use the car one)
+ * is shared by a small, bounded worker pool, and every request is tied to
+ * the LifecycleOwner (activity) that made it:
+ * - an identical request already in flight is joined instead of repeated
+ * - a new request from the same owner supersedes its previous one; work no
+ *   one is waiting for any more is cancelled and dropped from the queue
+ * - a request that takes longer than its timeout is abandoned and reported
+ *   as failed, so the caller can fall back to offline routing
+ * - results are delivered on the main thread only while the owner is
+ *   started; a stopped owner gets the result when it starts again, and a
+ *   destroyed owner is forgotten, so the activity is never leaked
+ *
+ * A latency-aware CircuitBreaker watches the outcomes: after repeated
+ * failures, timeouts or very slow answers isOnlineAllowed() turns false
+ * for a while, so callers go straight to offline routing instead of
+ * waiting on a link that keeps hanging.
+ *
+ * All bookkeeping happens on the main thread; workers only fetch routes.
+ */
+package com.example.offlinenav;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import org.osmdroid.bonuspack.routing.OSRMRoadManager;
+import org.osmdroid.bonuspack.routing.Road;
+import org.osmdroid.bonuspack.routing.RoadManager;
+import org.osmdroid.util.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RoutingService {
+
+    private static final String TAG = "RoutingService";
+    public static final long DEFAULT_TIMEOUT_MS = 15_000;        // Then fall back to offline routing
+    private static final int WORKER_THREADS = 2;                 // Concurrent OSRM requests
+    private static final int MAX_QUEUED = 4;                     // Waiting requests before rejecting
+    private static final double KEY_SCALE = 1e5;                 // Coalescing resolution (~1 m)
+
+    // Circuit breaker policy
+    private static final int BREAKER_FAILURES = 3;               // Bad outcomes in a row that open it
+    private static final long BREAKER_SLOW_CALL_MS = 6_000;      // Slower answers count as bad
+    private static final long BREAKER_OPEN_MS = 60_000;          // First open period
+    private static final long BREAKER_MAX_OPEN_MS = 10 * 60_000; // After repeated failed trials
+
+    private static final Metrics.Histogram ONLINE_TIME = Metrics.histogram("route.online");
+    private static final Metrics.Counter ONLINE_FAILED = Metrics.counter("route.online.failed");
+    private static final Metrics.Counter ONLINE_TIMEOUTS = Metrics.counter("route.online.timeout");
+    private static final Metrics.Counter ONLINE_REJECTED = Metrics.counter("route.online.rejected");
+    private static final Metrics.Counter ONLINE_COALESCED = Metrics.counter("route.online.coalesced");
+
+    /**
+     * Receives the result of a request on the main thread
+     */
+    public interface Callback {
+        /**
+         * @param road The route, or null if routing failed, timed out or was rejected
+         */
+        void onRoute(Road road);
+    }
+
+    private static RoutingService instance;
+
+    private final RoadManager[] roadManagers;                    // By RoutingProfile ordinal
+    private final ThreadPoolExecutor workers;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Call> inFlight = new HashMap<>();                 // By request key
+    private final Map<LifecycleOwner, Subscription> latest = new HashMap<>();   // Current request per owner
+    private final CircuitBreaker breaker = new CircuitBreaker(BREAKER_FAILURES, BREAKER_SLOW_CALL_MS,
+            BREAKER_OPEN_MS, BREAKER_MAX_OPEN_MS);
+
+    // Metrics (main thread only)
+    private int requests, coalesced, superseded, timeouts, failures, rejected, completed;
+    private long totalLatencyMs, maxLatencyMs, lastLatencyMs;
+    private int peakQueueDepth;
+
+    private RoutingService(Context context) {
+        roadManagers = new RoadManager[RoutingProfile.values().length];
+        for (RoutingProfile profile : RoutingProfile.values()) {
+            OSRMRoadManager manager = new OSRMRoadManager(context.getApplicationContext(), "OfflineNavApp");
+            manager.setMean(profile == RoutingProfile.FOOT ? OSRMRoadManager.MEAN_BY_FOOT : OSRMRoadManager.MEAN_BY_CAR);
+            roadManagers[profile.ordinal()] = manager;
+        }
+        workers = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "osrm-" + count.incrementAndGet());
+                    }
+                });
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized RoutingService get(Context context) {
+        if (instance == null) {
+            instance = new RoutingService(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Request a route for an owner, superseding the owner's previous request
+     *
+     * Must be called on the main thread.
+     *
+     * @param owner Activity the result is delivered to
+     * @param start Starting point
+     * @param end Ending point
+     * @param profile Travel mode
+     * @param timeoutMs Time after which the request is reported as failed
+     * @param callback Receives the result while the owner is started
+     * @return Handle for cancelling the request, or null if the owner is already destroyed
+     */
+    public Subscription request(LifecycleOwner owner, GeoPoint start, GeoPoint end, RoutingProfile profile,
+                                long timeoutMs, Callback callback) {
+        if (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) return null;
+        requests++;
+        String key = profile + ":" + key(start) + ">" + key(end);
+        Call call = inFlight.get(key);
+        if (call != null) {
+            coalesced++;
+            ONLINE_COALESCED.inc();
+        } else {
+            call = new Call(key, start, end, roadManagers[profile.ordinal()]);
+            inFlight.put(key, call);
+            submit(call, timeoutMs);
+        }
+
+        Subscription subscription = new Subscription(owner, call, callback);
+        call.subscribers.add(subscription);
+        // Attach before cancelling the previous one, so a repeated identical request keeps its call
+        Subscription previous = latest.put(owner, subscription);
+        if (previous != null) {
+            superseded++;
+            previous.cancel();
+        }
+        owner.getLifecycle().addObserver(subscription);
+        return subscription;
+    }
+
+    /**
+     * Request a car route with the default timeout
+     */
+    public Subscription request(LifecycleOwner owner, GeoPoint start, GeoPoint end, Callback callback) {
+        return request(owner, start, end, RoutingProfile.CAR, DEFAULT_TIMEOUT_MS, callback);
+    }
+
+    /**
+     * Drop the owner's current request, e.g. because a route was found another way
+     */
+    public void cancel(LifecycleOwner owner) {
+        Subscription current = latest.get(owner);
+        if (current != null) current.cancel();
+    }
+
+    /**
+     * Whether the online path should be tried now
+     *
+     * False while the circuit breaker is open. When it is half-open this
+     * grants the single trial, so call it only right before request().
+     */
+    public boolean isOnlineAllowed() {
+        return breaker.allowRequest(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Requests waiting for a worker
+     */
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    public String getStatsSummary() {
+        long meanMs = completed > 0 ? totalLatencyMs / completed : 0;
+        return String.format(Locale.US,
+                "Online routing: %d requests, %d coalesced, %d superseded, %d timed out, %d failed, "
+                        + "%d rejected; latency mean %d ms, max %d ms, last %d ms; "
+                        + "queue %d (peak %d), %d active; %s",
+                requests, coalesced, superseded, timeouts, failures, rejected,
+                meanMs, maxLatencyMs, lastLatencyMs,
+                getQueueDepth(), peakQueueDepth, workers.getActiveCount(), breaker.getStatsSummary());
+    }
+
+    private void submit(final Call call, long timeoutMs) {
+        try {
+            call.future = workers.submit(call);
+        } catch (RejectedExecutionException e) {
+            // Deliver after the subscription has been attached by request()
+            rejected++;
+            ONLINE_REJECTED.inc();
+            breaker.onAbandoned();
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    finish(call, null);
+                }
+            });
+            return;
+        }
+        peakQueueDepth = Math.max(peakQueueDepth, getQueueDepth());
+        mainHandler.postDelayed(call.timeout, timeoutMs);
+    }
+
+    /**
+     * Complete a call and deliver its result to every subscriber (main thread)
+     */
+    private void finish(Call call, Road road) {
+        if (call.done) return;
+        call.done = true;
+        retire(call);
+        List<Subscription> subscribers = new ArrayList<>(call.subscribers);
+        call.subscribers.clear();
+        for (Subscription s : subscribers) s.deliver(road);
+    }
+
+    /**
+     * Abandon a call no one is waiting for (main thread)
+     */
+    private void abandon(Call call) {
+        if (call.done) return;
+        call.done = true;
+        retire(call);
+        breaker.onAbandoned();
+        if (call.future != null) {
+            call.future.cancel(true);
+            workers.purge();  // Free its queue slot right away if it never started
+        }
+    }
+
+    private void retire(Call call) {
+        if (inFlight.get(call.key) == call) inFlight.remove(call.key);
+        mainHandler.removeCallbacks(call.timeout);
+    }
+
+    private static String key(GeoPoint p) {
+        return Math.round(p.getLatitude() * KEY_SCALE) + "," + Math.round(p.getLongitude() * KEY_SCALE);
+    }
+
+    /**
+     * One OSRM request, possibly shared by several subscribers
+     */
+    private final class Call implements Runnable {
+        final String key;
+        final RoadManager roadManager;
+        final ArrayList<GeoPoint> waypoints = new ArrayList<>(2);
+        final List<Subscription> subscribers = new ArrayList<>();
+        final long submittedMs = SystemClock.elapsedRealtime();
+        Future<?> future;
+        boolean done;                   // Main thread only
+
+        final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                timeouts++;
+                ONLINE_TIMEOUTS.inc();
+                long waitedMs = SystemClock.elapsedRealtime() - submittedMs;
+                Log.w(TAG, "Request timed out after " + waitedMs + " ms");
+                breaker.onResult(false, waitedMs, SystemClock.elapsedRealtime());
+                if (future != null) future.cancel(true);
+                finish(Call.this, null);
+            }
+        };
+
+        Call(String key, GeoPoint start, GeoPoint end, RoadManager roadManager) {
+            this.key = key;
+            this.roadManager = roadManager;
+            waypoints.add(start);
+            waypoints.add(end);
+        }
+
+        @Override
+        public void run() {
+            Road road;
+            try {
+                road = roadManager.getRoad(waypoints);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "OSRM request failed", e);
+                road = null;
+            }
+            if (Thread.currentThread().isInterrupted()) return;  // Cancelled or timed out meanwhile
+            final Road result = road;
+            final long latencyMs = SystemClock.elapsedRealtime() - submittedMs;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (done) return;
+                    completed++;
+                    totalLatencyMs += latencyMs;
+                    maxLatencyMs = Math.max(maxLatencyMs, latencyMs);
+                    lastLatencyMs = latencyMs;
+                    ONLINE_TIME.recordUs(latencyMs * 1000);
+                    boolean ok = result != null && result.mStatus == Road.STATUS_OK;
+                    if (!ok) {
+                        failures++;
+                        ONLINE_FAILED.inc();
+                    }
+                    breaker.onResult(ok, latencyMs, SystemClock.elapsedRealtime());
+                    finish(Call.this, result);
+                }
+            });
+        }
+    }
+
+    /**
+     * One owner's interest in a call
+     */
+    public final class Subscription implements LifecycleEventObserver {
+        private final LifecycleOwner owner;
+        private final Call call;
+        private Callback callback;      // Null once delivered or cancelled
+        private Road pending;           // Result held while the owner is stopped
+        private boolean hasPending;
+
+        Subscription(LifecycleOwner owner, Call call, Callback callback) {
+            this.owner = owner;
+            this.call = call;
+            this.callback = callback;
+        }
+
+        /**
+         * Stop waiting for the result; the request itself is cancelled if
+         * no one else is waiting for it (main thread)
+         */
+        public void cancel() {
+            if (callback == null) return;
+            callback = null;
+            hasPending = false;
+            pending = null;
+            detach();
+            call.subscribers.remove(this);
+            if (call.subscribers.isEmpty()) abandon(call);
+        }
+
+        @Override
+        public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+            if (event == Lifecycle.Event.ON_START && hasPending) {
+                Road road = pending;
+                hasPending = false;
+                pending = null;
+                deliver(road);
+            } else if (event == Lifecycle.Event.ON_DESTROY) {
+                cancel();
+            }
+        }
+
+        void deliver(Road road) {
+            if (callback == null) return;
+            if (!owner.getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+                pending = road;
+                hasPending = true;
+                return;
+            }
+            Callback target = callback;
+            callback = null;
+            detach();
+            target.onRoute(road);
+        }
+
+        private void detach() {
+            owner.getLifecycle().removeObserver(this);
+            if (latest.get(owner) == this) latest.remove(owner);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * SpeedProfileJobService - Background job that learns road speeds from recorded trips
+ *
+ * Scheduled with JobScheduler to run while the device is charging, a few
+ * times a day. Each run folds only the trips recorded since the previous run
+ * into the speed profiles (see SpeedProfileLearner), so it stays cheap no
+ * matter how much driving history has accumulated.
+ */
+package com.example.offlinenav;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+public class SpeedProfileJobService extends JobService {
+
+    private static final String TAG = "SpeedProfileJob";
+    private static final int JOB_ID = 2901;
+    private static final long PERIOD_MS = 6 * 60 * 60 * 1000L;   // Every 6 hours while charging
+
+    private Thread worker;
+
+    /**
+     * Schedule the periodic learning job if it isn't already pending
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) return;
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) return;
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, SpeedProfileJobService.class))
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD_MS)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                OfflineRouting routing = OfflineRouting.get(SpeedProfileJobService.this);
+                if (routing != null) {
+                    try {
+                        long matched = routing.learnFromTrips(new File(getFilesDir(), "trips"));
+                        Log.i(TAG, "Folded " + matched + " matched fixes into speed profiles");
+                    } catch (IOException e) {
+                        Log.w(TAG, "Speed profile update failed", e);
+                    }
+                }
+                jobFinished(params, false);
+            }
+        }, "speed-profile-learner");
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+        return true;  // Work continues on the worker thread
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Trips are folded atomically per run; an interrupted run is simply retried
+        if (worker != null) worker.interrupt();
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * StartupTracer - Timeline of one screen's staged startup
+ *
+ * Records named milestones relative to the screen's onCreate, wraps main
+ * thread stages in systrace sections (visible in Perfetto / systrace under
+ * the "app" category) and detects the first drawn frame. When the screen is
+ * fully usable, reportFullyDrawn() is passed on to the framework (reported
+ * as "Fully drawn" in logcat's ActivityTaskManager lines) and the timeline
+ * is logged, with a warning if the first interactive frame missed its
+ * budget.
+ *
+ * Milestones may be marked from any thread, also after the screen is fully
+ * drawn (e.g. background loads); sections must be begun and ended on the
+ * main thread.
+ */
+package com.example.offlinenav;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class StartupTracer {
+
+    private static final String TAG = "StartupTracer";
+    public static final long TARGET_FIRST_FRAME_MS = 1000;      // Budget to first interactive frame
+
+    private final String name;
+    private final long startMs = SystemClock.elapsedRealtime();
+    private final List<String> milestones = new ArrayList<>();
+    private final List<Long> offsetsMs = new ArrayList<>();
+    private long firstFrameMs = -1;
+    private boolean finished;
+
+    /**
+     * Start a timeline; create it first thing in onCreate
+     *
+     * @param name Label for the log and the trace sections
+     */
+    public StartupTracer(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Open a systrace section for a main thread stage
+     */
+    public void begin(String stage) {
+        Trace.beginSection(name + ":" + stage);
+    }
+
+    /**
+     * Close the innermost section and record the stage as finished
+     */
+    public void end(String stage) {
+        Trace.endSection();
+        mark(stage);
+    }
+
+    /**
+     * Record a milestone (any thread)
+     */
+    public synchronized void mark(String milestone) {
+        milestones.add(milestone);
+        offsetsMs.add(SystemClock.elapsedRealtime() - startMs);
+    }
+
+    /**
+     * Run a task on the main thread right after the first frame is drawn
+     *
+     * @param root Any view in the screen's hierarchy
+     * @param afterFirstFrame Deferred startup work
+     */
+    public void onFirstFrame(final View root, final Runnable afterFirstFrame) {
+        root.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                root.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Posted work runs once this traversal (the first frame) has been drawn
+                root.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (StartupTracer.this) {
+                            firstFrameMs = SystemClock.elapsedRealtime() - startMs;
+                        }
+                        mark("first-frame");
+                        afterFirstFrame.run();
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    /**
+     * The screen is fully usable: tell the framework and log the timeline
+     */
+    public void reportFullyDrawn(Activity activity) {
+        String summary;
+        long firstFrame;
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+            mark("fully-drawn");
+            summary = getSummary();
+            firstFrame = firstFrameMs;
+        }
+        activity.reportFullyDrawn();
+        if (firstFrame > TARGET_FIRST_FRAME_MS) {
+            Log.w(TAG, summary + " (first frame over the " + TARGET_FIRST_FRAME_MS + " ms budget)");
+        } else {
+            Log.i(TAG, summary);
+        }
+    }
+
+    public synchronized String getSummary() {
+        StringBuilder sb = new StringBuilder(name).append(" startup:");
+        for (int i = 0; i < milestones.size(); i++) {
+            sb.append(i == 0 ? " " : ", ").append(milestones.get(i)).append(' ').append(offsetsMs.get(i)).append(" ms");
+        }
+        return sb.toString();
+    }
+}
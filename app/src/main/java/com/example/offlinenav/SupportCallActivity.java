@@ -5,35 +5,56 @@
  * - Quick support button for predefined emergency number
  * - Custom phone number input for any contact
  * - Call history tracking and display
+ * - Most called numbers, from a maintained summary table
+ * - Nearest hospitals, pharmacies, fuel and civil defense posts by road,
+ *   from the offline POI index, to call, navigate to or show on the map
  * - Phone permission handling
  * - Integration with main navigation menu
  *
- * All calls are logged to a local database for reference.
+ * All calls are logged to a local database for reference through
+ * CallLogRepository, which writes on a background thread so the dialer
+ * opens without waiting for the disk. The history is
+ * loaded off the main thread in keyset pages as the user scrolls and shown
+ * in a RecyclerView with diff-based updates.
  */
 package com.example.offlinenav;
 
 import android.Manifest;
-import android.content.ContentValues;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.os.Build;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.telephony.PhoneNumberUtils;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ListView;
-import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class SupportCallActivity extends AppCompatActivity {
 
@@ -41,8 +62,32 @@ public class SupportCallActivity extends AppCompatActivity {
     private static final int REQUEST_CALL_PHONE = 1001;
     private static final String SUPPORT_NUMBER = "+1-800-SUPPORT"; // Default support number
 
-    // Database helper for call logging
+    // Paging configuration
+    private static final int PAGE_SIZE = 50;                      // Calls per page
+    private static final int PREFETCH_DISTANCE = 15;              // Rows from the end that trigger the next page
+
+    private static final int FREQUENT_LIMIT = 3;                  // Most called numbers shown
+    private static final int NEARBY_COUNT = 5;                    // Places listed per category
+    private static final long MAX_FIX_AGE_MS = 2 * 60_000;        // Older last known fixes trigger a fresh one
+    private static final long FRESH_FIX_TIMEOUT_MS = 15_000;      // Then fall back to the old fix, showing its age
+
+    private static final Metrics.Histogram NEARBY_TIME = Metrics.histogram("poi.nearby");
+
+    // Call log access (background writer, shared database helper)
+    private CallLogRepository callLog;
     private CallDbHelper dbHelper;
+    private TextView frequentView;                // Most called numbers
+
+    // Call history list
+    private PagedLoader<CallRecord> pager;        // History, newest first, loaded page by page
+    private CallsAdapter adapter;
+
+    // Nearest services, searched on the offline graph
+    private final ExecutorService nearbyExecutor = Executors.newSingleThreadExecutor(); // Owns nearbyRouter
+    private OfflineRouter nearbyRouter;           // Created on the first search
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private LocationListener freshFixListener;    // Non-null while waiting for a fresh fix
+    private Runnable freshFixTimeout;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -55,20 +100,47 @@ public class SupportCallActivity extends AppCompatActivity {
             getSupportActionBar().setDisplayHomeAsUpEnabled(true);
         }
 
-        dbHelper = new CallDbHelper(this);
+        callLog = CallLogRepository.get(this);
+        dbHelper = callLog.getDbHelper();
+        frequentView = findViewById(R.id.tv_frequent_calls);
 
         final EditText etNumber = findViewById(R.id.et_phone);
         final EditText etName = findViewById(R.id.et_name);
         final Button btnCall = findViewById(R.id.btn_call);
         final Button btnQuickSupport = findViewById(R.id.btn_quick_support);
-        final ListView lv = findViewById(R.id.lv_calls);
+        final RecyclerView rv = findViewById(R.id.rv_calls);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        adapter = new CallsAdapter();
+        rv.setLayoutManager(layoutManager);
+        rv.setAdapter(adapter);
+        pager = new PagedLoader<>(new PagedLoader.PageSource<CallRecord>() {
+            @Override
+            public List<CallRecord> loadPage(CallRecord after, int limit) {
+                return CallDbHelper.queryPage(dbHelper.getReadableDatabase(), after, limit);
+            }
+        }, DataLayer.get(this).readExecutor(), PAGE_SIZE, new PagedLoader.Listener<CallRecord>() {
+            @Override
+            public void onItems(List<CallRecord> items, boolean complete) {
+                adapter.submitList(items);
+            }
+
+            @Override
+            public void onError(RuntimeException error) {
+                Toast.makeText(SupportCallActivity.this, "Could not load call history", Toast.LENGTH_SHORT).show();
+            }
+        });
+        rv.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0) pager.onScrolledTo(layoutManager.findLastVisibleItemPosition(), PREFETCH_DISTANCE);
+            }
+        });
 
         // Quick Support Button - calls predefined support number
         btnQuickSupport.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
                 callNumber(SUPPORT_NUMBER, "Support Center");
-                loadCalls(lv);
             }
         });
 
@@ -79,11 +151,25 @@ public class SupportCallActivity extends AppCompatActivity {
                 String name = etName.getText().toString().trim();
                 if (number.isEmpty()) { Toast.makeText(SupportCallActivity.this, "Enter phone number", Toast.LENGTH_SHORT).show(); return; }
                 callNumber(number, name);
-                loadCalls(lv);
             }
         });
 
-        loadCalls(lv);
+        bindNearbyButton(R.id.btn_near_hospital, PoiCategory.HOSPITAL);
+        bindNearbyButton(R.id.btn_near_pharmacy, PoiCategory.PHARMACY);
+        bindNearbyButton(R.id.btn_near_fuel, PoiCategory.FUEL);
+        bindNearbyButton(R.id.btn_near_civil_defense, PoiCategory.CIVIL_DEFENSE);
+
+        callLog.addListener(callsChanged);
+        loadCalls();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        callLog.removeListener(callsChanged);
+        pager.cancel();
+        nearbyExecutor.shutdown();
+        stopFreshFix();
     }
 
     @Override
@@ -142,13 +228,8 @@ public class SupportCallActivity extends AppCompatActivity {
      * @param name Contact name (can be empty for anonymous calls)
      */
     private void callNumber(String number, String name) {
-        // Log call to database for history tracking
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        ContentValues cv = new ContentValues();
-        cv.put(CallDbHelper.COL_NAME, name);
-        cv.put(CallDbHelper.COL_NUMBER, number);
-        cv.put(CallDbHelper.COL_TIMESTAMP, System.currentTimeMillis());
-        long id = db.insert(CallDbHelper.TABLE_NAME, null, cv);
+        // Queue the call for the history; the list refreshes once it is committed
+        callLog.logCall(name, number, System.currentTimeMillis());
 
         // Request phone permission if not already granted
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.CALL_PHONE) != PackageManager.PERMISSION_GRANTED) {
@@ -158,6 +239,236 @@ public class SupportCallActivity extends AppCompatActivity {
         }
     }
 
+    private void bindNearbyButton(int id, final PoiCategory category) {
+        findViewById(id).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                findNearby(category);
+            }
+        });
+    }
+
+    /**
+     * List the places of a category nearest by road from the current position
+     *
+     * A last known fix older than MAX_FIX_AGE_MS may be far from the user, so
+     * a fresh fix is requested first; if none arrives in time the old fix is
+     * used and its age is shown with the results. The search runs on the
+     * offline graph and needs no network. Loading the graph, if the map has
+     * not done so yet, happens on the search thread.
+     */
+    private void findNearby(final PoiCategory category) {
+        final Location last = lastKnownLocation();
+        if (last != null && fixAgeMs(last) <= MAX_FIX_AGE_MS) {
+            searchNearby(category, last);
+            return;
+        }
+        if (!requestFreshFix(category, last)) {
+            if (last == null) {
+                Toast.makeText(this, "No recent location. Open the map to get a fix first.", Toast.LENGTH_LONG).show();
+            } else {
+                searchNearby(category, last);
+            }
+        }
+    }
+
+    /**
+     * Listen on every enabled provider for one fix, then search from it
+     *
+     * @param fallback Fix to search from if none arrives in time, or null
+     * @return false if no provider can deliver a fix
+     */
+    private boolean requestFreshFix(final PoiCategory category, final Location fallback) {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+        final LocationManager locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
+        List<String> providers = locationManager.getProviders(true);
+        providers.remove(LocationManager.PASSIVE_PROVIDER);
+        if (providers.isEmpty()) return false;
+        stopFreshFix();
+        freshFixListener = new LocationListener() {
+            @Override
+            public void onLocationChanged(@NonNull Location location) {
+                stopFreshFix();
+                searchNearby(category, location);
+            }
+
+            @Override
+            public void onStatusChanged(String provider, int status, Bundle extras) {
+            }
+
+            @Override
+            public void onProviderEnabled(@NonNull String provider) {
+            }
+
+            @Override
+            public void onProviderDisabled(@NonNull String provider) {
+            }
+        };
+        freshFixTimeout = new Runnable() {
+            @Override
+            public void run() {
+                stopFreshFix();
+                if (fallback != null) {
+                    searchNearby(category, fallback);
+                } else {
+                    Toast.makeText(SupportCallActivity.this, "No location fix. Move outdoors and try again.",
+                            Toast.LENGTH_LONG).show();
+                }
+            }
+        };
+        for (String provider : providers) {
+            locationManager.requestLocationUpdates(provider, 0, 0, freshFixListener, Looper.getMainLooper());
+        }
+        mainHandler.postDelayed(freshFixTimeout, FRESH_FIX_TIMEOUT_MS);
+        Toast.makeText(this, "Getting your location…", Toast.LENGTH_SHORT).show();
+        return true;
+    }
+
+    private void stopFreshFix() {
+        if (freshFixListener != null) {
+            ((LocationManager) getSystemService(LOCATION_SERVICE)).removeUpdates(freshFixListener);
+            freshFixListener = null;
+        }
+        if (freshFixTimeout != null) {
+            mainHandler.removeCallbacks(freshFixTimeout);
+            freshFixTimeout = null;
+        }
+    }
+
+    private static long fixAgeMs(Location location) {
+        return (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1_000_000;
+    }
+
+    private void searchNearby(final PoiCategory category, final Location here) {
+        nearbyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                OfflineRouting routing = OfflineRouting.get(SupportCallActivity.this);
+                final PoiIndex pois = routing != null ? routing.getPois() : null;
+                PoiIndex.Hit[] hits = null;
+                if (pois != null) {
+                    if (nearbyRouter == null) nearbyRouter = routing.newRouter();
+                    nearbyRouter.setProfiles(routing.getProfiles());
+                    long t0 = Metrics.start();
+                    hits = pois.nearestByRoad(nearbyRouter, here.getLatitude(), here.getLongitude(), category.bit,
+                            NEARBY_COUNT, System.currentTimeMillis());
+                    NEARBY_TIME.stop(t0);
+                }
+                final PoiIndex.Hit[] found = hits;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) showNearby(category, pois, found, here);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Newest last known fix of any enabled provider, or null
+     */
+    private Location lastKnownLocation() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            return null;
+        }
+        LocationManager locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
+        Location best = null;
+        for (String provider : locationManager.getProviders(true)) {
+            Location location = locationManager.getLastKnownLocation(provider);
+            if (location != null && (best == null || location.getTime() > best.getTime())) best = location;
+        }
+        return best;
+    }
+
+    private void showNearby(final PoiCategory category, final PoiIndex pois, final PoiIndex.Hit[] hits, Location from) {
+        if (pois == null) {
+            Toast.makeText(this, "Offline places are not installed (roads.pois)", Toast.LENGTH_LONG).show();
+            return;
+        }
+        if (hits.length == 0) {
+            Toast.makeText(this, "No " + category.label.toLowerCase(Locale.ROOT) + " reachable by road nearby",
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
+        String[] lines = new String[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            lines[i] = placeName(pois, hits[i], category) + "\n" + describeRoute(hits[i].route);
+        }
+        new android.app.AlertDialog.Builder(this)
+            .setTitle("Nearest " + category.label.toLowerCase(Locale.ROOT) + describeFixAge(from))
+            .setItems(lines, (dialog, which) -> showPlace(pois, hits[which], category))
+            .setNeutralButton("Show on map", (dialog, which) -> showPlacesOnMap(pois, hits, category))
+            .setNegativeButton("Close", null)
+            .show();
+    }
+
+    /**
+     * Note for results searched from an old fix, empty for a recent one
+     */
+    private static String describeFixAge(Location from) {
+        long ageMs = fixAgeMs(from);
+        if (ageMs <= MAX_FIX_AGE_MS) return "";
+        return String.format(Locale.US, " (position from %d min ago)", ageMs / 60_000);
+    }
+
+    /**
+     * Options for one place: navigate there, or call it if it has a phone number
+     */
+    private void showPlace(PoiIndex pois, PoiIndex.Hit hit, PoiCategory category) {
+        final String name = placeName(pois, hit, category);
+        final String phone = pois.getPhone(hit.poi);
+        final double lat = pois.getLatitude(hit.poi);
+        final double lon = pois.getLongitude(hit.poi);
+        android.app.AlertDialog.Builder builder = new android.app.AlertDialog.Builder(this)
+            .setTitle(name)
+            .setMessage(describeRoute(hit.route) + (phone != null ? "\n📞 " + phone : ""))
+            .setPositiveButton("Navigate", (dialog, which) -> {
+                Intent intent = new Intent(this, MainActivity.class);
+                intent.putExtra("latitude", lat);
+                intent.putExtra("longitude", lon);
+                intent.putExtra("name", name);
+                intent.putExtra("navigate", true);
+                intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+                startActivity(intent);
+            })
+            .setNeutralButton("Close", null);
+        if (phone != null) builder.setNegativeButton("Call", (dialog, which) -> callNumber(phone, name));
+        builder.show();
+    }
+
+    /**
+     * Open the map with a marker per place; tapping a marker routes there
+     */
+    private void showPlacesOnMap(PoiIndex pois, PoiIndex.Hit[] hits, PoiCategory category) {
+        double[] lats = new double[hits.length];
+        double[] lons = new double[hits.length];
+        String[] names = new String[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            lats[i] = pois.getLatitude(hits[i].poi);
+            lons[i] = pois.getLongitude(hits[i].poi);
+            names[i] = placeName(pois, hits[i], category);
+        }
+        Intent intent = new Intent(this, MainActivity.class);
+        intent.putExtra("places_lat", lats);
+        intent.putExtra("places_lon", lons);
+        intent.putExtra("places_name", names);
+        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        startActivity(intent);
+    }
+
+    private static String placeName(PoiIndex pois, PoiIndex.Hit hit, PoiCategory category) {
+        String name = pois.getName(hit.poi);
+        return name != null ? name : category.label;
+    }
+
+    private static String describeRoute(OfflineRouter.Route route) {
+        return String.format(Locale.US, "%.1f km by road, about %d min",
+                route.distanceM / 1000, Math.round(route.durationS / 60));
+    }
+
     /**
      * Execute the actual phone call using Android's dialer
      *
@@ -187,26 +498,97 @@ public class SupportCallActivity extends AppCompatActivity {
     }
 
     /**
-     * Load and display call history in the list view
-     *
-     * Queries the call database and populates the list view with
-     * call history, showing name, number, and timestamp for each call.
-     * Results are ordered by timestamp (newest first).
+     * Refresh the history and most called numbers after the writer commits
+     */
+    private final CallLogRepository.ChangeListener callsChanged = new CallLogRepository.ChangeListener() {
+        @Override
+        public void onCallsChanged() {
+            loadCalls();
+        }
+    };
+
+    /**
+     * Load and display call history
      *
-     * @param lv ListView to populate with call history
+     * Reloads the first page of the history (newest first) in the
+     * background; further pages load as the list is scrolled. The most
+     * called numbers are read from the summary table.
      */
-    private void loadCalls(ListView lv) {
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
+    private void loadCalls() {
+        pager.reset();
+        callLog.mostCalled(FREQUENT_LIMIT, new DataLayer.Callback<List<CallLogRepository.NumberStats>>() {
+            @Override
+            public void onResult(List<CallLogRepository.NumberStats> numbers) {
+                if (isFinishing()) return;
+                if (numbers.isEmpty()) {
+                    frequentView.setVisibility(View.GONE);
+                    return;
+                }
+                StringBuilder sb = new StringBuilder("Most called:");
+                for (CallLogRepository.NumberStats n : numbers) {
+                    sb.append("\n• ")
+                      .append(n.name != null && !n.name.isEmpty() ? n.name + " (" + n.number + ")" : n.number)
+                      .append(" × ").append(n.callCount);
+                }
+                frequentView.setText(sb);
+                frequentView.setVisibility(View.VISIBLE);
+            }
+        });
+    }
 
-        // Query calls ordered by timestamp (newest first)
-        Cursor c = db.query(CallDbHelper.TABLE_NAME, null, null, null, null, null, CallDbHelper.COL_TIMESTAMP + " DESC");
+    private static final DiffUtil.ItemCallback<CallRecord> DIFF = new DiffUtil.ItemCallback<CallRecord>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull CallRecord a, @NonNull CallRecord b) {
+            return a.id == b.id;
+        }
 
-        // Map database columns to list item views
-        String[] from = new String[]{CallDbHelper.COL_NAME, CallDbHelper.COL_NUMBER, CallDbHelper.COL_TIMESTAMP};
-        int[] to = new int[]{R.id.item_name, R.id.item_number, R.id.item_time};
+        @Override
+        public boolean areContentsTheSame(@NonNull CallRecord a, @NonNull CallRecord b) {
+            return a.sameContent(b);
+        }
+    };
 
-        // Create and set adapter
-        SimpleCursorAdapter adapter = new SimpleCursorAdapter(this, R.layout.item_call, c, from, to, 0);
-        lv.setAdapter(adapter);
+    /**
+     * RecyclerView adapter for the call history (name, number, time)
+     */
+    private static class CallsAdapter extends ListAdapter<CallRecord, CallViewHolder> {
+
+        private final DateFormat timeFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+
+        CallsAdapter() {
+            super(DIFF);
+        }
+
+        @NonNull
+        @Override
+        public CallViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_call, parent, false);
+            return new CallViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull CallViewHolder holder, int position) {
+            CallRecord call = getItem(position);
+            holder.nameView.setText(call.name);
+            holder.numberView.setText(call.number);
+            holder.timeView.setText(timeFormat.format(new Date(call.timestamp)));
+        }
+    }
+
+    /**
+     * Views of one call row, looked up once when the row is created
+     */
+    private static class CallViewHolder extends RecyclerView.ViewHolder {
+
+        final TextView nameView;
+        final TextView numberView;
+        final TextView timeView;
+
+        CallViewHolder(View view) {
+            super(view);
+            nameView = view.findViewById(R.id.item_name);
+            numberView = view.findViewById(R.id.item_number);
+            timeView = view.findViewById(R.id.item_time);
+        }
     }
 }
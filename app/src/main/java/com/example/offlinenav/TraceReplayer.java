@@ -0,0 +1,149 @@
+/**
+ * TraceReplayer - Plays a recorded GPS trace into the navigation service
+ *
+ * Posts one android.location.Location per recorded fix on the main thread,
+ * spaced by the recorded fix times divided by the replay speed (1x-100x).
+ * Fix times are shifted to start now but keep their recorded spacing, so
+ * guidance and re-routing behave as they did on the road whatever the
+ * speed.
+ *
+ * Metrics are reset and recorded for the length of the replay (and
+ * restored to their previous state afterwards); the summary lists per-fix
+ * time from the "location.fix" histogram, off-route fixes, re-routes and,
+ * on API 23+, bytes allocated by the whole process during the replay.
+ *
+ * Main thread only.
+ */
+package com.example.offlinenav;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Locale;
+
+public class TraceReplayer {
+
+    public static final double MAX_SPEED = 100;
+
+    /**
+     * Receives the replayed fixes and the end of the replay
+     */
+    public interface Sink {
+        void onFix(Location location);
+
+        /**
+         * @param summary Readable replay report; not called when cancelled
+         */
+        void onFinished(String summary);
+    }
+
+    private final GpsTrace trace;
+    private final double speed;
+    private final NavigationPipeline pipeline;
+    private final Sink sink;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final TripFix fix = new TripFix();            // Reused for every fix
+
+    private int next;
+    private long startUptimeMs, timeShiftMs;
+    private long startOffRoute, startReroutes, startAllocated;
+    private boolean wasEnabled;                           // Metrics recording before the replay
+    private boolean running;
+
+    /**
+     * @param speed Replay speed relative to real time, clamped to 1..MAX_SPEED
+     * @param pipeline Pipeline the sink feeds, for the off-route and re-route counts
+     */
+    public TraceReplayer(GpsTrace trace, double speed, NavigationPipeline pipeline, Sink sink) {
+        this.trace = trace;
+        this.speed = Math.max(1, Math.min(MAX_SPEED, speed));
+        this.pipeline = pipeline;
+        this.sink = sink;
+    }
+
+    public void start() {
+        if (running || trace.size() == 0) return;
+        running = true;
+        wasEnabled = Metrics.isEnabled();
+        Metrics.reset();
+        Metrics.setEnabled(true);
+        startOffRoute = pipeline.getOffRouteCount();
+        startReroutes = pipeline.getRerouteCount();
+        startAllocated = allocatedBytes();
+        next = 0;
+        startUptimeMs = SystemClock.uptimeMillis();
+        timeShiftMs = System.currentTimeMillis() - trace.getTime(0);
+        handler.post(step);
+    }
+
+    public void cancel() {
+        if (!running) return;
+        handler.removeCallbacks(step);
+        finish();
+    }
+
+    private final Runnable step = new Runnable() {
+        @Override
+        public void run() {
+            trace.get(next, fix);
+            sink.onFix(toLocation(fix));
+            if (++next < trace.size()) {
+                long offsetMs = (long) ((trace.getTime(next) - trace.getTime(0)) / speed);
+                handler.postAtTime(this, startUptimeMs + offsetMs);
+                return;
+            }
+            String summary = summarize();
+            finish();
+            sink.onFinished(summary);
+        }
+    };
+
+    private Location toLocation(TripFix fix) {
+        Location location = new Location("replay");
+        location.setLatitude(fix.latitude);
+        location.setLongitude(fix.longitude);
+        location.setTime(fix.timeMs + timeShiftMs);
+        location.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos());
+        if (!Float.isNaN(fix.speedMps)) location.setSpeed(fix.speedMps);
+        if (!Float.isNaN(fix.accuracyM)) location.setAccuracy(fix.accuracyM);
+        return location;
+    }
+
+    private String summarize() {
+        Metrics.Histogram fixTime = Metrics.histogram("location.fix");
+        StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                "%d fixes at %.0fx in %.1f s\nper fix: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms\n"
+                        + "off-route fixes %d, re-routes %d",
+                trace.size(), speed, (SystemClock.uptimeMillis() - startUptimeMs) / 1000.0,
+                fixTime.percentileUs(50) / 1000.0, fixTime.percentileUs(90) / 1000.0,
+                fixTime.percentileUs(99) / 1000.0, fixTime.getMaxUs() / 1000.0,
+                pipeline.getOffRouteCount() - startOffRoute, pipeline.getRerouteCount() - startReroutes));
+        long allocated = allocatedBytes();
+        if (startAllocated >= 0 && allocated >= 0) {
+            sb.append(String.format(Locale.US, "\nprocess allocated %d KB, ~%d bytes per fix",
+                    (allocated - startAllocated) / 1024, (allocated - startAllocated) / trace.size()));
+        }
+        return sb.toString();
+    }
+
+    private void finish() {
+        Metrics.setEnabled(wasEnabled);
+        running = false;
+    }
+
+    /**
+     * @return Bytes allocated by the process so far, or -1 below API 23
+     */
+    private static long allocatedBytes() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return -1;
+        try {
+            return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * TracedOverlays - Map overlays whose draws show up in traces and metrics
+ *
+ * Drop-in subclasses of the osmdroid overlays the navigation screen uses.
+ * Each draw is wrapped in a systrace section ("overlay:route",
+ * "overlay:marker", "overlay:location"), so a Perfetto capture shows which
+ * overlay a long frame spent its time in, and is timed into a
+ * "draw.<overlay>" histogram while metrics are recorded. The rest of a
+ * frame's draw time is the tiles overlay.
+ */
+package com.example.offlinenav;
+
+import android.graphics.Canvas;
+import android.os.Trace;
+
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.Marker;
+import org.osmdroid.views.overlay.Polyline;
+import org.osmdroid.views.overlay.mylocation.IMyLocationProvider;
+import org.osmdroid.views.overlay.mylocation.MyLocationNewOverlay;
+
+public final class TracedOverlays {
+
+    private static final Metrics.Histogram ROUTE_DRAW = Metrics.histogram("draw.route");
+    private static final Metrics.Histogram MARKER_DRAW = Metrics.histogram("draw.marker");
+    private static final Metrics.Histogram LOCATION_DRAW = Metrics.histogram("draw.location");
+
+    private TracedOverlays() {}
+
+    /**
+     * Route polyline
+     */
+    public static class RouteLine extends Polyline {
+        @Override
+        public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+            Trace.beginSection("overlay:route");
+            long t0 = Metrics.start();
+            try {
+                super.draw(canvas, mapView, shadow);
+            } finally {
+                ROUTE_DRAW.stop(t0);
+                Trace.endSection();
+            }
+        }
+    }
+
+    /**
+     * Start, destination and search result markers
+     */
+    public static class Pin extends Marker {
+        public Pin(MapView mapView) {
+            super(mapView);
+        }
+
+        @Override
+        public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+            Trace.beginSection("overlay:marker");
+            long t0 = Metrics.start();
+            try {
+                super.draw(canvas, mapView, shadow);
+            } finally {
+                MARKER_DRAW.stop(t0);
+                Trace.endSection();
+            }
+        }
+    }
+
+    /**
+     * Current position and accuracy circle
+     */
+    public static class MyLocation extends MyLocationNewOverlay {
+        public MyLocation(IMyLocationProvider provider, MapView mapView) {
+            super(provider, mapView);
+        }
+
+        @Override
+        public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+            Trace.beginSection("overlay:location");
+            long t0 = Metrics.start();
+            try {
+                super.draw(canvas, mapView, shadow);
+            } finally {
+                LOCATION_DRAW.stop(t0);
+                Trace.endSection();
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * GuidanceBenchmark - Route polyline processing for turn-by-turn guidance
+ *
+ * Uses a long (intercity) route from the synthetic Lebanon graph. prepare()
+ * measures building guidance for a new route: projecting the polyline and
+ * extracting maneuvers from its turns and street names. follow() measures
+ * the per-fix cost of matching a drive along the whole route, with fixes
+ * every ~25 m.
+ */
+package com.example.offlinenav;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+@State(Scope.Thread)
+public class GuidanceBenchmark {
+
+    private static final double FIX_SPACING_M = 25;
+    private static final float SPEED_MPS = 14;
+
+    private OfflineRouter.Route route;
+    private double[] fixLats, fixLons;
+
+    @Setup
+    public void setUp() {
+        RoadGraph graph = SyntheticLebanonGraph.get();
+        OfflineRouter router = new OfflineRouter(new SpeedProfiles(graph), TimeZone.getTimeZone("Asia/Beirut"));
+        double[] p = RouteQueryBenchmark.pickPairs(graph, router, RouteQueryBenchmark.Band.LONG, 1,
+                new Random(3))[0];
+        route = router.route(p[0], p[1], p[2], p[3], System.currentTimeMillis());
+
+        // Evenly spaced fixes along the polyline
+        List<double[]> fixes = new ArrayList<>();
+        for (int i = 0; i + 1 < route.lats.length; i++) {
+            double len = RoadGraph.distanceM(route.lats[i], route.lons[i], route.lats[i + 1], route.lons[i + 1]);
+            int steps = Math.max(1, (int) Math.ceil(len / FIX_SPACING_M));
+            for (int s = 0; s < steps; s++) {
+                double f = (double) s / steps;
+                fixes.add(new double[]{route.lats[i] + f * (route.lats[i + 1] - route.lats[i]),
+                        route.lons[i] + f * (route.lons[i + 1] - route.lons[i])});
+            }
+        }
+        fixLats = new double[fixes.size()];
+        fixLons = new double[fixes.size()];
+        for (int i = 0; i < fixes.size(); i++) {
+            fixLats[i] = fixes.get(i)[0];
+            fixLons[i] = fixes.get(i)[1];
+        }
+    }
+
+    @Benchmark
+    public GuidanceEngine prepare(Blackhole bh) {
+        return new GuidanceEngine(route.lats, route.lons, route.names, null, route.durationS, listener(bh));
+    }
+
+    @Benchmark
+    public double follow(Blackhole bh) {
+        GuidanceEngine engine = new GuidanceEngine(route.lats, route.lons, route.names, null,
+                route.durationS, listener(bh));
+        long timeMs = 0;
+        for (int i = 0; i < fixLats.length; i++) {
+            timeMs += (long) (FIX_SPACING_M / SPEED_MPS * 1000);
+            engine.update(fixLats[i], fixLons[i], 5f, SPEED_MPS, timeMs);
+        }
+        return engine.getDistanceAlong();
+    }
+
+    private static GuidanceEngine.Listener listener(final Blackhole bh) {
+        return new GuidanceEngine.Listener() {
+            @Override
+            public void onManeuverUpdate(GuidanceEngine.Maneuver next, double distanceToManeuverM) {
+                bh.consume(distanceToManeuverM);
+            }
+
+            @Override
+            public void onProgress(double remainingM, double remainingS) {
+                bh.consume(remainingM);
+            }
+
+            @Override
+            public void onOffRoute(double deviationM) {
+                bh.consume(deviationM);
+            }
+
+            @Override
+            public void onArrived() {
+                bh.consume(true);
+            }
+        };
+    }
+}
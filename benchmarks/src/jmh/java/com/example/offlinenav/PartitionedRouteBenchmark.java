@@ -0,0 +1,63 @@
+/**
+ * PartitionedRouteBenchmark - Route queries on the synthetic Lebanon graph split into partitions
+ *
+ * The graph (without turn restrictions, which partitioned routing does not
+ * apply) is written once per trial as a temporary roads.parts file with the
+ * default cell size and opened with room for maxResident partitions. Each
+ * invocation routes the next pair of the same distance bands as
+ * RouteQueryBenchmark, so the two read side by side. A small maxResident
+ * makes most queries read partitions from the file, as on a phone with a
+ * country-sized graph; a large one measures the search alone once every
+ * partition is loaded.
+ */
+package com.example.offlinenav;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.TimeZone;
+
+@State(Scope.Thread)
+public class PartitionedRouteBenchmark {
+
+    private static final int PAIRS = 32;
+
+    @Param({"SHORT", "MEDIUM", "LONG"})
+    public RouteQueryBenchmark.Band band;
+
+    @Param({"8", "1000"})
+    public int maxResident;
+
+    private File file;
+    private PartitionedRouter router;
+    private double[][] pairs;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        RoadGraph graph = SyntheticLebanonGraph.get(SyntheticLebanonGraph.DEFAULT_SPACING_DEG, false);
+        file = File.createTempFile("bench", ".parts");
+        PartitionedGraph.write(graph, PartitionedGraph.DEFAULT_CELL_DEG, file);
+        router = new PartitionedRouter(PartitionedGraph.open(file, maxResident));
+        OfflineRouter check = new OfflineRouter(new SpeedProfiles(graph), TimeZone.getTimeZone("Asia/Beirut"));
+        pairs = RouteQueryBenchmark.pickPairs(graph, check, band, PAIRS, new Random(band.ordinal()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public OfflineRouter.Route route() throws IOException {
+        double[] p = pairs[next++ % pairs.length];
+        return router.route(p[0], p[1], p[2], p[3]);
+    }
+}
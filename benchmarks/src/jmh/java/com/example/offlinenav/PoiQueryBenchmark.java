@@ -0,0 +1,92 @@
+/**
+ * PoiQueryBenchmark - k nearest places by road on the synthetic Lebanon graph
+ *
+ * Places are scattered uniformly inside the outline at roughly Lebanon's
+ * counts per category (a few hundred hospitals and civil defense posts,
+ * thousands of pharmacies and fuel stations), written to a temporary
+ * roads.pois file and memory-mapped as the app does. Each invocation asks
+ * for the 5 nearest of one category by road from the next of a fixed set
+ * of positions on the graph, reusing one router.
+ */
+package com.example.offlinenav;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.TimeZone;
+
+@State(Scope.Thread)
+public class PoiQueryBenchmark {
+
+    private static final int ORIGINS = 64;
+    private static final int K = 5;
+    private static final long DEPARTURE_MS = 1_700_000_000_000L;   // Fixed hour-of-week
+
+    @Param({"HOSPITAL", "PHARMACY", "FUEL", "CIVIL_DEFENSE"})
+    public PoiCategory category;
+
+    private File file;
+    private PoiIndex pois;
+    private OfflineRouter router;
+    private double[][] origins;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        RoadGraph graph = SyntheticLebanonGraph.get();
+        router = new OfflineRouter(new SpeedProfiles(graph), TimeZone.getTimeZone("Asia/Beirut"));
+        Random random = new Random(7);
+
+        int[] perCategory = {200, 3000, 1500, 300};   // In PoiCategory order
+        int count = 0;
+        for (int n : perCategory) count += n;
+        int[] lat = new int[count];
+        int[] lon = new int[count];
+        int[] categories = new int[count];
+        String[] names = new String[count];
+        String[] phones = new String[count];
+        double minLat = SyntheticLebanonGraph.MIN_LAT, minLon = SyntheticLebanonGraph.MIN_LON;
+        int i = 0;
+        for (PoiCategory c : PoiCategory.values()) {
+            for (int n = 0; n < perCategory[c.ordinal()]; n++, i++) {
+                double la, lo;
+                do {
+                    la = minLat + random.nextDouble() * (SyntheticLebanonGraph.MAX_LAT - minLat);
+                    lo = minLon + random.nextDouble() * (SyntheticLebanonGraph.MAX_LON - minLon);
+                } while (!SyntheticLebanonGraph.contains(la, lo));
+                lat[i] = (int) Math.round(la * RoadGraph.COORD_SCALE);
+                lon[i] = (int) Math.round(lo * RoadGraph.COORD_SCALE);
+                categories[i] = c.bit;
+                names[i] = c.label + " " + n;
+                phones[i] = n % 2 == 0 ? "+961 1 " + (100000 + n) : null;
+            }
+        }
+        file = File.createTempFile("bench", ".pois");
+        PoiIndex.write(file, count, lat, lon, categories, names, phones);
+        pois = PoiIndex.load(file);
+
+        origins = new double[ORIGINS][];
+        for (int o = 0; o < ORIGINS; o++) {
+            int node = random.nextInt(graph.getNodeCount());
+            origins[o] = new double[]{graph.getLatitude(node), graph.getLongitude(node)};
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public PoiIndex.Hit[] nearestByRoad() {
+        double[] o = origins[next++ % origins.length];
+        return pois.nearestByRoad(router, o[0], o[1], category.bit, K, DEPARTURE_MS);
+    }
+}
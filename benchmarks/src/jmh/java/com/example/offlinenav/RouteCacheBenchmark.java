@@ -0,0 +1,58 @@
+/**
+ * RouteCacheBenchmark - Lookups in a full route cache
+ *
+ * The cache holds as many precomputed routes as RoutePrecomputer stores.
+ * hit() asks for a cached destination from a start a few meters from where
+ * its route was computed; miss() asks for destinations that were never
+ * cached, the common case when navigating somewhere new.
+ */
+package com.example.offlinenav;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+@State(Scope.Thread)
+public class RouteCacheBenchmark {
+
+    private static final int ENTRIES = 20;                   // RoutePrecomputer's MAX_DESTINATIONS
+    private static final double ORIGIN_LAT = 33.8938, ORIGIN_LON = 35.5018;   // Beirut
+    private static final double NEARBY_DEG = 0.0003;         // ~30 m from the cached origin
+
+    private final RouteCache cache = new RouteCache();
+    private double[] destLats, destLons, missLats, missLons;
+    private long nowMs;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(11);
+        nowMs = System.currentTimeMillis();
+        destLats = new double[ENTRIES];
+        destLons = new double[ENTRIES];
+        missLats = new double[ENTRIES];
+        missLons = new double[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            destLats[i] = ORIGIN_LAT + (random.nextDouble() - 0.5) * 0.5;
+            destLons[i] = ORIGIN_LON + (random.nextDouble() - 0.5) * 0.5;
+            missLats[i] = destLats[i] + 0.01;
+            missLons[i] = destLons[i];
+            cache.put(destLats[i], destLons[i], new OfflineRouter.Route(), ORIGIN_LAT, ORIGIN_LON, nowMs);
+        }
+    }
+
+    @Benchmark
+    public RouteCache.Entry hit() {
+        int i = next++ % ENTRIES;
+        return cache.get(destLats[i], destLons[i], ORIGIN_LAT + NEARBY_DEG, ORIGIN_LON, nowMs);
+    }
+
+    @Benchmark
+    public RouteCache.Entry miss() {
+        int i = next++ % ENTRIES;
+        return cache.get(missLats[i], missLons[i], ORIGIN_LAT + NEARBY_DEG, ORIGIN_LON, nowMs);
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * RouteQueryBenchmark - Offline route queries on the synthetic Lebanon graph
+ *
+ * Each invocation routes the next of a fixed set of origin/destination
+ * pairs in one distance band (short: across a neighbourhood, medium: across
+ * a city, long: Tyre to Tripoli scale), reusing one router like the app
+ * does. Pairs are chosen once per trial and only kept if they are
+ * connected, so every measured query finds a route. turnRestrictions=true
+ * adds the synthetic graph's forbidden left turns, which switches the
+ * search to turn-aware states around those junctions.
+ */
+package com.example.offlinenav;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+@State(Scope.Thread)
+public class RouteQueryBenchmark {
+
+    private static final int PAIRS = 32;
+    private static final long DEPARTURE_MS = 1_700_000_000_000L;   // Fixed hour-of-week
+
+    public enum Band {
+        SHORT(1_000, 3_000), MEDIUM(10_000, 20_000), LONG(60_000, 120_000);
+
+        final double minM, maxM;
+
+        Band(double minM, double maxM) {
+            this.minM = minM;
+            this.maxM = maxM;
+        }
+    }
+
+    @Param({"SHORT", "MEDIUM", "LONG"})
+    public Band band;
+
+    @Param({"false", "true"})
+    public boolean turnRestrictions;
+
+    private OfflineRouter router;
+    private double[][] pairs;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        RoadGraph graph = SyntheticLebanonGraph.get(SyntheticLebanonGraph.DEFAULT_SPACING_DEG, turnRestrictions);
+        router = new OfflineRouter(new SpeedProfiles(graph), TimeZone.getTimeZone("Asia/Beirut"));
+        pairs = pickPairs(graph, router, band, PAIRS, new Random(band.ordinal()));
+    }
+
+    @Benchmark
+    public OfflineRouter.Route route() {
+        double[] p = pairs[next++ % pairs.length];
+        return router.route(p[0], p[1], p[2], p[3], DEPARTURE_MS);
+    }
+
+    /**
+     * Connected node pairs whose straight-line distance lies in the band
+     *
+     * @return {fromLat, fromLon, toLat, toLon} per pair
+     */
+    static double[][] pickPairs(RoadGraph graph, OfflineRouter router, Band band, int count, Random random) {
+        double[][] out = new double[count][];
+        int found = 0;
+        while (found < count) {
+            int a = random.nextInt(graph.getNodeCount());
+            int b = random.nextInt(graph.getNodeCount());
+            double[] p = {graph.getLatitude(a), graph.getLongitude(a), graph.getLatitude(b), graph.getLongitude(b)};
+            double d = RoadGraph.distanceM(p[0], p[1], p[2], p[3]);
+            if (d < band.minM || d > band.maxM) continue;
+            if (router.route(p[0], p[1], p[2], p[3], DEPARTURE_MS) == null) continue;
+            out[found++] = p;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * SpatialIndexBenchmark - Nearest-edge snapping and geohash cell covers
+ *
+ * snap() matches GPS-like points (random positions inside the country, with
+ * and without a heading) onto the synthetic Lebanon graph, the lookup every
+ * route query and guidance fix starts with. cover() computes the geohash
+ * prefixes for map-viewport sized boxes, as used for the favorites' spatial
+ * queries.
+ */
+package com.example.offlinenav;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+
+@State(Scope.Thread)
+public class SpatialIndexBenchmark {
+
+    private static final int POINTS = 1024;
+    private static final double SNAP_RADIUS_M = 500;
+    private static final double VIEWPORT_DEG = 0.05;         // ~5 km box
+    private static final int COVER_PRECISION = 9;           // Same as FavoritesDbHelper
+    private static final int COVER_MAX_CELLS = 16;
+
+    private RoadGraph graph;
+    private final RoadGraph.Snap snap = new RoadGraph.Snap();
+    private double[] lats, lons, headings;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        graph = SyntheticLebanonGraph.get();
+        Random random = new Random(7);
+        lats = new double[POINTS];
+        lons = new double[POINTS];
+        headings = new double[POINTS];
+        for (int i = 0; i < POINTS; ) {
+            double lat = SyntheticLebanonGraph.MIN_LAT
+                    + random.nextDouble() * (SyntheticLebanonGraph.MAX_LAT - SyntheticLebanonGraph.MIN_LAT);
+            double lon = SyntheticLebanonGraph.MIN_LON
+                    + random.nextDouble() * (SyntheticLebanonGraph.MAX_LON - SyntheticLebanonGraph.MIN_LON);
+            if (!SyntheticLebanonGraph.contains(lat, lon)) continue;
+            lats[i] = lat;
+            lons[i] = lon;
+            // Half the fixes carry a heading, like moving vs. stationary GPS
+            headings[i] = i % 2 == 0 ? random.nextDouble() * 360 : Double.NaN;
+            i++;
+        }
+    }
+
+    @Benchmark
+    public boolean snap() {
+        int i = next++ & (POINTS - 1);
+        return graph.snap(lats[i], lons[i], SNAP_RADIUS_M, headings[i], snap);
+    }
+
+    @Benchmark
+    public List<String> cover() {
+        int i = next++ & (POINTS - 1);
+        return GeoHash.cover(lats[i], lons[i], lats[i] + VIEWPORT_DEG, lons[i] + VIEWPORT_DEG,
+                COVER_PRECISION, COVER_MAX_CELLS);
+    }
+}
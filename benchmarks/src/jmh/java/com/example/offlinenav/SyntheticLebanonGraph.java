@@ -0,0 +1,244 @@
+/**
+ * SyntheticLebanonGraph - Deterministic Lebanon-scale road graph for benchmarks
+ *
+ * A jittered grid of intersections clipped to a rough outline of Lebanon
+ * (coast from Naqoura to Arida, inland border along the Anti-Lebanon), so
+ * node count, graph diameter and snapping-grid density are close to the
+ * real roads.graph without shipping map data. Every 40th grid line is a
+ * 90 km/h highway, every 8th a 60 km/h avenue and the rest 30-50 km/h
+ * streets; a few percent of street segments are dropped so searches meet
+ * dead ends and detours instead of a perfect lattice. Left turns are
+ * forbidden where two avenues cross (a few thousand junctions, like the
+ * restrictions in a real OSM import), so searches have to go around.
+ *
+ * The same seed always yields the same graph. Graphs are cached per spacing
+ * and restriction setting so benchmarks in one fork share a single build.
+ */
+package com.example.offlinenav;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public final class SyntheticLebanonGraph {
+
+    static final double MIN_LAT = 33.05, MAX_LAT = 34.70;
+    static final double MIN_LON = 35.10, MAX_LON = 36.63;
+    static final double DEFAULT_SPACING_DEG = 0.002;         // ~220 m blocks, ~250k nodes
+    private static final long SEED = 0x4c42_4e4eL;
+    private static final double JITTER = 0.3;                // Fraction of the spacing
+    private static final double DROP_RATE = 0.06;            // Street segments removed
+
+    // Rough outline, (lat, lon) pairs clockwise from the southern coast
+    private static final double[] OUTLINE = {
+            33.09, 35.10, 33.55, 35.35, 33.90, 35.47, 34.45, 35.80, 34.65, 35.98,
+            34.69, 36.35, 34.55, 36.55, 34.20, 36.62, 33.80, 36.15, 33.40, 35.90,
+            33.27, 35.60, 33.06, 35.35
+    };
+
+    private static final double LEFT_TURN_SIN = 0.5;         // Turns sharper than 30 degrees to the left
+
+    private static final Map<String, RoadGraph> CACHE = new HashMap<>();
+
+    private SyntheticLebanonGraph() {
+    }
+
+    public static synchronized RoadGraph get() {
+        return get(DEFAULT_SPACING_DEG, true);
+    }
+
+    /**
+     * @param spacingDeg Grid spacing in degrees of latitude; smaller means more nodes
+     * @param turnRestrictions Whether to forbid left turns at avenue crossings
+     */
+    public static synchronized RoadGraph get(double spacingDeg, boolean turnRestrictions) {
+        String key = spacingDeg + "/" + turnRestrictions;
+        RoadGraph graph = CACHE.get(key);
+        if (graph == null) {
+            graph = build(spacingDeg, SEED, turnRestrictions);
+            CACHE.put(key, graph);
+        }
+        return graph;
+    }
+
+    /**
+     * Whether a coordinate lies inside the outline
+     */
+    public static boolean contains(double lat, double lon) {
+        boolean inside = false;
+        int n = OUTLINE.length / 2;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            double latI = OUTLINE[2 * i], lonI = OUTLINE[2 * i + 1];
+            double latJ = OUTLINE[2 * j], lonJ = OUTLINE[2 * j + 1];
+            if ((latI > lat) != (latJ > lat)
+                    && lon < (lonJ - lonI) * (lat - latI) / (latJ - latI) + lonI) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    static RoadGraph build(double spacingDeg, long seed, boolean turnRestrictions) {
+        Random random = new Random(seed);
+        double lonSpacing = spacingDeg / Math.cos(Math.toRadians((MIN_LAT + MAX_LAT) / 2));
+        int rows = (int) Math.ceil((MAX_LAT - MIN_LAT) / spacingDeg) + 1;
+        int cols = (int) Math.ceil((MAX_LON - MIN_LON) / lonSpacing) + 1;
+
+        // Grid cell -> node id, -1 outside the outline
+        int[] nodeAt = new int[rows * cols];
+        int[] latE6 = new int[rows * cols];
+        int[] lonE6 = new int[rows * cols];
+        int nodeCount = 0;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                double lat = MIN_LAT + r * spacingDeg + (random.nextDouble() - 0.5) * JITTER * spacingDeg;
+                double lon = MIN_LON + c * lonSpacing + (random.nextDouble() - 0.5) * JITTER * lonSpacing;
+                if (contains(lat, lon)) {
+                    nodeAt[r * cols + c] = nodeCount;
+                    latE6[nodeCount] = (int) Math.round(lat * RoadGraph.COORD_SCALE);
+                    lonE6[nodeCount] = (int) Math.round(lon * RoadGraph.COORD_SCALE);
+                    nodeCount++;
+                } else {
+                    nodeAt[r * cols + c] = -1;
+                }
+            }
+        }
+
+        // Undirected segments to the east (bit 0) and north (bit 1) neighbour
+        byte[] segments = new byte[rows * cols];
+        int edgeCount = 0;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (nodeAt[r * cols + c] < 0) continue;
+                if (c + 1 < cols && nodeAt[r * cols + c + 1] >= 0 && keep(r % 8 == 0, random)) {
+                    segments[r * cols + c] |= 1;
+                    edgeCount += 2;
+                }
+                if (r + 1 < rows && nodeAt[(r + 1) * cols + c] >= 0 && keep(c % 8 == 0, random)) {
+                    segments[r * cols + c] |= 2;
+                    edgeCount += 2;
+                }
+            }
+        }
+
+        // Out-degree per node, then CSR offsets
+        int[] firstEdge = new int[nodeCount + 1];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int cell = r * cols + c;
+                if ((segments[cell] & 1) != 0) {
+                    firstEdge[nodeAt[cell] + 1]++;
+                    firstEdge[nodeAt[cell + 1] + 1]++;
+                }
+                if ((segments[cell] & 2) != 0) {
+                    firstEdge[nodeAt[cell] + 1]++;
+                    firstEdge[nodeAt[cell + cols] + 1]++;
+                }
+            }
+        }
+        for (int n = 0; n < nodeCount; n++) firstEdge[n + 1] += firstEdge[n];
+
+        // Street names: one per grid line, so a straight run keeps its name
+        String[] names = new String[rows + cols];
+        for (int r = 0; r < rows; r++) names[r] = (r % 40 == 0 ? "Highway " : "Street ") + r;
+        for (int c = 0; c < cols; c++) names[rows + c] = (c % 40 == 0 ? "Highway " : "Road ") + c;
+
+        int[] edgeTarget = new int[edgeCount];
+        int[] edgeLength = new int[edgeCount];
+        byte[] edgeSpeed = new byte[edgeCount];
+        int[] edgeName = new int[edgeCount];
+        int[] cursor = new int[nodeCount];
+        System.arraycopy(firstEdge, 0, cursor, 0, nodeCount);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int cell = r * cols + c;
+                if ((segments[cell] & 1) != 0) {
+                    int speed = speedKmh(r, random);
+                    addSegment(nodeAt[cell], nodeAt[cell + 1], speed, r, latE6, lonE6,
+                            cursor, edgeTarget, edgeLength, edgeSpeed, edgeName);
+                }
+                if ((segments[cell] & 2) != 0) {
+                    int speed = speedKmh(c, random);
+                    addSegment(nodeAt[cell], nodeAt[cell + cols], speed, rows + c, latE6, lonE6,
+                            cursor, edgeTarget, edgeLength, edgeSpeed, edgeName);
+                }
+            }
+        }
+
+        int[] nodeLat = new int[nodeCount];
+        int[] nodeLon = new int[nodeCount];
+        System.arraycopy(latE6, 0, nodeLat, 0, nodeCount);
+        System.arraycopy(lonE6, 0, nodeLon, 0, nodeCount);
+
+        // No left turns where avenues cross; grid roads are two-way, so the edges in are the reverses of those out
+        long[] turns = new long[0];
+        int turnCount = 0;
+        for (int r = 0; turnRestrictions && r < rows; r += 8) {
+            for (int c = 0; c < cols; c += 8) {
+                int v = nodeAt[r * cols + c];
+                if (v < 0) continue;
+                for (int in = firstEdge[v]; in < firstEdge[v + 1]; in++) {
+                    int from = edgeTarget[in];
+                    int inEdge = edgeBetween(from, v, firstEdge, edgeTarget);
+                    for (int out = firstEdge[v]; out < firstEdge[v + 1]; out++) {
+                        if (out == in || !isLeftTurn(from, v, edgeTarget[out], nodeLat, nodeLon)) continue;
+                        if (turnCount == turns.length) turns = Arrays.copyOf(turns, Math.max(1024, 2 * turnCount));
+                        turns[turnCount++] = ((long) inEdge << 32) | out;
+                    }
+                }
+            }
+        }
+        Arrays.sort(turns, 0, turnCount);
+        int[] turnFrom = new int[turnCount];
+        int[] turnTo = new int[turnCount];
+        byte[] turnCost = new byte[turnCount];
+        for (int i = 0; i < turnCount; i++) {
+            turnFrom[i] = (int) (turns[i] >>> 32);
+            turnTo[i] = (int) turns[i];
+            turnCost[i] = (byte) RoadGraph.TURN_FORBIDDEN;
+        }
+        return new RoadGraph(nodeLat, nodeLon, firstEdge, edgeTarget, edgeLength, edgeSpeed, edgeName, names,
+                turnFrom, turnTo, turnCost);
+    }
+
+    private static int edgeBetween(int from, int to, int[] firstEdge, int[] edgeTarget) {
+        for (int e = firstEdge[from]; e < firstEdge[from + 1]; e++) {
+            if (edgeTarget[e] == to) return e;
+        }
+        throw new IllegalStateException("No edge " + from + " -> " + to);
+    }
+
+    private static boolean isLeftTurn(int a, int b, int c, int[] lat, int[] lon) {
+        double inX = lon[b] - lon[a], inY = lat[b] - lat[a];
+        double outX = lon[c] - lon[b], outY = lat[c] - lat[b];
+        double cross = inX * outY - inY * outX;
+        return cross > LEFT_TURN_SIN * Math.hypot(inX, inY) * Math.hypot(outX, outY);
+    }
+
+    private static boolean keep(boolean major, Random random) {
+        return major || random.nextDouble() >= DROP_RATE;
+    }
+
+    private static int speedKmh(int line, Random random) {
+        if (line % 40 == 0) return 90;
+        if (line % 8 == 0) return 60;
+        return 30 + 10 * random.nextInt(3);
+    }
+
+    private static void addSegment(int a, int b, int speedKmh, int name, int[] latE6, int[] lonE6,
+                                   int[] cursor, int[] edgeTarget, int[] edgeLength, byte[] edgeSpeed,
+                                   int[] edgeName) {
+        double meters = RoadGraph.distanceM(latE6[a] / RoadGraph.COORD_SCALE, lonE6[a] / RoadGraph.COORD_SCALE,
+                latE6[b] / RoadGraph.COORD_SCALE, lonE6[b] / RoadGraph.COORD_SCALE);
+        int dm = (int) Math.max(1, Math.round(meters * 10));
+        int[] ends = {a, b, b, a};
+        for (int i = 0; i < 4; i += 2) {
+            int e = cursor[ends[i]]++;
+            edgeTarget[e] = ends[i + 1];
+            edgeLength[e] = dm;
+            edgeSpeed[e] = (byte) speedKmh;
+            edgeName[e] = name;
+        }
+    }
+}
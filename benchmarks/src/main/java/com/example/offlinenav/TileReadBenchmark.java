@@ -0,0 +1,365 @@
+/**
+ * TileReadBenchmark - Replays map tile requests against an MBTiles file
+ *
+ * Reads tiles the way osmdroid's MBTilesFileArchive does (one indexed
+ * SELECT per tile, TMS row flip) through the SQLite JDBC driver, so it runs
+ * on any JVM without a device. The same request sequence is replayed with
+ * each caching layer in turn:
+ *
+ *   NO_PAGE_CACHE  SQLite page cache shrunk to its minimum
+ *   PAGE_CACHE     SQLite's default 2 MB page cache
+ *   TILE_CACHE     page cache plus an LRU of decoded tiles, like the
+ *                  MapTileCache in front of osmdroid's archive provider
+ *
+ * For each mode it reports per-tile read latency, tile bytes, decode time
+ * and pages fetched from the file. Page fetches are taken from the read
+ * syscall byte count in /proc/self/io (Linux only), and the page-cache hit
+ * rate is relative to NO_PAGE_CACHE, where nearly every page access is a
+ * fetch. Results can also be written as JSON for comparison between runs.
+ *
+ * Usage:
+ *   TileReadBenchmark --mbtiles map.mbtiles [--requests session.csv | --steps N]
+ *                     [--tile-cache N] [--seed N] [--json results.json]
+ *   TileReadBenchmark --create-synthetic out.mbtiles
+ */
+package com.example.offlinenav;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+public class TileReadBenchmark {
+
+    private static final String USAGE = "Usage: TileReadBenchmark --mbtiles map.mbtiles [--requests session.csv | --steps N]"
+            + " [--tile-cache N] [--seed N] [--json results.json]\n"
+            + "       TileReadBenchmark --create-synthetic out.mbtiles";
+    private static final int DEFAULT_STEPS = 400;
+    private static final int DEFAULT_TILE_CACHE = 90;         // ~1.5 phone screens of 256 px tiles
+    private static final String DEFAULT_PAGE_CACHE = "-2000"; // SQLite default, in KiB
+    private static final String MIN_PAGE_CACHE = "0";         // SQLite keeps its minimum of a few pages
+    private static final double LEBANON_MIN_LAT = 33.05, LEBANON_MIN_LON = 35.10;
+    private static final double LEBANON_MAX_LAT = 34.70, LEBANON_MAX_LON = 36.63;
+
+    enum Mode { NO_PAGE_CACHE, PAGE_CACHE, TILE_CACHE }
+
+    /**
+     * Measurements of one replay
+     */
+    static class Stats {
+        final Mode mode;
+        int requests, tileCacheHits, reads, missing, undecodable;
+        long tileBytes, fileBytesRead = -1;
+        final List<Long> readNs = new ArrayList<>();
+        final List<Long> decodeNs = new ArrayList<>();
+        double pageCacheHitRate = Double.NaN;
+
+        Stats(Mode mode) {
+            this.mode = mode;
+        }
+
+        double pagesPerRead(int pageSize) {
+            return fileBytesRead < 0 || reads == 0 ? Double.NaN : (double) fileBytesRead / pageSize / reads;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].startsWith("--")) options.put(args[i].substring(2), args[i + 1]);
+        }
+        if (options.containsKey("create-synthetic")) {
+            File out = new File(options.get("create-synthetic"));
+            int tiles = createSynthetic(out, 8, 13, 42);
+            System.out.println("Wrote " + tiles + " tiles to " + out);
+            return;
+        }
+        if (!options.containsKey("mbtiles")) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        File file = new File(options.get("mbtiles"));
+        int tileCache = options.containsKey("tile-cache")
+                ? Integer.parseInt(options.get("tile-cache")) : DEFAULT_TILE_CACHE;
+
+        List<int[]> requests;
+        int pageSize;
+        try (Connection db = open(file)) {
+            pageSize = pragmaInt(db, "page_size");
+            if (options.containsKey("requests")) {
+                requests = TileSession.load(new File(options.get("requests")));
+            } else {
+                int steps = options.containsKey("steps") ? Integer.parseInt(options.get("steps")) : DEFAULT_STEPS;
+                long seed = options.containsKey("seed") ? Long.parseLong(options.get("seed")) : 1;
+                requests = synthesize(db, steps, seed);
+            }
+        }
+        System.out.println(file.getName() + ": " + requests.size() + " tile requests, page size " + pageSize);
+
+        // Untimed pass: JIT, image decoders and the OS file cache are warm for every mode
+        replay(file, requests, Mode.PAGE_CACHE, tileCache);
+        List<Stats> results = new ArrayList<>();
+        for (Mode mode : Mode.values()) {
+            results.add(replay(file, requests, mode, tileCache));
+        }
+        double baseline = results.get(0).pagesPerRead(pageSize);
+        for (Stats s : results) {
+            if (!Double.isNaN(baseline) && baseline > 0) {
+                s.pageCacheHitRate = Math.max(0, 1 - s.pagesPerRead(pageSize) / baseline);
+            }
+            System.out.println(format(s, pageSize));
+        }
+        if (options.containsKey("json")) {
+            writeJson(new File(options.get("json")), file, requests.size(), pageSize, results);
+        }
+    }
+
+    static Stats replay(File file, List<int[]> requests, Mode mode, int tileCacheSize) throws SQLException {
+        Stats stats = new Stats(mode);
+        final int capacity = mode == Mode.TILE_CACHE ? tileCacheSize : 0;
+        LinkedHashMap<Long, Object> tiles = new LinkedHashMap<Long, Object>(capacity * 2 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Object> eldest) {
+                return size() > capacity;
+            }
+        };
+        try (Connection db = open(file)) {
+            try (Statement st = db.createStatement()) {
+                st.execute("PRAGMA cache_size = " + (mode == Mode.NO_PAGE_CACHE ? MIN_PAGE_CACHE : DEFAULT_PAGE_CACHE));
+            }
+            try (PreparedStatement query = db.prepareStatement(
+                    "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?")) {
+                long rcharBefore = readSyscallBytes();
+                for (int[] r : requests) {
+                    stats.requests++;
+                    long key = ((long) r[0] << 58) | ((long) r[1] << 29) | r[2];
+                    if (capacity > 0 && tiles.get(key) != null) {
+                        stats.tileCacheHits++;
+                        continue;
+                    }
+                    long t0 = System.nanoTime();
+                    query.setInt(1, r[0]);
+                    query.setInt(2, r[1]);
+                    query.setInt(3, (1 << r[0]) - 1 - r[2]);  // MBTiles rows are TMS, bottom-up
+                    byte[] data = null;
+                    try (ResultSet rs = query.executeQuery()) {
+                        if (rs.next()) data = rs.getBytes(1);
+                    }
+                    stats.readNs.add(System.nanoTime() - t0);
+                    stats.reads++;
+                    if (data == null) {
+                        stats.missing++;
+                        continue;
+                    }
+                    stats.tileBytes += data.length;
+
+                    long t1 = System.nanoTime();
+                    BufferedImage image = decode(data);
+                    stats.decodeNs.add(System.nanoTime() - t1);
+                    if (image == null) stats.undecodable++;
+                    if (capacity > 0) tiles.put(key, image != null ? image : data);
+                }
+                long rcharAfter = readSyscallBytes();
+                if (rcharBefore >= 0 && rcharAfter >= 0) stats.fileBytesRead = rcharAfter - rcharBefore;
+            }
+        }
+        return stats;
+    }
+
+    private static BufferedImage decode(byte[] data) {
+        try {
+            return ImageIO.read(new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            return null;  // Vector or corrupt tile
+        }
+    }
+
+    private static Connection open(File file) throws SQLException {
+        if (!file.exists()) throw new SQLException("No such file: " + file);
+        return DriverManager.getConnection("jdbc:sqlite:file:" + file.getAbsolutePath() + "?mode=ro");
+    }
+
+    private static int pragmaInt(Connection db, String pragma) throws SQLException {
+        try (Statement st = db.createStatement(); ResultSet rs = st.executeQuery("PRAGMA " + pragma)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Pan/zoom walk within the archive's metadata bounds and zoom range
+     */
+    private static List<int[]> synthesize(Connection db, int steps, long seed) throws SQLException {
+        Map<String, String> meta = new HashMap<>();
+        try (Statement st = db.createStatement(); ResultSet rs = st.executeQuery("SELECT name, value FROM metadata")) {
+            while (rs.next()) meta.put(rs.getString(1), rs.getString(2));
+        } catch (SQLException e) {
+            // metadata table is optional
+        }
+        double[] bounds = {LEBANON_MIN_LON, LEBANON_MIN_LAT, LEBANON_MAX_LON, LEBANON_MAX_LAT};
+        if (meta.containsKey("bounds")) {
+            String[] parts = meta.get("bounds").split(",");
+            for (int i = 0; i < 4 && parts.length == 4; i++) bounds[i] = Double.parseDouble(parts[i].trim());
+        }
+        int minZoom, maxZoom;
+        try (Statement st = db.createStatement();
+             ResultSet rs = st.executeQuery("SELECT MIN(zoom_level), MAX(zoom_level) FROM tiles")) {
+            rs.next();
+            minZoom = rs.getInt(1);
+            maxZoom = rs.getInt(2);
+        }
+        return TileSession.generate(bounds[1], bounds[0], bounds[3], bounds[2], minZoom, maxZoom, steps, seed);
+    }
+
+    /**
+     * Bytes this process has read through read syscalls, or -1 where /proc is unavailable
+     */
+    private static long readSyscallBytes() {
+        try {
+            for (String line : Files.readAllLines(new File("/proc/self/io").toPath(), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("rchar:")) return Long.parseLong(line.substring(6).trim());
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not Linux
+        }
+        return -1;
+    }
+
+    static String format(Stats s, int pageSize) {
+        long[] read = sorted(s.readNs);
+        long[] decode = sorted(s.decodeNs);
+        return String.format(Locale.US,
+                "%-13s %6d requests, %5d tile-cache hits, %5d reads (%d missing), %7.1f KB read%n"
+                        + "              read p50 %.3f ms, p95 %.3f ms, p99 %.3f ms | decode p50 %.3f ms, p95 %.3f ms"
+                        + " (%d undecodable)%n"
+                        + "              %.2f pages fetched per read, page-cache hit rate %s",
+                s.mode, s.requests, s.tileCacheHits, s.reads, s.missing, s.tileBytes / 1024.0,
+                percentile(read, 50) / 1e6, percentile(read, 95) / 1e6, percentile(read, 99) / 1e6,
+                percentile(decode, 50) / 1e6, percentile(decode, 95) / 1e6, s.undecodable,
+                s.pagesPerRead(pageSize),
+                Double.isNaN(s.pageCacheHitRate) ? "n/a" : String.format(Locale.US, "%.1f%%", s.pageCacheHitRate * 100));
+    }
+
+    private static void writeJson(File out, File mbtiles, int requests, int pageSize, List<Stats> results)
+            throws IOException {
+        try (PrintWriter w = new PrintWriter(out, "UTF-8")) {
+            w.printf(Locale.US, "{\"file\":\"%s\",\"requests\":%d,\"pageSize\":%d,\"modes\":[",
+                    mbtiles.getName().replace("\"", ""), requests, pageSize);
+            for (int i = 0; i < results.size(); i++) {
+                Stats s = results.get(i);
+                long[] read = sorted(s.readNs);
+                long[] decode = sorted(s.decodeNs);
+                w.printf(Locale.US, "%s{\"mode\":\"%s\",\"tileCacheHits\":%d,\"reads\":%d,\"missing\":%d,"
+                                + "\"tileBytes\":%d,\"readP50Ms\":%.4f,\"readP95Ms\":%.4f,\"readP99Ms\":%.4f,"
+                                + "\"decodeP50Ms\":%.4f,\"decodeP95Ms\":%.4f,\"pagesPerRead\":%s,\"pageCacheHitRate\":%s}",
+                        i == 0 ? "" : ",", s.mode, s.tileCacheHits, s.reads, s.missing, s.tileBytes,
+                        percentile(read, 50) / 1e6, percentile(read, 95) / 1e6, percentile(read, 99) / 1e6,
+                        percentile(decode, 50) / 1e6, percentile(decode, 95) / 1e6,
+                        jsonNumber(s.pagesPerRead(pageSize)), jsonNumber(s.pageCacheHitRate));
+            }
+            w.println("]}");
+        }
+    }
+
+    private static String jsonNumber(double v) {
+        return Double.isNaN(v) ? "null" : String.format(Locale.US, "%.4f", v);
+    }
+
+    private static long[] sorted(List<Long> values) {
+        long[] a = new long[values.size()];
+        for (int i = 0; i < a.length; i++) a[i] = values.get(i);
+        Arrays.sort(a);
+        return a;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values
+     */
+    private static long percentile(long[] sorted, double percent) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(percent / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    /**
+     * Write an MBTiles file of simple PNG tiles over Lebanon, for CI runs without real map data
+     *
+     * @return Number of tiles written
+     */
+    static int createSynthetic(File out, int minZoom, int maxZoom, long seed) throws SQLException, IOException {
+        if (out.exists() && !out.delete()) throw new IOException("Cannot replace " + out);
+        Random random = new Random(seed);
+        int count = 0;
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite:" + out.getAbsolutePath())) {
+            try (Statement st = db.createStatement()) {
+                st.execute("CREATE TABLE metadata (name TEXT, value TEXT)");
+                st.execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)");
+                st.execute("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+                st.execute("INSERT INTO metadata VALUES ('name', 'synthetic'), ('format', 'png'), ('bounds', '"
+                        + LEBANON_MIN_LON + "," + LEBANON_MIN_LAT + "," + LEBANON_MAX_LON + "," + LEBANON_MAX_LAT + "')");
+            }
+            db.setAutoCommit(false);
+            try (PreparedStatement insert = db.prepareStatement("INSERT INTO tiles VALUES (?, ?, ?, ?)")) {
+                for (int z = minZoom; z <= maxZoom; z++) {
+                    int x0 = (int) TileSession.tileX(LEBANON_MIN_LON, z), x1 = (int) TileSession.tileX(LEBANON_MAX_LON, z);
+                    int y0 = (int) TileSession.tileY(LEBANON_MAX_LAT, z), y1 = (int) TileSession.tileY(LEBANON_MIN_LAT, z);
+                    for (int x = x0; x <= x1; x++) {
+                        for (int y = y0; y <= y1; y++) {
+                            insert.setInt(1, z);
+                            insert.setInt(2, x);
+                            insert.setInt(3, (1 << z) - 1 - y);
+                            insert.setBytes(4, syntheticTile(random));
+                            insert.executeUpdate();
+                            count++;
+                        }
+                    }
+                }
+            }
+            db.commit();
+        }
+        return count;
+    }
+
+    /**
+     * A PNG with a few blocks and lines, compressing to a few KB like a sparse map tile
+     */
+    private static byte[] syntheticTile(Random random) throws IOException {
+        BufferedImage image = new BufferedImage(TileSession.TILE_PX, TileSession.TILE_PX, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(0xF2EFE9));
+        g.fillRect(0, 0, TileSession.TILE_PX, TileSession.TILE_PX);
+        for (int i = 0; i < 12; i++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.fillRect(random.nextInt(TileSession.TILE_PX), random.nextInt(TileSession.TILE_PX),
+                    8 + random.nextInt(64), 8 + random.nextInt(64));
+            g.drawLine(random.nextInt(TileSession.TILE_PX), random.nextInt(TileSession.TILE_PX),
+                    random.nextInt(TileSession.TILE_PX), random.nextInt(TileSession.TILE_PX));
+        }
+        g.dispose();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * TileSession - Map tile request sequences to replay against an MBTiles file
+ *
+ * A session is the ordered list of tiles a map view asks its tile provider
+ * for. It is either read from a recording (one "zoom,x,y" per line, XYZ
+ * scheme as osmdroid requests them) or generated: a phone-sized viewport
+ * random-walks over the archive's bounds, panning by a fraction of the
+ * screen and now and then zooming in or out, and requests every tile it
+ * covers after each move, as MapView does on redraw.
+ */
+package com.example.offlinenav;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public final class TileSession {
+
+    static final int TILE_PX = 256;
+    private static final int SCREEN_WIDTH_PX = 1080;
+    private static final int SCREEN_HEIGHT_PX = 2340;
+    private static final double ZOOM_PROBABILITY = 0.15;      // Otherwise the step is a pan
+
+    private TileSession() {}
+
+    /**
+     * @return Requests as {zoom, x, y}, XYZ scheme
+     */
+    public static List<int[]> load(File recording) throws IOException {
+        List<int[]> requests = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(recording), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] cols = line.split(",");
+                if (cols.length != 3) continue;
+                try {
+                    requests.add(new int[]{Integer.parseInt(cols[0].trim()), Integer.parseInt(cols[1].trim()),
+                            Integer.parseInt(cols[2].trim())});
+                } catch (NumberFormatException e) {
+                    // Header or comment line
+                }
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Random pan/zoom walk over a bounding box
+     *
+     * @param minZoom Lowest zoom the walk may zoom out to
+     * @param maxZoom Highest zoom the walk may zoom in to
+     * @param steps Number of moves; each requests one viewport of tiles
+     * @return Requests as {zoom, x, y}, XYZ scheme
+     */
+    public static List<int[]> generate(double minLat, double minLon, double maxLat, double maxLon,
+                                       int minZoom, int maxZoom, int steps, long seed) {
+        Random random = new Random(seed);
+        int zoom = Math.max(minZoom, maxZoom - 1);
+        double x = tileX((minLon + maxLon) / 2, zoom);
+        double y = tileY((minLat + maxLat) / 2, zoom);
+        double halfW = SCREEN_WIDTH_PX / 2.0 / TILE_PX, halfH = SCREEN_HEIGHT_PX / 2.0 / TILE_PX;
+        List<int[]> requests = new ArrayList<>();
+        for (int s = 0; s < steps; s++) {
+            if (random.nextDouble() < ZOOM_PROBABILITY) {
+                int next = random.nextBoolean() ? zoom + 1 : zoom - 1;
+                if (next >= minZoom && next <= maxZoom) {
+                    double scale = Math.pow(2, next - zoom);
+                    x *= scale;
+                    y *= scale;
+                    zoom = next;
+                }
+            } else {
+                double angle = random.nextDouble() * 2 * Math.PI;
+                double fraction = 0.25 + random.nextDouble() * 0.75;
+                x += Math.cos(angle) * fraction * halfW * 2;
+                y += Math.sin(angle) * fraction * halfH * 2;
+            }
+            // Keep the centre inside the bounds
+            x = Math.max(tileX(minLon, zoom), Math.min(tileX(maxLon, zoom), x));
+            y = Math.max(tileY(maxLat, zoom), Math.min(tileY(minLat, zoom), y));
+
+            for (int ty = (int) Math.floor(y - halfH); ty <= (int) Math.floor(y + halfH); ty++) {
+                for (int tx = (int) Math.floor(x - halfW); tx <= (int) Math.floor(x + halfW); tx++) {
+                    requests.add(new int[]{zoom, tx, ty});
+                }
+            }
+        }
+        return requests;
+    }
+
+    static double tileX(double lon, int zoom) {
+        return (lon + 180) / 360 * (1 << zoom);
+    }
+
+    static double tileY(double lat, int zoom) {
+        double r = Math.toRadians(lat);
+        return (1 - Math.log(Math.tan(r) + 1 / Math.cos(r)) / Math.PI) / 2 * (1 << zoom);
+    }
+}
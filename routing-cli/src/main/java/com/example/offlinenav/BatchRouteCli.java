@@ -0,0 +1,155 @@
+/**
+ * BatchRouteCli - Headless batch routing for quality and throughput checks
+ *
+ * Routes every origin/destination pair of a CSV file on an offline road
+ * graph, in parallel across all cores, and prints latency percentiles,
+ * throughput and mean route length. Per-pair distance, duration and
+ * latency can be written to a CSV for comparison against reference
+ * routes (e.g. trips from dispatch logs).
+ *
+ * Input CSV: fromLat,fromLon,toLat,toLon or id,fromLat,fromLon,toLat,toLon
+ * per line; lines that don't parse (headers, comments) are skipped.
+ *
+ * Usage:
+ *   batch-route --graph roads.graph --pairs od.csv [--speeds roads.speeds]
+ *               [--out results.csv] [--threads N] [--departure epochMs]
+ *               [--zone Asia/Beirut] [--warmup N]
+ */
+package com.example.offlinenav;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+public class BatchRouteCli {
+
+    private static final String USAGE = "Usage: batch-route --graph roads.graph --pairs od.csv [--speeds roads.speeds]"
+            + " [--out results.csv] [--threads N] [--departure epochMs] [--zone Asia/Beirut] [--warmup N]";
+    private static final int DEFAULT_WARMUP = 200;            // Pairs routed untimed so the JIT has compiled the search
+
+    private BatchRouteCli() {}
+
+    public static void main(String[] args) {
+        Map<String, String> options = parseOptions(args);
+        if (options == null || !options.containsKey("graph") || !options.containsKey("pairs")) {
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        try {
+            System.exit(run(options));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("batch-route: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static int run(Map<String, String> options) throws IOException {
+        int threads = options.containsKey("threads")
+                ? Integer.parseInt(options.get("threads"))
+                : Runtime.getRuntime().availableProcessors();
+        long departureMs = options.containsKey("departure")
+                ? Long.parseLong(options.get("departure"))
+                : System.currentTimeMillis();
+        TimeZone zone = TimeZone.getTimeZone(options.containsKey("zone") ? options.get("zone") : "Asia/Beirut");
+        int warmup = options.containsKey("warmup") ? Integer.parseInt(options.get("warmup")) : DEFAULT_WARMUP;
+
+        long t0 = System.currentTimeMillis();
+        RoadGraph graph = RoadGraph.load(new File(options.get("graph")));
+        SpeedProfiles profiles = options.containsKey("speeds")
+                ? SpeedProfiles.load(graph, new File(options.get("speeds")))
+                : new SpeedProfiles(graph);
+        List<BatchRouter.Pair> pairs = readPairs(new File(options.get("pairs")));
+        System.err.println("Loaded " + graph.getNodeCount() + " nodes, " + graph.getEdgeCount() + " edges, "
+                + profiles.getProfiledEdgeCount() + " profiled edges and " + pairs.size() + " pairs in "
+                + (System.currentTimeMillis() - t0) + " ms");
+        if (pairs.isEmpty()) {
+            System.err.println("No pairs to route");
+            return 1;
+        }
+
+        BatchRouter router = new BatchRouter(profiles, zone, threads);
+        try {
+            if (warmup > 0) {
+                List<BatchRouter.Pair> warm = pairs.subList(0, Math.min(warmup, pairs.size()));
+                router.measure(warm, departureMs, new BatchRouter.Result[warm.size()]);
+            }
+            BatchRouter.Result[] results = new BatchRouter.Result[pairs.size()];
+            BatchRouter.Stats stats = router.measure(pairs, departureMs, results);
+            if (options.containsKey("out")) {
+                writeResults(new File(options.get("out")), results);
+            }
+            System.out.println(router.getParallelism() + " threads");
+            System.out.println(stats.format());
+        } finally {
+            router.shutdown();
+        }
+        return 0;
+    }
+
+    /**
+     * --name value pairs
+     *
+     * @return Option values by name, or null on a malformed command line
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) return null;
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    static List<BatchRouter.Pair> readPairs(File file) throws IOException {
+        List<BatchRouter.Pair> pairs = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                String[] cols = line.split(",");
+                if (cols.length != 4 && cols.length != 5) continue;
+                int first = cols.length - 4;
+                try {
+                    pairs.add(new BatchRouter.Pair(first == 1 ? cols[0].trim() : String.valueOf(lineNumber),
+                            Double.parseDouble(cols[first].trim()), Double.parseDouble(cols[first + 1].trim()),
+                            Double.parseDouble(cols[first + 2].trim()), Double.parseDouble(cols[first + 3].trim())));
+                } catch (NumberFormatException e) {
+                    // Header or comment line
+                }
+            }
+        }
+        return pairs;
+    }
+
+    static void writeResults(File file, BatchRouter.Result[] results) throws IOException {
+        try (PrintWriter out = new PrintWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            out.println("id,from_lat,from_lon,to_lat,to_lon,routed,distance_m,duration_s,latency_ms,settled_nodes");
+            for (BatchRouter.Result r : results) {
+                BatchRouter.Pair p = r.pair;
+                out.print(String.format(Locale.US, "%s,%.6f,%.6f,%.6f,%.6f,", p.id, p.fromLat, p.fromLon, p.toLat, p.toLon));
+                if (r.route != null) {
+                    out.println(String.format(Locale.US, "true,%.1f,%.1f,%.3f,%d",
+                            r.route.distanceM, r.route.durationS, r.latencyNs / 1e6, r.route.settledNodes));
+                } else {
+                    out.println(String.format(Locale.US, "false,,,%.3f,", r.latencyNs / 1e6));
+                }
+            }
+        }
+    }
+}
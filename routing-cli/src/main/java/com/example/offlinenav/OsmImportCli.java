@@ -0,0 +1,597 @@
+/**
+ * OsmImportCli - Builds roads.graph from an OpenStreetMap extract
+ *
+ * Reads OSM XML (.osm or .osm.gz) in one SAX pass and keeps every node of
+ * every highway way that some RoutingProfile may use, so the graph carries
+ * the road geometry the router draws. Car speeds come from maxspeed where
+ * it parses, otherwise from the highway type; motorcycles are capped at
+ * 80 km/h and walkers go 5 km/h (3 on steps). Access tags (access, vehicle,
+ * motor_vehicle, motorcar, motorcycle, foot) decide per profile who may
+ * use a way. oneway, oneway=-1 and roundabouts bind vehicles only, so a
+ * one-way street still gets a walkers-only reverse edge. The way's name
+ * (or ref) becomes the edge name.
+ *
+ * type=restriction relations with a from way, a via node and a to way
+ * become forbidden entries in the graph's turn table: no_* forbids the
+ * from -> to turn, only_* forbids every other exit from the from way at
+ * the via node. They apply to vehicle edges only. Restrictions for other
+ * vehicles, with a via way, or whose members are not in the extract are
+ * skipped and counted.
+ *
+ * With --pois, hospitals, pharmacies, fuel stations and civil defense
+ * posts (fire and ambulance stations, or named as civil defense in English
+ * or Arabic) are written to a PoiIndex as well, with their name and phone
+ * number. Places mapped as areas are placed at the centroid of their
+ * outline.
+ *
+ * With --parts, the graph is also written as a PartitionedGraph for areas
+ * too large to load whole: grid cells of --cell-deg degrees (default 0.1)
+ * plus an overlay of the cell boundaries. The app reads it only when
+ * roads.graph is not installed.
+ *
+ * The XML must be sorted by type then id, as Geofabrik extracts are.
+ * Convert a .pbf extract first:
+ *   osmium cat lebanon-latest.osm.pbf -o lebanon.osm
+ *
+ * Usage:
+ *   import-osm --osm lebanon.osm[.gz] --out roads.graph [--pois roads.pois]
+ *              [--parts roads.parts [--cell-deg 0.1]]
+ */
+package com.example.offlinenav;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+public class OsmImportCli {
+
+    private static final String USAGE = "Usage: import-osm --osm lebanon.osm[.gz] --out roads.graph [--pois roads.pois]"
+            + " [--parts roads.parts [--cell-deg 0.1]]";
+    private static final Map<String, Integer> HIGHWAY_SPEED_KMH = new HashMap<>();
+
+    static {
+        HIGHWAY_SPEED_KMH.put("motorway", 100);
+        HIGHWAY_SPEED_KMH.put("motorway_link", 60);
+        HIGHWAY_SPEED_KMH.put("trunk", 80);
+        HIGHWAY_SPEED_KMH.put("trunk_link", 50);
+        HIGHWAY_SPEED_KMH.put("primary", 60);
+        HIGHWAY_SPEED_KMH.put("primary_link", 40);
+        HIGHWAY_SPEED_KMH.put("secondary", 50);
+        HIGHWAY_SPEED_KMH.put("secondary_link", 40);
+        HIGHWAY_SPEED_KMH.put("tertiary", 40);
+        HIGHWAY_SPEED_KMH.put("tertiary_link", 30);
+        HIGHWAY_SPEED_KMH.put("unclassified", 30);
+        HIGHWAY_SPEED_KMH.put("residential", 30);
+        HIGHWAY_SPEED_KMH.put("road", 30);
+        HIGHWAY_SPEED_KMH.put("service", 20);
+        HIGHWAY_SPEED_KMH.put("living_street", 10);
+    }
+
+    private static final Set<String> FOOT_ONLY = new HashSet<>(Arrays.asList("footway", "pedestrian", "path", "steps"));
+    private static final Set<String> NO_FOOT = new HashSet<>(Arrays.asList("motorway", "motorway_link"));
+    private static final int CAR = RoutingProfile.CAR.accessBit;
+    private static final int MOTORCYCLE = RoutingProfile.MOTORCYCLE.accessBit;
+    private static final int FOOT = RoutingProfile.FOOT.accessBit;
+    private static final int STEPS_SPEED_KMH = 3;
+    private static final String[] CIVIL_DEFENSE_NAMES = {"civil defen", "\u0627\u0644\u062f\u0641\u0627\u0639 \u0627\u0644\u0645\u062f\u0646\u064a"};  // Arabic: civil defense
+
+    private OsmImportCli() {}
+
+    public static void main(String[] args) {
+        Map<String, String> options = BatchRouteCli.parseOptions(args);
+        if (options == null || !options.containsKey("osm") || !options.containsKey("out")) {
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        try {
+            long t0 = System.currentTimeMillis();
+            File osm = new File(options.get("osm"));
+            Extract extract = new Extract();
+            try (InputStream in = open(osm)) {
+                extract.parse(in);
+            }
+            RoadGraph graph = extract.build();
+            graph.write(new File(options.get("out")));
+            System.err.println(String.format(Locale.US,
+                    "%d nodes, %d edges, %d turn entries from %d restrictions (%d skipped) in %d ms",
+                    graph.getNodeCount(), graph.getEdgeCount(), graph.getTurnCount(),
+                    extract.restrictionsImported, extract.restrictionsSkipped, System.currentTimeMillis() - t0));
+            if (options.containsKey("pois")) {
+                PoiIndex.write(new File(options.get("pois")), extract.pois, extract.poiLat, extract.poiLon,
+                        extract.poiCategories, extract.poiName, extract.poiPhone);
+                System.err.println(extract.pois + " places of interest");
+            }
+            if (options.containsKey("parts")) {
+                double cellDeg = options.containsKey("cell-deg")
+                        ? Double.parseDouble(options.get("cell-deg")) : PartitionedGraph.DEFAULT_CELL_DEG;
+                if (!(cellDeg > 0)) throw new IllegalArgumentException("--cell-deg must be positive");
+                File parts = new File(options.get("parts"));
+                PartitionedGraph.write(graph, cellDeg, parts);
+                PartitionedGraph written = PartitionedGraph.open(parts, 2);
+                System.err.println(String.format(Locale.US, "%d partitions, overlay of %d boundary nodes and %d arcs",
+                        written.getPartitionCount(), written.getVertexCount(), written.getArcCount()));
+            }
+            System.exit(0);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("import-osm: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static InputStream open(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        return file.getName().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    /**
+     * Nodes, highway ways and restrictions of one extract, in parallel primitive arrays
+     */
+    static class Extract {
+        // All nodes, sorted by id
+        long[] nodeIds = new long[1 << 16];
+        int[] nodeLat = new int[1 << 16], nodeLon = new int[1 << 16];
+        int nodes;
+
+        // Highway ways, sorted by id; the refs of way w are wayRefs[wayStart[w] .. wayStart[w+1]-1]
+        long[] wayIds = new long[1 << 12];
+        int[] wayStart = new int[(1 << 12) + 1];
+        long[] wayRefs = new long[1 << 16];
+        int[] waySpeed = new int[1 << 12], wayName = new int[1 << 12];   // Car km/h
+        byte[] wayFootSpeed = new byte[1 << 12];
+        byte[] wayForward = new byte[1 << 12], wayBackward = new byte[1 << 12];  // RoutingProfile access bits
+        int ways;
+        final Map<String, Integer> nameIndex = new HashMap<>();
+        String[] names = new String[0];
+
+        // Restrictions: from way, via node, to way, and whether it is only_*
+        long[] restrictionFrom = new long[256], restrictionVia = new long[256], restrictionTo = new long[256];
+        boolean[] restrictionOnly = new boolean[256];
+        int restrictions;
+        int restrictionsImported, restrictionsSkipped;
+
+        // Places of interest, with PoiCategory bits
+        int[] poiLat = new int[256], poiLon = new int[256], poiCategories = new int[256];
+        String[] poiName = new String[256], poiPhone = new String[256];
+        int pois;
+
+        void parse(InputStream in) throws IOException {
+            try {
+                SAXParserFactory.newInstance().newSAXParser().parse(in, new Handler());
+            } catch (SAXException | ParserConfigurationException e) {
+                throw new IOException("Not an OSM XML file: " + e.getMessage(), e);
+            }
+        }
+
+        private class Handler extends DefaultHandler {
+            private final Map<String, String> tags = new HashMap<>();
+            private long[] refs = new long[256];
+            private int refCount;
+            private long id;
+            private long from, via, to;
+            private int froms, vias, tos;
+            private boolean viaWay;
+            private String element;
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes)
+                    throws SAXException {
+                try {
+                    switch (qName) {
+                        case "node":
+                            addNode(Long.parseLong(attributes.getValue("id")),
+                                    Double.parseDouble(attributes.getValue("lat")),
+                                    Double.parseDouble(attributes.getValue("lon")));
+                            element = qName;
+                            tags.clear();
+                            break;
+                        case "way":
+                        case "relation":
+                            element = qName;
+                            id = Long.parseLong(attributes.getValue("id"));
+                            tags.clear();
+                            refCount = 0;
+                            froms = vias = tos = 0;
+                            viaWay = false;
+                            break;
+                        case "nd":
+                            if (refCount == refs.length) refs = Arrays.copyOf(refs, refCount * 2);
+                            refs[refCount++] = Long.parseLong(attributes.getValue("ref"));
+                            break;
+                        case "tag":
+                            if (element != null) tags.put(attributes.getValue("k"), attributes.getValue("v"));
+                            break;
+                        case "member":
+                            addMember(attributes.getValue("type"), Long.parseLong(attributes.getValue("ref")),
+                                    attributes.getValue("role"));
+                            break;
+                        default:
+                            break;
+                    }
+                } catch (NullPointerException | NumberFormatException e) {
+                    throw new SAXException("Bad <" + qName + "> element");
+                }
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) {
+                if (qName.equals("node")) {
+                    element = null;
+                    if (!tags.isEmpty()) addPoi(tags, nodeLat[nodes - 1], nodeLon[nodes - 1]);
+                } else if (qName.equals("way")) {
+                    element = null;
+                    addWay(id, refs, refCount, tags);
+                    addPoiWay(refs, refCount, tags);
+                } else if (qName.equals("relation")) {
+                    element = null;
+                    if ("restriction".equals(tags.get("type"))) {
+                        addRestriction(tags, from, via, to, froms == 1 && vias == 1 && tos == 1 && !viaWay);
+                    }
+                }
+            }
+
+            private void addMember(String type, long ref, String role) {
+                if ("from".equals(role) && "way".equals(type)) {
+                    from = ref;
+                    froms++;
+                } else if ("to".equals(role) && "way".equals(type)) {
+                    to = ref;
+                    tos++;
+                } else if ("via".equals(role)) {
+                    via = ref;
+                    vias++;
+                    viaWay |= !"node".equals(type);
+                }
+            }
+        }
+
+        void addNode(long id, double lat, double lon) {
+            if (nodes > 0 && id <= nodeIds[nodes - 1]) {
+                throw new IllegalArgumentException("Nodes are not sorted by id at node " + id + " (run osmium sort first)");
+            }
+            if (nodes == nodeIds.length) {
+                nodeIds = Arrays.copyOf(nodeIds, nodes * 2);
+                nodeLat = Arrays.copyOf(nodeLat, nodes * 2);
+                nodeLon = Arrays.copyOf(nodeLon, nodes * 2);
+            }
+            nodeIds[nodes] = id;
+            nodeLat[nodes] = (int) Math.round(lat * RoadGraph.COORD_SCALE);
+            nodeLon[nodes] = (int) Math.round(lon * RoadGraph.COORD_SCALE);
+            nodes++;
+        }
+
+        void addWay(long id, long[] refs, int refCount, Map<String, String> tags) {
+            String highway = tags.get("highway");
+            if (highway == null || refCount < 2) return;
+            Integer speed = HIGHWAY_SPEED_KMH.get(highway);
+            int access = 0;
+            if (speed != null && allowed(tags, "access", "vehicle", "motor_vehicle", "motorcar")) access |= CAR;
+            if (speed != null && allowed(tags, "access", "vehicle", "motor_vehicle", "motorcycle")) access |= MOTORCYCLE;
+            if (((speed != null && !NO_FOOT.contains(highway)) || FOOT_ONLY.contains(highway))
+                    && allowed(tags, "access", "foot")) {
+                access |= FOOT;
+            }
+            if (access == 0) return;
+            if (ways > 0 && id <= wayIds[ways - 1]) {
+                throw new IllegalArgumentException("Ways are not sorted by id at way " + id + " (run osmium sort first)");
+            }
+            int footSpeed = "steps".equals(highway) ? STEPS_SPEED_KMH : RoadGraph.FOOT_SPEED_KMH;
+            if (speed == null) speed = footSpeed;
+            int maxspeed = parseMaxspeed(tags.get("maxspeed"));
+            if (maxspeed > 0) speed = Math.min(maxspeed, 254);
+
+            // One-ways bind vehicles only
+            String oneway = tags.get("oneway");
+            int forward = access, backward = access;
+            if ("yes".equals(oneway) || "1".equals(oneway) || "true".equals(oneway)) {
+                backward &= FOOT;
+            } else if ("-1".equals(oneway) || "reverse".equals(oneway)) {
+                forward &= FOOT;
+            } else if (oneway == null && ("roundabout".equals(tags.get("junction")) || "motorway".equals(highway))) {
+                backward &= FOOT;
+            }
+
+            String name = tags.containsKey("name") ? tags.get("name") : tags.get("ref");
+            int nameId = -1;
+            if (name != null) {
+                Integer existing = nameIndex.get(name);
+                if (existing == null) {
+                    existing = nameIndex.size();
+                    nameIndex.put(name, existing);
+                }
+                nameId = existing;
+            }
+
+            if (ways == wayIds.length) {
+                wayIds = Arrays.copyOf(wayIds, ways * 2);
+                wayStart = Arrays.copyOf(wayStart, ways * 2 + 1);
+                waySpeed = Arrays.copyOf(waySpeed, ways * 2);
+                wayName = Arrays.copyOf(wayName, ways * 2);
+                wayFootSpeed = Arrays.copyOf(wayFootSpeed, ways * 2);
+                wayForward = Arrays.copyOf(wayForward, ways * 2);
+                wayBackward = Arrays.copyOf(wayBackward, ways * 2);
+            }
+            int start = wayStart[ways];
+            if (start + refCount > wayRefs.length) {
+                wayRefs = Arrays.copyOf(wayRefs, Math.max(wayRefs.length * 2, start + refCount));
+            }
+            System.arraycopy(refs, 0, wayRefs, start, refCount);
+            wayIds[ways] = id;
+            waySpeed[ways] = speed;
+            wayName[ways] = nameId;
+            wayFootSpeed[ways] = (byte) footSpeed;
+            wayForward[ways] = (byte) forward;
+            wayBackward[ways] = (byte) backward;
+            wayStart[++ways] = start + refCount;
+        }
+
+        void addPoi(Map<String, String> tags, int lat, int lon) {
+            int categories = poiCategories(tags);
+            if (categories == 0) return;
+            if (pois == poiLat.length) {
+                poiLat = Arrays.copyOf(poiLat, pois * 2);
+                poiLon = Arrays.copyOf(poiLon, pois * 2);
+                poiCategories = Arrays.copyOf(poiCategories, pois * 2);
+                poiName = Arrays.copyOf(poiName, pois * 2);
+                poiPhone = Arrays.copyOf(poiPhone, pois * 2);
+            }
+            poiLat[pois] = lat;
+            poiLon[pois] = lon;
+            poiCategories[pois] = categories;
+            poiName[pois] = tags.containsKey("name") ? tags.get("name") : tags.get("name:en");
+            poiPhone[pois] = tags.containsKey("phone") ? tags.get("phone") : tags.get("contact:phone");
+            pois++;
+        }
+
+        /**
+         * A place mapped as an area, at the centroid of its outline nodes
+         */
+        void addPoiWay(long[] refs, int refCount, Map<String, String> tags) {
+            if (poiCategories(tags) == 0) return;
+            int n = refCount > 1 && refs[refCount - 1] == refs[0] ? refCount - 1 : refCount;  // Closed ring
+            long lat = 0, lon = 0;
+            int found = 0;
+            for (int i = 0; i < n; i++) {
+                int node = Arrays.binarySearch(nodeIds, 0, nodes, refs[i]);
+                if (node < 0) continue;
+                lat += nodeLat[node];
+                lon += nodeLon[node];
+                found++;
+            }
+            if (found > 0) addPoi(tags, (int) (lat / found), (int) (lon / found));
+        }
+
+        void addRestriction(Map<String, String> tags, long from, long via, long to, boolean simple) {
+            String value = tags.containsKey("restriction:motorcar")
+                    ? tags.get("restriction:motorcar") : tags.get("restriction");
+            String except = tags.get("except");
+            if (!simple || value == null || (except != null && except.contains("motorcar"))
+                    || !(value.startsWith("no_") || value.startsWith("only_"))) {
+                restrictionsSkipped++;
+                return;
+            }
+            if (restrictions == restrictionFrom.length) {
+                restrictionFrom = Arrays.copyOf(restrictionFrom, restrictions * 2);
+                restrictionVia = Arrays.copyOf(restrictionVia, restrictions * 2);
+                restrictionTo = Arrays.copyOf(restrictionTo, restrictions * 2);
+                restrictionOnly = Arrays.copyOf(restrictionOnly, restrictions * 2);
+            }
+            restrictionFrom[restrictions] = from;
+            restrictionVia[restrictions] = via;
+            restrictionTo[restrictions] = to;
+            restrictionOnly[restrictions] = value.startsWith("only_");
+            restrictions++;
+        }
+
+        /**
+         * Build the graph: every referenced node becomes a graph node, every way segment one or two edges
+         */
+        RoadGraph build() {
+            // Graph node ids are the indices into the sorted, distinct way refs that exist in the extract
+            long[] used = Arrays.copyOf(wayRefs, wayStart[ways]);
+            Arrays.sort(used);
+            int nodeCount = 0;
+            for (int i = 0; i < used.length; i++) {
+                if ((i == 0 || used[i] != used[i - 1]) && Arrays.binarySearch(nodeIds, 0, nodes, used[i]) >= 0) {
+                    used[nodeCount++] = used[i];
+                }
+            }
+            used = Arrays.copyOf(used, nodeCount);
+            int[] lat = new int[nodeCount];
+            int[] lon = new int[nodeCount];
+            for (int n = 0; n < nodeCount; n++) {
+                int i = Arrays.binarySearch(nodeIds, 0, nodes, used[n]);
+                lat[n] = nodeLat[i];
+                lon[n] = nodeLon[i];
+            }
+
+            // Directed segments in way order, then counting-sorted by source into CSR
+            int capacity = 2 * wayStart[ways];
+            int[] source = new int[capacity], target = new int[capacity], way = new int[capacity];
+            byte[] access = new byte[capacity];
+            int segments = 0;
+            for (int w = 0; w < ways; w++) {
+                for (int i = wayStart[w]; i + 1 < wayStart[w + 1]; i++) {
+                    int a = Arrays.binarySearch(used, wayRefs[i]);
+                    int b = Arrays.binarySearch(used, wayRefs[i + 1]);
+                    if (a < 0 || b < 0 || a == b) continue;
+                    if (wayForward[w] != 0) {
+                        source[segments] = a;
+                        target[segments] = b;
+                        access[segments] = wayForward[w];
+                        way[segments++] = w;
+                    }
+                    if (wayBackward[w] != 0) {
+                        source[segments] = b;
+                        target[segments] = a;
+                        access[segments] = wayBackward[w];
+                        way[segments++] = w;
+                    }
+                }
+            }
+            int[] firstEdge = new int[nodeCount + 1];
+            for (int s = 0; s < segments; s++) firstEdge[source[s] + 1]++;
+            for (int n = 0; n < nodeCount; n++) firstEdge[n + 1] += firstEdge[n];
+            int[] cursor = Arrays.copyOf(firstEdge, nodeCount);
+            int[] edgeTarget = new int[segments];
+            int[] edgeLength = new int[segments];
+            byte[] edgeSpeed = new byte[segments];
+            int[] edgeName = new int[segments];
+            int[] edgeWay = new int[segments];
+            byte[] edgeAccess = new byte[segments];
+            byte[][] profileSpeed = new byte[RoutingProfile.values().length][segments];
+            for (int s = 0; s < segments; s++) {
+                int e = cursor[source[s]]++;
+                int a = source[s], b = target[s];
+                edgeTarget[e] = b;
+                double m = RoadGraph.distanceM(lat[a] / RoadGraph.COORD_SCALE, lon[a] / RoadGraph.COORD_SCALE,
+                        lat[b] / RoadGraph.COORD_SCALE, lon[b] / RoadGraph.COORD_SCALE);
+                edgeLength[e] = Math.max(1, (int) Math.round(m * 10));
+                edgeSpeed[e] = (byte) waySpeed[way[s]];
+                edgeName[e] = wayName[way[s]];
+                edgeWay[e] = way[s];
+                edgeAccess[e] = access[s];
+                profileSpeed[RoutingProfile.MOTORCYCLE.ordinal()][e] =
+                        (byte) Math.min(waySpeed[way[s]], RoadGraph.MOTORCYCLE_MAX_KMH);
+                profileSpeed[RoutingProfile.FOOT.ordinal()][e] = wayFootSpeed[way[s]];
+            }
+
+            names = new String[nameIndex.size()];
+            for (Map.Entry<String, Integer> entry : nameIndex.entrySet()) names[entry.getValue()] = entry.getKey();
+
+            long[] turns = restrictionTurns(used, firstEdge, edgeTarget, edgeWay, edgeAccess);
+            int[] turnFrom = new int[turns.length];
+            int[] turnTo = new int[turns.length];
+            byte[] turnCost = new byte[turns.length];
+            for (int i = 0; i < turns.length; i++) {
+                turnFrom[i] = (int) (turns[i] >>> 32);
+                turnTo[i] = (int) turns[i];
+                turnCost[i] = (byte) RoadGraph.TURN_FORBIDDEN;
+            }
+            return new RoadGraph(lat, lon, firstEdge, edgeTarget, edgeLength, edgeSpeed, edgeName, names,
+                    turnFrom, turnTo, turnCost, edgeAccess, profileSpeed);
+        }
+
+        /**
+         * @return Forbidden turns between vehicle edges as (fromEdge << 32 | toEdge), sorted and distinct
+         */
+        private long[] restrictionTurns(long[] used, int[] firstEdge, int[] edgeTarget, int[] edgeWay,
+                                        byte[] edgeAccess) {
+            int vehicles = CAR | MOTORCYCLE;
+            long[] turns = new long[64];
+            int count = 0;
+            for (int r = 0; r < restrictions; r++) {
+                int fromWay = Arrays.binarySearch(wayIds, 0, ways, restrictionFrom[r]);
+                int toWay = Arrays.binarySearch(wayIds, 0, ways, restrictionTo[r]);
+                int via = Arrays.binarySearch(used, restrictionVia[r]);
+                if (fromWay < 0 || toWay < 0 || via < 0) {
+                    restrictionsSkipped++;
+                    continue;
+                }
+                int before = count;
+                // Edges of the from way into the via node: from its neighbours along the way
+                for (int i = wayStart[fromWay]; i < wayStart[fromWay + 1]; i++) {
+                    if (wayRefs[i] != restrictionVia[r]) continue;
+                    for (int k = i - 1; k <= i + 1; k += 2) {
+                        if (k < wayStart[fromWay] || k >= wayStart[fromWay + 1]) continue;
+                        int neighbour = Arrays.binarySearch(used, wayRefs[k]);
+                        if (neighbour < 0) continue;
+                        for (int in = firstEdge[neighbour]; in < firstEdge[neighbour + 1]; in++) {
+                            if (edgeTarget[in] != via || edgeWay[in] != fromWay || (edgeAccess[in] & vehicles) == 0) {
+                                continue;
+                            }
+                            for (int out = firstEdge[via]; out < firstEdge[via + 1]; out++) {
+                                if ((edgeAccess[out] & vehicles) == 0) continue;
+                                boolean toEdge = edgeWay[out] == toWay;
+                                if (restrictionOnly[r] == toEdge) continue;
+                                if (count == turns.length) turns = Arrays.copyOf(turns, count * 2);
+                                turns[count++] = ((long) in << 32) | out;
+                            }
+                        }
+                    }
+                }
+                if (count > before) {
+                    restrictionsImported++;
+                } else {
+                    restrictionsSkipped++;
+                }
+            }
+            Arrays.sort(turns, 0, count);
+            int distinct = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == 0 || turns[i] != turns[i - 1]) turns[distinct++] = turns[i];
+            }
+            return Arrays.copyOf(turns, distinct);
+        }
+    }
+
+    /**
+     * @return PoiCategory bits of a tagged node or way, 0 if it is not a place of interest
+     */
+    static int poiCategories(Map<String, String> tags) {
+        String amenity = tags.get("amenity");
+        String healthcare = tags.get("healthcare");
+        int categories = 0;
+        if ("hospital".equals(amenity) || "hospital".equals(healthcare)) categories |= PoiCategory.HOSPITAL.bit;
+        if ("pharmacy".equals(amenity) || "pharmacy".equals(healthcare)) categories |= PoiCategory.PHARMACY.bit;
+        if ("fuel".equals(amenity)) categories |= PoiCategory.FUEL.bit;
+        if ("fire_station".equals(amenity) || "ambulance_station".equals(tags.get("emergency"))
+                || isCivilDefense(tags.get("name")) || isCivilDefense(tags.get("operator"))) {
+            categories |= PoiCategory.CIVIL_DEFENSE.bit;
+        }
+        return categories;
+    }
+
+    private static boolean isCivilDefense(String name) {
+        if (name == null) return false;
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String s : CIVIL_DEFENSE_NAMES) {
+            if (lower.contains(s)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether access tags allow a mode; the most specific key present decides
+     *
+     * @param keys Access keys from the most general to the most specific
+     */
+    private static boolean allowed(Map<String, String> tags, String... keys) {
+        boolean allowed = true;
+        for (String key : keys) {
+            String value = tags.get(key);
+            if (value == null) continue;
+            allowed = !("no".equals(value) || "private".equals(value));
+        }
+        return allowed;
+    }
+
+    /**
+     * @return km/h from a maxspeed tag ("50", "30 mph"), or 0 if it is missing or not numeric
+     */
+    static int parseMaxspeed(String value) {
+        if (value == null) return 0;
+        String v = value.trim();
+        int end = 0;
+        while (end < v.length() && Character.isDigit(v.charAt(end))) end++;
+        if (end == 0) return 0;
+        int speed = Integer.parseInt(v.substring(0, end));
+        return v.endsWith("mph") ? (int) Math.round(speed * 1.609344) : speed;
+    }
+}
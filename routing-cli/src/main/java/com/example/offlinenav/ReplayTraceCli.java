@@ -0,0 +1,226 @@
+/**
+ * ReplayTraceCli - Headless replay of a recorded GPS trace through the navigation core
+ *
+ * Routes from the trace's first fix to its destination on an offline road
+ * graph, then feeds every fix through the same NavigationPipeline the
+ * navigation service uses: guidance matching, off-route detection and
+ * rate-limited re-routing, which here routes synchronously on the graph.
+ * Reports per-fix processing time, re-routes and allocations, so changes
+ * to matching, re-routing or guidance can be load-tested without driving.
+ *
+ * Replay is deterministic: the pipeline only looks at fix times, so --speed
+ * changes how fast fixes arrive, not what happens. --speed 0 (the default)
+ * replays as fast as possible.
+ *
+ * Usage:
+ *   replay-trace --graph roads.graph --trace trip.bin|trip.gpx [--speeds roads.speeds]
+ *                [--to lat,lon] [--speed 0|1..100] [--zone Asia/Beirut]
+ *                [--warmup N] [--json metrics.json]
+ */
+package com.example.offlinenav;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+public class ReplayTraceCli {
+
+    private static final String USAGE = "Usage: replay-trace --graph roads.graph --trace trip.bin|trip.gpx"
+            + " [--speeds roads.speeds] [--to lat,lon] [--speed 0|1..100] [--zone Asia/Beirut]"
+            + " [--warmup N] [--json metrics.json]";
+    private static final int DEFAULT_WARMUP = 3;              // Untimed replays so the JIT has compiled the pipeline
+
+    private static final Metrics.Histogram FIX_TIME = Metrics.histogram("replay.fix");
+    private static final Metrics.Histogram REROUTE_TIME = Metrics.histogram("replay.reroute");
+    private static final Metrics.Counter REROUTE_FAILED = Metrics.counter("replay.reroute.none");
+
+    private ReplayTraceCli() {}
+
+    /**
+     * Outcome of one pass over the trace
+     */
+    static class Run {
+        long fixes, offRouteFixes, reroutes;
+        int arrivedAtFix = -1;
+        long elapsedNs;
+        long allocatedBytes = -1;                              // -1 if the JVM can't measure it
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = BatchRouteCli.parseOptions(args);
+        if (options == null || !options.containsKey("graph") || !options.containsKey("trace")) {
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        try {
+            System.exit(run(options));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("replay-trace: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static int run(Map<String, String> options) throws IOException {
+        double speed = options.containsKey("speed") ? Double.parseDouble(options.get("speed")) : 0;
+        if (speed < 0 || speed > 100) throw new IllegalArgumentException("--speed must be 0 or 1..100");
+        TimeZone zone = TimeZone.getTimeZone(options.containsKey("zone") ? options.get("zone") : "Asia/Beirut");
+        int warmup = options.containsKey("warmup") ? Integer.parseInt(options.get("warmup")) : DEFAULT_WARMUP;
+
+        long t0 = System.currentTimeMillis();
+        RoadGraph graph = RoadGraph.load(new File(options.get("graph")));
+        SpeedProfiles profiles = options.containsKey("speeds")
+                ? SpeedProfiles.load(graph, new File(options.get("speeds")))
+                : new SpeedProfiles(graph);
+        GpsTrace trace = GpsTrace.load(new File(options.get("trace")));
+        if (trace.size() < 2) {
+            System.err.println("Trace has fewer than two fixes");
+            return 1;
+        }
+        double toLat = trace.getLatitude(trace.size() - 1);
+        double toLon = trace.getLongitude(trace.size() - 1);
+        if (options.containsKey("to")) {
+            String[] parts = options.get("to").split(",");
+            if (parts.length != 2) throw new IllegalArgumentException("--to must be lat,lon");
+            toLat = Double.parseDouble(parts[0].trim());
+            toLon = Double.parseDouble(parts[1].trim());
+        }
+        System.err.println(String.format(Locale.US, "Loaded %d nodes and %d fixes (%.1f min) in %d ms",
+                graph.getNodeCount(), trace.size(), trace.getDurationMs() / 60000.0, System.currentTimeMillis() - t0));
+
+        OfflineRouter router = new OfflineRouter(profiles, zone);
+        for (int i = 0; i < warmup; i++) {
+            if (replay(trace, router, toLat, toLon, 0) == null) {
+                System.err.println("No route from the first fix to the destination");
+                return 1;
+            }
+        }
+        Metrics.reset();
+        Metrics.setEnabled(true);
+        Run run = replay(trace, router, toLat, toLon, speed);
+        Metrics.setEnabled(false);
+        if (run == null) {
+            System.err.println("No route from the first fix to the destination");
+            return 1;
+        }
+
+        System.out.println(format(run));
+        if (options.containsKey("json")) {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(options.get("json")), StandardCharsets.UTF_8)) {
+                out.write(Metrics.toJson(System.currentTimeMillis()));
+                out.write('\n');
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Replay the trace once
+     *
+     * @param speed Replay speed relative to real time, 0 for as fast as possible
+     * @return The run, or null if the initial route could not be computed
+     */
+    static Run replay(GpsTrace trace, final OfflineRouter router, final double toLat, final double toLon,
+                      double speed) {
+        final Run run = new Run();
+        final NavigationPipeline[] holder = new NavigationPipeline[1];
+        final NavigationPipeline pipeline = new NavigationPipeline(new NavigationPipeline.Listener() {
+            @Override
+            public void onManeuverUpdate(GuidanceEngine.Maneuver next, double distanceToManeuverM) {}
+
+            @Override
+            public void onProgress(double remainingM, double remainingS) {}
+
+            @Override
+            public void onOffRoute(double deviationM) {}
+
+            @Override
+            public void onArrived() {}
+
+            @Override
+            public void onRerouteNeeded(double lat, double lon, long timeMs) {
+                long t0 = Metrics.start();
+                OfflineRouter.Route route = router.route(lat, lon, toLat, toLon, timeMs);
+                REROUTE_TIME.stop(t0);
+                if (route != null && route.lats.length >= 2) {
+                    holder[0].setRoute(route.lats, route.lons, route.names, null, route.durationS);
+                } else {
+                    REROUTE_FAILED.inc();
+                }
+            }
+        });
+        holder[0] = pipeline;
+
+        TripFix fix = new TripFix();
+        trace.get(0, fix);
+        OfflineRouter.Route initial = router.route(fix.latitude, fix.longitude, toLat, toLon, fix.timeMs);
+        if (initial == null || initial.lats.length < 2) return null;
+        pipeline.setRoute(initial.lats, initial.lons, initial.names, null, initial.durationS);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocations != null ? allocations.getThreadAllocatedBytes(threadId) : -1;
+        long wallStart = System.nanoTime();
+        long traceStart = trace.getTime(0);
+        for (int i = 0; i < trace.size(); i++) {
+            trace.get(i, fix);
+            if (speed > 0) sleepUntil(wallStart + (long) ((fix.timeMs - traceStart) * 1e6 / speed));
+            boolean wasActive = pipeline.isActive();
+            long t0 = Metrics.start();
+            pipeline.onFix(fix.latitude, fix.longitude, fix.accuracyM, fix.speedMps, fix.timeMs);
+            FIX_TIME.stop(t0);
+            if (wasActive && !pipeline.isActive()) run.arrivedAtFix = i;
+        }
+        run.elapsedNs = System.nanoTime() - wallStart;
+        if (allocatedBefore >= 0) run.allocatedBytes = allocations.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        run.fixes = pipeline.getFixCount();
+        run.offRouteFixes = pipeline.getOffRouteCount();
+        run.reroutes = pipeline.getRerouteCount();
+        return run;
+    }
+
+    static String format(Run run) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%d fixes in %.1f ms, %s%n", run.fixes, run.elapsedNs / 1e6,
+                run.arrivedAtFix >= 0 ? "arrived at fix " + run.arrivedAtFix : "did not arrive"));
+        sb.append(String.format(Locale.US, "per fix: mean %.1f us, p50 %d us, p90 %d us, p99 %d us, max %d us%n",
+                FIX_TIME.getMeanUs(), FIX_TIME.percentileUs(50), FIX_TIME.percentileUs(90),
+                FIX_TIME.percentileUs(99), FIX_TIME.getMaxUs()));
+        sb.append(String.format(Locale.US, "off-route fixes %d, re-routes %d (%d without a route)",
+                run.offRouteFixes, run.reroutes, REROUTE_FAILED.get()));
+        if (REROUTE_TIME.getCount() > 0) {
+            sb.append(String.format(Locale.US, ", re-route p50 %.1f ms, max %.1f ms",
+                    REROUTE_TIME.percentileUs(50) / 1000.0, REROUTE_TIME.getMaxUs() / 1000.0));
+        }
+        sb.append(String.format("%n"));
+        if (run.allocatedBytes >= 0) {
+            sb.append(String.format(Locale.US, "allocated %d bytes, %.0f bytes per fix",
+                    run.allocatedBytes, (double) run.allocatedBytes / Math.max(1, run.fixes)));
+        } else {
+            sb.append("allocations not measurable on this JVM");
+        }
+        return sb.toString();
+    }
+
+    private static void sleepUntil(long nanoTime) {
+        long waitNs;
+        while ((waitNs = nanoTime - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(waitNs / 1_000_000, (int) (waitNs % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * BatchRouter - Routes many origin/destination pairs in parallel
+ *
+ * Splits a list of pairs over a fork-join pool; every worker thread gets its
+ * own OfflineRouter (the search state is per router) over the shared graph
+ * and speed profiles. Each pair's route is timed individually, so the
+ * result carries per-query latency as well as the route's distance and
+ * duration, and Stats summarizes latency percentiles and throughput.
+ *
+ * Pure Java, used by the batch-routing command line tool.
+ */
+package com.example.offlinenav;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class BatchRouter {
+
+    private static final int SPLIT_THRESHOLD = 8;            // Pairs routed by one task without forking
+
+    /**
+     * One origin/destination pair
+     */
+    public static class Pair {
+        public final String id;
+        public final double fromLat, fromLon, toLat, toLon;
+
+        public Pair(String id, double fromLat, double fromLon, double toLat, double toLon) {
+            this.id = id;
+            this.fromLat = fromLat;
+            this.fromLon = fromLon;
+            this.toLat = toLat;
+            this.toLon = toLon;
+        }
+    }
+
+    /**
+     * Outcome of routing one pair
+     */
+    public static class Result {
+        public final Pair pair;
+        public final OfflineRouter.Route route;   // null if off the graph or unreachable
+        public final long latencyNs;
+
+        Result(Pair pair, OfflineRouter.Route route, long latencyNs) {
+            this.pair = pair;
+            this.route = route;
+            this.latencyNs = latencyNs;
+        }
+    }
+
+    /**
+     * Latency and throughput of one batch
+     */
+    public static class Stats {
+        public final int pairs, routed;
+        public final double p50Ms, p95Ms, p99Ms, maxMs;
+        public final double wallMs, pairsPerSecond;
+        public final double meanDistanceM, meanDurationS;
+
+        Stats(Result[] results, long wallNs) {
+            pairs = results.length;
+            long[] latencies = new long[results.length];
+            int ok = 0;
+            double distance = 0, duration = 0;
+            for (int i = 0; i < results.length; i++) {
+                latencies[i] = results[i].latencyNs;
+                if (results[i].route != null) {
+                    ok++;
+                    distance += results[i].route.distanceM;
+                    duration += results[i].route.durationS;
+                }
+            }
+            Arrays.sort(latencies);
+            routed = ok;
+            p50Ms = percentile(latencies, 50) / 1e6;
+            p95Ms = percentile(latencies, 95) / 1e6;
+            p99Ms = percentile(latencies, 99) / 1e6;
+            maxMs = latencies.length > 0 ? latencies[latencies.length - 1] / 1e6 : 0;
+            wallMs = wallNs / 1e6;
+            pairsPerSecond = wallNs > 0 ? pairs * 1e9 / wallNs : 0;
+            meanDistanceM = ok > 0 ? distance / ok : 0;
+            meanDurationS = ok > 0 ? duration / ok : 0;
+        }
+
+        public String format() {
+            return String.format(Locale.US,
+                    "%d pairs, %d routed, %d without route in %.0f ms (%.1f pairs/s)%n"
+                            + "latency p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms%n"
+                            + "mean route %.0f m, %.0f s",
+                    pairs, routed, pairs - routed, wallMs, pairsPerSecond,
+                    p50Ms, p95Ms, p99Ms, maxMs, meanDistanceM, meanDurationS);
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final ThreadLocal<OfflineRouter> routers;
+
+    /**
+     * @param profiles Speed profiles over the graph to route on
+     * @param zone Time zone the departure time's hour-of-week is taken in
+     * @param parallelism Worker threads
+     */
+    public BatchRouter(final SpeedProfiles profiles, final TimeZone zone, int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+        routers = new ThreadLocal<OfflineRouter>() {
+            @Override
+            protected OfflineRouter initialValue() {
+                return new OfflineRouter(profiles, zone);
+            }
+        };
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Route every pair, blocking until all are done, and summarize the run
+     *
+     * @param departureMs Departure time used for every pair
+     * @param out Receives one result per pair, in input order
+     */
+    public Stats measure(List<Pair> pairs, long departureMs, Result[] out) {
+        long t0 = System.nanoTime();
+        pool.invoke(new RouteRange(pairs, departureMs, out, 0, pairs.size()));
+        return new Stats(out, System.nanoTime() - t0);
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values
+     */
+    static long percentile(long[] sorted, double percent) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(percent / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private final class RouteRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final List<Pair> pairs;
+        final long departureMs;
+        final Result[] results;
+        final int from, to;
+
+        RouteRange(List<Pair> pairs, long departureMs, Result[] results, int from, int to) {
+            this.pairs = pairs;
+            this.departureMs = departureMs;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                OfflineRouter router = routers.get();
+                for (int i = from; i < to; i++) {
+                    Pair p = pairs.get(i);
+                    long t0 = System.nanoTime();
+                    OfflineRouter.Route route = router.route(p.fromLat, p.fromLon, p.toLat, p.toLon, departureMs);
+                    results[i] = new Result(p, route, System.nanoTime() - t0);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RouteRange(pairs, departureMs, results, from, mid),
+                    new RouteRange(pairs, departureMs, results, mid, to));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * CircuitBreaker - Latency-aware breaker for a flaky remote dependency
+ *
+ * Counts consecutive bad outcomes, where a call that succeeds but takes
+ * longer than the slow-call limit counts as bad too: on a weak mobile link
+ * a route that arrives after many seconds is as useless as none. After
+ * enough bad outcomes in a row the breaker opens and callers skip the
+ * remote path entirely. Once the open period has passed a single trial
+ * call is let through (half-open); a good trial closes the breaker, a bad
+ * one reopens it for twice as long, up to a maximum.
+ *
+ * Thread-safe. Times are passed in by the caller (elapsed realtime).
+ */
+package com.example.offlinenav;
+
+import java.util.Locale;
+
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,     // Calls allowed
+        OPEN,       // Calls skipped until the open period ends
+        HALF_OPEN   // One trial call allowed
+    }
+
+    private final int failureThreshold;
+    private final long slowCallMs;
+    private final long baseOpenMs, maxOpenMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openMs;
+    private long openUntilMs;
+    private boolean trialInFlight;
+    private int timesOpened;
+
+    /**
+     * @param failureThreshold Bad outcomes in a row that open the breaker
+     * @param slowCallMs Successful calls slower than this count as bad
+     * @param baseOpenMs First open period
+     * @param maxOpenMs Longest open period after repeated failed trials
+     */
+    public CircuitBreaker(int failureThreshold, long slowCallMs, long baseOpenMs, long maxOpenMs) {
+        this.failureThreshold = failureThreshold;
+        this.slowCallMs = slowCallMs;
+        this.baseOpenMs = baseOpenMs;
+        this.maxOpenMs = maxOpenMs;
+        this.openMs = baseOpenMs;
+    }
+
+    /**
+     * Whether a call may be made now. In the half-open state this hands out
+     * the single trial, so the caller must then make the call and report it.
+     */
+    public synchronized boolean allowRequest(long nowMs) {
+        if (state == State.OPEN) {
+            if (nowMs < openUntilMs) return false;
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) return false;
+            trialInFlight = true;
+        }
+        return true;
+    }
+
+    /**
+     * Report the outcome of a call
+     *
+     * @param success Whether the call produced a usable result
+     * @param latencyMs How long it took (or how long it was waited for)
+     */
+    public synchronized void onResult(boolean success, long latencyMs, long nowMs) {
+        if (success && latencyMs <= slowCallMs) {
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            openMs = baseOpenMs;
+            trialInFlight = false;
+            return;
+        }
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            openMs = Math.min(openMs * 2, maxOpenMs);
+            open(nowMs);
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open(nowMs);
+        }
+    }
+
+    /**
+     * A call was cancelled without an outcome; frees the half-open trial
+     */
+    public synchronized void onAbandoned() {
+        trialInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized String getStatsSummary() {
+        return String.format(Locale.US, "breaker %s (%d bad in a row, opened %d times)",
+                state, consecutiveFailures, timesOpened);
+    }
+
+    private void open(long nowMs) {
+        state = State.OPEN;
+        openUntilMs = nowMs + openMs;
+        trialInFlight = false;
+        timesOpened++;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * GeoHash - Geohash encoding and cell covers for spatial queries
+ *
+ * A geohash is a base-32 string whose prefixes are nested lat/lon cells, so
+ * an ordinary B-tree index on a geohash column answers "everything in this
+ * cell" as a single range scan. cover() picks a set of cells at one
+ * precision that together contain a bounding box.
+ */
+package com.example.offlinenav;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+public class GeoHash {
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+    public static final int MAX_PRECISION = 12;
+
+    private GeoHash() {}
+
+    /**
+     * Encode a coordinate
+     *
+     * @param lat Latitude in degrees
+     * @param lon Longitude in degrees
+     * @param precision Number of characters (9 = cells of about 5 m)
+     * @return Geohash string
+     */
+    public static String encode(double lat, double lon, int precision) {
+        double latLo = -90, latHi = 90, lonLo = -180, lonHi = 180;
+        char[] out = new char[precision];
+        boolean evenBit = true;   // Bits alternate lon, lat, lon, ...
+        int bit = 0, ch = 0, pos = 0;
+        while (pos < precision) {
+            if (evenBit) {
+                double mid = (lonLo + lonHi) / 2;
+                if (lon >= mid) { ch = (ch << 1) | 1; lonLo = mid; } else { ch <<= 1; lonHi = mid; }
+            } else {
+                double mid = (latLo + latHi) / 2;
+                if (lat >= mid) { ch = (ch << 1) | 1; latLo = mid; } else { ch <<= 1; latHi = mid; }
+            }
+            evenBit = !evenBit;
+            if (++bit == 5) {
+                out[pos++] = BASE32[ch];
+                bit = 0;
+                ch = 0;
+            }
+        }
+        return new String(out);
+    }
+
+    /**
+     * @return Cell height in degrees of latitude at a precision
+     */
+    public static double cellHeight(int precision) {
+        int latBits = (5 * precision) / 2;
+        return 180.0 / (1L << latBits);
+    }
+
+    /**
+     * @return Cell width in degrees of longitude at a precision
+     */
+    public static double cellWidth(int precision) {
+        int lonBits = (5 * precision + 1) / 2;
+        return 360.0 / (1L << lonBits);
+    }
+
+    /**
+     * Cells covering a bounding box, at the finest precision that needs at most maxCells
+     *
+     * @param maxPrecision Finest precision allowed (the precision stored in the index)
+     * @return Geohash prefixes; an empty list means "the whole world" (use a full scan)
+     */
+    public static List<String> cover(double minLat, double minLon, double maxLat, double maxLon,
+                                     int maxPrecision, int maxCells) {
+        for (int p = Math.min(maxPrecision, MAX_PRECISION); p >= 1; p--) {
+            double h = cellHeight(p), w = cellWidth(p);
+            long rows = (long) Math.floor((maxLat + 90) / h) - (long) Math.floor((minLat + 90) / h) + 1;
+            long cols = (long) Math.floor((maxLon + 180) / w) - (long) Math.floor((minLon + 180) / w) + 1;
+            if (rows * cols > maxCells) continue;
+
+            Set<String> cells = new LinkedHashSet<>();
+            double lat0 = (Math.floor((minLat + 90) / h)) * h - 90;
+            double lon0 = (Math.floor((minLon + 180) / w)) * w - 180;
+            for (int r = 0; r < rows; r++) {
+                double lat = Math.min(89.999999, lat0 + (r + 0.5) * h);
+                for (int c = 0; c < cols; c++) {
+                    double lon = Math.min(179.999999, lon0 + (c + 0.5) * w);
+                    cells.add(encode(lat, lon, p));
+                }
+            }
+            return new ArrayList<>(cells);
+        }
+        return new ArrayList<>();
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * GpsTrace - A recorded location trace loaded for replay
+ *
+ * Reads either a TripRecorder file (recognized by its magic) or a GPX
+ * track, including the GPX files TripExporter writes: trkpt/rtept/wpt
+ * positions with an optional <time>, and <speed>/<accuracy> either
+ * directly in the point (GPX 1.0) or in its extensions. Points without a
+ * time are spaced one second after the previous one.
+ *
+ * The fixes are kept in parallel primitive arrays, about 40 bytes per fix,
+ * so a multi-hour trace at 1 Hz stays well under a megabyte.
+ */
+package com.example.offlinenav;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+public class GpsTrace {
+
+    private static final Pattern ISO_TIME = Pattern.compile(
+            "(\\d{4})-(\\d{2})-(\\d{2})T(\\d{2}):(\\d{2}):(\\d{2})(?:\\.(\\d+))?(Z|[+-]\\d{2}:?\\d{2})?");
+    private static final long DEFAULT_INTERVAL_MS = 1000;     // Spacing of points without a time
+
+    private long[] times = new long[256];
+    private double[] lats = new double[256], lons = new double[256];
+    private float[] speeds = new float[256], accuracies = new float[256];
+    private int size;
+
+    /**
+     * Load a trip log or GPX file
+     */
+    public static GpsTrace load(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 8192)) {
+            in.mark(TripRecorder.MAGIC.length);
+            boolean tripLog = true;
+            for (byte b : TripRecorder.MAGIC) {
+                if (in.read() != b) {
+                    tripLog = false;
+                    break;
+                }
+            }
+            in.reset();
+            return tripLog ? readTripLog(in) : readGpx(in);
+        }
+    }
+
+    /**
+     * @param in TripRecorder data (not closed)
+     */
+    public static GpsTrace readTripLog(InputStream in) throws IOException {
+        GpsTrace trace = new GpsTrace();
+        TripLogReader reader = new TripLogReader(in);
+        TripFix fix;
+        while ((fix = reader.next()) != null) {
+            trace.add(fix.timeMs, fix.latitude, fix.longitude, fix.speedMps, fix.accuracyM);
+        }
+        return trace;
+    }
+
+    /**
+     * @param in GPX document (not closed)
+     */
+    public static GpsTrace readGpx(InputStream in) throws IOException {
+        final GpsTrace trace = new GpsTrace();
+        DefaultHandler handler = new DefaultHandler() {
+            private final StringBuilder text = new StringBuilder();
+            private boolean inPoint;
+            private double lat, lon;
+            private long time;
+            private float speed, accuracy;
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes)
+                    throws SAXException {
+                String name = localName(qName);
+                text.setLength(0);
+                if (name.equals("trkpt") || name.equals("rtept") || name.equals("wpt")) {
+                    try {
+                        lat = Double.parseDouble(attributes.getValue("lat"));
+                        lon = Double.parseDouble(attributes.getValue("lon"));
+                    } catch (NullPointerException | NumberFormatException e) {
+                        throw new SAXException("Point without lat/lon");
+                    }
+                    inPoint = true;
+                    time = Long.MIN_VALUE;
+                    speed = Float.NaN;
+                    accuracy = Float.NaN;
+                }
+            }
+
+            @Override
+            public void characters(char[] ch, int start, int length) {
+                if (inPoint) text.append(ch, start, length);
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) throws SAXException {
+                if (!inPoint) return;
+                String name = localName(qName);
+                String value = text.toString().trim();
+                text.setLength(0);
+                try {
+                    if (name.equals("time")) {
+                        time = parseTime(value);
+                    } else if (name.equals("speed")) {
+                        speed = Float.parseFloat(value);
+                    } else if (name.equals("accuracy")) {
+                        accuracy = Float.parseFloat(value);
+                    } else if (name.equals("trkpt") || name.equals("rtept") || name.equals("wpt")) {
+                        if (time == Long.MIN_VALUE) {
+                            time = trace.size > 0 ? trace.times[trace.size - 1] + DEFAULT_INTERVAL_MS : 0;
+                        }
+                        trace.add(time, lat, lon, speed, accuracy);
+                        inPoint = false;
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new SAXException("Bad <" + name + "> value: " + value);
+                }
+            }
+        };
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(in, handler);
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new IOException("Not a GPX file: " + e.getMessage(), e);
+        }
+        return trace;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copy fix i into a reusable TripFix
+     */
+    public void get(int i, TripFix out) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Fix " + i + " of " + size);
+        out.timeMs = times[i];
+        out.latitude = lats[i];
+        out.longitude = lons[i];
+        out.speedMps = speeds[i];
+        out.accuracyM = accuracies[i];
+    }
+
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    public double getLatitude(int i) {
+        return lats[i];
+    }
+
+    public double getLongitude(int i) {
+        return lons[i];
+    }
+
+    /**
+     * @return Time from the first to the last fix
+     */
+    public long getDurationMs() {
+        return size < 2 ? 0 : times[size - 1] - times[0];
+    }
+
+    private void add(long timeMs, double lat, double lon, float speedMps, float accuracyM) {
+        if (size == times.length) {
+            int capacity = size * 2;
+            times = Arrays.copyOf(times, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            lons = Arrays.copyOf(lons, capacity);
+            speeds = Arrays.copyOf(speeds, capacity);
+            accuracies = Arrays.copyOf(accuracies, capacity);
+        }
+        times[size] = timeMs;
+        lats[size] = lat;
+        lons[size] = lon;
+        speeds[size] = speedMps;
+        accuracies[size] = accuracyM;
+        size++;
+    }
+
+    private static String localName(String qName) {
+        int colon = qName.indexOf(':');
+        return colon >= 0 ? qName.substring(colon + 1) : qName;
+    }
+
+    /**
+     * ISO 8601 date-time as GPX writes it, e.g. 2024-05-01T07:30:12Z or 2024-05-01T10:30:12.250+03:00
+     */
+    static long parseTime(String value) {
+        Matcher m = ISO_TIME.matcher(value);
+        if (!m.matches()) throw new IllegalArgumentException("Bad time " + value);
+        Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        c.clear();
+        c.set(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) - 1, Integer.parseInt(m.group(3)),
+                Integer.parseInt(m.group(4)), Integer.parseInt(m.group(5)), Integer.parseInt(m.group(6)));
+        long t = c.getTimeInMillis();
+        if (m.group(7) != null) {
+            String fraction = (m.group(7) + "00").substring(0, 3);
+            t += Integer.parseInt(fraction);
+        }
+        String zone = m.group(8);
+        if (zone != null && !zone.equals("Z")) {
+            String digits = zone.replace(":", "");
+            int minutes = Integer.parseInt(digits.substring(1, 3)) * 60 + Integer.parseInt(digits.substring(3, 5));
+            t -= (zone.charAt(0) == '-' ? -1 : 1) * minutes * 60_000L;
+        }
+        return t;
+    }
+}
@@ -0,0 +1,339 @@
+/**
+ * GuidanceEngine - Turn-by-turn guidance along a computed route
+ *
+ * Built once per route from its polyline. At construction it:
+ * - Projects the points to local meters and builds a cumulative-distance array
+ * - Extracts maneuvers from turn angles and street-name changes
+ *
+ * Each location update then moves a monotonic segment cursor forward by
+ * projecting the fix onto the segments just ahead of it, so an update costs
+ * amortized constant time instead of a scan over the whole polyline.
+ * Upcoming maneuver, remaining distance/ETA, off-route and arrival events are
+ * delivered to a Listener on the calling thread.
+ */
+package com.example.offlinenav;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+public class GuidanceEngine {
+
+    /**
+     * Receives guidance events; called on the thread that calls update()
+     */
+    public interface Listener {
+        void onManeuverUpdate(Maneuver next, double distanceToManeuverM);
+        void onProgress(double remainingM, double remainingS);
+        void onOffRoute(double deviationM);
+        void onArrived();
+    }
+
+    public enum ManeuverType {
+        DEPART, CONTINUE, SLIGHT_LEFT, SLIGHT_RIGHT, LEFT, RIGHT, SHARP_LEFT, SHARP_RIGHT, U_TURN, ARRIVE
+    }
+
+    /**
+     * One precomputed maneuver on the route
+     */
+    public static class Maneuver {
+        public final ManeuverType type;
+        public final int pointIndex;          // Polyline point where the maneuver happens
+        public final double turnAngle;        // Degrees, negative = left, positive = right
+        public final double distanceFromStart;
+        public final String streetName;       // Road taken after the maneuver, may be null
+        public final String exitNumber;       // Motorway exit or roundabout exit, may be null
+
+        Maneuver(ManeuverType type, int pointIndex, double turnAngle, double distanceFromStart,
+                 String streetName, String exitNumber) {
+            this.type = type;
+            this.pointIndex = pointIndex;
+            this.turnAngle = turnAngle;
+            this.distanceFromStart = distanceFromStart;
+            this.streetName = streetName;
+            this.exitNumber = exitNumber;
+        }
+
+        /**
+         * @return Short spoken-style instruction, e.g. "Turn left onto Hamra St"
+         */
+        public String instruction() {
+            String verb;
+            switch (type) {
+                case DEPART: verb = "Head out"; break;
+                case CONTINUE: verb = "Continue"; break;
+                case SLIGHT_LEFT: verb = "Bear left"; break;
+                case SLIGHT_RIGHT: verb = "Bear right"; break;
+                case LEFT: verb = "Turn left"; break;
+                case RIGHT: verb = "Turn right"; break;
+                case SHARP_LEFT: verb = "Sharp left"; break;
+                case SHARP_RIGHT: verb = "Sharp right"; break;
+                case U_TURN: verb = "Make a U-turn"; break;
+                default: return "Arrive at destination";
+            }
+            StringBuilder sb = new StringBuilder(verb);
+            if (exitNumber != null) sb.append(" at exit ").append(exitNumber);
+            if (streetName != null) sb.append(" onto ").append(streetName);
+            return sb.toString();
+        }
+    }
+
+    // Maneuver extraction
+    private static final double TURN_THRESHOLD_DEG = 30;      // Smaller bends are not announced
+    private static final double BEARING_BASELINE_M = 20;      // Bearings measured over this distance
+    private static final double MANEUVER_MERGE_M = 25;        // Closer turns collapse into one
+
+    // Progress tracking
+    private static final double MIN_LOOKAHEAD_M = 100;        // Always search this far past the cursor
+    private static final double OFF_ROUTE_M = 50;             // Deviation (plus accuracy) that counts as off route
+    private static final int OFF_ROUTE_FIXES = 3;             // Consecutive off-route fixes before reporting
+    private static final double ARRIVAL_M = 20;
+    private static final double DEFAULT_SPEED_MPS = 40 / 3.6; // Same 40 km/h the offline estimate uses
+
+    private static final double EARTH_RADIUS_M = 6371008.8;
+
+    private final Listener listener;
+
+    // Route geometry in local meters (equirectangular around the first point)
+    private final double[] xs, ys;
+    private final double[] cumulative;                        // cumulative[i] = meters from start to point i
+    private final double totalDistance;
+    private final double secondsPerMeter;
+    private final double originLat, originLon, cosLat;
+    private final List<Maneuver> maneuvers;
+
+    // Progress state
+    private int segment = 0;                                  // Cursor: fix lies on segment [segment, segment+1]
+    private int nextManeuver = 1;                             // Index into maneuvers
+    private double along = 0;                                 // Meters from start of the latest projection
+    private int offRouteCount = 0;
+    private long lastUpdateMs = 0;
+    private boolean arrived = false;
+
+    /**
+     * Prepare guidance for a route
+     *
+     * @param lats Latitudes of the route polyline
+     * @param lons Longitudes of the route polyline
+     * @param names Street name of the road starting at each point, null entries mean
+     *              "same road as before"; the array itself may be null
+     * @param exits Exit number at each point, may be null
+     * @param totalDurationS Route duration from the router, or NaN to use a default speed
+     * @param listener Receiver of guidance events
+     */
+    public GuidanceEngine(double[] lats, double[] lons, String[] names, String[] exits,
+                          double totalDurationS, Listener listener) {
+        if (lats.length < 2 || lats.length != lons.length) {
+            throw new IllegalArgumentException("Route needs at least two points");
+        }
+        this.listener = listener;
+        int n = lats.length;
+        originLat = lats[0];
+        originLon = lons[0];
+        cosLat = Math.cos(Math.toRadians(originLat));
+
+        xs = new double[n];
+        ys = new double[n];
+        cumulative = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = toX(lons[i]);
+            ys[i] = toY(lats[i]);
+            if (i > 0) {
+                cumulative[i] = cumulative[i - 1] + Math.hypot(xs[i] - xs[i - 1], ys[i] - ys[i - 1]);
+            }
+        }
+        totalDistance = cumulative[n - 1];
+        secondsPerMeter = !Double.isNaN(totalDurationS) && totalDistance > 0
+                ? totalDurationS / totalDistance
+                : 1 / DEFAULT_SPEED_MPS;
+        maneuvers = Collections.unmodifiableList(extractManeuvers(names, exits));
+    }
+
+    public List<Maneuver> getManeuvers() {
+        return maneuvers;
+    }
+
+    public double getTotalDistance() {
+        return totalDistance;
+    }
+
+    /**
+     * @return Distance along the route of the latest matched fix
+     */
+    public double getDistanceAlong() {
+        return along;
+    }
+
+    /**
+     * Feed a location fix and emit guidance events
+     *
+     * @param lat Fix latitude
+     * @param lon Fix longitude
+     * @param accuracyM Horizontal accuracy, NaN if unknown
+     * @param speedMps Speed, NaN if unknown
+     * @param timeMs Fix time, used to size the forward search window
+     */
+    public void update(double lat, double lon, float accuracyM, float speedMps, long timeMs) {
+        if (arrived) return;
+        double px = toX(lon);
+        double py = toY(lat);
+
+        // Search forward from the cursor far enough to cover the distance travelled since last fix
+        double speed = Float.isNaN(speedMps) ? DEFAULT_SPEED_MPS : Math.max(speedMps, 1);
+        double dt = lastUpdateMs > 0 ? Math.max(1, (timeMs - lastUpdateMs) / 1000.0) : 1;
+        lastUpdateMs = timeMs;
+        double window = Math.max(MIN_LOOKAHEAD_M, 2 * speed * dt);
+        double limit = along + window;
+
+        int bestSeg = segment;
+        double bestDist = Double.MAX_VALUE;
+        double bestAlong = along;
+        int last = xs.length - 2;
+        for (int s = segment; s <= last && cumulative[s] <= limit; s++) {
+            double ax = xs[s], ay = ys[s];
+            double dx = xs[s + 1] - ax, dy = ys[s + 1] - ay;
+            double len2 = dx * dx + dy * dy;
+            double t = len2 > 0 ? ((px - ax) * dx + (py - ay) * dy) / len2 : 0;
+            if (t < 0) t = 0;
+            else if (t > 1) t = 1;
+            double qx = ax + t * dx, qy = ay + t * dy;
+            double d = Math.hypot(px - qx, py - qy);
+            if (d < bestDist) {
+                bestDist = d;
+                bestSeg = s;
+                bestAlong = cumulative[s] + t * Math.sqrt(len2);
+            }
+        }
+
+        double tolerance = OFF_ROUTE_M + (Float.isNaN(accuracyM) ? 0 : accuracyM);
+        if (bestDist > tolerance) {
+            // Keep the cursor where it was; the driver may come back onto the route
+            if (++offRouteCount >= OFF_ROUTE_FIXES) {
+                listener.onOffRoute(bestDist);
+            }
+            return;
+        }
+        offRouteCount = 0;
+        segment = bestSeg;
+        along = Math.max(along, bestAlong);
+
+        while (nextManeuver < maneuvers.size() && maneuvers.get(nextManeuver).distanceFromStart <= along) {
+            nextManeuver++;
+        }
+
+        double remaining = totalDistance - along;
+        if (remaining <= ARRIVAL_M) {
+            arrived = true;
+            listener.onArrived();
+            return;
+        }
+        if (nextManeuver < maneuvers.size()) {
+            Maneuver m = maneuvers.get(nextManeuver);
+            listener.onManeuverUpdate(m, m.distanceFromStart - along);
+        }
+        listener.onProgress(remaining, remaining * secondsPerMeter);
+    }
+
+    /**
+     * Find turns and street-name changes along the polyline
+     *
+     * Every point whose smoothed heading change or street name qualifies is a
+     * candidate; chains of candidates closer than MANEUVER_MERGE_M form one
+     * maneuver placed at the sharpest point of the chain.
+     */
+    private List<Maneuver> extractManeuvers(String[] names, String[] exits) {
+        int n = xs.length;
+
+        // Effective street name at each point (null entries repeat the previous name)
+        String[] nameAt = new String[n];
+        for (int i = 0; i < n; i++) {
+            String name = names != null ? names[i] : null;
+            nameAt[i] = name != null ? name : (i > 0 ? nameAt[i - 1] : null);
+        }
+
+        // Heading change at each point, measured over BEARING_BASELINE_M on either side.
+        // back/ahead walk forward monotonically so this stays linear in n.
+        double[] angles = new double[n];
+        int back = 0, ahead = 0;
+        for (int i = 1; i < n - 1; i++) {
+            while (back + 1 < i && cumulative[i] - cumulative[back + 1] >= BEARING_BASELINE_M) back++;
+            if (ahead < i + 1) ahead = i + 1;
+            while (ahead < n - 1 && cumulative[ahead] - cumulative[i] < BEARING_BASELINE_M) ahead++;
+            angles[i] = turnAngle(back, i, ahead);
+        }
+
+        List<Maneuver> result = new ArrayList<>();
+        result.add(new Maneuver(ManeuverType.DEPART, 0, 0, 0, nameAt[0], null));
+        int i = 1;
+        while (i < n - 1) {
+            if (!isCandidate(i, angles, nameAt, exits)) {
+                i++;
+                continue;
+            }
+            int best = i;
+            int lastCandidate = i;
+            String exit = exits != null ? exits[i] : null;
+            int j = i + 1;
+            while (j < n - 1 && cumulative[j] - cumulative[lastCandidate] < MANEUVER_MERGE_M) {
+                if (isCandidate(j, angles, nameAt, exits)) {
+                    lastCandidate = j;
+                    if (Math.abs(angles[j]) > Math.abs(angles[best])) best = j;
+                    if (exit == null && exits != null) exit = exits[j];
+                }
+                j++;
+            }
+            result.add(new Maneuver(classify(angles[best]), best, angles[best], cumulative[best],
+                    nameAt[lastCandidate], exit));
+            i = j;
+        }
+        result.add(new Maneuver(ManeuverType.ARRIVE, n - 1, 0, totalDistance, null, null));
+        return result;
+    }
+
+    private static boolean isCandidate(int i, double[] angles, String[] nameAt, String[] exits) {
+        if (Math.abs(angles[i]) >= TURN_THRESHOLD_DEG) return true;
+        if (exits != null && exits[i] != null) return true;
+        return nameAt[i] != null && !nameAt[i].equals(nameAt[i - 1]);
+    }
+
+    /**
+     * Signed change of heading at point i, in degrees (positive = right turn)
+     */
+    private double turnAngle(int from, int at, int to) {
+        double inHeading = Math.atan2(xs[at] - xs[from], ys[at] - ys[from]);
+        double outHeading = Math.atan2(xs[to] - xs[at], ys[to] - ys[at]);
+        double deg = Math.toDegrees(outHeading - inHeading);
+        while (deg > 180) deg -= 360;
+        while (deg < -180) deg += 360;
+        return deg;
+    }
+
+    private static ManeuverType classify(double angle) {
+        double a = Math.abs(angle);
+        boolean right = angle > 0;
+        if (a < TURN_THRESHOLD_DEG) return ManeuverType.CONTINUE;
+        if (a < 60) return right ? ManeuverType.SLIGHT_RIGHT : ManeuverType.SLIGHT_LEFT;
+        if (a < 135) return right ? ManeuverType.RIGHT : ManeuverType.LEFT;
+        if (a < 170) return right ? ManeuverType.SHARP_RIGHT : ManeuverType.SHARP_LEFT;
+        return ManeuverType.U_TURN;
+    }
+
+    private double toX(double lon) {
+        return Math.toRadians(lon - originLon) * EARTH_RADIUS_M * cosLat;
+    }
+
+    private double toY(double lat) {
+        return Math.toRadians(lat - originLat) * EARTH_RADIUS_M;
+    }
+
+    /**
+     * Format a distance the way the guidance banner shows it
+     */
+    public static String formatDistance(double meters) {
+        if (meters < 1000) {
+            return String.format(Locale.US, "%d m", (int) (Math.round(meters / 10) * 10));
+        }
+        return String.format(Locale.US, "%.1f km", meters / 1000);
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Metrics - Process-wide counters and latency histograms
+ *
+ * Counters and histograms are registered once by name (usually into a
+ * static final field of the class that records them) and then updated
+ * without locks from any thread. A histogram keeps log-linear buckets in a
+ * primitive atomic array, HDR style: 16 buckets per power of two, so any
+ * recorded latency from 1 us to hours is kept within ~6% and percentiles
+ * can be read at any time without stopping writers.
+ *
+ * Recording is off by default. While off, start() returns 0 and every
+ * update returns after one volatile read, so instrumented code costs next
+ * to nothing until the debug overlay or an export turns recording on.
+ *
+ * Typical use:
+ *   long t0 = Metrics.start();
+ *   ...
+ *   ROUTE_TIME.stop(t0);
+ */
+package com.example.offlinenav;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class Metrics {
+
+    private static final int SUB_BUCKET_BITS = 5;                 // 32 exact values below 32 us
+    private static final int HALF = 1 << (SUB_BUCKET_BITS - 1);   // Buckets per power of two above that
+    private static final int MAX_EXPONENT = 32;                   // Values up to 2^36 us (~19 h)
+    private static final int BUCKETS = (MAX_EXPONENT + 2) * HALF;
+
+    private static volatile boolean enabled;
+    private static final List<Counter> counters = new ArrayList<>();
+    private static final List<Histogram> histograms = new ArrayList<>();
+
+    private Metrics() {}
+
+    /**
+     * A monotonically increasing count
+     */
+    public static final class Counter {
+        public final String name;
+        private final AtomicLong value = new AtomicLong();
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        public void inc() {
+            if (enabled) value.incrementAndGet();
+        }
+
+        public void add(long n) {
+            if (enabled) value.addAndGet(n);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * Latency distribution in microseconds
+     */
+    public static final class Histogram {
+        public final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sumUs = new AtomicLong();
+        private final AtomicLong maxUs = new AtomicLong();
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Record the time since a start() timestamp
+         *
+         * @param startNs Value returned by Metrics.start(); 0 (recording was off) is ignored
+         */
+        public void stop(long startNs) {
+            if (startNs != 0 && enabled) recordUs((System.nanoTime() - startNs) / 1000);
+        }
+
+        public void recordUs(long us) {
+            if (!enabled) return;
+            if (us < 0) us = 0;
+            buckets.incrementAndGet(bucketOf(us));
+            count.incrementAndGet();
+            sumUs.addAndGet(us);
+            long max;
+            while (us > (max = maxUs.get()) && !maxUs.compareAndSet(max, us)) {
+                // Lost a race with another writer; retry against the new max
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getMaxUs() {
+            return maxUs.get();
+        }
+
+        public double getMeanUs() {
+            long n = count.get();
+            return n > 0 ? (double) sumUs.get() / n : 0;
+        }
+
+        /**
+         * @param percent 0..100
+         * @return Upper bound of the bucket holding that percentile, 0 if nothing was recorded
+         */
+        public long percentileUs(double percent) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percent / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return Math.min(upperBoundOf(i), maxUs.get());
+            }
+            return maxUs.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+            count.set(0);
+            sumUs.set(0);
+            maxUs.set(0);
+        }
+    }
+
+    public static synchronized Counter counter(String name) {
+        for (Counter c : counters) {
+            if (c.name.equals(name)) return c;
+        }
+        Counter c = new Counter(name);
+        counters.add(c);
+        return c;
+    }
+
+    public static synchronized Histogram histogram(String name) {
+        for (Histogram h : histograms) {
+            if (h.name.equals(name)) return h;
+        }
+        Histogram h = new Histogram(name);
+        histograms.add(h);
+        return h;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * @return A start timestamp for Histogram.stop(), or 0 while recording is off
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public static synchronized List<Counter> getCounters() {
+        return new ArrayList<>(counters);
+    }
+
+    public static synchronized List<Histogram> getHistograms() {
+        return new ArrayList<>(histograms);
+    }
+
+    /**
+     * Zero every counter and histogram; values recorded concurrently may survive
+     */
+    public static synchronized void reset() {
+        for (Counter c : counters) c.value.set(0);
+        for (Histogram h : histograms) h.reset();
+    }
+
+    /**
+     * Snapshot of all metrics as a JSON object
+     *
+     * @param timeMs Wall-clock time of the snapshot
+     */
+    public static String toJson(long timeMs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"timeMs\":").append(timeMs).append(",\"enabled\":").append(enabled).append(",\"counters\":{");
+        List<Counter> cs = getCounters();
+        for (int i = 0; i < cs.size(); i++) {
+            sb.append(i == 0 ? "" : ",").append('"').append(cs.get(i).name).append("\":").append(cs.get(i).get());
+        }
+        sb.append("},\"histograms\":{");
+        List<Histogram> hs = getHistograms();
+        for (int i = 0; i < hs.size(); i++) {
+            Histogram h = hs.get(i);
+            sb.append(i == 0 ? "" : ",").append('"').append(h.name).append("\":")
+                    .append(String.format(Locale.US,
+                            "{\"count\":%d,\"meanUs\":%.1f,\"p50Us\":%d,\"p90Us\":%d,\"p99Us\":%d,\"maxUs\":%d}",
+                            h.getCount(), h.getMeanUs(), h.percentileUs(50), h.percentileUs(90),
+                            h.percentileUs(99), h.getMaxUs()));
+        }
+        return sb.append("}}").toString();
+    }
+
+    static int bucketOf(long us) {
+        if (us < 2 * HALF) return (int) us;
+        int exponent = 64 - Long.numberOfLeadingZeros(us) - SUB_BUCKET_BITS;
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        return exponent * HALF + (int) (us >> exponent);
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < 2 * HALF) return bucket;
+        int exponent = bucket / HALF - 1;
+        long lower = (long) (bucket - exponent * HALF) << exponent;
+        return lower + (1L << exponent) - 1;
+    }
+}
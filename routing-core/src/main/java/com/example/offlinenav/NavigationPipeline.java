@@ -0,0 +1,133 @@
+/**
+ * NavigationPipeline - What happens to each location fix while a route is followed
+ *
+ * Wraps the active route's GuidanceEngine and decides when going off route
+ * should trigger a re-route. GuidanceEngine reports off-route on every fix
+ * once the driver has left the route, so re-routes are rate-limited by fix
+ * time: at most one per REROUTE_INTERVAL_MS. Using fix time rather than the
+ * wall clock keeps a replayed trace deterministic at any replay speed.
+ *
+ * The pipeline never routes itself. It asks its Listener, which may route
+ * synchronously (the headless replay) or in the background (the service)
+ * and installs the result with setRoute().
+ *
+ * Not thread-safe: feed fixes and set routes from one thread.
+ */
+package com.example.offlinenav;
+
+public class NavigationPipeline {
+
+    public static final long REROUTE_INTERVAL_MS = 15_000;
+
+    private static final Metrics.Histogram UPDATE_TIME = Metrics.histogram("guidance.update");
+    private static final Metrics.Counter OFF_ROUTE = Metrics.counter("guidance.off_route");
+    private static final Metrics.Counter REROUTES = Metrics.counter("route.reroute");
+
+    /**
+     * Guidance events plus re-route requests, on the thread that calls onFix()
+     */
+    public interface Listener extends GuidanceEngine.Listener {
+        /**
+         * Route again from the given fix to the destination, then call setRoute()
+         */
+        void onRerouteNeeded(double lat, double lon, long timeMs);
+    }
+
+    private final Listener listener;
+    private GuidanceEngine guidance;                  // Null while no route is followed
+
+    // Latest fix, for the re-route request raised inside GuidanceEngine.update()
+    private double fixLat, fixLon;
+    private long fixTimeMs;
+    private long lastRerouteMs = Long.MIN_VALUE / 2;
+
+    // Totals since construction
+    private long fixes, offRouteFixes, reroutes;
+
+    public NavigationPipeline(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Start (or replace) the route being followed
+     *
+     * @see GuidanceEngine#GuidanceEngine(double[], double[], String[], String[], double, GuidanceEngine.Listener)
+     */
+    public void setRoute(double[] lats, double[] lons, String[] names, String[] exits, double durationS) {
+        guidance = new GuidanceEngine(lats, lons, names, exits, durationS, guidanceListener);
+    }
+
+    public void clearRoute() {
+        guidance = null;
+    }
+
+    public boolean isActive() {
+        return guidance != null;
+    }
+
+    /**
+     * @return Guidance for the current route, or null
+     */
+    public GuidanceEngine getGuidance() {
+        return guidance;
+    }
+
+    /**
+     * Feed one location fix
+     *
+     * @see GuidanceEngine#update(double, double, float, float, long)
+     */
+    public void onFix(double lat, double lon, float accuracyM, float speedMps, long timeMs) {
+        fixes++;
+        if (guidance == null) return;
+        fixLat = lat;
+        fixLon = lon;
+        fixTimeMs = timeMs;
+        long t0 = Metrics.start();
+        guidance.update(lat, lon, accuracyM, speedMps, timeMs);
+        UPDATE_TIME.stop(t0);
+    }
+
+    public long getFixCount() {
+        return fixes;
+    }
+
+    public long getOffRouteCount() {
+        return offRouteFixes;
+    }
+
+    public long getRerouteCount() {
+        return reroutes;
+    }
+
+    private final GuidanceEngine.Listener guidanceListener = new GuidanceEngine.Listener() {
+        @Override
+        public void onManeuverUpdate(GuidanceEngine.Maneuver next, double distanceToManeuverM) {
+            listener.onManeuverUpdate(next, distanceToManeuverM);
+        }
+
+        @Override
+        public void onProgress(double remainingM, double remainingS) {
+            listener.onProgress(remainingM, remainingS);
+        }
+
+        @Override
+        public void onOffRoute(double deviationM) {
+            offRouteFixes++;
+            OFF_ROUTE.inc();
+            listener.onOffRoute(deviationM);
+            if (guidance != null && fixTimeMs - lastRerouteMs >= REROUTE_INTERVAL_MS) {
+                lastRerouteMs = fixTimeMs;
+                reroutes++;
+                REROUTES.inc();
+                listener.onRerouteNeeded(fixLat, fixLon, fixTimeMs);
+            }
+        }
+
+        @Override
+        public void onArrived() {
+            guidance = null;
+            listener.onArrived();
+        }
+    };
+}
@@ -0,0 +1,525 @@
+/**
+ * OfflineRouter - A* route search over the offline RoadGraph
+ *
+ * Edge weights are expected travel times from SpeedProfiles at the hour of the
+ * week in which the edge is reached, so the same query gives a different
+ * (and more honest) route and ETA at rush hour than at night. Without learned
+ * profiles this degrades to free-flow speeds from the graph.
+ *
+ * routeToMany() answers "from here to each of these places" with a single
+ * Dijkstra search that stops once every target is settled, which is far
+ * cheaper than one A* query per target.
+ *
+ * Both searches are turn-aware. Restricted turns from the graph's turn
+ * table are never taken, and a U-turn costs U_TURN_S. Around restricted
+ * nodes the search is edge-based: a node has one state per incoming edge,
+ * so a car that may not turn left can go straight, U-turn and come back.
+ * Everywhere else a node keeps a single state, reached through its best
+ * incoming edge, as in a plain node-based search. This keeps the number of
+ * settled states, and so the query time and memory, close to a node-based
+ * search. The line graph is never built.
+ *
+ * Queries run for the router's RoutingProfile: edges the profile may not
+ * use are skipped (also when snapping), and its speeds come from the
+ * graph's per-profile speed bytes, slowed to the learned traffic speed for
+ * vehicles. Only cars use learned speeds as they are. setProfile() takes
+ * effect with the next query; nothing is reloaded.
+ *
+ * Search state (distances, predecessor states, heap) is allocated once per
+ * router and reset through a touched-state list, so a query allocates only
+ * its result. Not thread-safe: use one router per thread.
+ */
+package com.example.offlinenav;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+public class OfflineRouter {
+
+    /**
+     * A computed offline route
+     */
+    public static class Route {
+        public double[] lats, lons;   // Polyline from snapped start to snapped end
+        public String[] names;        // Street name of the road starting at each point (null = unnamed)
+        public int[] edges;           // Traversed directed edges, in order (null from PartitionedRouter)
+        public double distanceM;
+        public double durationS;
+        public int settledNodes;      // Search effort (settled search states), for diagnostics
+        public RoutingProfile profile;
+        public boolean learnedSpeeds; // Durations use learned traffic speeds (false: free-flow)
+    }
+
+    private static final double SNAP_RADIUS_M = 500;
+    static final double U_TURN_S = 60;                       // Turning back the way we came
+
+    private final RoadGraph graph;
+    private volatile SpeedProfiles profiles;
+    private volatile RoutingProfile profile = RoutingProfile.CAR;
+    private final TimeZone zone;
+    private RoutingProfile queryProfile;                     // Profile of the running query
+
+    // Reusable search state, indexed by RoadGraph search state
+    private final double[] dist;
+    private final int[] inEdge;                              // Edge the state was reached through
+    private final int[] prevState;                           // Previous state on the path, -1 at the start
+    private final int[] touched;
+    private int touchedCount = 0;
+    private int[] heapStates = new int[1024];
+    private double[] heapKeys = new double[1024];
+    private int heapSize = 0;
+    private final RoadGraph.Snap fromSnap = new RoadGraph.Snap();
+    private final RoadGraph.Snap toSnap = new RoadGraph.Snap();
+
+    public OfflineRouter(SpeedProfiles profiles, TimeZone zone) {
+        this.graph = profiles.getGraph();
+        this.profiles = profiles;
+        this.zone = zone;
+        int states = graph.getSearchStateCount();
+        dist = new double[states];
+        inEdge = new int[states];
+        prevState = new int[states];
+        touched = new int[states];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Swap in newer profiles (e.g. after the learner ran); safe between queries
+     */
+    public void setProfiles(SpeedProfiles profiles) {
+        this.profiles = profiles;
+    }
+
+    /**
+     * Switch the travel mode for later queries; safe between queries
+     */
+    public void setProfile(RoutingProfile profile) {
+        this.profile = profile;
+    }
+
+    public RoutingProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Compute the fastest route between two coordinates
+     *
+     * @param fromLat Start latitude
+     * @param fromLon Start longitude
+     * @param toLat End latitude
+     * @param toLon End longitude
+     * @param departureMs Departure time, selects the hour-of-week speeds
+     * @return The route, or null if either end is off the graph or unreachable
+     */
+    public Route route(double fromLat, double fromLon, double toLat, double toLon, long departureMs) {
+        queryProfile = profile;
+        if (!graph.snap(fromLat, fromLon, SNAP_RADIUS_M, Double.NaN, queryProfile, fromSnap)
+                || !graph.snap(toLat, toLon, SNAP_RADIUS_M, Double.NaN, queryProfile, toSnap)) {
+            return null;
+        }
+        SpeedProfiles p = profiles;
+        int departHour = SpeedProfiles.hourOfWeek(departureMs, zone);
+        double departSecondOfHour = ((departureMs + zone.getOffset(departureMs)) % 3_600_000L + 3_600_000L) % 3_600_000L / 1000.0;
+
+        int startEdge = fromSnap.edge;
+        int endEdge = toSnap.edge;
+        double startEdgeTime = travelTimeS(p, startEdge, departHour);
+        double endEdgeTime = travelTimeS(p, endEdge, departHour);
+        int endFrom = graph.getEdgeSource(endEdge);
+        int endTo = graph.getEdgeTarget(endEdge);
+        int endReverse = reverseEdge(endEdge);
+
+        // Start and end on the same edge, end ahead of start: no search needed
+        if (startEdge == endEdge && toSnap.fraction >= fromSnap.fraction) {
+            return sameEdgeRoute(startEdge, fromSnap, toSnap, startEdgeTime, toSnap.fraction - fromSnap.fraction);
+        }
+        // End behind start on a two-way road: drive straight back along it
+        int startReverse = reverseEdge(startEdge);
+        if (startEdge == endEdge && startReverse >= 0) {
+            return sameEdgeRoute(startReverse, fromSnap, toSnap, startEdgeTime, fromSnap.fraction - toSnap.fraction);
+        }
+
+        resetSearch();
+        // Upper bound on any edge speed keeps the heuristic admissible; it aims at the
+        // snapped end, since the raw query point may lie up to SNAP_RADIUS_M off the road
+        double vmax = Math.max(1, queryProfile == RoutingProfile.CAR
+                ? p.getMaxSpeedKmh() : graph.getMaxSpeedKmh(queryProfile)) / 3.6;
+        relax(startEdge, startEdgeTime * (1 - fromSnap.fraction), -1, toSnap.lat, toSnap.lon, vmax);
+        if (startReverse >= 0) {
+            // Two-way road: we may also leave through the edge's source node
+            relax(startReverse, startEdgeTime * fromSnap.fraction, -1, toSnap.lat, toSnap.lon, vmax);
+        }
+
+        double best = Double.POSITIVE_INFINITY;
+        int bestState = -1;
+        boolean bestViaReverse = false;
+        int settled = 0;
+        boolean vehicle = queryProfile.isVehicle();
+
+        while (heapSize > 0) {
+            double key = heapKeys[0];
+            int state = popMin();
+            if (key >= best) break;
+            int u = graph.searchStateNode(state);
+            int in = inEdge[state];
+            double du = dist[state];
+            if (key > du + heuristic(u, toSnap.lat, toSnap.lon, vmax) + 1e-9) continue;  // Stale heap entry
+            settled++;
+            int turns = vehicle && graph.hasTurnCosts(u) ? graph.firstTurn(in) : -1;
+
+            // Finishing candidates along the end edge
+            if (u == endFrom) {
+                double total = du + turnCostS(in, endEdge, turns) + endEdgeTime * toSnap.fraction;
+                if (total < best) { best = total; bestState = state; bestViaReverse = false; }
+            }
+            if (u == endTo && endReverse >= 0) {
+                double total = du + turnCostS(in, endReverse, turns) + endEdgeTime * (1 - toSnap.fraction);
+                if (total < best) { best = total; bestState = state; bestViaReverse = true; }
+            }
+
+            int hour = (int) ((departHour + (long) ((departSecondOfHour + du) / 3600)) % SpeedProfiles.HOURS_PER_WEEK);
+            for (int e = graph.firstEdge[u]; e < graph.firstEdge[u + 1]; e++) {
+                if (!graph.allows(queryProfile, e)) continue;
+                double turn = turnCostS(in, e, turns);
+                if (turn == Double.POSITIVE_INFINITY) continue;
+                relax(e, du + turn + travelTimeS(p, e, hour), state, toSnap.lat, toSnap.lon, vmax);
+            }
+        }
+
+        if (bestState < 0) {
+            return null;
+        }
+        Route r = buildRoute(bestState, bestViaReverse ? endReverse : endEdge, toSnap);
+        r.durationS = best;
+        r.settledNodes = settled;
+        return r;
+    }
+
+    /**
+     * Compute the fastest routes from one start to many destinations with one search
+     *
+     * Runs time-dependent Dijkstra from the start until every destination's
+     * best arrival is final or maxSettled nodes have been settled, whichever
+     * comes first. Routes are exact for the destinations reached within the
+     * budget.
+     *
+     * @param toLats Destination latitudes
+     * @param toLons Destination longitudes
+     * @param departureMs Departure time, selects the hour-of-week speeds
+     * @param maxSettled Search budget in settled nodes
+     * @return One route per destination, null where off the graph, unreachable or over budget
+     */
+    public Route[] routeToMany(double fromLat, double fromLon, double[] toLats, double[] toLons,
+                               long departureMs, int maxSettled) {
+        int n = toLats.length;
+        Route[] routes = new Route[n];
+        queryProfile = profile;
+        if (!graph.snap(fromLat, fromLon, SNAP_RADIUS_M, Double.NaN, queryProfile, fromSnap)) {
+            return routes;
+        }
+        SpeedProfiles p = profiles;
+        int departHour = SpeedProfiles.hourOfWeek(departureMs, zone);
+        double departSecondOfHour = ((departureMs + zone.getOffset(departureMs)) % 3_600_000L + 3_600_000L) % 3_600_000L / 1000.0;
+        int startEdge = fromSnap.edge;
+        double startEdgeTime = travelTimeS(p, startEdge, departHour);
+        boolean vehicle = queryProfile.isVehicle();
+
+        // Per destination: snapped end edge and best arrival found so far
+        RoadGraph.Snap[] ends = new RoadGraph.Snap[n];
+        int[] endReverse = new int[n];
+        double[] endEdgeTime = new double[n];
+        double[] best = new double[n];
+        int[] bestState = new int[n];
+        boolean[] bestViaReverse = new boolean[n];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        Arrays.fill(bestState, -1);
+
+        // Sorted (node, destination) pairs for the nodes at either end of each end edge
+        long[] endpoints = new long[2 * n];
+        int endpointCount = 0;
+        int pending = 0;
+        for (int t = 0; t < n; t++) {
+            RoadGraph.Snap end = new RoadGraph.Snap();
+            if (!graph.snap(toLats[t], toLons[t], SNAP_RADIUS_M, Double.NaN, queryProfile, end)) continue;
+            ends[t] = end;
+            endReverse[t] = reverseEdge(end.edge);
+            endEdgeTime[t] = travelTimeS(p, end.edge, departHour);
+            if (end.edge == startEdge && end.fraction >= fromSnap.fraction) {
+                // Ahead on the start edge: no search needed
+                routes[t] = sameEdgeRoute(startEdge, fromSnap, end, startEdgeTime, end.fraction - fromSnap.fraction);
+                continue;
+            }
+            if (end.edge == startEdge && endReverse[t] >= 0) {
+                // Behind on a two-way start edge
+                routes[t] = sameEdgeRoute(endReverse[t], fromSnap, end, startEdgeTime, fromSnap.fraction - end.fraction);
+                continue;
+            }
+            endpoints[endpointCount++] = ((long) graph.getEdgeSource(end.edge) << 32) | t;
+            if (endReverse[t] >= 0) {
+                endpoints[endpointCount++] = ((long) graph.getEdgeTarget(end.edge) << 32) | t;
+            }
+            pending++;
+        }
+        if (pending == 0) return routes;
+        Arrays.sort(endpoints, 0, endpointCount);
+
+        resetSearch();
+        double noHeuristic = Double.POSITIVE_INFINITY;
+        relax(startEdge, startEdgeTime * (1 - fromSnap.fraction), -1, 0, 0, noHeuristic);
+        int startReverse = reverseEdge(startEdge);
+        if (startReverse >= 0) {
+            relax(startReverse, startEdgeTime * fromSnap.fraction, -1, 0, 0, noHeuristic);
+        }
+
+        double worstBest = Double.POSITIVE_INFINITY;   // Max of best[] over pending destinations
+        int settled = 0;
+        while (heapSize > 0 && settled < maxSettled) {
+            double key = heapKeys[0];
+            int state = popMin();
+            if (key >= worstBest) break;               // Every pending destination is final
+            int u = graph.searchStateNode(state);
+            int in = inEdge[state];
+            double du = dist[state];
+            if (key > du + 1e-9) continue;             // Stale heap entry
+            settled++;
+            int turns = vehicle && graph.hasTurnCosts(u) ? graph.firstTurn(in) : -1;
+
+            // Finishing candidates: destinations whose end edge touches u
+            int i = lowerBound(endpoints, endpointCount, (long) u << 32);
+            boolean improved = false;
+            for (; i < endpointCount && (int) (endpoints[i] >>> 32) == u; i++) {
+                int t = (int) endpoints[i];
+                RoadGraph.Snap end = ends[t];
+                boolean viaReverse = u != graph.getEdgeSource(end.edge);
+                double total = du + turnCostS(in, viaReverse ? endReverse[t] : end.edge, turns)
+                        + endEdgeTime[t] * (viaReverse ? 1 - end.fraction : end.fraction);
+                if (total < best[t]) {
+                    best[t] = total;
+                    bestState[t] = state;
+                    bestViaReverse[t] = viaReverse;
+                    improved = true;
+                }
+            }
+            if (improved) {
+                worstBest = 0;
+                for (int t = 0; t < n; t++) {
+                    if (ends[t] != null && routes[t] == null) worstBest = Math.max(worstBest, best[t]);
+                }
+            }
+
+            int hour = (int) ((departHour + (long) ((departSecondOfHour + du) / 3600)) % SpeedProfiles.HOURS_PER_WEEK);
+            for (int e = graph.firstEdge[u]; e < graph.firstEdge[u + 1]; e++) {
+                if (!graph.allows(queryProfile, e)) continue;
+                double turn = turnCostS(in, e, turns);
+                if (turn == Double.POSITIVE_INFINITY) continue;
+                relax(e, du + turn + travelTimeS(p, e, hour), state, 0, 0, noHeuristic);
+            }
+        }
+
+        // Arrivals no later than the last settled key are final
+        double settledUpTo = heapSize > 0 ? heapKeys[0] : Double.POSITIVE_INFINITY;
+        for (int t = 0; t < n; t++) {
+            if (routes[t] != null || bestState[t] < 0 || best[t] > settledUpTo) continue;
+            Route r = buildRoute(bestState[t], bestViaReverse[t] ? endReverse[t] : ends[t].edge, ends[t]);
+            r.durationS = best[t];
+            r.settledNodes = settled;
+            routes[t] = r;
+        }
+        return routes;
+    }
+
+    private static int lowerBound(long[] sorted, int count, long key) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Cost of a turn at the node between two edges
+     *
+     * @param turns First turn table entry of the incoming edge, or -1 if the node has none or
+     *              the query is on foot
+     * @return Seconds, POSITIVE_INFINITY if the turn is forbidden
+     */
+    private double turnCostS(int in, int out, int turns) {
+        if (!queryProfile.isVehicle()) return 0;
+        double cost = graph.edgeTarget[out] == graph.edgeSource[in] ? U_TURN_S : 0;
+        if (turns >= 0) {
+            for (int i = turns; i < graph.turnFrom.length && graph.turnFrom[i] == in; i++) {
+                if (graph.turnTo[i] == out) {
+                    int c = graph.turnCost[i] & 0xFF;
+                    return c == RoadGraph.TURN_FORBIDDEN ? Double.POSITIVE_INFINITY : cost + c;
+                }
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Expected time to traverse a whole edge in the query's profile
+     *
+     * @return Seconds
+     */
+    private double travelTimeS(SpeedProfiles p, int edge, int hourOfWeek) {
+        if (queryProfile == RoutingProfile.CAR) return p.travelTimeS(edge, hourOfWeek);
+        int speed = graph.getEdgeSpeedKmh(edge, queryProfile);
+        if (queryProfile.isVehicle()) speed = Math.min(speed, p.speedKmh(edge, hourOfWeek));
+        return graph.getEdgeLengthM(edge) * 3.6 / Math.max(1, speed);
+    }
+
+    /**
+     * Route between two points on one edge, travelled in the direction of the given edge
+     */
+    private Route sameEdgeRoute(int edge, RoadGraph.Snap from, RoadGraph.Snap to, double edgeTimeS, double fraction) {
+        Route r = new Route();
+        r.lats = new double[]{from.lat, to.lat};
+        r.lons = new double[]{from.lon, to.lon};
+        r.names = new String[]{graph.getEdgeName(edge), null};
+        r.edges = new int[]{edge};
+        r.distanceM = graph.getEdgeLengthM(edge) * fraction;
+        r.durationS = edgeTimeS * fraction;
+        r.profile = queryProfile;
+        r.learnedSpeeds = queryProfile.isVehicle();
+        return r;
+    }
+
+    /**
+     * Assemble the polyline from the predecessor states
+     */
+    private Route buildRoute(int lastState, int finalEdge, RoadGraph.Snap end) {
+        int count = 0;
+        for (int s = lastState; prevState[s] >= 0; s = prevState[s]) {
+            count++;
+        }
+        int[] pathEdges = new int[count];
+        int firstState = lastState;
+        for (int i = count - 1; i >= 0; i--) {
+            pathEdges[i] = inEdge[firstState];
+            firstState = prevState[firstState];
+        }
+        int startEdge = inEdge[firstState];                // The snapped edge, partly travelled
+        int firstNode = graph.getEdgeTarget(startEdge);
+
+        int points = count + 3;   // snapped start, first node, path nodes, snapped end
+        Route r = new Route();
+        r.lats = new double[points];
+        r.lons = new double[points];
+        r.names = new String[points];
+        r.edges = new int[count + 2];
+
+        r.lats[0] = fromSnap.lat;
+        r.lons[0] = fromSnap.lon;
+        r.names[0] = graph.getEdgeName(fromSnap.edge);
+        boolean forward = startEdge == fromSnap.edge;
+        r.edges[0] = startEdge;
+        double distance = graph.getEdgeLengthM(fromSnap.edge) * (forward ? 1 - fromSnap.fraction : fromSnap.fraction);
+
+        int node = firstNode;
+        for (int i = 0; i <= count; i++) {
+            r.lats[i + 1] = graph.getLatitude(node);
+            r.lons[i + 1] = graph.getLongitude(node);
+            int next = i < count ? pathEdges[i] : finalEdge;
+            r.names[i + 1] = graph.getEdgeName(next);
+            r.edges[i + 1] = next;
+            if (i < count) {
+                distance += graph.getEdgeLengthM(next);
+                node = graph.getEdgeTarget(next);
+            }
+        }
+        double endFraction = finalEdge == end.edge ? end.fraction : 1 - end.fraction;
+        distance += graph.getEdgeLengthM(finalEdge) * endFraction;
+
+        r.lats[points - 1] = end.lat;
+        r.lons[points - 1] = end.lon;
+        r.distanceM = distance;
+        r.profile = queryProfile;
+        r.learnedSpeeds = queryProfile.isVehicle();
+        return r;
+    }
+
+    /**
+     * Reach the target of an edge through it
+     *
+     * @param prev Previous state, -1 for a start state
+     */
+    private void relax(int edge, double d, int prev, double toLat, double toLon, double vmax) {
+        int state = graph.searchStateOf(edge);
+        if (d >= dist[state]) return;
+        if (dist[state] == Double.POSITIVE_INFINITY) {
+            touched[touchedCount++] = state;
+        }
+        dist[state] = d;
+        inEdge[state] = edge;
+        prevState[state] = prev;
+        push(state, d + heuristic(graph.edgeTarget[edge], toLat, toLon, vmax));
+    }
+
+    /**
+     * Lower bound on the remaining time to the snapped end point
+     */
+    private double heuristic(int node, double toLat, double toLon, double vmax) {
+        if (vmax == Double.POSITIVE_INFINITY) return 0;   // Plain Dijkstra
+        return RoadGraph.distanceM(graph.getLatitude(node), graph.getLongitude(node), toLat, toLon) / vmax;
+    }
+
+    /**
+     * @return The opposite-direction edge of a road that is two-way for the query's profile, or -1
+     */
+    private int reverseEdge(int edge) {
+        int from = graph.getEdgeSource(edge);
+        int to = graph.getEdgeTarget(edge);
+        for (int e = graph.firstEdge[to]; e < graph.firstEdge[to + 1]; e++) {
+            if (graph.edgeTarget[e] == from && graph.allows(queryProfile, e)) return e;
+        }
+        return -1;
+    }
+
+    private void resetSearch() {
+        for (int i = 0; i < touchedCount; i++) {
+            dist[touched[i]] = Double.POSITIVE_INFINITY;
+        }
+        touchedCount = 0;
+        heapSize = 0;
+    }
+
+    // Binary min-heap with lazy deletion (stale entries are skipped on pop)
+
+    private void push(int state, double key) {
+        if (heapSize == heapStates.length) {
+            heapStates = Arrays.copyOf(heapStates, heapSize * 2);
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapKeys[parent] <= key) break;
+            heapStates[i] = heapStates[parent];
+            heapKeys[i] = heapKeys[parent];
+            i = parent;
+        }
+        heapStates[i] = state;
+        heapKeys[i] = key;
+    }
+
+    private int popMin() {
+        int top = heapStates[0];
+        int lastState = heapStates[--heapSize];
+        double lastKey = heapKeys[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) child++;
+            if (heapKeys[child] >= lastKey) break;
+            heapStates[i] = heapStates[child];
+            heapKeys[i] = heapKeys[child];
+            i = child;
+        }
+        heapStates[i] = lastState;
+        heapKeys[i] = lastKey;
+        return top;
+    }
+}
@@ -0,0 +1,690 @@
+/**
+ * PartitionedGraph - Road graph split into grid cells that load on demand
+ *
+ * For coverage areas too large to keep in memory as one RoadGraph. The
+ * graph is cut along a uniform grid and every non-empty cell becomes a
+ * partition: a self-contained RoadGraph of the cell's nodes and their
+ * outgoing edges. An edge into another cell (a cut edge) ends at a ghost
+ * copy of its target, so a partition can be searched and drawn without
+ * its neighbours.
+ *
+ * A small overlay graph is always at hand. Its vertices are the boundary
+ * nodes (the ends of cut edges) and its arcs are the cut edges plus a
+ * shortcut from each entry node of a cell to each exit node of the same
+ * cell, weighted per RoutingProfile with the fastest way through the cell.
+ * A shortcut whose fastest path passes another node that is both an entry
+ * and an exit is left out; the overlay reaches the exit through that node.
+ * PartitionedRouter searches the partitions of the start and the end in
+ * full and crosses all other cells on the overlay, so a query loads those
+ * two partitions plus the ones its route passes through (to turn shortcuts
+ * back into roads). At most maxResident partitions stay loaded; the least
+ * recently used one is dropped first. The overlay's vertices are read into
+ * memory and its arcs, the bulk of it, are memory-mapped.
+ *
+ * Weights are free-flow travel times on a node-based graph: turn
+ * restrictions and learned traffic speeds stay with the single-file
+ * RoadGraph.
+ *
+ * File format (roads.parts, big-endian):
+ *   "ONPARTS" (7 bytes), version int
+ *   profileCount int, maxSpeedKmh int[profileCount]
+ *   cellSize int, minLat int, minLon int                  (1e-6 degrees)
+ *   gridRows int, gridCols int, partitionCount int
+ *   cellPartition int[gridRows * gridCols]                (-1 = empty cell)
+ *   firstNode int[partitionCount + 1]                     (global id of each partition's first own node)
+ *   partitionOffset long[partitionCount + 1]              (file position of each partition)
+ *   vertexCount int, vertexNode int[vertexCount]          (overlay vertices as global node ids, sorted)
+ *   vertexLat int[vertexCount], vertexLon int[vertexCount]
+ *   firstArc int[vertexCount + 1], arcTarget int[arcCount] (overlay arcs by source vertex; target vertex)
+ *   arcTime int[arcCount] per profile                     (deciseconds, rounded up; -1 = profile may not pass)
+ *   per partition: a graph in the roads.graph format (without turn table), ghostNode int[ghost count]
+ *
+ * In a partition, local nodes 0..ownCount-1 are the cell's own nodes, with
+ * global id firstNode + local id, and the rest are ghosts whose global ids
+ * are listed after the graph.
+ */
+package com.example.offlinenav;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class PartitionedGraph {
+
+    static final byte[] MAGIC = {'O', 'N', 'P', 'A', 'R', 'T', 'S'};
+    static final int VERSION = 1;
+    public static final double DEFAULT_CELL_DEG = 0.1;       // ~10 km cells
+    static final int NO_ACCESS = -1;                         // arcTime of a profile that may not pass
+
+    private static final Metrics.Counter LOADS = Metrics.counter("graph.partition.load");
+    private static final Metrics.Counter EVICTIONS = Metrics.counter("graph.partition.evict");
+
+    /**
+     * One loaded cell
+     */
+    static final class Partition {
+        final int index;
+        final RoadGraph graph;
+        final int firstNode;                  // Global id of local node 0
+        final int ownCount;                   // Local nodes from here on are ghosts
+        final int[] ghostNode;                // Global ids of the ghosts
+
+        Partition(int index, RoadGraph graph, int firstNode, int ownCount, int[] ghostNode) {
+            this.index = index;
+            this.graph = graph;
+            this.firstNode = firstNode;
+            this.ownCount = ownCount;
+            this.ghostNode = ghostNode;
+        }
+
+        int globalId(int local) {
+            return local < ownCount ? firstNode + local : ghostNode[local - ownCount];
+        }
+    }
+
+    private final File file;
+    private final int[] maxSpeedKmh;                         // Per RoutingProfile
+    private final double cellDeg, minLat, minLon;
+    private final int gridRows, gridCols;
+    private final int[] cellPartition;
+    final int[] firstNode;
+    private final long[] partitionOffset;
+
+    // Overlay
+    final int[] vertexNode;                                  // Sorted global node ids
+    final int[] vertexLat, vertexLon;                        // 1e-6 degrees
+    final int[] firstArc;
+    final IntBuffer arcTarget;                               // Mapped from the file
+    final IntBuffer[] arcTime;                               // RoutingProfile ordinal -> deciseconds per arc, mapped
+
+    private final int maxResident;
+    private final LinkedHashMap<Integer, Partition> resident;
+
+    private PartitionedGraph(File file, DataInputStream in, FileChannel channel, int maxResident) throws IOException {
+        this.file = file;
+        this.maxResident = maxResident;
+        for (byte b : MAGIC) {
+            if (in.readByte() != b) throw new IOException("Not a partitioned road graph: " + file);
+        }
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported partitioned graph version " + version);
+        int profiles = in.readInt();
+        if (profiles < 1) throw new IOException("Corrupt partitioned graph: " + profiles + " profiles");
+        int[] speeds = RoadGraph.readInts(in, profiles);
+        maxSpeedKmh = new int[RoutingProfile.values().length];
+        for (RoutingProfile p : RoutingProfile.values()) {
+            maxSpeedKmh[p.ordinal()] = p.ordinal() < profiles ? speeds[p.ordinal()] : 0;
+        }
+        cellDeg = in.readInt() / RoadGraph.COORD_SCALE;
+        minLat = in.readInt() / RoadGraph.COORD_SCALE;
+        minLon = in.readInt() / RoadGraph.COORD_SCALE;
+        gridRows = in.readInt();
+        gridCols = in.readInt();
+        int partitions = in.readInt();
+        cellPartition = RoadGraph.readInts(in, gridRows * gridCols);
+        firstNode = RoadGraph.readInts(in, partitions + 1);
+        partitionOffset = new long[partitions + 1];
+        for (int p = 0; p <= partitions; p++) {
+            partitionOffset[p] = in.readLong();
+        }
+        int vertices = in.readInt();
+        vertexNode = RoadGraph.readInts(in, vertices);
+        vertexLat = RoadGraph.readInts(in, vertices);
+        vertexLon = RoadGraph.readInts(in, vertices);
+        firstArc = RoadGraph.readInts(in, vertices + 1);
+
+        // Arcs stay in the file, mapped; a search reads those of the vertices it settles
+        long at = MAGIC.length + 4 * (3 + profiles + 6 + cellPartition.length + firstNode.length + 3 * vertices
+                + firstArc.length) + 8L * partitionOffset.length;
+        int arcs = firstArc[vertices];
+        if (at + 4L * arcs * (1 + profiles) != partitionOffset[0]) throw new IOException("Corrupt overlay in " + file);
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, at, 4L * arcs * (1 + profiles));
+        arcTarget = mapped.asIntBuffer();
+        arcTarget.limit(arcs);
+        arcTime = new IntBuffer[RoutingProfile.values().length];
+        for (int p = 0; p < arcTime.length; p++) {
+            if (p < profiles) {
+                mapped.position(4 * arcs * (1 + p));
+                arcTime[p] = mapped.slice().asIntBuffer();
+            } else {
+                // A profile newer than the file may not pass anywhere
+                int[] none = new int[arcs];
+                Arrays.fill(none, NO_ACCESS);
+                arcTime[p] = IntBuffer.wrap(none);
+            }
+        }
+        resident = new LinkedHashMap<Integer, Partition>(maxResident * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Partition> eldest) {
+                if (size() <= PartitionedGraph.this.maxResident) return false;
+                EVICTIONS.inc();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Read the grid and the overlay; partitions are read when a query needs them
+     *
+     * @param file roads.parts file
+     * @param maxResident Partitions to keep loaded, at least 2 (the start's and the end's)
+     */
+    public static PartitionedGraph open(File file, int maxResident) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel();
+             DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            return new PartitionedGraph(file, in, channel, Math.max(2, maxResident));
+        }
+    }
+
+    public int getPartitionCount() {
+        return firstNode.length - 1;
+    }
+
+    /**
+     * @return Number of partitions loaded right now
+     */
+    public synchronized int getResidentCount() {
+        return resident.size();
+    }
+
+    public int getVertexCount() {
+        return vertexNode.length;
+    }
+
+    public int getArcCount() {
+        return firstArc[firstArc.length - 1];
+    }
+
+    int getMaxSpeedKmh(RoutingProfile profile) {
+        return maxSpeedKmh[profile.ordinal()];
+    }
+
+    /**
+     * A partition, read from the file unless it is still loaded
+     */
+    synchronized Partition partition(int index) throws IOException {
+        Partition p = resident.get(index);
+        if (p != null) return p;
+        byte[] bytes = new byte[(int) (partitionOffset[index + 1] - partitionOffset[index])];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(partitionOffset[index]);
+            raf.readFully(bytes);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        RoadGraph graph = RoadGraph.read(in, file + " partition " + index);
+        int own = firstNode[index + 1] - firstNode[index];
+        if (own > graph.getNodeCount()) throw new IOException("Corrupt partition " + index + " in " + file);
+        p = new Partition(index, graph, firstNode[index], own, RoadGraph.readInts(in, graph.getNodeCount() - own));
+        LOADS.inc();
+        resident.put(index, p);
+        return p;
+    }
+
+    /**
+     * @return Partition of the grid cell containing the coordinate, or -1 if the cell is empty or outside
+     */
+    int partitionAt(double lat, double lon) {
+        return partitionAt((int) Math.floor((lat - minLat) / cellDeg), (int) Math.floor((lon - minLon) / cellDeg));
+    }
+
+    int partitionAt(int row, int col) {
+        if (row < 0 || row >= gridRows || col < 0 || col >= gridCols) return -1;
+        return cellPartition[row * gridCols + col];
+    }
+
+    int cellRow(double lat) {
+        return (int) Math.floor((lat - minLat) / cellDeg);
+    }
+
+    int cellCol(double lon) {
+        return (int) Math.floor((lon - minLon) / cellDeg);
+    }
+
+    double getCellDeg() {
+        return cellDeg;
+    }
+
+    /**
+     * @return Southern edge of a grid row in degrees
+     */
+    double cellSouth(int row) {
+        return minLat + row * cellDeg;
+    }
+
+    /**
+     * @return Western edge of a grid column in degrees
+     */
+    double cellWest(int col) {
+        return minLon + col * cellDeg;
+    }
+
+    /**
+     * @return Partition that owns a global node id
+     */
+    int partitionOf(int node) {
+        int lo = 0, hi = firstNode.length - 2;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstNode[mid] <= node) lo = mid; else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * @return Overlay vertex of a global node id, or a negative value if it is not on a cell boundary
+     */
+    int vertexOf(int node) {
+        return Arrays.binarySearch(vertexNode, node);
+    }
+
+    /**
+     * Free-flow time to traverse an edge of a partition
+     *
+     * @return Seconds
+     */
+    static double travelTimeS(RoadGraph graph, int edge, RoutingProfile profile) {
+        return graph.getEdgeLengthM(edge) * 3.6 / Math.max(1, graph.getEdgeSpeedKmh(edge, profile));
+    }
+
+    /**
+     * Partition a graph and write it in the roads.parts format
+     *
+     * @param cellDeg Cell size in degrees
+     */
+    public static void write(RoadGraph graph, double cellDeg, File file) throws IOException {
+        int n = graph.getNodeCount();
+        int cellE6 = (int) Math.round(cellDeg * RoadGraph.COORD_SCALE);
+        int minLatE6 = 0, minLonE6 = 0, rows = 1, cols = 1;
+        if (n > 0) {
+            int maxLatE6 = Integer.MIN_VALUE, maxLonE6 = Integer.MIN_VALUE;
+            minLatE6 = Integer.MAX_VALUE;
+            minLonE6 = Integer.MAX_VALUE;
+            for (int v = 0; v < n; v++) {
+                minLatE6 = Math.min(minLatE6, graph.nodeLat[v]);
+                minLonE6 = Math.min(minLonE6, graph.nodeLon[v]);
+                maxLatE6 = Math.max(maxLatE6, graph.nodeLat[v]);
+                maxLonE6 = Math.max(maxLonE6, graph.nodeLon[v]);
+            }
+            rows = (maxLatE6 - minLatE6) / cellE6 + 1;
+            cols = (maxLonE6 - minLonE6) / cellE6 + 1;
+        }
+
+        // Non-empty cells become partitions in row-major order
+        int[] cellPartition = new int[rows * cols];
+        Arrays.fill(cellPartition, -1);
+        int[] part = new int[n];
+        for (int v = 0; v < n; v++) {
+            part[v] = (graph.nodeLat[v] - minLatE6) / cellE6 * cols + (graph.nodeLon[v] - minLonE6) / cellE6;
+            cellPartition[part[v]] = 0;
+        }
+        int partitions = 0;
+        for (int c = 0; c < cellPartition.length; c++) {
+            if (cellPartition[c] == 0) cellPartition[c] = partitions++;
+        }
+        for (int v = 0; v < n; v++) part[v] = cellPartition[part[v]];
+
+        // Global ids: the nodes of partition 0, then of partition 1, ..., each in graph order
+        int[] firstNode = new int[partitions + 1];
+        for (int v = 0; v < n; v++) firstNode[part[v] + 1]++;
+        for (int p = 0; p < partitions; p++) firstNode[p + 1] += firstNode[p];
+        int[] globalOf = new int[n];
+        int[] nodeOf = new int[n];
+        int[] cursor = Arrays.copyOf(firstNode, partitions);
+        for (int v = 0; v < n; v++) {
+            globalOf[v] = cursor[part[v]]++;
+            nodeOf[globalOf[v]] = v;
+        }
+
+        // Boundary nodes: ends of cut edges
+        boolean[] entry = new boolean[n];
+        boolean[] exit = new boolean[n];
+        for (int u = 0; u < n; u++) {
+            for (int e = graph.firstEdge[u]; e < graph.firstEdge[u + 1]; e++) {
+                int v = graph.edgeTarget[e];
+                if (part[u] != part[v]) {
+                    exit[u] = true;
+                    entry[v] = true;
+                }
+            }
+        }
+        int vertices = 0;
+        for (int v = 0; v < n; v++) {
+            if (entry[v] || exit[v]) vertices++;
+        }
+        int[] vertexNode = new int[vertices];
+        int[] vertexLat = new int[vertices];
+        int[] vertexLon = new int[vertices];
+        vertices = 0;
+        for (int g = 0; g < n; g++) {
+            int v = nodeOf[g];
+            if (!entry[v] && !exit[v]) continue;
+            vertexNode[vertices] = g;
+            vertexLat[vertices] = graph.nodeLat[v];
+            vertexLon[vertices] = graph.nodeLon[v];
+            vertices++;
+        }
+
+        // Partitions, then the overlay arcs of each partition's boundary nodes (vertices are in partition order)
+        RoutingProfile[] profiles = RoutingProfile.values();
+        ByteArrayOutputStream blobs = new ByteArrayOutputStream();
+        long[] partitionOffset = new long[partitions + 1];
+        int[] firstArc = new int[vertices + 1];
+        int[] arcTarget = new int[1024];
+        int[][] arcTime = new int[profiles.length][1024];
+        int arcs = 0;
+        int vertex = 0;
+        CellSearch search = new CellSearch();
+        for (int p = 0; p < partitions; p++) {
+            Partition partition = buildPartition(graph, p, part, firstNode, globalOf, nodeOf);
+            partitionOffset[p] = blobs.size();
+            DataOutputStream out = new DataOutputStream(blobs);
+            partition.graph.write(out);
+            RoadGraph.writeInts(out, partition.ghostNode);
+            out.flush();
+
+            RoadGraph local = partition.graph;
+            int own = partition.ownCount;
+            int[] exits = new int[own];
+            int exitCount = 0;
+            boolean[] hubs = new boolean[own];
+            for (int u = 0; u < own; u++) {
+                int v = nodeOf[firstNode[p] + u];
+                if (exit[v]) exits[exitCount++] = u;
+                hubs[u] = entry[v] && exit[v];
+            }
+            double[][] times = new double[profiles.length][exitCount];
+            boolean[] needed = new boolean[exitCount];
+            for (; vertex < vertices && vertexNode[vertex] < firstNode[p + 1]; vertex++) {
+                int u = vertexNode[vertex] - firstNode[p];
+                firstArc[vertex] = arcs;
+                if (entry[nodeOf[vertexNode[vertex]]] && exitCount > 0) {
+                    // Shortcuts to the exits of the same cell
+                    Arrays.fill(needed, false);
+                    for (RoutingProfile profile : profiles) {
+                        search.run(local, own, u, profile, -1, hubs);
+                        for (int x = 0; x < exitCount; x++) {
+                            double t = search.dist(exits[x]);
+                            times[profile.ordinal()][x] = t;
+                            needed[x] |= t < Double.POSITIVE_INFINITY && !search.through(exits[x]);
+                        }
+                    }
+                    for (int x = 0; x < exitCount; x++) {
+                        if (!needed[x] || exits[x] == u) continue;
+                        if (arcs == arcTarget.length) {
+                            arcTarget = Arrays.copyOf(arcTarget, arcs * 2);
+                            for (int q = 0; q < profiles.length; q++) arcTime[q] = Arrays.copyOf(arcTime[q], arcs * 2);
+                        }
+                        arcTarget[arcs] = Arrays.binarySearch(vertexNode, firstNode[p] + exits[x]);
+                        for (int q = 0; q < profiles.length; q++) arcTime[q][arcs] = deciseconds(times[q][x]);
+                        arcs++;
+                    }
+                }
+                // Cut edges out of the cell
+                for (int e = local.firstEdge[u]; e < local.firstEdge[u + 1]; e++) {
+                    int t = local.edgeTarget[e];
+                    if (t < own) continue;
+                    if (arcs == arcTarget.length) {
+                        arcTarget = Arrays.copyOf(arcTarget, arcs * 2);
+                        for (int q = 0; q < profiles.length; q++) arcTime[q] = Arrays.copyOf(arcTime[q], arcs * 2);
+                    }
+                    arcTarget[arcs] = Arrays.binarySearch(vertexNode, partition.ghostNode[t - own]);
+                    for (RoutingProfile profile : profiles) {
+                        arcTime[profile.ordinal()][arcs] = local.allows(profile, e)
+                                ? deciseconds(travelTimeS(local, e, profile)) : NO_ACCESS;
+                    }
+                    arcs++;
+                }
+            }
+        }
+        partitionOffset[partitions] = blobs.size();
+        firstArc[vertices] = arcs;
+
+        // Header and overlay; partition offsets are relative to the end of the header until here
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.write(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(profiles.length);
+        for (RoutingProfile profile : profiles) header.writeInt(graph.getMaxSpeedKmh(profile));
+        header.writeInt(cellE6);
+        header.writeInt(minLatE6);
+        header.writeInt(minLonE6);
+        header.writeInt(rows);
+        header.writeInt(cols);
+        header.writeInt(partitions);
+        RoadGraph.writeInts(header, cellPartition);
+        RoadGraph.writeInts(header, firstNode);
+        int offsetsAt = header.size();
+        for (int p = 0; p <= partitions; p++) header.writeLong(0);
+        header.writeInt(vertices);
+        RoadGraph.writeInts(header, vertexNode);
+        RoadGraph.writeInts(header, vertexLat);
+        RoadGraph.writeInts(header, vertexLon);
+        RoadGraph.writeInts(header, firstArc);
+        RoadGraph.writeInts(header, Arrays.copyOf(arcTarget, arcs));
+        for (int[] times : arcTime) RoadGraph.writeInts(header, Arrays.copyOf(times, arcs));
+        header.flush();
+        byte[] head = headerBytes.toByteArray();
+        for (int p = 0; p <= partitions; p++) {
+            long offset = head.length + partitionOffset[p];
+            for (int b = 0; b < 8; b++) head[offsetsAt + 8 * p + b] = (byte) (offset >>> (56 - 8 * b));
+        }
+
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            out.write(head);
+            blobs.writeTo(out);
+        }
+    }
+
+    private static int deciseconds(double seconds) {
+        return seconds == Double.POSITIVE_INFINITY ? NO_ACCESS : (int) Math.ceil(seconds * 10);
+    }
+
+    /**
+     * The cell's own nodes with their outgoing edges, and ghosts for the targets in other cells
+     */
+    private static Partition buildPartition(RoadGraph graph, int p, int[] part, int[] firstNode, int[] globalOf,
+                                            int[] nodeOf) {
+        int first = firstNode[p];
+        int own = firstNode[p + 1] - first;
+
+        // Ghosts: distinct cut edge targets, by global id
+        int[] ghosts = new int[16];
+        int ghostCount = 0;
+        int edges = 0;
+        for (int u = 0; u < own; u++) {
+            int v = nodeOf[first + u];
+            for (int e = graph.firstEdge[v]; e < graph.firstEdge[v + 1]; e++) {
+                edges++;
+                int t = graph.edgeTarget[e];
+                if (part[t] == p) continue;
+                if (ghostCount == ghosts.length) ghosts = Arrays.copyOf(ghosts, ghostCount * 2);
+                ghosts[ghostCount++] = globalOf[t];
+            }
+        }
+        Arrays.sort(ghosts, 0, ghostCount);
+        int distinct = 0;
+        for (int i = 0; i < ghostCount; i++) {
+            if (i == 0 || ghosts[i] != ghosts[i - 1]) ghosts[distinct++] = ghosts[i];
+        }
+        ghosts = Arrays.copyOf(ghosts, distinct);
+
+        int nodes = own + ghosts.length;
+        int[] lat = new int[nodes];
+        int[] lon = new int[nodes];
+        for (int l = 0; l < nodes; l++) {
+            int v = nodeOf[l < own ? first + l : ghosts[l - own]];
+            lat[l] = graph.nodeLat[v];
+            lon[l] = graph.nodeLon[v];
+        }
+        int[] firstEdge = new int[nodes + 1];
+        int[] edgeTarget = new int[edges];
+        int[] edgeLength = new int[edges];
+        byte[] edgeSpeed = new byte[edges];
+        int[] edgeName = new int[edges];
+        byte[] edgeAccess = new byte[edges];
+        byte[][] profileSpeed = new byte[RoutingProfile.values().length][];
+        for (int q = 1; q < profileSpeed.length; q++) profileSpeed[q] = new byte[edges];
+        Map<Integer, Integer> nameIndex = new HashMap<>();
+        int e2 = 0;
+        for (int u = 0; u < own; u++) {
+            int v = nodeOf[first + u];
+            firstEdge[u] = e2;
+            for (int e = graph.firstEdge[v]; e < graph.firstEdge[v + 1]; e++, e2++) {
+                int t = graph.edgeTarget[e];
+                edgeTarget[e2] = part[t] == p ? globalOf[t] - first : own + Arrays.binarySearch(ghosts, globalOf[t]);
+                edgeLength[e2] = graph.edgeLength[e];
+                edgeSpeed[e2] = graph.edgeSpeed[e];
+                edgeAccess[e2] = graph.edgeAccess[e];
+                for (int q = 1; q < profileSpeed.length; q++) profileSpeed[q][e2] = graph.profileSpeed[q][e];
+                int name = graph.edgeName[e];
+                if (name >= 0) {
+                    Integer local = nameIndex.get(name);
+                    if (local == null) {
+                        local = nameIndex.size();
+                        nameIndex.put(name, local);
+                    }
+                    name = local;
+                }
+                edgeName[e2] = name;
+            }
+        }
+        for (int l = own; l <= nodes; l++) firstEdge[l] = e2;   // Ghosts have no edges
+        String[] names = new String[nameIndex.size()];
+        for (Map.Entry<Integer, Integer> entry : nameIndex.entrySet()) names[entry.getValue()] = graph.names[entry.getKey()];
+
+        RoadGraph local = new RoadGraph(lat, lon, firstEdge, edgeTarget, edgeLength, edgeSpeed, edgeName, names,
+                new int[0], new int[0], new byte[0], edgeAccess, profileSpeed);
+        return new Partition(p, local, first, own, ghosts);
+    }
+
+    /**
+     * Node-based Dijkstra from one node of a partition that never leaves the partition
+     *
+     * Used to weigh shortcuts when writing and to turn them back into roads
+     * when routing, so both see the same paths.
+     */
+    static final class CellSearch {
+        private double[] dist = new double[0];
+        private int[] prevEdge = new int[0];
+        private boolean[] through = new boolean[0];
+        private int[] touched = new int[0];
+        private int touchedCount;
+        private int[] heapNodes = new int[64];
+        private double[] heapKeys = new double[64];
+        private int heapSize;
+
+        /**
+         * @param ownCount Nodes from here on are outside the partition and never entered
+         * @param target Stop once this node is settled, or -1 to settle every reachable node
+         * @param hubs Nodes that are both entry and exit of the partition, or null; see through()
+         */
+        void run(RoadGraph graph, int ownCount, int source, RoutingProfile profile, int target, boolean[] hubs) {
+            if (dist.length < ownCount) {
+                dist = new double[ownCount];
+                Arrays.fill(dist, Double.POSITIVE_INFINITY);
+                prevEdge = new int[ownCount];
+                through = new boolean[ownCount];
+                touched = new int[ownCount];
+                touchedCount = 0;
+            }
+            for (int i = 0; i < touchedCount; i++) dist[touched[i]] = Double.POSITIVE_INFINITY;
+            touchedCount = 0;
+            heapSize = 0;
+
+            dist[source] = 0;
+            prevEdge[source] = -1;
+            through[source] = false;
+            touched[touchedCount++] = source;
+            push(source, 0);
+            while (heapSize > 0) {
+                double key = heapKeys[0];
+                int u = popMin();
+                if (key > dist[u]) continue;                 // Stale heap entry
+                if (u == target) break;
+                boolean hub = u != source && hubs != null && hubs[u];
+                for (int e = graph.firstEdge[u]; e < graph.firstEdge[u + 1]; e++) {
+                    int v = graph.edgeTarget[e];
+                    if (v >= ownCount || !graph.allows(profile, e)) continue;
+                    double d = key + travelTimeS(graph, e, profile);
+                    if (d >= dist[v]) continue;
+                    if (dist[v] == Double.POSITIVE_INFINITY) touched[touchedCount++] = v;
+                    dist[v] = d;
+                    prevEdge[v] = e;
+                    through[v] = through[u] || hub;
+                    push(v, d);
+                }
+            }
+        }
+
+        double dist(int node) {
+            return dist[node];
+        }
+
+        /**
+         * @return Edge into the node on its fastest path, -1 at the source
+         */
+        int prevEdge(int node) {
+            return prevEdge[node];
+        }
+
+        /**
+         * @return Whether the fastest path to the node passes a hub after the source
+         */
+        boolean through(int node) {
+            return through[node];
+        }
+
+        private void push(int node, double key) {
+            if (heapSize == heapNodes.length) {
+                heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+                heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            }
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heapKeys[parent] <= key) break;
+                heapNodes[i] = heapNodes[parent];
+                heapKeys[i] = heapKeys[parent];
+                i = parent;
+            }
+            heapNodes[i] = node;
+            heapKeys[i] = key;
+        }
+
+        private int popMin() {
+            int top = heapNodes[0];
+            int lastNode = heapNodes[--heapSize];
+            double lastKey = heapKeys[heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) child++;
+                if (heapKeys[child] >= lastKey) break;
+                heapNodes[i] = heapNodes[child];
+                heapKeys[i] = heapKeys[child];
+                i = child;
+            }
+            heapNodes[i] = lastNode;
+            heapKeys[i] = lastKey;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,487 @@
+/**
+ * PartitionedRouter - A* route search over a PartitionedGraph
+ *
+ * The partitions holding the start and the end are searched road by road;
+ * every other cell is crossed on the overlay graph, whose shortcuts stand
+ * for the fastest way from a cell's entry to one of its exits. A query
+ * therefore loads two partitions however long the route is, plus the
+ * cells the final route passes through: each shortcut on the path is
+ * turned back into roads with a Dijkstra search inside its partition.
+ *
+ * Search states are keyed by global node id through an open-addressing
+ * table, so memory follows the nodes a query touches rather than the size
+ * of the coverage area. Weights are free-flow speeds of the router's
+ * RoutingProfile; turn restrictions, U-turn costs and learned traffic
+ * speeds are not applied (see PartitionedGraph). Routes have no edge ids
+ * (Route.edges is null) since edges are only numbered within a partition.
+ *
+ * Not thread-safe: use one router per thread. The graph may be shared.
+ */
+package com.example.offlinenav;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PartitionedRouter {
+
+    private static final double SNAP_RADIUS_M = 500;
+    private static final double METERS_PER_DEG = 111_320;
+
+    private final PartitionedGraph parts;
+    private volatile RoutingProfile profile = RoutingProfile.CAR;
+    private RoutingProfile queryProfile;                     // Profile of the running query
+    private final PartitionedGraph.CellSearch cellSearch = new PartitionedGraph.CellSearch();
+
+    // Search states, created as global nodes are reached
+    private int stateCount = 0;
+    private int[] node = new int[1024];                      // Global node id
+    private double[] dist = new double[1024];
+    private double[] heur = new double[1024];                // A* estimate to the end, fixed per node
+    private int[] prevState = new int[1024];                 // -1 at the start
+    private int[] viaPartition = new int[1024];              // Partition of the local edge, -1 for an overlay arc
+    private int[] via = new int[1024];                       // Local edge or overlay arc the state was reached through
+    private int[] slotOf = new int[1024];                    // Hash table slot of each state
+
+    // Global node id -> state, open addressing with linear probing
+    private int[] tableKeys = new int[2048];
+    private int[] tableStates = new int[2048];
+
+    private int[] heapStates = new int[1024];
+    private double[] heapKeys = new double[1024];
+    private int heapSize = 0;
+
+    private final RoadGraph.Snap fromSnap = new RoadGraph.Snap();
+    private final RoadGraph.Snap toSnap = new RoadGraph.Snap();
+    private final RoadGraph.Snap candidate = new RoadGraph.Snap();
+    private PartitionedGraph.Partition fromPart;             // Partition of fromSnap's edge
+
+    public PartitionedRouter(PartitionedGraph parts) {
+        this.parts = parts;
+        Arrays.fill(tableKeys, -1);
+    }
+
+    /**
+     * Switch the travel mode for later queries; safe between queries
+     */
+    public void setProfile(RoutingProfile profile) {
+        this.profile = profile;
+    }
+
+    public RoutingProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Compute the fastest free-flow route between two coordinates
+     *
+     * @return The route, or null if either end is off the graph or unreachable
+     * @throws IOException If a partition could not be read
+     */
+    public OfflineRouter.Route route(double fromLat, double fromLon, double toLat, double toLon) throws IOException {
+        queryProfile = profile;
+        PartitionedGraph.Partition src = snap(fromLat, fromLon, fromSnap);
+        PartitionedGraph.Partition dst = src == null ? null : snap(toLat, toLon, toSnap);
+        if (dst == null) return null;
+        fromPart = src;
+
+        PartitionedGraph.Partition startReversePart = headPartition(src, fromSnap.edge);
+        int startReverse = reverseEdge(src, fromSnap.edge, startReversePart);
+        if (startReverse >= 0 && dst.index == startReversePart.index && toSnap.edge == startReverse) {
+            // Both ends on one two-way road, snapped to opposite directions (ties across partitions)
+            dst = src;
+            toSnap.edge = fromSnap.edge;
+            toSnap.fraction = 1 - toSnap.fraction;
+        }
+
+        int startEdge = fromSnap.edge;
+        int endEdge = toSnap.edge;
+        double startEdgeTime = PartitionedGraph.travelTimeS(src.graph, startEdge, queryProfile);
+        double endEdgeTime = PartitionedGraph.travelTimeS(dst.graph, endEdge, queryProfile);
+        int endFrom = dst.globalId(dst.graph.getEdgeSource(endEdge));
+        int endTo = dst.globalId(dst.graph.getEdgeTarget(endEdge));
+        PartitionedGraph.Partition endReversePart = headPartition(dst, endEdge);
+        int endReverse = reverseEdge(dst, endEdge, endReversePart);
+
+        // Start and end on the same edge, end ahead of start: no search needed
+        if (src.index == dst.index && startEdge == endEdge && toSnap.fraction >= fromSnap.fraction) {
+            return sameEdgeRoute(src, startEdge, startEdgeTime, toSnap.fraction - fromSnap.fraction);
+        }
+        // End behind start on a two-way road: drive straight back along it
+        if (src.index == dst.index && startEdge == endEdge && startReverse >= 0) {
+            return sameEdgeRoute(startReversePart, startReverse, startEdgeTime, fromSnap.fraction - toSnap.fraction);
+        }
+
+        resetSearch();
+        // The heuristic aims at the snapped end: the raw query point may lie up to
+        // SNAP_RADIUS_M off the road, which would overestimate and end the search early
+        double vmax = Math.max(1, parts.getMaxSpeedKmh(queryProfile)) / 3.6;
+        int head = src.graph.getEdgeTarget(startEdge);
+        relax(src.globalId(head), startEdgeTime * (1 - fromSnap.fraction), src.graph, head,
+                -1, src.index, startEdge, toSnap.lat, toSnap.lon, vmax);
+        if (startReverse >= 0) {
+            // Two-way road: we may also leave through the edge's source node
+            head = startReversePart.graph.getEdgeTarget(startReverse);
+            relax(startReversePart.globalId(head), startEdgeTime * fromSnap.fraction, startReversePart.graph, head,
+                    -1, startReversePart.index, startReverse, toSnap.lat, toSnap.lon, vmax);
+        }
+
+        double best = Double.POSITIVE_INFINITY;
+        int bestState = -1;
+        boolean bestViaReverse = false;
+        int settled = 0;
+        IntBuffer arcTime = parts.arcTime[queryProfile.ordinal()];
+
+        while (heapSize > 0) {
+            double key = heapKeys[0];
+            int state = popMin();
+            if (key >= best) break;
+            double du = dist[state];
+            if (key > du + heur[state] + 1e-9) continue;  // Stale heap entry
+            settled++;
+            int g = node[state];
+
+            // Finishing candidates along the end edge
+            if (g == endFrom) {
+                double total = du + endEdgeTime * toSnap.fraction;
+                if (total < best) { best = total; bestState = state; bestViaReverse = false; }
+            }
+            if (g == endTo && endReverse >= 0) {
+                double total = du + endEdgeTime * (1 - toSnap.fraction);
+                if (total < best) { best = total; bestState = state; bestViaReverse = true; }
+            }
+
+            int p = parts.partitionOf(g);
+            if (p == src.index || p == dst.index) {
+                // Road by road inside the partitions of the start and the end
+                PartitionedGraph.Partition part = p == src.index ? src : dst;
+                RoadGraph graph = part.graph;
+                int u = g - part.firstNode;
+                for (int e = graph.firstEdge[u]; e < graph.firstEdge[u + 1]; e++) {
+                    if (!graph.allows(queryProfile, e)) continue;
+                    int t = graph.edgeTarget[e];
+                    relax(part.globalId(t), du + PartitionedGraph.travelTimeS(graph, e, queryProfile), graph, t,
+                            state, p, e, toSnap.lat, toSnap.lon, vmax);
+                }
+            } else {
+                // Elsewhere only boundary nodes are reached; cross on the overlay
+                int v = parts.vertexOf(g);
+                if (v < 0) continue;
+                for (int a = parts.firstArc[v]; a < parts.firstArc[v + 1]; a++) {
+                    int time = arcTime.get(a);
+                    if (time == PartitionedGraph.NO_ACCESS) continue;
+                    relax(parts.arcTarget.get(a), du + time / 10.0, state, a, toSnap.lat, toSnap.lon, vmax);
+                }
+            }
+        }
+
+        if (bestState < 0) {
+            return null;
+        }
+        OfflineRouter.Route r = buildRoute(bestState, bestViaReverse ? endReversePart : dst,
+                bestViaReverse ? endReverse : endEdge, bestViaReverse, startEdgeTime, endEdgeTime);
+        r.settledNodes = settled;
+        return r;
+    }
+
+    /**
+     * Closest edge to a coordinate in its cell, or in a neighbouring cell within the snap radius
+     *
+     * @return Partition of the snapped edge, null if none is near
+     */
+    private PartitionedGraph.Partition snap(double lat, double lon, RoadGraph.Snap out) throws IOException {
+        int row = parts.cellRow(lat);
+        int col = parts.cellCol(lon);
+        double cell = parts.getCellDeg();
+        double marginLat = SNAP_RADIUS_M / METERS_PER_DEG;
+        double marginLon = marginLat / Math.max(0.01, Math.cos(Math.toRadians(lat)));
+        PartitionedGraph.Partition found = null;
+        out.distanceM = Double.POSITIVE_INFINITY;
+        for (int r = row - 1; r <= row + 1; r++) {
+            for (int c = col - 1; c <= col + 1; c++) {
+                int p = parts.partitionAt(r, c);
+                if (p < 0) continue;
+                if (lat < parts.cellSouth(r) - marginLat || lat > parts.cellSouth(r) + cell + marginLat
+                        || lon < parts.cellWest(c) - marginLon || lon > parts.cellWest(c) + cell + marginLon) {
+                    continue;
+                }
+                PartitionedGraph.Partition part = parts.partition(p);
+                if (!part.graph.snap(lat, lon, SNAP_RADIUS_M, Double.NaN, queryProfile, candidate)
+                        || candidate.distanceM >= out.distanceM) {
+                    continue;
+                }
+                out.edge = candidate.edge;
+                out.fraction = candidate.fraction;
+                out.distanceM = candidate.distanceM;
+                out.lat = candidate.lat;
+                out.lon = candidate.lon;
+                found = part;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return Partition owning the target node of an edge, where the edge's reverse would be
+     */
+    private PartitionedGraph.Partition headPartition(PartitionedGraph.Partition part, int edge) throws IOException {
+        int head = part.graph.getEdgeTarget(edge);
+        return head < part.ownCount ? part : parts.partition(parts.partitionOf(part.globalId(head)));
+    }
+
+    /**
+     * @param headPart Partition from headPartition()
+     * @return The opposite-direction edge in headPart of a road that is two-way for the query's profile, or -1
+     */
+    private int reverseEdge(PartitionedGraph.Partition part, int edge, PartitionedGraph.Partition headPart) {
+        int from = part.globalId(part.graph.getEdgeSource(edge));
+        int to = part.globalId(part.graph.getEdgeTarget(edge)) - headPart.firstNode;
+        RoadGraph graph = headPart.graph;
+        for (int e = graph.firstEdge[to]; e < graph.firstEdge[to + 1]; e++) {
+            if (headPart.globalId(graph.edgeTarget[e]) == from && graph.allows(queryProfile, e)) return e;
+        }
+        return -1;
+    }
+
+    /**
+     * Route between two points on one edge, travelled in the direction of the given edge
+     */
+    private OfflineRouter.Route sameEdgeRoute(PartitionedGraph.Partition part, int edge, double edgeTimeS,
+                                              double fraction) {
+        OfflineRouter.Route r = new OfflineRouter.Route();
+        r.lats = new double[]{fromSnap.lat, toSnap.lat};
+        r.lons = new double[]{fromSnap.lon, toSnap.lon};
+        r.names = new String[]{part.graph.getEdgeName(edge), null};
+        r.distanceM = part.graph.getEdgeLengthM(edge) * fraction;
+        r.durationS = edgeTimeS * fraction;
+        r.profile = queryProfile;
+        return r;
+    }
+
+    /**
+     * Unpack the path into roads and assemble the polyline
+     *
+     * The duration is summed over the unpacked edges, so it is exact even
+     * though overlay arcs are stored rounded up to a tenth of a second.
+     */
+    private OfflineRouter.Route buildRoute(int lastState, PartitionedGraph.Partition finalPart, int finalEdge,
+                                           boolean viaReverse, double startEdgeTime, double endEdgeTime)
+            throws IOException {
+        // Edges from the end backwards
+        List<PartitionedGraph.Partition> edgeParts = new ArrayList<>();
+        int[] edges = new int[64];
+        int count = 0;
+        edgeParts.add(finalPart);
+        edges[count++] = finalEdge;
+        for (int s = lastState; s >= 0; s = prevState[s]) {
+            if (count + 1 >= edges.length) edges = Arrays.copyOf(edges, edges.length * 2);
+            if (viaPartition[s] >= 0) {
+                edgeParts.add(parts.partition(viaPartition[s]));
+                edges[count++] = via[s];
+                continue;
+            }
+            int from = node[prevState[s]];
+            int to = node[s];
+            int p = parts.partitionOf(from);
+            PartitionedGraph.Partition part = parts.partition(p);
+            RoadGraph graph = part.graph;
+            int u = from - part.firstNode;
+            if (parts.partitionOf(to) == p) {
+                // Shortcut: the fastest way through the cell
+                cellSearch.run(graph, part.ownCount, u, queryProfile, to - part.firstNode, null);
+                for (int e = cellSearch.prevEdge(to - part.firstNode); e >= 0;
+                     e = cellSearch.prevEdge(graph.getEdgeSource(e))) {
+                    if (count == edges.length) edges = Arrays.copyOf(edges, count * 2);
+                    edgeParts.add(part);
+                    edges[count++] = e;
+                }
+            } else {
+                // Cut edge into the next cell; the fastest if there are parallel ones
+                int bestEdge = -1;
+                double bestTime = Double.POSITIVE_INFINITY;
+                for (int e = graph.firstEdge[u]; e < graph.firstEdge[u + 1]; e++) {
+                    if (part.globalId(graph.edgeTarget[e]) != to || !graph.allows(queryProfile, e)) continue;
+                    double t = PartitionedGraph.travelTimeS(graph, e, queryProfile);
+                    if (t < bestTime) { bestTime = t; bestEdge = e; }
+                }
+                edgeParts.add(part);
+                edges[count++] = bestEdge;
+            }
+        }
+
+        int points = count + 1;   // snapped start, the head of each edge but the last, snapped end
+        OfflineRouter.Route r = new OfflineRouter.Route();
+        r.lats = new double[points];
+        r.lons = new double[points];
+        r.names = new String[points];
+        r.lats[0] = fromSnap.lat;
+        r.lons[0] = fromSnap.lon;
+        r.names[0] = fromPart.graph.getEdgeName(fromSnap.edge);
+        r.lats[points - 1] = toSnap.lat;
+        r.lons[points - 1] = toSnap.lon;
+        double distance = 0, duration = 0;
+        for (int i = 0; i < count; i++) {
+            int k = count - 1 - i;                         // Stored backwards
+            RoadGraph graph = edgeParts.get(k).graph;
+            int e = edges[k];
+            if (i == 0) {
+                // The snapped start edge, or its reverse, timed like the search does
+                boolean forward = edgeParts.get(k).index == fromPart.index && e == fromSnap.edge;
+                double fraction = forward ? 1 - fromSnap.fraction : fromSnap.fraction;
+                distance += graph.getEdgeLengthM(e) * fraction;
+                duration += startEdgeTime * fraction;
+            } else if (i == count - 1) {
+                double fraction = viaReverse ? 1 - toSnap.fraction : toSnap.fraction;
+                distance += graph.getEdgeLengthM(e) * fraction;
+                duration += endEdgeTime * fraction;
+            } else {
+                distance += graph.getEdgeLengthM(e);
+                duration += PartitionedGraph.travelTimeS(graph, e, queryProfile);
+            }
+            if (i < count - 1) {
+                int head = graph.getEdgeTarget(e);
+                r.lats[i + 1] = graph.getLatitude(head);
+                r.lons[i + 1] = graph.getLongitude(head);
+                int kNext = k - 1;
+                r.names[i + 1] = edgeParts.get(kNext).graph.getEdgeName(edges[kNext]);
+            }
+        }
+        r.distanceM = distance;
+        r.durationS = duration;
+        r.profile = queryProfile;
+        return r;
+    }
+
+    /**
+     * Reach a node through a local edge of a partition
+     *
+     * @param local The node's id in graph, for its coordinates
+     */
+    private void relax(int global, double d, RoadGraph graph, int local, int prev, int partition, int edge,
+                       double toLat, double toLon, double vmax) {
+        int state = stateOf(global);
+        if (d >= dist[state]) return;
+        if (dist[state] == Double.POSITIVE_INFINITY) {
+            heur[state] = RoadGraph.distanceM(graph.getLatitude(local), graph.getLongitude(local), toLat, toLon) / vmax;
+        }
+        update(state, d, prev, partition, edge);
+    }
+
+    /**
+     * Reach an overlay vertex through an overlay arc
+     */
+    private void relax(int vertex, double d, int prev, int arc, double toLat, double toLon, double vmax) {
+        int state = stateOf(parts.vertexNode[vertex]);
+        if (d >= dist[state]) return;
+        if (dist[state] == Double.POSITIVE_INFINITY) {
+            heur[state] = RoadGraph.distanceM(parts.vertexLat[vertex] / RoadGraph.COORD_SCALE,
+                    parts.vertexLon[vertex] / RoadGraph.COORD_SCALE, toLat, toLon) / vmax;
+        }
+        update(state, d, prev, -1, arc);
+    }
+
+    private void update(int state, double d, int prev, int partition, int edgeOrArc) {
+        dist[state] = d;
+        prevState[state] = prev;
+        viaPartition[state] = partition;
+        via[state] = edgeOrArc;
+        push(state, d + heur[state]);
+    }
+
+    /**
+     * @return The state of a global node, created unreached if new
+     */
+    private int stateOf(int global) {
+        int mask = tableKeys.length - 1;
+        int slot = (global * 0x9E3779B1) >>> 1 & mask;
+        while (tableKeys[slot] >= 0) {
+            if (tableKeys[slot] == global) return tableStates[slot];
+            slot = (slot + 1) & mask;
+        }
+        if (stateCount == node.length) growStates();
+        if ((stateCount + 1) * 2 > tableKeys.length) {
+            growTable();
+            return stateOf(global);
+        }
+        int state = stateCount++;
+        tableKeys[slot] = global;
+        tableStates[slot] = state;
+        slotOf[state] = slot;
+        node[state] = global;
+        dist[state] = Double.POSITIVE_INFINITY;
+        return state;
+    }
+
+    private void growStates() {
+        int n = node.length * 2;
+        node = Arrays.copyOf(node, n);
+        dist = Arrays.copyOf(dist, n);
+        heur = Arrays.copyOf(heur, n);
+        prevState = Arrays.copyOf(prevState, n);
+        viaPartition = Arrays.copyOf(viaPartition, n);
+        via = Arrays.copyOf(via, n);
+        slotOf = Arrays.copyOf(slotOf, n);
+    }
+
+    private void growTable() {
+        tableKeys = new int[tableKeys.length * 2];
+        tableStates = new int[tableKeys.length];
+        Arrays.fill(tableKeys, -1);
+        int mask = tableKeys.length - 1;
+        for (int s = 0; s < stateCount; s++) {
+            int slot = (node[s] * 0x9E3779B1) >>> 1 & mask;
+            while (tableKeys[slot] >= 0) slot = (slot + 1) & mask;
+            tableKeys[slot] = node[s];
+            tableStates[slot] = s;
+            slotOf[s] = slot;
+        }
+    }
+
+    private void resetSearch() {
+        for (int s = 0; s < stateCount; s++) {
+            tableKeys[slotOf[s]] = -1;
+        }
+        stateCount = 0;
+        heapSize = 0;
+    }
+
+    // Binary min-heap with lazy deletion (stale entries are skipped on pop)
+
+    private void push(int state, double key) {
+        if (heapSize == heapStates.length) {
+            heapStates = Arrays.copyOf(heapStates, heapSize * 2);
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapKeys[parent] <= key) break;
+            heapStates[i] = heapStates[parent];
+            heapKeys[i] = heapKeys[parent];
+            i = parent;
+        }
+        heapStates[i] = state;
+        heapKeys[i] = key;
+    }
+
+    private int popMin() {
+        int top = heapStates[0];
+        int lastState = heapStates[--heapSize];
+        double lastKey = heapKeys[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) child++;
+            if (heapKeys[child] >= lastKey) break;
+            heapStates[i] = heapStates[child];
+            heapKeys[i] = heapKeys[child];
+            i = child;
+        }
+        heapStates[i] = lastState;
+        heapKeys[i] = lastKey;
+        return top;
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * PoiCategory - Kinds of places the offline POI index can find
+ *
+ * A place may belong to several categories (a hospital with a pharmacy),
+ * so PoiIndex stores a bitset per place and queries take a mask of bits.
+ */
+package com.example.offlinenav;
+
+public enum PoiCategory {
+    HOSPITAL("Hospital"),
+    PHARMACY("Pharmacy"),
+    FUEL("Fuel"),
+    CIVIL_DEFENSE("Civil defense");
+
+    public final String label;
+    public final int bit;                    // Bit in PoiIndex's per-place category set
+
+    PoiCategory(String label) {
+        this.label = label;
+        this.bit = 1 << ordinal();
+    }
+}
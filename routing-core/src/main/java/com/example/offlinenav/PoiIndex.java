@@ -0,0 +1,334 @@
+/**
+ * PoiIndex - Offline index of hospitals, pharmacies, fuel and civil defense posts
+ *
+ * Places are bucketed into a uniform grid, like RoadGraph's snapping grid,
+ * and stored cell by cell so the records of a cell are contiguous. The file
+ * is memory-mapped read-only and queried in place: opening it reads only the
+ * header, and a query touches only the pages of the cells around the query
+ * point. A category bitset per place, and its union per cell, let a query
+ * for one category skip everything else.
+ *
+ * File format (roads.pois, big-endian):
+ *   "ONPOIS" (6 bytes), version int, count int
+ *   minLat int, minLon int, cellSize int                  (1e-6 degrees)
+ *   gridRows int, gridCols int
+ *   cellStart int[cells + 1]                              (first record of each cell, cells = rows * cols)
+ *   cellCategories int[cells]                             (union of the category bits in the cell)
+ *   record lat int, lon int, categories int, text int     (per place, in cell order; text = offset into text)
+ *   textLength int, text byte[textLength]                 (per place: name, phone, each u16 length + UTF-8)
+ *
+ * nearest() ranks by straight-line distance with a ring search over the
+ * grid. nearestByRoad() ranks by road distance. The straight line is a lower
+ * bound on the road, so candidates are routed nearest first, a few at a time
+ * with one bounded one-to-many search, until the next candidate is farther
+ * in a straight line than the k-th best road distance found so far.
+ *
+ * Queries are thread-safe; the router given to nearestByRoad() is not.
+ */
+package com.example.offlinenav;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class PoiIndex {
+
+    static final byte[] MAGIC = {'O', 'N', 'P', 'O', 'I', 'S'};
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 6 + 7 * 4;
+    private static final int RECORD_BYTES = 16;
+    private static final double CELL_DEG = 0.02;             // ~2 km cells
+    private static final double METERS_PER_DEG = 111_195;    // Along a meridian
+    private static final int MAX_CANDIDATES = 64;            // Nearest places in a straight line considered by road
+    private static final double MAX_STRAIGHT_M = 50_000;
+    private static final int ROAD_BATCH = 8;                 // Candidates per one-to-many search
+    private static final int ROAD_SEARCH_SETTLED = 200_000;  // Budget of each one-to-many search
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final double minLat, minLon, cellDeg;
+    private final int gridRows, gridCols;
+    private final int cellStartPos, cellCategoriesPos, recordsPos, textPos;
+
+    /**
+     * A place found by nearestByRoad()
+     */
+    public static class Hit {
+        public final int poi;                 // Place id, for the getters
+        public final double straightM;        // Straight-line distance from the query point
+        public final OfflineRouter.Route route;
+
+        Hit(int poi, double straightM, OfflineRouter.Route route) {
+            this.poi = poi;
+            this.straightM = straightM;
+            this.route = route;
+        }
+    }
+
+    private PoiIndex(ByteBuffer buffer, File file) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES) throw new IOException("Not a POI index: " + file);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(i) != MAGIC[i]) throw new IOException("Not a POI index: " + file);
+        }
+        int version = buffer.getInt(6);
+        if (version != VERSION) throw new IOException("Unsupported POI index version " + version);
+        count = buffer.getInt(10);
+        minLat = buffer.getInt(14) / RoadGraph.COORD_SCALE;
+        minLon = buffer.getInt(18) / RoadGraph.COORD_SCALE;
+        cellDeg = buffer.getInt(22) / RoadGraph.COORD_SCALE;
+        gridRows = buffer.getInt(26);
+        gridCols = buffer.getInt(30);
+        long cells = (long) gridRows * gridCols;
+        long textAt = HEADER_BYTES + 4 * (2 * cells + 1) + (long) RECORD_BYTES * count;
+        if (count < 0 || gridRows < 1 || gridCols < 1 || cellDeg <= 0 || textAt + 4 > buffer.capacity()
+                || textAt + 4 + buffer.getInt((int) textAt) > buffer.capacity()) {
+            throw new IOException("Corrupt POI index: " + file);
+        }
+        cellStartPos = HEADER_BYTES;
+        cellCategoriesPos = cellStartPos + 4 * (int) (cells + 1);
+        recordsPos = cellCategoriesPos + 4 * (int) cells;
+        textPos = (int) textAt + 4;
+    }
+
+    /**
+     * Map an index written by write()
+     *
+     * @param file roads.pois file
+     * @return The index; its mapping stays valid after the file is closed
+     */
+    public static PoiIndex load(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return new PoiIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file);
+        }
+    }
+
+    /**
+     * Write an index in the roads.pois format
+     *
+     * @param latE6 Latitudes in 1e-6 degrees
+     * @param lonE6 Longitudes in 1e-6 degrees
+     * @param categories PoiCategory bits of each place
+     * @param names Name of each place, or null
+     * @param phones Phone number of each place, or null
+     */
+    public static void write(File file, int count, int[] latE6, int[] lonE6, int[] categories, String[] names,
+                             String[] phones) throws IOException {
+        int cellE6 = (int) Math.round(CELL_DEG * RoadGraph.COORD_SCALE);
+        int minLatE6 = 0, minLonE6 = 0, rows = 1, cols = 1;
+        if (count > 0) {
+            int maxLatE6 = Integer.MIN_VALUE, maxLonE6 = Integer.MIN_VALUE;
+            minLatE6 = Integer.MAX_VALUE;
+            minLonE6 = Integer.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                minLatE6 = Math.min(minLatE6, latE6[i]);
+                minLonE6 = Math.min(minLonE6, lonE6[i]);
+                maxLatE6 = Math.max(maxLatE6, latE6[i]);
+                maxLonE6 = Math.max(maxLonE6, lonE6[i]);
+            }
+            rows = (maxLatE6 - minLatE6) / cellE6 + 1;
+            cols = (maxLonE6 - minLonE6) / cellE6 + 1;
+        }
+
+        // Counting sort by cell
+        int cells = rows * cols;
+        int[] cellOf = new int[count];
+        int[] cellStart = new int[cells + 1];
+        int[] cellCategories = new int[cells];
+        for (int i = 0; i < count; i++) {
+            cellOf[i] = (latE6[i] - minLatE6) / cellE6 * cols + (lonE6[i] - minLonE6) / cellE6;
+            cellStart[cellOf[i] + 1]++;
+            cellCategories[cellOf[i]] |= categories[i];
+        }
+        for (int c = 0; c < cells; c++) cellStart[c + 1] += cellStart[c];
+        int[] order = new int[count];
+        int[] cursor = Arrays.copyOf(cellStart, cells);
+        for (int i = 0; i < count; i++) order[cursor[cellOf[i]]++] = i;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(minLatE6);
+            out.writeInt(minLonE6);
+            out.writeInt(cellE6);
+            out.writeInt(rows);
+            out.writeInt(cols);
+            for (int v : cellStart) out.writeInt(v);
+            for (int v : cellCategories) out.writeInt(v);
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            for (int i : order) {
+                out.writeInt(latE6[i]);
+                out.writeInt(lonE6[i]);
+                out.writeInt(categories[i]);
+                out.writeInt(text.size());
+                writeText(text, names[i]);
+                writeText(text, phones[i]);
+            }
+            out.writeInt(text.size());
+            text.writeTo(out);
+        }
+    }
+
+    private static void writeText(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("Text too long: " + s.substring(0, 40) + "...");
+        out.write(bytes.length >>> 8);
+        out.write(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getLatitude(int poi) {
+        return buffer.getInt(recordsPos + poi * RECORD_BYTES) / RoadGraph.COORD_SCALE;
+    }
+
+    public double getLongitude(int poi) {
+        return buffer.getInt(recordsPos + poi * RECORD_BYTES + 4) / RoadGraph.COORD_SCALE;
+    }
+
+    /**
+     * @return PoiCategory bits of the place
+     */
+    public int getCategories(int poi) {
+        return buffer.getInt(recordsPos + poi * RECORD_BYTES + 8);
+    }
+
+    /**
+     * @return Name, or null if the place has none
+     */
+    public String getName(int poi) {
+        return readText(textPos + buffer.getInt(recordsPos + poi * RECORD_BYTES + 12));
+    }
+
+    /**
+     * @return Phone number as tagged in OSM, or null if the place has none
+     */
+    public String getPhone(int poi) {
+        int at = textPos + buffer.getInt(recordsPos + poi * RECORD_BYTES + 12);
+        return readText(at + 2 + (buffer.getShort(at) & 0xFFFF));
+    }
+
+    private String readText(int at) {
+        int length = buffer.getShort(at) & 0xFFFF;
+        if (length == 0) return null;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = buffer.get(at + 2 + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Find the places of some categories nearest in a straight line
+     *
+     * Searches rings of grid cells outwards from the query point and stops
+     * once the ring is farther than the last of the places found.
+     *
+     * @param categories Mask of PoiCategory bits; a place matches if it has any of them
+     * @param maxDistanceM Ignore places farther than this
+     * @param outPois Receives place ids, nearest first; its length is the number wanted
+     * @param outDistanceM Receives the straight-line distances
+     * @return Number of places found
+     */
+    public int nearest(double lat, double lon, int categories, double maxDistanceM, int[] outPois,
+                       double[] outDistanceM) {
+        int limit = outPois.length;
+        int row = (int) Math.floor((lat - minLat) / cellDeg);
+        int col = (int) Math.floor((lon - minLon) / cellDeg);
+        double cellM = cellDeg * METERS_PER_DEG * Math.cos(Math.toRadians(lat));  // Shorter (east-west) side
+        int maxRing = Math.max(Math.max(Math.abs(row), Math.abs(row - gridRows + 1)),
+                Math.max(Math.abs(col), Math.abs(col - gridCols + 1)));
+        int found = 0;
+
+        for (int ring = 0; ring <= maxRing && limit > 0; ring++) {
+            // Every place within this distance was in the rings already searched
+            double covered = (ring - 1) * cellM;
+            if (covered >= maxDistanceM || (found == limit && outDistanceM[found - 1] <= covered)) break;
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= gridRows) continue;
+                boolean edgeRow = r == row - ring || r == row + ring;
+                for (int c = col - ring; c <= col + ring; c += edgeRow ? 1 : 2 * ring) {
+                    if (c >= 0 && c < gridCols) found = scanCell(r * gridCols + c, lat, lon, categories,
+                            maxDistanceM, outPois, outDistanceM, found);
+                }
+            }
+        }
+        return found;
+    }
+
+    private int scanCell(int cell, double lat, double lon, int categories, double maxDistanceM, int[] outPois,
+                         double[] outDistanceM, int found) {
+        if ((buffer.getInt(cellCategoriesPos + 4 * cell) & categories) == 0) return found;
+        int end = buffer.getInt(cellStartPos + 4 * (cell + 1));
+        for (int poi = buffer.getInt(cellStartPos + 4 * cell); poi < end; poi++) {
+            if ((getCategories(poi) & categories) == 0) continue;
+            double d = RoadGraph.distanceM(lat, lon, getLatitude(poi), getLongitude(poi));
+            if (d > maxDistanceM || (found == outPois.length && d >= outDistanceM[found - 1])) continue;
+            // Insert into the sorted output, dropping the farthest when full
+            int i = found < outPois.length ? found++ : found - 1;
+            for (; i > 0 && outDistanceM[i - 1] > d; i--) {
+                outPois[i] = outPois[i - 1];
+                outDistanceM[i] = outDistanceM[i - 1];
+            }
+            outPois[i] = poi;
+            outDistanceM[i] = d;
+        }
+        return found;
+    }
+
+    /**
+     * Find the k places of some categories nearest by road
+     *
+     * Road distances are measured on the router's graph for its current
+     * RoutingProfile, from and to the points where the query point and each
+     * place snap onto the road.
+     *
+     * @param router Router for the calling thread
+     * @param categories Mask of PoiCategory bits
+     * @param k Number of places wanted
+     * @param departureMs Departure time, for the routes' ETAs
+     * @return Up to k places, nearest by road first; fewer if the rest are unreachable or over 50 km away
+     */
+    public Hit[] nearestByRoad(OfflineRouter router, double lat, double lon, int categories, int k,
+                               long departureMs) {
+        int[] candidates = new int[Math.max(k, MAX_CANDIDATES)];
+        double[] straightM = new double[candidates.length];
+        int n = nearest(lat, lon, categories, MAX_STRAIGHT_M, candidates, straightM);
+        Hit[] best = new Hit[k];
+        int found = 0;
+        int next = 0;
+        while (next < n) {
+            double bound = found == k ? best[k - 1].route.distanceM : Double.POSITIVE_INFINITY;
+            int end = next;
+            while (end < n && end - next < Math.max(ROAD_BATCH, k) && straightM[end] < bound) end++;
+            if (end == next) break;          // No remaining candidate can be closer by road
+            double[] lats = new double[end - next];
+            double[] lons = new double[end - next];
+            for (int i = 0; i < lats.length; i++) {
+                lats[i] = getLatitude(candidates[next + i]);
+                lons[i] = getLongitude(candidates[next + i]);
+            }
+            OfflineRouter.Route[] routes = router.routeToMany(lat, lon, lats, lons, departureMs, ROAD_SEARCH_SETTLED);
+            for (int i = 0; i < routes.length; i++) {
+                OfflineRouter.Route route = routes[i];
+                if (route == null || (found == k && route.distanceM >= best[k - 1].route.distanceM)) continue;
+                int at = found < k ? found++ : k - 1;
+                for (; at > 0 && best[at - 1].route.distanceM > route.distanceM; at--) best[at] = best[at - 1];
+                best[at] = new Hit(candidates[next + i], straightM[next + i], route);
+            }
+            next = end;
+        }
+        return Arrays.copyOf(best, found);
+    }
+}
@@ -0,0 +1,597 @@
+/**
+ * RoadGraph - Compact directed road graph for offline routing
+ *
+ * Stored in compressed-sparse-row form: the outgoing edges of node n are
+ * edge ids firstEdge[n] .. firstEdge[n+1]-1. A two-way road is two directed
+ * edges. All per-node and per-edge attributes are primitive arrays so a
+ * Lebanon-sized graph loads in one pass without per-object overhead.
+ *
+ * File format (roads.graph, big-endian):
+ *   "ONGRAPH" (7 bytes), version int, nodeCount int, edgeCount int
+ *   nodeLat int[nodeCount], nodeLon int[nodeCount]       (1e-6 degrees)
+ *   firstEdge int[nodeCount + 1]
+ *   edgeTarget int[edgeCount], edgeLength int[edgeCount]  (decimeters)
+ *   edgeSpeed byte[edgeCount]                              (free-flow km/h, unsigned)
+ *   edgeName int[edgeCount]                                (index into names, -1 = unnamed)
+ *   nameCount int, names UTF[nameCount]
+ *   turnCount int                                          (version 2+)
+ *   turnFrom int[turnCount], turnTo int[turnCount]        (edge ids, sorted by from then to)
+ *   turnCost byte[turnCount]                               (seconds, unsigned, 255 = forbidden)
+ *   profileCount int                                       (version 3+)
+ *   edgeAccess byte[edgeCount]                             (bit p = RoutingProfile p may use the edge)
+ *   profileSpeed byte[edgeCount] per profile 1..profileCount-1 (km/h, unsigned; car uses edgeSpeed)
+ *
+ * Turn costs come from OSM turn restrictions. They form a compact table
+ * keyed by (incoming edge, outgoing edge) and only exist at the few
+ * nodes that have restrictions. A bitset over the nodes tells the router
+ * when it has to look at the table. Turns that are not in the table are
+ * free. Version 1 files load with an empty table.
+ *
+ * All RoutingProfiles share the topology; per profile there is one access
+ * bit and one speed byte per edge, about 3 bytes per edge in all. A one-way
+ * street is stored in both directions, with the reverse edge open to
+ * walkers only. Files before version 3 have no profile data: vehicles may
+ * use every edge, walkers every edge slower than FOOT_MAX_ROAD_KMH,
+ * motorcycles are capped at MOTORCYCLE_MAX_KMH and walking is 5 km/h.
+ *
+ * For the router's search, restricted nodes and their neighbours get one
+ * search state per incoming edge, because there the way a node was reached
+ * decides which turns are allowed (and prices U-turns around a forbidden
+ * turn). All other nodes keep a single state. States 0..nodeCount-1 are
+ * nodes, and the rest are the incoming edges of the edge-based nodes.
+ *
+ * A uniform grid over the nodes is built at load time for nearest-edge snapping.
+ */
+package com.example.offlinenav;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class RoadGraph {
+
+    static final byte[] MAGIC = {'O', 'N', 'G', 'R', 'A', 'P', 'H'};
+    static final int VERSION = 3;
+    public static final int TURN_FORBIDDEN = 255;            // turnCost value of a prohibited turn
+    static final double COORD_SCALE = 1e6;
+    private static final double EARTH_RADIUS_M = 6371008.8;
+    private static final double GRID_CELL_DEG = 0.005;       // ~550 m cells for snapping
+    static final int FOOT_MAX_ROAD_KMH = 90;                 // Pre-profile graphs: faster roads are closed to walkers
+    static final int MOTORCYCLE_MAX_KMH = 80;                // Pre-profile graphs: motorcycle speed cap
+    static final int FOOT_SPEED_KMH = 5;
+
+    // Topology and attributes
+    final int nodeCount, edgeCount;
+    final int[] nodeLat, nodeLon;
+    final int[] firstEdge;
+    final int[] edgeTarget;
+    final int[] edgeLength;                                  // Decimeters
+    final byte[] edgeSpeed;                                  // Free-flow km/h, read as unsigned
+    final int[] edgeName;
+    final String[] names;
+    final int[] turnFrom, turnTo;                            // Turn table, sorted by (from, to)
+    final byte[] turnCost;                                   // Seconds, read as unsigned
+    final byte[] edgeAccess;                                 // Bit per RoutingProfile
+    final byte[][] profileSpeed;                             // RoutingProfile ordinal -> km/h per edge, unsigned
+
+    // Derived at load time
+    final int[] edgeSource;                                  // Reverse lookup for snapping and path output
+    private final double minLat, minLon;
+    private final int gridCols, gridRows;
+    private final int[] cellStart;                           // CSR over grid cells
+    private final int[] cellNodes;
+    private final long[] turnNodes;                          // Bitset: via nodes with turn table entries
+    private final long[] edgeBasedNodes;                     // Bitset: turnNodes and their neighbours
+    private final int[] edgeStates;                          // Sorted edges into edge-based nodes
+    private final int[] maxSpeedKmh;                         // Per RoutingProfile, over the edges it may use
+
+    /**
+     * Result of snapping a coordinate onto the nearest edge
+     */
+    public static class Snap {
+        public int edge;              // Directed edge id
+        public double fraction;       // Position along the edge, 0 = source node, 1 = target node
+        public double distanceM;      // Distance from the query point to the edge
+        public double lat, lon;       // Snapped coordinate
+    }
+
+    RoadGraph(int[] nodeLat, int[] nodeLon, int[] firstEdge, int[] edgeTarget, int[] edgeLength,
+              byte[] edgeSpeed, int[] edgeName, String[] names) {
+        this(nodeLat, nodeLon, firstEdge, edgeTarget, edgeLength, edgeSpeed, edgeName, names,
+                new int[0], new int[0], new byte[0]);
+    }
+
+    RoadGraph(int[] nodeLat, int[] nodeLon, int[] firstEdge, int[] edgeTarget, int[] edgeLength,
+              byte[] edgeSpeed, int[] edgeName, String[] names, int[] turnFrom, int[] turnTo, byte[] turnCost) {
+        this(nodeLat, nodeLon, firstEdge, edgeTarget, edgeLength, edgeSpeed, edgeName, names,
+                turnFrom, turnTo, turnCost, null, new byte[RoutingProfile.values().length][]);
+    }
+
+    /**
+     * @param turnFrom Incoming edge of each turn table entry; entries must be sorted by (from, to)
+     * @param turnTo Outgoing edge, leaving the node the incoming edge ends at
+     * @param turnCost Seconds, or TURN_FORBIDDEN
+     * @param edgeAccess Bit per RoutingProfile, or null to derive it from the speeds
+     * @param profileSpeed Km/h per RoutingProfile ordinal; the car entry is always edgeSpeed and
+     *                     null entries are derived from it
+     */
+    RoadGraph(int[] nodeLat, int[] nodeLon, int[] firstEdge, int[] edgeTarget, int[] edgeLength,
+              byte[] edgeSpeed, int[] edgeName, String[] names, int[] turnFrom, int[] turnTo, byte[] turnCost,
+              byte[] edgeAccess, byte[][] profileSpeed) {
+        this.nodeCount = nodeLat.length;
+        this.edgeCount = edgeTarget.length;
+        this.nodeLat = nodeLat;
+        this.nodeLon = nodeLon;
+        this.firstEdge = firstEdge;
+        this.edgeTarget = edgeTarget;
+        this.edgeLength = edgeLength;
+        this.edgeSpeed = edgeSpeed;
+        this.edgeName = edgeName;
+        this.names = names;
+        this.turnFrom = turnFrom;
+        this.turnTo = turnTo;
+        this.turnCost = turnCost;
+        this.edgeAccess = edgeAccess != null ? edgeAccess : defaultAccess(edgeSpeed);
+        this.profileSpeed = profileSpeed;
+        profileSpeed[RoutingProfile.CAR.ordinal()] = edgeSpeed;
+        for (RoutingProfile profile : RoutingProfile.values()) {
+            int p = profile.ordinal();
+            if (profileSpeed[p] == null) profileSpeed[p] = defaultSpeeds(profile, edgeSpeed);
+            if (profileSpeed[p].length != edgeCount || this.edgeAccess.length != edgeCount) {
+                throw new IllegalArgumentException("Profile data does not match the " + edgeCount + " edges");
+            }
+        }
+        maxSpeedKmh = new int[profileSpeed.length];
+        for (RoutingProfile profile : RoutingProfile.values()) {
+            for (int e = 0; e < edgeCount; e++) {
+                if (allows(profile, e)) {
+                    maxSpeedKmh[profile.ordinal()] = Math.max(maxSpeedKmh[profile.ordinal()], getEdgeSpeedKmh(e, profile));
+                }
+            }
+        }
+
+        edgeSource = new int[edgeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            for (int e = firstEdge[n]; e < firstEdge[n + 1]; e++) {
+                edgeSource[e] = n;
+            }
+        }
+
+        // Bucket nodes into grid cells (two-pass counting sort, no per-cell lists)
+        int latMin = Integer.MAX_VALUE, latMax = Integer.MIN_VALUE;
+        int lonMin = Integer.MAX_VALUE, lonMax = Integer.MIN_VALUE;
+        for (int n = 0; n < nodeCount; n++) {
+            latMin = Math.min(latMin, nodeLat[n]);
+            latMax = Math.max(latMax, nodeLat[n]);
+            lonMin = Math.min(lonMin, nodeLon[n]);
+            lonMax = Math.max(lonMax, nodeLon[n]);
+        }
+        if (nodeCount == 0) {
+            latMin = latMax = lonMin = lonMax = 0;
+        }
+        minLat = latMin / COORD_SCALE;
+        minLon = lonMin / COORD_SCALE;
+        gridRows = (int) ((latMax - latMin) / COORD_SCALE / GRID_CELL_DEG) + 1;
+        gridCols = (int) ((lonMax - lonMin) / COORD_SCALE / GRID_CELL_DEG) + 1;
+        cellStart = new int[gridRows * gridCols + 1];
+        for (int n = 0; n < nodeCount; n++) {
+            cellStart[cellOf(n) + 1]++;
+        }
+        for (int c = 0; c < gridRows * gridCols; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellNodes = new int[nodeCount];
+        int[] fill = new int[gridRows * gridCols];
+        for (int n = 0; n < nodeCount; n++) {
+            int c = cellOf(n);
+            cellNodes[cellStart[c] + fill[c]++] = n;
+        }
+
+        turnNodes = new long[(nodeCount + 63) >>> 6];
+        for (int i = 0; i < turnFrom.length; i++) {
+            int via = edgeTarget[turnFrom[i]];
+            if (edgeSource[turnTo[i]] != via) {
+                throw new IllegalArgumentException("Turn " + turnFrom[i] + " -> " + turnTo[i] + " is not at one node");
+            }
+            if (i > 0 && (turnFrom[i] < turnFrom[i - 1] || turnFrom[i] == turnFrom[i - 1] && turnTo[i] <= turnTo[i - 1])) {
+                throw new IllegalArgumentException("Turn table not sorted at entry " + i);
+            }
+            turnNodes[via >>> 6] |= 1L << via;
+        }
+
+        edgeBasedNodes = turnNodes.clone();
+        for (int e = 0; e < edgeCount; e++) {
+            int a = edgeSource[e], b = edgeTarget[e];
+            if (hasTurnCosts(a)) edgeBasedNodes[b >>> 6] |= 1L << b;
+            if (hasTurnCosts(b)) edgeBasedNodes[a >>> 6] |= 1L << a;
+        }
+        int states = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            if (isEdgeBased(edgeTarget[e])) states++;
+        }
+        edgeStates = new int[states];
+        states = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            if (isEdgeBased(edgeTarget[e])) edgeStates[states++] = e;
+        }
+    }
+
+    /**
+     * Load a graph written by write()
+     *
+     * @param file roads.graph file
+     * @return Loaded graph
+     */
+    public static RoadGraph load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            return read(in, file.toString());
+        }
+    }
+
+    /**
+     * Read a graph in the roads.graph format, e.g. one partition of a PartitionedGraph
+     *
+     * @param source File name for error messages
+     */
+    static RoadGraph read(DataInputStream in, String source) throws IOException {
+        for (byte b : MAGIC) {
+            if (in.readByte() != b) throw new IOException("Not a road graph: " + source);
+        }
+        int version = in.readInt();
+        if (version < 1 || version > VERSION) throw new IOException("Unsupported road graph version " + version);
+        int nodes = in.readInt();
+        int edges = in.readInt();
+
+        int[] lat = readInts(in, nodes);
+        int[] lon = readInts(in, nodes);
+        int[] first = readInts(in, nodes + 1);
+        int[] target = readInts(in, edges);
+        int[] length = readInts(in, edges);
+        byte[] speed = new byte[edges];
+        in.readFully(speed);
+        int[] name = readInts(in, edges);
+        String[] names = new String[in.readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+        int turns = version >= 2 ? in.readInt() : 0;
+        int[] turnFrom = readInts(in, turns);
+        int[] turnTo = readInts(in, turns);
+        byte[] turnCost = new byte[turns];
+        in.readFully(turnCost);
+        byte[] access = null;
+        byte[][] profileSpeed = new byte[RoutingProfile.values().length][];
+        if (version >= 3) {
+            int profiles = in.readInt();
+            if (profiles < 1) throw new IOException("Corrupt road graph: " + profiles + " profiles");
+            access = new byte[edges];
+            in.readFully(access);
+            for (int p = 1; p < profiles; p++) {
+                byte[] speeds = new byte[edges];
+                in.readFully(speeds);
+                if (p < profileSpeed.length) profileSpeed[p] = speeds;  // Profiles this build doesn't know are skipped
+            }
+        }
+        try {
+            return new RoadGraph(lat, lon, first, target, length, speed, name, names, turnFrom, turnTo, turnCost,
+                    access, profileSpeed);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt road graph: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the graph in the roads.graph format
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            write(out);
+        }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(nodeCount);
+        out.writeInt(edgeCount);
+        writeInts(out, nodeLat);
+        writeInts(out, nodeLon);
+        writeInts(out, firstEdge);
+        writeInts(out, edgeTarget);
+        writeInts(out, edgeLength);
+        out.write(edgeSpeed);
+        writeInts(out, edgeName);
+        out.writeInt(names.length);
+        for (String s : names) {
+            out.writeUTF(s);
+        }
+        out.writeInt(turnFrom.length);
+        writeInts(out, turnFrom);
+        writeInts(out, turnTo);
+        out.write(turnCost);
+        out.writeInt(profileSpeed.length);
+        out.write(edgeAccess);
+        for (int p = 1; p < profileSpeed.length; p++) {
+            out.write(profileSpeed[p]);
+        }
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public double getLatitude(int node) {
+        return nodeLat[node] / COORD_SCALE;
+    }
+
+    public double getLongitude(int node) {
+        return nodeLon[node] / COORD_SCALE;
+    }
+
+    public int getEdgeSource(int edge) {
+        return edgeSource[edge];
+    }
+
+    public int getEdgeTarget(int edge) {
+        return edgeTarget[edge];
+    }
+
+    public double getEdgeLengthM(int edge) {
+        return edgeLength[edge] / 10.0;
+    }
+
+    /**
+     * @return Free-flow speed of the edge in km/h
+     */
+    public int getEdgeSpeedKmh(int edge) {
+        return edgeSpeed[edge] & 0xFF;
+    }
+
+    /**
+     * @return Free-flow speed of the edge for a profile in km/h
+     */
+    public int getEdgeSpeedKmh(int edge, RoutingProfile profile) {
+        return profileSpeed[profile.ordinal()][edge] & 0xFF;
+    }
+
+    /**
+     * Whether a profile may travel along the edge
+     */
+    public boolean allows(RoutingProfile profile, int edge) {
+        return (edgeAccess[edge] & profile.accessBit) != 0;
+    }
+
+    /**
+     * @return Fastest free-flow speed of any edge the profile may use, in km/h
+     */
+    public int getMaxSpeedKmh(RoutingProfile profile) {
+        return maxSpeedKmh[profile.ordinal()];
+    }
+
+    /**
+     * @return Street name of the edge, or null if unnamed
+     */
+    public String getEdgeName(int edge) {
+        int idx = edgeName[edge];
+        return idx >= 0 ? names[idx] : null;
+    }
+
+    public int getTurnCount() {
+        return turnCost.length;
+    }
+
+    /**
+     * True if turns at the node may cost time or be forbidden; false means every turn there is free
+     */
+    public boolean hasTurnCosts(int node) {
+        return (turnNodes[node >>> 6] & (1L << node)) != 0;
+    }
+
+    private boolean isEdgeBased(int node) {
+        return (edgeBasedNodes[node >>> 6] & (1L << node)) != 0;
+    }
+
+    /**
+     * Number of route search states: one per node plus one per edge into an edge-based node
+     */
+    int getSearchStateCount() {
+        return nodeCount + edgeStates.length;
+    }
+
+    /**
+     * Search state reached by travelling an edge
+     */
+    int searchStateOf(int edge) {
+        int node = edgeTarget[edge];
+        if (!isEdgeBased(node)) return node;
+        int lo = 0, hi = edgeStates.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (edgeStates[mid] < edge) lo = mid + 1; else hi = mid;
+        }
+        return nodeCount + lo;
+    }
+
+    /**
+     * Node a search state is at
+     */
+    int searchStateNode(int state) {
+        return state < nodeCount ? state : edgeTarget[edgeStates[state - nodeCount]];
+    }
+
+    /**
+     * First turn table entry for an incoming edge
+     *
+     * @return Index of the first entry with turnFrom >= fromEdge
+     */
+    int firstTurn(int fromEdge) {
+        int lo = 0, hi = turnFrom.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (turnFrom[mid] < fromEdge) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Cost of turning from one edge into the next at the node between them
+     *
+     * @return Seconds, 0 if the turn is not in the table, POSITIVE_INFINITY if it is forbidden
+     */
+    public double getTurnCostS(int fromEdge, int toEdge) {
+        if (!hasTurnCosts(edgeTarget[fromEdge])) return 0;
+        for (int i = firstTurn(fromEdge); i < turnFrom.length && turnFrom[i] == fromEdge; i++) {
+            if (turnTo[i] == toEdge) {
+                int cost = turnCost[i] & 0xFF;
+                return cost == TURN_FORBIDDEN ? Double.POSITIVE_INFINITY : cost;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Find the directed edge closest to a coordinate
+     *
+     * Looks at the outgoing edges of every node in the 3x3 grid cells around
+     * the point, so edges whose endpoints are both more than one cell away
+     * are not found.
+     *
+     * @param lat Query latitude
+     * @param lon Query longitude
+     * @param maxDistanceM Ignore edges farther than this
+     * @param headingDeg Travel heading to prefer (0 = north), or NaN for none
+     * @param out Receives the result
+     * @return true if an edge was found
+     */
+    public boolean snap(double lat, double lon, double maxDistanceM, double headingDeg, Snap out) {
+        return snap(lat, lon, maxDistanceM, headingDeg, RoutingProfile.CAR, out);
+    }
+
+    /**
+     * Find the closest directed edge the profile may use
+     *
+     * @see #snap(double, double, double, double, Snap)
+     */
+    public boolean snap(double lat, double lon, double maxDistanceM, double headingDeg, RoutingProfile profile,
+                        Snap out) {
+        int row = (int) Math.floor((lat - minLat) / GRID_CELL_DEG);
+        int col = (int) Math.floor((lon - minLon) / GRID_CELL_DEG);
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double best = Double.MAX_VALUE;
+        boolean found = false;
+
+        for (int r = row - 1; r <= row + 1; r++) {
+            if (r < 0 || r >= gridRows) continue;
+            for (int c = col - 1; c <= col + 1; c++) {
+                if (c < 0 || c >= gridCols) continue;
+                int cell = r * gridCols + c;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    int u = cellNodes[i];
+                    for (int e = firstEdge[u]; e < firstEdge[u + 1]; e++) {
+                        if (!allows(profile, e)) continue;
+                        int v = edgeTarget[e];
+                        // Local equirectangular projection around the query point, in meters
+                        double ax = (nodeLon[u] / COORD_SCALE - lon) * cosLat;
+                        double ay = nodeLat[u] / COORD_SCALE - lat;
+                        double bx = (nodeLon[v] / COORD_SCALE - lon) * cosLat;
+                        double by = nodeLat[v] / COORD_SCALE - lat;
+                        double dx = bx - ax, dy = by - ay;
+                        double len2 = dx * dx + dy * dy;
+                        double t = len2 > 0 ? -(ax * dx + ay * dy) / len2 : 0;
+                        if (t < 0) t = 0;
+                        else if (t > 1) t = 1;
+                        double qx = ax + t * dx, qy = ay + t * dy;
+                        double d = Math.toRadians(Math.hypot(qx, qy)) * EARTH_RADIUS_M;
+                        if (d > maxDistanceM) continue;
+
+                        double score = d;
+                        if (!Double.isNaN(headingDeg) && len2 > 0) {
+                            double edgeHeading = Math.toDegrees(Math.atan2(dx, dy));
+                            double diff = Math.abs(((edgeHeading - headingDeg) % 360 + 540) % 360 - 180);
+                            if (diff > 90) continue;            // Wrong direction of a two-way road
+                            score += diff * 0.2;                // 1 m penalty per 5 degrees off
+                        }
+                        if (score < best) {
+                            best = score;
+                            found = true;
+                            out.edge = e;
+                            out.fraction = t;
+                            out.distanceM = d;
+                            out.lat = lat + qy;
+                            out.lon = lon + qx / cosLat;
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Great-circle distance between two coordinates in meters
+     */
+    public static double distanceM(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Access bits for a graph without profile data: vehicles everywhere, walkers off the fast roads
+     */
+    private static byte[] defaultAccess(byte[] edgeSpeed) {
+        int vehicles = RoutingProfile.CAR.accessBit | RoutingProfile.MOTORCYCLE.accessBit;
+        byte[] access = new byte[edgeSpeed.length];
+        for (int e = 0; e < access.length; e++) {
+            boolean walkable = (edgeSpeed[e] & 0xFF) < FOOT_MAX_ROAD_KMH;
+            access[e] = (byte) (walkable ? vehicles | RoutingProfile.FOOT.accessBit : vehicles);
+        }
+        return access;
+    }
+
+    private static byte[] defaultSpeeds(RoutingProfile profile, byte[] edgeSpeed) {
+        byte[] speeds = new byte[edgeSpeed.length];
+        for (int e = 0; e < speeds.length; e++) {
+            int car = edgeSpeed[e] & 0xFF;
+            speeds[e] = (byte) (profile == RoutingProfile.FOOT ? FOOT_SPEED_KMH
+                    : profile == RoutingProfile.MOTORCYCLE ? Math.min(car, MOTORCYCLE_MAX_KMH) : car);
+        }
+        return speeds;
+    }
+
+    private int cellOf(int node) {
+        int r = (int) ((nodeLat[node] / COORD_SCALE - minLat) / GRID_CELL_DEG);
+        int c = (int) ((nodeLon[node] / COORD_SCALE - minLon) / GRID_CELL_DEG);
+        return r * gridCols + c;
+    }
+
+    static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] a = new int[count];
+        byte[] chunk = new byte[4 * Math.min(count, 1 << 14)];     // Bulk reads, not one readInt() per value
+        for (int i = 0; i < count; ) {
+            int n = Math.min(count - i, chunk.length / 4);
+            in.readFully(chunk, 0, 4 * n);
+            ByteBuffer.wrap(chunk, 0, 4 * n).asIntBuffer().get(a, i, n);
+            i += n;
+        }
+        return a;
+    }
+
+    static void writeInts(DataOutputStream out, int[] a) throws IOException {
+        for (int v : a) {
+            out.writeInt(v);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * RouteCache - Recently computed offline routes, keyed by destination
+ *
+ * Filled ahead of time by RoutePrecomputer. A cached route is reused only
+ * while the requested start is close to the position it was computed from
+ * and the route is still fresh, so it never sends the driver somewhere far
+ * from where they actually are. Least recently used entries are evicted.
+ *
+ * Thread-safe.
+ */
+package com.example.offlinenav;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RouteCache {
+
+    private static final int MAX_ENTRIES = 32;
+    static final double MAX_ORIGIN_OFFSET_M = 150;           // Start may have moved this far
+    static final long MAX_AGE_MS = 15 * 60 * 1000L;          // Traffic-dependent ETAs go stale
+    private static final double KEY_SCALE = 1e5;             // Destination key resolution (~1 m)
+
+    private static final Metrics.Counter HITS = Metrics.counter("route.cache.hit");
+    private static final Metrics.Counter MISSES = Metrics.counter("route.cache.miss");
+
+    /**
+     * A cached route and where and when it was computed
+     */
+    public static class Entry {
+        public final OfflineRouter.Route route;
+        public final double originLat, originLon;
+        public final long computedMs;
+
+        Entry(OfflineRouter.Route route, double originLat, double originLon, long computedMs) {
+            this.route = route;
+            this.originLat = originLat;
+            this.originLon = originLon;
+            this.computedMs = computedMs;
+        }
+    }
+
+    private final LinkedHashMap<Long, Entry> entries =
+            new LinkedHashMap<Long, Entry>(MAX_ENTRIES * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, RouteCache.Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    private int hits, misses;
+
+    public synchronized void put(double destLat, double destLon, OfflineRouter.Route route,
+                                 double originLat, double originLon, long computedMs) {
+        entries.put(key(destLat, destLon), new Entry(route, originLat, originLon, computedMs));
+    }
+
+    /**
+     * A fresh route to the destination from near the given start
+     *
+     * @param originLat Requested start; NaN (no position) never matches
+     * @return The entry, or null on a miss
+     */
+    public synchronized Entry get(double destLat, double destLon, double originLat, double originLon, long nowMs) {
+        Entry e = entries.get(key(destLat, destLon));
+        boolean usable = e != null && nowMs - e.computedMs <= MAX_AGE_MS
+                && !Double.isNaN(originLat) && !Double.isNaN(originLon)
+                && RoadGraph.distanceM(originLat, originLon, e.originLat, e.originLon) <= MAX_ORIGIN_OFFSET_M;
+        if (usable) {
+            hits++;
+            HITS.inc();
+            return e;
+        }
+        misses++;
+        MISSES.inc();
+        return null;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized String getStatsSummary() {
+        return "Route cache: " + entries.size() + " routes, " + hits + " hits, " + misses + " misses";
+    }
+
+    private static long key(double lat, double lon) {
+        long latKey = Math.round((lat + 90) * KEY_SCALE);
+        long lonKey = Math.round((lon + 180) * KEY_SCALE);
+        return latKey * 36_000_001L + lonKey;
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * RoutingProfile - Travel mode the offline router searches for
+ *
+ * All profiles share one RoadGraph. The graph keeps one access bit per
+ * profile and one speed byte per profile for every edge (see RoadGraph),
+ * so switching profiles only changes which bit and which speed array the
+ * router reads.
+ *
+ * Vehicles obey one-ways, turn restrictions and the U-turn cost; on foot
+ * both directions of every walkable way are usable and turns are free.
+ * Learned traffic speeds come from trips recorded by car and slow down
+ * vehicles only.
+ */
+package com.example.offlinenav;
+
+public enum RoutingProfile {
+    CAR("Car", 40),
+    MOTORCYCLE("Motorcycle", 40),
+    FOOT("Foot", 5);
+
+    public final String label;
+    public final int typicalSpeedKmh;        // Door-to-door average, for estimates without a route
+    final int accessBit;                     // Bit in RoadGraph's per-edge access byte
+
+    RoutingProfile(String label, int typicalSpeedKmh) {
+        this.label = label;
+        this.typicalSpeedKmh = typicalSpeedKmh;
+        this.accessBit = 1 << ordinal();
+    }
+
+    /**
+     * Whether turn restrictions, U-turn costs and learned traffic speeds apply
+     */
+    public boolean isVehicle() {
+        return this != FOOT;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * SpeedProfileLearner - Folds recorded trips into SpeedProfiles
+ *
+ * Map-matches each fix of a TripRecorder log to the nearest edge heading the
+ * same way as the vehicle, averages the observed speed over each traversal of
+ * an edge and folds that one sample into the edge's hour-of-week profile.
+ * Only trips recorded by car are folded: the profiles hold car traffic
+ * speeds, and walking or riding through traffic would skew them.
+ *
+ * Trip files are processed in name (= start time) order and the name of the
+ * last one folded is stored with the profiles, so each run only reads trips
+ * recorded since the previous run and never reprocesses history.
+ */
+package com.example.offlinenav;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+public class SpeedProfileLearner {
+
+    private static final double MATCH_RADIUS_M = 25;        // Plus fix accuracy, capped below
+    private static final double MAX_MATCH_RADIUS_M = 40;
+    private static final float MAX_ACCURACY_M = 30;         // Noisier fixes are ignored
+    private static final double MIN_SPEED_MPS = 0.5;        // Parked, not traffic
+    private static final double MAX_SPEED_MPS = 200 / 3.6;  // GPS glitch
+    private static final double MIN_MOVE_FOR_HEADING_M = 5;
+    private static final long MAX_FIX_GAP_MS = 30_000;      // Larger gaps break the trace
+
+    private final SpeedProfiles profiles;
+    private final TimeZone zone;
+    private final RoadGraph.Snap snap = new RoadGraph.Snap();
+
+    // Current edge traversal
+    private int runEdge = -1;
+    private int runHour;
+    private double runSpeedSum;
+    private int runSamples;
+
+    public SpeedProfileLearner(SpeedProfiles profiles, TimeZone zone) {
+        this.profiles = profiles;
+        this.zone = zone;
+    }
+
+    /**
+     * Fold every finished trip recorded since the last run
+     *
+     * @param tripsDir Directory of TripRecorder files
+     * @param skipName Trip file still being written (not folded yet), may be null
+     * @return Number of fixes that matched an edge
+     */
+    public long foldNewTrips(File tripsDir, String skipName) throws IOException {
+        File[] files = tripsDir.listFiles();
+        if (files == null) return 0;
+        List<String> pending = new ArrayList<>();
+        String watermark = profiles.getLastFoldedTrip();
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith("trip-") && name.endsWith(".bin")
+                    && name.compareTo(watermark) > 0 && !name.equals(skipName)) {
+                pending.add(name);
+            }
+        }
+        Collections.sort(pending);
+
+        long matched = 0;
+        for (String name : pending) {
+            if (skipName != null && name.compareTo(skipName) > 0) break;  // Keep the watermark contiguous
+            matched += foldTrip(new File(tripsDir, name));
+            profiles.setLastFoldedTrip(name);
+        }
+        return matched;
+    }
+
+    /**
+     * Fold one trip file, skipping trips not recorded by car
+     *
+     * @return Number of fixes that matched an edge
+     */
+    public long foldTrip(File trip) throws IOException {
+        long matched = 0;
+        boolean havePrev = false;
+        long prevTime = 0;
+        double prevLat = 0, prevLon = 0;
+        runEdge = -1;
+
+        try (TripLogReader reader = new TripLogReader(trip)) {
+            if (reader.getProfile() != RoutingProfile.CAR) return 0;
+            TripFix fix;
+            while ((fix = reader.next()) != null) {
+                if (!Float.isNaN(fix.accuracyM) && fix.accuracyM > MAX_ACCURACY_M) continue;
+
+                double heading = Double.NaN;
+                double speed = Float.isNaN(fix.speedMps) ? Double.NaN : fix.speedMps;
+                if (havePrev && fix.timeMs - prevTime <= MAX_FIX_GAP_MS) {
+                    double moved = RoadGraph.distanceM(prevLat, prevLon, fix.latitude, fix.longitude);
+                    if (moved >= MIN_MOVE_FOR_HEADING_M) {
+                        heading = bearing(prevLat, prevLon, fix.latitude, fix.longitude);
+                    }
+                    if (Double.isNaN(speed) && fix.timeMs > prevTime) {
+                        speed = moved / ((fix.timeMs - prevTime) / 1000.0);
+                    }
+                } else {
+                    endRun();  // Gap in the trace: don't merge across it
+                }
+                havePrev = true;
+                prevTime = fix.timeMs;
+                prevLat = fix.latitude;
+                prevLon = fix.longitude;
+
+                if (Double.isNaN(speed) || speed < MIN_SPEED_MPS || speed > MAX_SPEED_MPS) continue;
+                double radius = Math.min(MAX_MATCH_RADIUS_M,
+                        MATCH_RADIUS_M + (Float.isNaN(fix.accuracyM) ? 0 : fix.accuracyM));
+                if (!profiles.getGraph().snap(fix.latitude, fix.longitude, radius, heading, snap)) continue;
+
+                matched++;
+                if (snap.edge != runEdge) {
+                    endRun();
+                    runEdge = snap.edge;
+                    runHour = SpeedProfiles.hourOfWeek(fix.timeMs, zone);
+                }
+                runSpeedSum += speed;
+                runSamples++;
+            }
+        }
+        endRun();
+        return matched;
+    }
+
+    /**
+     * Fold the mean speed of the current edge traversal as one sample
+     */
+    private void endRun() {
+        if (runEdge >= 0 && runSamples > 0) {
+            profiles.fold(runEdge, runHour, runSpeedSum / runSamples * 3.6);
+        }
+        runEdge = -1;
+        runSpeedSum = 0;
+        runSamples = 0;
+    }
+
+    private static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        double dx = (lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double dy = lat2 - lat1;
+        double deg = Math.toDegrees(Math.atan2(dx, dy));
+        return deg < 0 ? deg + 360 : deg;
+    }
+}
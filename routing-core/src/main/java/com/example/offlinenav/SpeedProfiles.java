@@ -0,0 +1,224 @@
+/**
+ * SpeedProfiles - Learned per-edge, per-hour-of-week travel speeds
+ *
+ * Only edges we have actually driven get a profile, so storage is sparse:
+ * slotOf[edge] points at a slot holding 168 quantized speeds (km/h, one byte
+ * per hour of the week, Monday 00:00 = hour 0) and 168 saturating sample
+ * counts. Hours without enough samples fall back to the graph's free-flow
+ * speed, so a fresh install behaves exactly like the plain graph.
+ *
+ * File format (roads.speeds, next to roads.graph, big-endian):
+ *   "ONSPEED" (7 bytes), version int, edgeCount int, slotCount int,
+ *   lastFoldedTrip UTF,
+ *   per slot: edge int, speeds byte[168], counts byte[168]
+ *
+ * Instances are not thread-safe for writes; the learner folds into a copy()
+ * and the copy is published in place of the original.
+ */
+package com.example.offlinenav;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+public class SpeedProfiles {
+
+    static final byte[] MAGIC = {'O', 'N', 'S', 'P', 'E', 'E', 'D'};
+    static final int VERSION = 1;
+    public static final int HOURS_PER_WEEK = 168;
+    private static final int MIN_SAMPLES = 3;        // Fewer samples than this => free-flow speed
+    private static final int AVERAGE_WINDOW = 32;    // Running mean turns into an EWMA after this many samples
+    private static final int MIN_SPEED_KMH = 3;      // Floor so a single jam sample can't block an edge
+
+    private final RoadGraph graph;
+    private final int[] slotOf;                      // Edge id -> slot, -1 if no profile
+    private int slotCount;
+    private int[] slotEdge;
+    private byte[] speeds;                           // slot * 168 + hour -> km/h (unsigned)
+    private byte[] counts;                           // slot * 168 + hour -> samples (saturating)
+    private int maxLearnedKmh;                       // Highest speed ever stored, bounds the A* heuristic
+    private String lastFoldedTrip = "";              // Trip files up to this name are already folded in
+
+    public SpeedProfiles(RoadGraph graph) {
+        this.graph = graph;
+        slotOf = new int[graph.getEdgeCount()];
+        Arrays.fill(slotOf, -1);
+        slotEdge = new int[16];
+        speeds = new byte[16 * HOURS_PER_WEEK];
+        counts = new byte[16 * HOURS_PER_WEEK];
+    }
+
+    /**
+     * Load profiles for a graph, or return empty profiles if the file is missing
+     *
+     * A file written for a different graph (edge count mismatch) is ignored.
+     */
+    public static SpeedProfiles load(RoadGraph graph, File file) throws IOException {
+        SpeedProfiles p = new SpeedProfiles(graph);
+        if (!file.exists()) return p;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            for (byte b : MAGIC) {
+                if (in.readByte() != b) throw new IOException("Not a speed profile file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported speed profile version " + version);
+            if (in.readInt() != graph.getEdgeCount()) {
+                return p;  // Graph was replaced; profiles no longer line up with edge ids
+            }
+            int slots = in.readInt();
+            p.lastFoldedTrip = in.readUTF();
+            p.ensureCapacity(slots);
+            for (int s = 0; s < slots; s++) {
+                int edge = in.readInt();
+                p.slotEdge[s] = edge;
+                p.slotOf[edge] = s;
+                in.readFully(p.speeds, s * HOURS_PER_WEEK, HOURS_PER_WEEK);
+                in.readFully(p.counts, s * HOURS_PER_WEEK, HOURS_PER_WEEK);
+            }
+            p.slotCount = slots;
+            for (int i = 0; i < slots * HOURS_PER_WEEK; i++) {
+                p.maxLearnedKmh = Math.max(p.maxLearnedKmh, p.speeds[i] & 0xFF);
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Write profiles atomically (temp file + rename)
+     */
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(graph.getEdgeCount());
+            out.writeInt(slotCount);
+            out.writeUTF(lastFoldedTrip);
+            for (int s = 0; s < slotCount; s++) {
+                out.writeInt(slotEdge[s]);
+                out.write(speeds, s * HOURS_PER_WEEK, HOURS_PER_WEEK);
+                out.write(counts, s * HOURS_PER_WEEK, HOURS_PER_WEEK);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /**
+     * @return Independent copy for the learner to fold into
+     */
+    public SpeedProfiles copy() {
+        SpeedProfiles p = new SpeedProfiles(graph);
+        System.arraycopy(slotOf, 0, p.slotOf, 0, slotOf.length);
+        p.slotCount = slotCount;
+        p.slotEdge = Arrays.copyOf(slotEdge, Math.max(16, slotCount));
+        p.speeds = Arrays.copyOf(speeds, Math.max(16, slotCount) * HOURS_PER_WEEK);
+        p.counts = Arrays.copyOf(counts, Math.max(16, slotCount) * HOURS_PER_WEEK);
+        p.lastFoldedTrip = lastFoldedTrip;
+        p.maxLearnedKmh = maxLearnedKmh;
+        return p;
+    }
+
+    public RoadGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Expected speed on an edge at an hour of the week
+     *
+     * @return Speed in km/h, learned if enough samples exist, free-flow otherwise
+     */
+    public int speedKmh(int edge, int hourOfWeek) {
+        int slot = slotOf[edge];
+        if (slot >= 0) {
+            int i = slot * HOURS_PER_WEEK + hourOfWeek;
+            if ((counts[i] & 0xFF) >= MIN_SAMPLES) {
+                return speeds[i] & 0xFF;
+            }
+        }
+        return Math.max(MIN_SPEED_KMH, graph.getEdgeSpeedKmh(edge));
+    }
+
+    /**
+     * Expected time to traverse a whole edge, used as routing weight and for ETA
+     *
+     * @return Seconds
+     */
+    public double travelTimeS(int edge, int hourOfWeek) {
+        return graph.getEdgeLengthM(edge) * 3.6 / speedKmh(edge, hourOfWeek);
+    }
+
+    /**
+     * Fold one observed speed into an edge's profile
+     *
+     * A running mean for the first AVERAGE_WINDOW samples, then an exponential
+     * moving average so profiles keep tracking changes in traffic.
+     */
+    public void fold(int edge, int hourOfWeek, double observedKmh) {
+        int slot = slotOf[edge];
+        if (slot < 0) {
+            ensureCapacity(slotCount + 1);
+            slot = slotCount++;
+            slotOf[edge] = slot;
+            slotEdge[slot] = edge;
+        }
+        int i = slot * HOURS_PER_WEEK + hourOfWeek;
+        int n = counts[i] & 0xFF;
+        double old = speeds[i] & 0xFF;
+        double updated = n == 0 ? observedKmh : old + (observedKmh - old) / Math.min(n + 1, AVERAGE_WINDOW);
+        speeds[i] = (byte) Math.max(MIN_SPEED_KMH, Math.min(255, Math.round(updated)));
+        maxLearnedKmh = Math.max(maxLearnedKmh, speeds[i] & 0xFF);
+        if (n < 255) counts[i] = (byte) (n + 1);
+    }
+
+    /**
+     * Upper bound on any speed speedKmh() can return
+     *
+     * @return km/h, the larger of the fastest car edge and the fastest learned speed
+     */
+    public int getMaxSpeedKmh() {
+        return Math.max(maxLearnedKmh, graph.getMaxSpeedKmh(RoutingProfile.CAR));
+    }
+
+    public int getProfiledEdgeCount() {
+        return slotCount;
+    }
+
+    public String getLastFoldedTrip() {
+        return lastFoldedTrip;
+    }
+
+    public void setLastFoldedTrip(String name) {
+        lastFoldedTrip = name;
+    }
+
+    /**
+     * Hour of the week of a timestamp in a time zone, Monday 00:00 = 0
+     */
+    public static int hourOfWeek(long timeMs, TimeZone zone) {
+        long local = timeMs + zone.getOffset(timeMs);
+        long localHours = local >= 0 ? local / 3_600_000L : (local + 1) / 3_600_000L - 1;
+        // 1970-01-01 was a Thursday, 72 hours after the start of its week
+        int how = (int) ((localHours + 72) % HOURS_PER_WEEK);
+        return how < 0 ? how + HOURS_PER_WEEK : how;
+    }
+
+    private void ensureCapacity(int slots) {
+        if (slots <= slotEdge.length) return;
+        int size = Math.max(slots, slotEdge.length * 2);
+        slotEdge = Arrays.copyOf(slotEdge, size);
+        speeds = Arrays.copyOf(speeds, size * HOURS_PER_WEEK);
+        counts = Arrays.copyOf(counts, size * HOURS_PER_WEEK);
+    }
+}
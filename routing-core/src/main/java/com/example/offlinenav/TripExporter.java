@@ -0,0 +1,103 @@
+/**
+ * TripExporter - Streaming GPX and GeoJSON export of recorded trips
+ *
+ * Reads a TripRecorder file fix by fix and writes each point straight to the
+ * output Writer, so exporting a multi-hour trip uses constant memory.
+ */
+package com.example.offlinenav;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class TripExporter {
+
+    private TripExporter() {}
+
+    /**
+     * Write a trip as a GPX 1.1 track with one trkpt per fix
+     *
+     * @param trip TripRecorder file to export
+     * @param out Destination writer (not closed)
+     * @return Number of points written
+     */
+    public static long writeGpx(File trip, Writer out) throws IOException {
+        SimpleDateFormat iso = isoFormat();
+        long count = 0;
+        try (TripLogReader reader = new TripLogReader(trip)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<gpx version=\"1.1\" creator=\"OfflineNavApp\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+            out.write("<trk><name>" + trip.getName() + "</name><trkseg>\n");
+            TripFix fix;
+            while ((fix = reader.next()) != null) {
+                out.write(String.format(Locale.US, "<trkpt lat=\"%.6f\" lon=\"%.6f\"><time>%s</time>",
+                        fix.latitude, fix.longitude, iso.format(new Date(fix.timeMs))));
+                if (!Float.isNaN(fix.speedMps) || !Float.isNaN(fix.accuracyM)) {
+                    // GPX 1.1 has no speed element; keep it as an extension like most loggers do
+                    out.write("<extensions>");
+                    if (!Float.isNaN(fix.speedMps)) {
+                        out.write(String.format(Locale.US, "<speed>%.1f</speed>", fix.speedMps));
+                    }
+                    if (!Float.isNaN(fix.accuracyM)) {
+                        out.write(String.format(Locale.US, "<accuracy>%.1f</accuracy>", fix.accuracyM));
+                    }
+                    out.write("</extensions>");
+                }
+                out.write("</trkpt>\n");
+                count++;
+            }
+            out.write("</trkseg></trk>\n</gpx>\n");
+        }
+        out.flush();
+        return count;
+    }
+
+    /**
+     * Write a trip as a GeoJSON Feature with a LineString geometry
+     *
+     * Fix times go into the "coordTimes" property, parallel to the coordinates.
+     * The trip file is read twice rather than buffering the times in memory.
+     *
+     * @param trip TripRecorder file to export
+     * @param out Destination writer (not closed)
+     * @return Number of points written
+     */
+    public static long writeGeoJson(File trip, Writer out) throws IOException {
+        SimpleDateFormat iso = isoFormat();
+        long count = 0;
+        out.write("{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+        try (TripLogReader reader = new TripLogReader(trip)) {
+            TripFix fix;
+            while ((fix = reader.next()) != null) {
+                if (count > 0) out.write(',');
+                out.write(String.format(Locale.US, "[%.6f,%.6f]", fix.longitude, fix.latitude));
+                count++;
+            }
+        }
+        out.write("]},\"properties\":{\"name\":\"" + trip.getName() + "\",\"coordTimes\":[");
+        try (TripLogReader reader = new TripLogReader(trip)) {
+            TripFix fix;
+            boolean first = true;
+            while ((fix = reader.next()) != null) {
+                if (!first) out.write(',');
+                out.write('"');
+                out.write(iso.format(new Date(fix.timeMs)));
+                out.write('"');
+                first = false;
+            }
+        }
+        out.write("]}}\n");
+        out.flush();
+        return count;
+    }
+
+    private static SimpleDateFormat isoFormat() {
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return iso;
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * TripFix - Data model for one recorded location fix
+ *
+ * Simple POJO used by TripRecorder, TripLogReader and TripExporter.
+ * Reader instances reuse a single TripFix while streaming, so callers
+ * must copy the fields they want to keep.
+ */
+package com.example.offlinenav;
+
+public class TripFix {
+
+    public long timeMs;          // Fix time in milliseconds since epoch
+    public double latitude;      // Latitude in degrees (1e-6 precision on disk)
+    public double longitude;     // Longitude in degrees (1e-6 precision on disk)
+    public float speedMps;       // Speed in m/s, NaN when the fix had none
+    public float accuracyM;      // Horizontal accuracy in meters, NaN when unknown
+}
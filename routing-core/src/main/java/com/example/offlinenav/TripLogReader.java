@@ -0,0 +1,124 @@
+/**
+ * TripLogReader - Streaming reader for TripRecorder files
+ *
+ * Decodes one fix at a time into a reused TripFix so a multi-hour trip can
+ * be processed in constant memory. A record cut short by a crash is treated
+ * as the end of the trip.
+ */
+package com.example.offlinenav;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class TripLogReader implements Closeable {
+
+    private final InputStream in;
+    private final TripFix fix = new TripFix();   // Reused for every record
+    private final long startTime;
+    private final RoutingProfile profile;
+
+    // Delta decoding state
+    private long prevTime;
+    private int prevLat, prevLon;
+
+    public TripLogReader(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    public TripLogReader(InputStream stream) throws IOException {
+        in = new BufferedInputStream(stream, 8192);
+        for (byte b : TripRecorder.MAGIC) {
+            if (in.read() != b) {
+                in.close();
+                throw new IOException("Not a trip log");
+            }
+        }
+        int version = in.read();
+        if (version < 1 || version > TripRecorder.VERSION) {
+            in.close();
+            throw new IOException("Unsupported trip log version " + version);
+        }
+        long t = 0;
+        for (int i = 0; i < 8; i++) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Truncated trip header");
+            t = (t << 8) | b;
+        }
+        startTime = t;
+        prevTime = t;
+        if (version >= 2) {
+            int mode = in.read();
+            if (mode < 0) throw new EOFException("Truncated trip header");
+            if (mode >= RoutingProfile.values().length) throw new IOException("Unknown travel mode " + mode);
+            profile = RoutingProfile.values()[mode];
+        } else {
+            profile = RoutingProfile.CAR;  // Version 1 logs predate travel modes
+        }
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return Travel mode the trip was recorded in
+     */
+    public RoutingProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Decode the next fix
+     *
+     * @return The shared TripFix instance, or null at the end of the trip
+     */
+    public TripFix next() throws IOException {
+        long dTime, dLat, dLon, speed, accuracy;
+        try {
+            dTime = readSignedVarLong();
+            dLat = readSignedVarLong();
+            dLon = readSignedVarLong();
+            speed = readVarLong();
+            accuracy = readVarLong();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        prevTime += dTime;
+        prevLat += (int) dLat;
+        prevLon += (int) dLon;
+
+        fix.timeMs = prevTime;
+        fix.latitude = prevLat / TripRecorder.COORD_SCALE;
+        fix.longitude = prevLon / TripRecorder.COORD_SCALE;
+        fix.speedMps = speed == 0 ? Float.NaN : (speed - 1) / TripRecorder.TENTHS;
+        fix.accuracyM = accuracy == 0 ? Float.NaN : (accuracy - 1) / TripRecorder.TENTHS;
+        return fix;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private long readSignedVarLong() throws IOException {
+        long raw = readVarLong();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    private long readVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
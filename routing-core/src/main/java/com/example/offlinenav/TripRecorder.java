@@ -0,0 +1,187 @@
+/**
+ * TripRecorder - Append-only binary log of the fixes of one trip
+ *
+ * Each trip is a single file in the trips directory named trip-<start>.bin:
+ *
+ *   header: "ONTRIP" (6 bytes), version (1 byte), start time ms (8 bytes),
+ *           RoutingProfile ordinal (1 byte, version 2 and later)
+ *   record: zigzag varint  time delta (ms)
+ *           zigzag varint  latitude delta (1e-6 degrees)
+ *           zigzag varint  longitude delta (1e-6 degrees)
+ *           varint         speed in 0.1 m/s + 1 (0 = no speed)
+ *           varint         accuracy in 0.1 m + 1 (0 = no accuracy)
+ *
+ * Deltas are relative to the previous record (the header time and 0,0 for
+ * the first record). A trip has one travel mode; switching modes starts a
+ * new trip file. A fix while driving costs 6-9 bytes. Writes go through
+ * a small buffer and the file is fsync'd every SYNC_EVERY_FIXES fixes or
+ * SYNC_EVERY_MS, so a crash loses at most a few seconds; a torn trailing
+ * record is ignored by TripLogReader.
+ *
+ * Not thread-safe: call from a single background thread.
+ */
+package com.example.offlinenav;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+public class TripRecorder {
+
+    static final byte[] MAGIC = {'O', 'N', 'T', 'R', 'I', 'P'};
+    static final int VERSION = 2;                // 2: travel mode in the header
+    static final double COORD_SCALE = 1e6;       // Degrees to fixed-point
+    static final float TENTHS = 10f;             // Speed/accuracy fixed-point scale
+
+    private static final int SYNC_EVERY_FIXES = 32;
+    private static final long SYNC_EVERY_MS = 30_000;
+
+    private final File directory;                // Where trip files are created
+
+    // Open trip state
+    private File file;
+    private RoutingProfile profile;              // Travel mode of the open trip
+    private FileOutputStream fileOut;
+    private BufferedOutputStream out;
+    private long prevTime;
+    private int prevLat, prevLon;
+    private int unsyncedFixes;
+    private long lastSyncTime;
+    private long fixCount;
+
+    public TripRecorder(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Append one fix, starting a new trip file if none is open
+     *
+     * @param timeMs Fix time in milliseconds since epoch
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param speedMps Speed in m/s, or NaN if unknown
+     * @param accuracyM Horizontal accuracy in meters, or NaN if unknown
+     * @param mode Travel mode; a different mode than the open trip's starts a new trip
+     */
+    public void append(long timeMs, double latitude, double longitude, float speedMps, float accuracyM,
+                       RoutingProfile mode) throws IOException {
+        if (out != null && mode != profile) {
+            close();
+        }
+        if (out == null) {
+            open(timeMs, mode);
+        }
+
+        int lat = (int) Math.round(latitude * COORD_SCALE);
+        int lon = (int) Math.round(longitude * COORD_SCALE);
+
+        writeSignedVarLong(out, timeMs - prevTime);
+        writeSignedVarLong(out, lat - prevLat);
+        writeSignedVarLong(out, lon - prevLon);
+        writeVarLong(out, encodeOptional(speedMps));
+        writeVarLong(out, encodeOptional(accuracyM));
+
+        prevTime = timeMs;
+        prevLat = lat;
+        prevLon = lon;
+        fixCount++;
+
+        if (++unsyncedFixes >= SYNC_EVERY_FIXES || timeMs - lastSyncTime >= SYNC_EVERY_MS) {
+            sync(timeMs);
+        }
+    }
+
+    /**
+     * Flush, fsync and close the current trip; the next append starts a new one
+     */
+    public void close() throws IOException {
+        if (out == null) return;
+        try {
+            sync(prevTime);
+        } finally {
+            out.close();
+            out = null;
+            fileOut = null;
+        }
+    }
+
+    /**
+     * @return The file of the open trip, or null if none is open
+     */
+    public File getCurrentFile() {
+        return file;
+    }
+
+    public long getFixCount() {
+        return fixCount;
+    }
+
+    /**
+     * Find the most recent trip file in a directory
+     *
+     * @return Newest trip file, or null if there are none
+     */
+    public static File latestTrip(File directory) {
+        File[] files = directory.listFiles();
+        File latest = null;
+        if (files == null) return null;
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith("trip-") && name.endsWith(".bin")
+                    && (latest == null || name.compareTo(latest.getName()) > 0)) {
+                latest = f;
+            }
+        }
+        return latest;
+    }
+
+    private void open(long startTime, RoutingProfile mode) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        file = new File(directory, String.format(Locale.US, "trip-%013d.bin", startTime));
+        fileOut = new FileOutputStream(file, false);
+        out = new BufferedOutputStream(fileOut, 4096);
+
+        out.write(MAGIC);
+        out.write(VERSION);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (startTime >>> shift));
+        }
+        out.write(mode.ordinal());
+        profile = mode;
+
+        prevTime = startTime;
+        prevLat = 0;
+        prevLon = 0;
+        unsyncedFixes = 0;
+        lastSyncTime = startTime;
+        fixCount = 0;
+    }
+
+    private void sync(long now) throws IOException {
+        out.flush();
+        fileOut.getFD().sync();
+        unsyncedFixes = 0;
+        lastSyncTime = now;
+    }
+
+    private static long encodeOptional(float value) {
+        if (Float.isNaN(value) || value < 0) return 0;
+        return Math.round(value * TENTHS) + 1;
+    }
+
+    static void writeSignedVarLong(BufferedOutputStream out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static void writeVarLong(BufferedOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}